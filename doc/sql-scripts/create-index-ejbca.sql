@@ -21,6 +21,9 @@ CREATE INDEX certificatedata_idx4 ON CertificateData (subjectDN);
 CREATE INDEX certificatedata_idx5 ON CertificateData (type);
 CREATE INDEX certificatedata_idx6 ON CertificateData (issuerDN,status);
 CREATE INDEX certificatedata_idx7 ON CertificateData(certificateProfileId);
+-- CRL generation reads revoked certificates in fingerprint order per issuer. Databases where secondary indexes
+-- do not include the primary key (i.e. not MySQL/InnoDB) can use this index to avoid sorting each batch.
+-- CREATE INDEX certificatedata_idx15 ON CertificateData (issuerDN,status,fingerprint);
 -- The following index is currently needed for finding expired/expiring certificates
 -- CREATE INDEX certificatedata_idx8 ON CertificateData(expireDate, status);
 CREATE INDEX certificatedata_idx11 ON CertificateData (subjectKeyId);
@@ -198,6 +198,16 @@ CREATE TABLE InternalKeyBindingData (
     PRIMARY KEY (id)
 );
 
+CREATE TABLE CacheInvalidationData (
+    id BIGINT NOT NULL,
+    cacheName VARCHAR(254) NOT NULL,
+    cacheKey VARCHAR(254),
+    nodeId INTEGER NOT NULL,
+    rowProtection CLOB(10K),
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (id)
+);
+
 CREATE TABLE GlobalConfigurationData (
     configurationId VARCHAR(254) NOT NULL,
     data BLOB(200K) NOT NULL,
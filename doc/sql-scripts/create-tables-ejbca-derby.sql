@@ -198,6 +198,16 @@ CREATE TABLE InternalKeyBindingData (
     PRIMARY KEY (id)
 );
 
+CREATE TABLE CacheInvalidationData (
+    id BIGINT NOT NULL,
+    cacheName VARCHAR(256) NOT NULL,
+    cacheKey VARCHAR(256),
+    nodeId INTEGER NOT NULL,
+    rowProtection CLOB(10 K),
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (id)
+);
+
 CREATE TABLE GlobalConfigurationData (
     configurationId VARCHAR(256) NOT NULL,
     data BLOB NOT NULL,
@@ -198,6 +198,16 @@ CREATE TABLE InternalKeyBindingData (
     PRIMARY KEY (id)
 );
 
+CREATE TABLE CacheInvalidationData (
+    id DECIMAL(18,0) NOT NULL,
+    cacheName VARCHAR(255,0) NOT NULL,
+    cacheKey VARCHAR(255,0),
+    nodeId INTEGER NOT NULL,
+    rowProtection TEXT,
+    rowVersion INTEGER NOT NULL,
+    PRIMARY KEY (id)
+);
+
 CREATE TABLE GlobalConfigurationData (
     configurationId VARCHAR(255,0) NOT NULL,
     data BLOB NOT NULL,
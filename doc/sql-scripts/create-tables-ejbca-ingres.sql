@@ -198,6 +198,16 @@ CREATE TABLE InternalKeyBindingData (
     PRIMARY KEY (id)
 );
 
+CREATE TABLE CacheInvalidationData (
+    id INT8 NOT NULL,
+    cacheName VARCHAR(256) NOT NULL,
+    cacheKey VARCHAR(256),
+    nodeId INT4 NOT NULL,
+    rowProtection LONG VARCHAR,
+    rowVersion INT4 NOT NULL,
+    PRIMARY KEY (id)
+);
+
 CREATE TABLE GlobalConfigurationData (
     configurationId VARCHAR(256) NOT NULL,
     data LONG BYTE NOT NULL,
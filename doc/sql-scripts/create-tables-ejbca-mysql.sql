@@ -198,6 +198,16 @@ CREATE TABLE InternalKeyBindingData (
     PRIMARY KEY (id)
 );
 
+CREATE TABLE CacheInvalidationData (
+    id BIGINT(20) NOT NULL,
+    cacheName VARCHAR(250) BINARY NOT NULL,
+    cacheKey VARCHAR(250) BINARY,
+    nodeId INT(11) NOT NULL,
+    rowProtection LONGTEXT,
+    rowVersion INT(11) NOT NULL,
+    PRIMARY KEY (id)
+);
+
 CREATE TABLE GlobalConfigurationData (
     configurationId VARCHAR(250) BINARY NOT NULL,
     data LONGBLOB NOT NULL,
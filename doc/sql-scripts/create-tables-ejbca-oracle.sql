@@ -198,6 +198,16 @@ CREATE TABLE InternalKeyBindingData (
     PRIMARY KEY (id)
 );
 
+CREATE TABLE CacheInvalidationData (
+    id NUMBER(19) NOT NULL,
+    cacheName VARCHAR2(255 byte) NOT NULL,
+    cacheKey VARCHAR2(255 byte),
+    nodeId NUMBER(10) NOT NULL,
+    rowProtection CLOB,
+    rowVersion NUMBER(10) NOT NULL,
+    PRIMARY KEY (id)
+);
+
 CREATE TABLE GlobalConfigurationData (
     configurationId VARCHAR2(255 byte) NOT NULL,
     data BLOB NOT NULL,
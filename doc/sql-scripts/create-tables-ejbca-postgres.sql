@@ -198,6 +198,16 @@ CREATE TABLE InternalKeyBindingData (
     PRIMARY KEY (id)
 );
 
+CREATE TABLE CacheInvalidationData (
+    id INT8 NOT NULL,
+    cacheName TEXT NOT NULL,
+    cacheKey TEXT,
+    nodeId INT4 NOT NULL,
+    rowProtection TEXT,
+    rowVersion INT4 NOT NULL,
+    PRIMARY KEY (id)
+);
+
 CREATE TABLE GlobalConfigurationData (
     configurationId TEXT NOT NULL,
     data BYTEA NOT NULL,
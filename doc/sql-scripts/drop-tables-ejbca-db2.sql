@@ -14,6 +14,7 @@ drop table CertificateProfileData;
 drop table CryptoTokenData;
 drop table EndEntityProfileData;
 drop table InternalKeyBindingData;
+drop table CacheInvalidationData;
 drop table GlobalConfigurationData;
 drop table HardTokenCertificateMap;
 drop table HardTokenData;
@@ -16,6 +16,7 @@ drop table CertificateProfileData if exists;
 drop table CryptoTokenData if exists;
 drop table EndEntityProfileData if exists;
 drop table InternalKeyBindingData if exists;
+drop table CacheInvalidationData if exists;
 drop table GlobalConfigurationData if exists;
 drop table HardTokenCertificateMap if exists;
 drop table HardTokenData if exists;
@@ -14,6 +14,7 @@ drop table CertificateProfileData cascade constraints;
 drop table CryptoTokenData cascade constraints;
 drop table EndEntityProfileData cascade constraints;
 drop table InternalKeyBindingData cascade constraints;
+drop table CacheInvalidationData cascade constraints;
 drop table GlobalConfigurationData cascade constraints;
 drop table HardTokenCertificateMap cascade constraints;
 drop table HardTokenData cascade constraints;
@@ -15,6 +15,7 @@ DROP INDEX certificatedata_idx7 ON CertificateData;
 -- DROP INDEX certificatedata_idx8 ON CertificateData;
 DROP INDEX certificatedata_idx11 ON CertificateData;
 DROP INDEX certificatedata_idx12 ON CertificateData;
+-- DROP INDEX certificatedata_idx15 ON CertificateData;
 -- Only added when MySQL partition pruning is used:
 -- ALTER TABLE CertificateData DROP INDEX certificatedata_idx13;
 -- ALTER TABLE CertificateData DROP INDEX certificatedata_idx14;
@@ -59,6 +59,7 @@ import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.config.GlobalOcspConfiguration;
 import org.cesecore.config.OcspConfiguration;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
+import org.cesecore.internal.CacheInvalidationSessionLocal;
 import org.cesecore.keys.token.CryptoTokenFactory;
 import org.cesecore.util.CryptoProviderTools;
 import org.ejbca.config.EjbcaConfiguration;
@@ -95,6 +96,8 @@ public class StartServicesServlet extends HttpServlet {
     @EJB
     private CAAdminSessionLocal caAdminSession;
     @EJB
+    private CacheInvalidationSessionLocal cacheInvalidationSession;
+    @EJB
     private CertificateCreateSessionLocal certCreateSession;
     @EJB
     private CertificateProfileSessionLocal certificateProfileSession;
@@ -347,6 +350,8 @@ public class StartServicesServlet extends HttpServlet {
         ocspResponseGeneratorSession.initTimers();
         // Start CA certificate cache reload
         certificateStoreSession.initTimers();
+        // Start reading cache invalidations from other nodes
+        cacheInvalidationSession.initTimers();
         // Verify that the EJB CLI user (if present) cannot be used to generate certificates
         final String cliUsername = EjbcaConfiguration.getCliDefaultUser();
         try {
@@ -44,8 +44,8 @@ public abstract class LocalJvmOnlyAuthenticationToken extends AuthenticationToke
 		authToken = RANDOM_TOKEN;
 	}
 	
-	/** @return true if this */
-	protected final boolean isCreatedInThisJvm() {
+	/** @return true if this token was created in this JVM */
+	public final boolean isCreatedInThisJvm() {
 		boolean isCreatedInThisJvm = ArrayUtils.isEquals(authToken, RANDOM_TOKEN);
 		if (log.isTraceEnabled()) {
 			log.trace("isCreatedInThisJvm: "+isCreatedInThisJvm);
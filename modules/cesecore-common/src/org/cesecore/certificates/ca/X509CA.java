@@ -39,6 +39,8 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
@@ -109,6 +111,7 @@ import org.cesecore.certificates.ca.catoken.CATokenConstants;
 import org.cesecore.certificates.ca.extendedservices.ExtendedCAService;
 import org.cesecore.certificates.ca.extendedservices.ExtendedCAServiceInfo;
 import org.cesecore.certificates.ca.extendedservices.ExtendedCAServiceTypes;
+import org.cesecore.certificates.ca.internal.CertificateExtensionTemplate;
 import org.cesecore.certificates.ca.internal.CertificateValidity;
 import org.cesecore.certificates.ca.internal.SernoGeneratorRandom;
 import org.cesecore.certificates.certificate.CertificateConstants;
@@ -119,10 +122,14 @@ import org.cesecore.certificates.certificate.certextensions.CertificateExtension
 import org.cesecore.certificates.certificate.request.RequestMessage;
 import org.cesecore.certificates.certificateprofile.CertificatePolicy;
 import org.cesecore.certificates.certificateprofile.CertificateProfile;
+import org.cesecore.certificates.certificateprofile.CompiledCertificateProfile;
 import org.cesecore.certificates.certificatetransparency.CTLogException;
 import org.cesecore.certificates.certificatetransparency.CertificateTransparency;
 import org.cesecore.certificates.certificatetransparency.CertificateTransparencyFactory;
+import org.cesecore.certificates.crl.CRLEntryIndex;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.StreamedX509CRL;
+import org.cesecore.certificates.crl.StreamingX509CRLBuilder;
 import org.cesecore.certificates.endentity.EndEntityInformation;
 import org.cesecore.certificates.endentity.EndEntityType;
 import org.cesecore.certificates.endentity.EndEntityTypes;
@@ -184,6 +191,9 @@ public class X509CA extends CA implements Serializable {
 
     private static final CertificateTransparency ct = CertificateTransparencyFactory.getInstance();
 
+    /** Standard extensions that only depend on this CA and a certificate profile, by the compiled profile. Not stored with the CA. */
+    private transient Map<CompiledCertificateProfile, CertificateExtensionTemplate> extensionTemplates = null;
+
     // Public Methods
     /** Creates a new instance of CA, this constructor should be used when a new CA is created */
     public X509CA(final X509CAInfo cainfo) {
@@ -682,11 +692,13 @@ public class X509CA extends CA implements Serializable {
             throw new CAOfflineException(msg);
         }
 
+        // Typed values of the profile, that are only read from its data map when the profile has changed
+        final CompiledCertificateProfile compiledProfile = certProfile.getCompiled();
         final String sigAlg;
-        if (certProfile.getSignatureAlgorithm() == null) {
+        if (compiledProfile.getSignatureAlgorithm() == null) {
             sigAlg = getCAToken().getSignatureAlgorithm();
         } else {
-            sigAlg = certProfile.getSignatureAlgorithm();
+            sigAlg = compiledProfile.getSignatureAlgorithm();
         }
         // Check that the signature algorithm is one of the allowed ones
         if (!ArrayUtils.contains(AlgorithmConstants.AVAILABLE_SIGALGS, sigAlg)) {
@@ -694,7 +706,7 @@ public class X509CA extends CA implements Serializable {
             throw new InvalidAlgorithmException(msg);        	
         }
         // Check if this is a root CA we are creating
-        final boolean isRootCA = certProfile.getType() == CertificateConstants.CERTTYPE_ROOTCA;
+        final boolean isRootCA = compiledProfile.getType() == CertificateConstants.CERTTYPE_ROOTCA;
 
         final X509Certificate cacert = (X509Certificate) getCACertificate();
         // Check CA certificate PrivateKeyUsagePeriod if it exists (throws CAOfflineException if it exists and is not within this time)
@@ -707,7 +719,7 @@ public class X509CA extends CA implements Serializable {
             // Serialnumber is either random bits, where random generator is initialized by the serno generator.
             // Or a custom serial number defined in the end entity object
             final ExtendedInformation ei = subject.getExtendedinformation();
-            if (certProfile.getAllowCertSerialNumberOverride()) {
+            if (compiledProfile.getAllowCertSerialNumberOverride()) {
                 if (ei != null && ei.certificateSerialNumber()!=null) {
                     serno = ei.certificateSerialNumber();
                 } else {
@@ -724,7 +736,7 @@ public class X509CA extends CA implements Serializable {
 
         // Make DNs
         String dn = subject.getCertificateDN();
-        if (certProfile.getUseSubjectDNSubSet()) {
+        if (compiledProfile.getUseSubjectDNSubSet()) {
             dn = certProfile.createSubjectDNSubSet(dn);
         }
         
@@ -735,26 +747,26 @@ public class X509CA extends CA implements Serializable {
             nameStyle = CeSecoreNameStyle.INSTANCE;
         }
 
-        if (certProfile.getUseCNPostfix()) {
-            dn = CertTools.insertCNPostfix(dn, certProfile.getCNPostfix(), nameStyle);
+        if (compiledProfile.getUseCNPostfix()) {
+            dn = CertTools.insertCNPostfix(dn, compiledProfile.getCNPostfix(), nameStyle);
         }
         
         // Will we use LDAP DN order (CN first) or X500 DN order (CN last) for the subject DN
         final boolean ldapdnorder;
-        if ((getUseLdapDNOrder() == false) || (certProfile.getUseLdapDnOrder() == false)) {
+        if ((getUseLdapDNOrder() == false) || (compiledProfile.getUseLdapDnOrder() == false)) {
             ldapdnorder = false;
         } else {
             ldapdnorder = true;
         }
         final X500Name subjectDNName;
-        if (certProfile.getAllowDNOverride() && (request != null) && (request.getRequestX500Name() != null)) {
+        if (compiledProfile.getAllowDNOverride() && (request != null) && (request.getRequestX500Name() != null)) {
             subjectDNName = request.getRequestX500Name();
             if (log.isDebugEnabled()) {
                 log.debug("Using X509Name from request instead of user's registered.");
             }
         } else {
             final ExtendedInformation ei = subject.getExtendedinformation();
-            if (certProfile.getAllowDNOverrideByEndEntityInformation() && ei!=null && ei.getRawSubjectDn()!=null) {
+            if (compiledProfile.getAllowDNOverrideByEndEntityInformation() && ei!=null && ei.getRawSubjectDn()!=null) {
                 final String stripped = StringTools.strip(ei.getRawSubjectDn());
                 final String escapedPluses = CertTools.handleUnescapedPlus(stripped);
                 final String emptiesRemoved = DNFieldsUtil.removeAllEmpties(escapedPluses);
@@ -811,7 +823,7 @@ public class X509CA extends CA implements Serializable {
         final X509v3CertificateBuilder certbuilder = new X509v3CertificateBuilder(issuerDNName, serno, val.getNotBefore(), val.getNotAfter(), subjectDNName, pkinfo);
         
         // Only created and used if Certificate Transparency is enabled
-        final X509v3CertificateBuilder precertbuilder = certProfile.isUseCertificateTransparencyInCerts() ?
+        final X509v3CertificateBuilder precertbuilder = compiledProfile.isUseCertificateTransparencyInCerts() ?
             new X509v3CertificateBuilder(issuerDNName, serno, val.getNotBefore(), val.getNotAfter(), subjectDNName, pkinfo) : null;
         
         
@@ -819,7 +831,7 @@ public class X509CA extends CA implements Serializable {
         if (cacert instanceof X509Certificate) {
             GeneralNames altNameGNs = null;
             String altName = subject.getSubjectAltName(); 
-            if(certProfile.getUseSubjectAltNameSubSet()){
+            if(compiledProfile.getUseSubjectAltNameSubSet()){
                 altName = certProfile.createSubjectAltNameSubSet(altName);
             }
             if (altName != null && altName.length() > 0) {
@@ -835,7 +847,7 @@ public class X509CA extends CA implements Serializable {
             final List<String> excludedNC = ei.getNameConstraintsExcluded();
             if ((permittedNC != null && !permittedNC.isEmpty()) ||
                 (excludedNC != null && !excludedNC.isEmpty())) {
-                if (!certProfile.getUseNameConstraints()) {
+                if (!compiledProfile.getUseNameConstraints()) {
                     throw new CertificateCreateException("Tried to issue a certificate with Name Constraints without having enabled NC in the certificate profile.");
                 }
             }
@@ -851,7 +863,7 @@ public class X509CA extends CA implements Serializable {
 
         // First we check if there is general extension override, and add all extensions from
         // the request in that case
-        if (certProfile.getAllowExtensionOverride() && extensions != null) {
+        if (compiledProfile.getAllowExtensionOverride() && extensions != null) {
             ASN1ObjectIdentifier[] oids = extensions.getExtensionOIDs();
             for(ASN1ObjectIdentifier oid : oids ) {
                 final Extension ext = extensions.getExtension(oid);
@@ -868,18 +880,18 @@ public class X509CA extends CA implements Serializable {
 
         // Second we see if there is Key usage override
         Extensions overridenexts = extgen.generate();
-        if (certProfile.getAllowKeyUsageOverride() && (keyusage >= 0)) {
+        if (compiledProfile.getAllowKeyUsageOverride() && (keyusage >= 0)) {
             if (log.isDebugEnabled()) {
                 log.debug("AllowKeyUsageOverride=true. Using KeyUsage from parameter: " + keyusage);
             }
-            if ((certProfile.getUseKeyUsage() == true) && (keyusage >= 0)) {
+            if ((compiledProfile.getUseKeyUsage() == true) && (keyusage >= 0)) {
                 final KeyUsage ku = new KeyUsage(keyusage);
                 // We don't want to try to add custom extensions with the same oid if we have already added them
                 // from the request, if AllowExtensionOverride is enabled.
                 // Two extensions with the same oid is not allowed in the standard.
                 if (overridenexts.getExtension(Extension.keyUsage) == null) {
                     try {
-                        extgen.addExtension(Extension.keyUsage, certProfile.getKeyUsageCritical(), ku);
+                        extgen.addExtension(Extension.keyUsage, compiledProfile.getKeyUsageCritical(), ku);
                     } catch (IOException e) {
                         throw new IllegalStateException("Caught unexpected IOException.", e);
                     }
@@ -895,21 +907,26 @@ public class X509CA extends CA implements Serializable {
         // Standard certificate extensions are defined in CertificateProfile and CertificateExtensionFactory
         // and implemented in package org.ejbca.core.model.certextensions.standard
         final CertificateExtensionFactory fact = CertificateExtensionFactory.getInstance();
-        final List<String> usedStdCertExt = certProfile.getUsedStandardCertificateExtensions();
-        final Iterator<String> certStdExtIter = usedStdCertExt.iterator();
         overridenexts = extgen.generate();
-        while (certStdExtIter.hasNext()) {
-            final String oid = certStdExtIter.next();
+        final CertificateExtensionTemplate extensionTemplate = getExtensionTemplate(compiledProfile, caPublicKey, cacert);
+        for (final ASN1ObjectIdentifier oid : compiledProfile.getUsedStandardCertificateExtensions()) {
             // We don't want to try to add standard extensions with the same oid if we have already added them
             // from the request, if AllowExtensionOverride is enabled.
             // Two extensions with the same oid is not allowed in the standard.
-            if (overridenexts.getExtension(new ASN1ObjectIdentifier(oid)) == null) {
-                final CertificateExtension certExt = fact.getStandardCertificateExtension(oid, certProfile);
-                if (certExt != null) {
-                    final byte[] value = certExt.getValueEncoded(subject, this, certProfile, publicKey, caPublicKey, val);
-                    if (value != null) {
-                        extgen.addExtension(new ASN1ObjectIdentifier(certExt.getOID()), certExt.isCriticalFlag(), value);
+            if (overridenexts.getExtension(oid) == null) {
+                final Extension extension;
+                if (CertificateExtensionTemplate.isTemplateExtension(oid)) {
+                    // The same for all certificates of this CA and profile, so it is only created for the first one
+                    if (!extensionTemplate.contains(oid)) {
+                        extensionTemplate.addExtension(oid,
+                                createStandardExtension(fact, oid, subject, certProfile, publicKey, caPublicKey, val));
                     }
+                    extension = extensionTemplate.getExtension(oid);
+                } else {
+                    extension = createStandardExtension(fact, oid, subject, certProfile, publicKey, caPublicKey, val);
+                }
+                if (extension != null) {
+                    extgen.addExtension(extension.getExtnId(), extension.isCritical(), extension.getExtnValue().getOctets());
                 }
             } else {
                 if (log.isDebugEnabled()) {
@@ -920,10 +937,7 @@ public class X509CA extends CA implements Serializable {
 
         // Fourth, check for custom Certificate Extensions that should be added.
         // Custom certificate extensions is defined in certextensions.properties
-        final List<Integer> usedCertExt = certProfile.getUsedCertificateExtensions();
-        final Iterator<Integer> certExtIter = usedCertExt.iterator();
-        while (certExtIter.hasNext()) {
-            final Integer id = certExtIter.next();
+        for (final Integer id : compiledProfile.getUsedCertificateExtensions()) {
             final CertificateExtension certExt = fact.getCertificateExtensions(id);
             if (certExt != null) {
                 // We don't want to try to add custom extensions with the same oid if we have already added them
@@ -975,7 +989,7 @@ public class X509CA extends CA implements Serializable {
 
             // Add Certificate Transparency extension. It needs to access the certbuilder and
             // the CA key so it has to be processed here inside X509CA.
-             if (ct != null && certProfile.isUseCertificateTransparencyInCerts() &&
+             if (ct != null && compiledProfile.isUseCertificateTransparencyInCerts() &&
                 certGenParams.getConfiguredCTLogs() != null &&
                 certGenParams.getCTAuditLogCallback() != null) {
                 
@@ -1017,7 +1031,7 @@ public class X509CA extends CA implements Serializable {
                     if (ct == null) {
                         cause += "CT is not available in this version of EJBCA.";
                     } else {
-                        if (!certProfile.isUseCertificateTransparencyInCerts()) {
+                        if (!compiledProfile.isUseCertificateTransparencyInCerts()) {
                             cause += "CT is not enabled in the certificate profile. ";
                         }
                         if (certGenParams == null) {
@@ -1131,6 +1145,63 @@ public class X509CA extends CA implements Serializable {
         return generateCRL(cryptoToken, certs, getDeltaCRLPeriod(), crlnumber, true, basecrlnumber);
     }
 
+    /**
+     * Same as {@link #generateCRL(CryptoToken, Collection, int)}, but the CRL entries are never held as ASN.1 objects in memory.
+     * @see #generateStreamedCRL(CryptoToken, Collection, long, int, boolean, int)
+     */
+    public StreamedX509CRL generateStreamedCRL(CryptoToken cryptoToken, Collection<RevokedCertInfo> certs, int crlnumber) throws CryptoTokenOfflineException,
+            IllegalCryptoTokenException, IOException, SignatureException, NoSuchProviderException, InvalidKeyException, CRLException,
+            NoSuchAlgorithmException {
+        return generateStreamedCRL(cryptoToken, certs, getCRLPeriod(), crlnumber, false, 0);
+    }
+
+    /**
+     * Same as {@link #generateDeltaCRL(CryptoToken, Collection, int, int)}, but the CRL entries are never held as ASN.1 objects in memory.
+     * @see #generateStreamedCRL(CryptoToken, Collection, long, int, boolean, int)
+     */
+    public StreamedX509CRL generateStreamedDeltaCRL(CryptoToken cryptoToken, Collection<RevokedCertInfo> certs, int crlnumber, int basecrlnumber)
+            throws CryptoTokenOfflineException, IllegalCryptoTokenException, IOException, SignatureException, NoSuchProviderException,
+            InvalidKeyException, CRLException, NoSuchAlgorithmException {
+        return generateStreamedCRL(cryptoToken, certs, getDeltaCRLPeriod(), crlnumber, true, basecrlnumber);
+    }
+
+    /** @return the standard extension with the given OID, or null if it is not implemented or has no value */
+    private Extension createStandardExtension(final CertificateExtensionFactory fact, final ASN1ObjectIdentifier oid,
+            final EndEntityInformation subject, final CertificateProfile certProfile, final PublicKey publicKey, final PublicKey caPublicKey,
+            final CertificateValidity val) throws CertificateExtensionException {
+        final CertificateExtension certExt = fact.getStandardCertificateExtension(oid.getId(), certProfile);
+        if (certExt != null) {
+            final byte[] value = certExt.getValueEncoded(subject, this, certProfile, publicKey, caPublicKey, val);
+            if (value != null) {
+                return new Extension(new ASN1ObjectIdentifier(certExt.getOID()), certExt.isCriticalFlag(), value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the template of the standard extensions that only depend on this CA and the certificate profile. A new template is created when
+     * the profile has been changed, since it then has a new compiled profile, or when the values of the CA that the extensions are created
+     * from have been changed.
+     */
+    private CertificateExtensionTemplate getExtensionTemplate(final CompiledCertificateProfile compiledProfile, final PublicKey caPublicKey,
+            final Certificate cacert) {
+        final Object[] caValues = { getDefaultCRLDistPoint(), getDefaultCRLIssuer(), getDefaultOCSPServiceLocator(), getCADefinedFreshestCRL(),
+                Boolean.valueOf(getUseUTF8PolicyText()) };
+        synchronized (this) {
+            if (extensionTemplates == null) {
+                // Weak keys, so that the templates of profiles that have been changed are removed
+                extensionTemplates = new WeakHashMap<CompiledCertificateProfile, CertificateExtensionTemplate>();
+            }
+            CertificateExtensionTemplate extensionTemplate = extensionTemplates.get(compiledProfile);
+            if (extensionTemplate == null || !extensionTemplate.isValidFor(caPublicKey, cacert, caValues)) {
+                extensionTemplate = new CertificateExtensionTemplate(caPublicKey, cacert, caValues);
+                extensionTemplates.put(compiledProfile, extensionTemplate);
+            }
+            return extensionTemplate;
+        }
+    }
+
     /**
      * Constructs the SubjectAlternativeName extension that will end up on the generated certificate.
      * 
@@ -1237,20 +1308,7 @@ public class X509CA extends CA implements Serializable {
 
         // Make DNs
         final X509Certificate cacert = (X509Certificate) getCACertificate();
-        final X500Name issuer;
-        if (cacert == null) {
-            // This is an initial root CA, since no CA-certificate exists
-            // (I don't think we can ever get here!!!)
-            final X500NameStyle nameStyle;
-            if (getUsePrintableStringSubjectDN()) {
-                nameStyle = PrintableStringNameStyle.INSTANCE;
-            } else {
-                nameStyle = CeSecoreNameStyle.INSTANCE;
-            }
-            issuer = CertTools.stringToBcX500Name(getSubjectDN(), nameStyle, getUseLdapDNOrder());
-        } else {
-            issuer = X500Name.getInstance(cacert.getSubjectX500Principal().getEncoded());
-        }
+        final X500Name issuer = getCRLIssuer(cacert);
         final Date thisUpdate = new Date();
         final Date nextUpdate = new Date();
         nextUpdate.setTime(nextUpdate.getTime() + crlPeriod);
@@ -1270,14 +1328,174 @@ public class X509CA extends CA implements Serializable {
             }          
         }
 
-             
+        final Extensions crlExtensions = getCRLExtensions(cryptoToken, cacert, crlnumber, isDeltaCRL, basecrlnumber);
+        if (crlExtensions != null) {
+            for (final ASN1ObjectIdentifier oid : crlExtensions.getExtensionOIDs()) {
+                final Extension extension = crlExtensions.getExtension(oid);
+                crlgen.addExtension(oid, extension.isCritical(), extension.getParsedValue());
+            }
+        }
+
+        final X509CRLHolder crl;
+        if (log.isDebugEnabled()) {
+            log.debug("Signing CRL. Free memory="+Runtime.getRuntime().freeMemory());
+        }
+        final String alias = getCAToken().getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CRLSIGN);
+        try {
+            final ContentSigner signer = new BufferingContentSigner(new JcaContentSignerBuilder(sigAlg).setProvider(cryptoToken.getSignProviderName()).build(cryptoToken.getPrivateKey(alias)), 20480);
+            crl = crlgen.build(signer);
+        } catch (OperatorCreationException e) {
+            // Very fatal error
+            throw new RuntimeException("Can not create Jca content signer: ", e);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Finished signing CRL. Free memory="+Runtime.getRuntime().freeMemory());
+        }          
+        
+        // Verify using the CA certificate before returning
+        // If we can not verify the issued CRL using the CA certificate we don't want to issue this CRL
+        // because something is wrong...
+        final PublicKey verifyKey;
+        if (cacert != null) {
+            verifyKey = cacert.getPublicKey();
+            if (log.isTraceEnabled()) {
+                log.trace("Got the verify key from the CA certificate.");
+            }
+        } else {
+            verifyKey = cryptoToken.getPublicKey(alias);
+            if (log.isTraceEnabled()) {
+                log.trace("Got the verify key from the CA token.");
+            }
+        }
+        try {
+            final ContentVerifierProvider verifier = new JcaContentVerifierProviderBuilder().build(verifyKey);
+            if (!crl.isSignatureValid(verifier)) {
+                throw new SignatureException("Error verifying CRL to be returned.");
+            }
+        } catch (OperatorCreationException e) {
+            // Very fatal error
+            throw new RuntimeException("Can not create Jca content signer: ", e);
+        } catch (CertException e) {
+            throw new SignatureException(e.getMessage(), e);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Returning CRL. Free memory="+Runtime.getRuntime().freeMemory());
+        }          
+        return crl;
+    }
+
+    /**
+     * Generate a CRL or a deltaCRL without building the CRL as ASN.1 objects in memory. The entries are DER encoded
+     * one at the time and spooled to a buffer that is moved to a temporary file when it grows larger than the
+     * configured threshold, see {@link StreamingX509CRLBuilder}. The resulting CRL has the same content as a CRL from
+     * {@link #generateCRL(CryptoToken, Collection, int)} and {@link #generateDeltaCRL(CryptoToken, Collection, int, int)}.
+     * 
+     * @param certs list of revoked certificates
+     * @param crlnumber CRLNumber for this CRL
+     * @param isDeltaCRL true if we should generate a DeltaCRL
+     * @param basecrlnumber caseCRLNumber for a delta CRL, use 0 for full CRLs
+     * @return the encoded CRL
+     */
+    private StreamedX509CRL generateStreamedCRL(CryptoToken cryptoToken, Collection<RevokedCertInfo> certs, long crlPeriod, int crlnumber, boolean isDeltaCRL, int basecrlnumber)
+            throws CryptoTokenOfflineException, IllegalCryptoTokenException, IOException, SignatureException, NoSuchProviderException,
+            InvalidKeyException, CRLException, NoSuchAlgorithmException {
+        final String sigAlg = getCAInfo().getCAToken().getSignatureAlgorithm();
+        if (log.isDebugEnabled()) {
+            log.debug("generateStreamedCRL(" + (certs == null ? 0 : certs.size()) + ", " + crlPeriod + ", " + crlnumber + ", " + isDeltaCRL + ", " + basecrlnumber);
+        }
+        final X509Certificate cacert = (X509Certificate) getCACertificate();
+        final X500Name issuer = getCRLIssuer(cacert);
+        final Date thisUpdate = new Date();
+        final Date nextUpdate = new Date();
+        nextUpdate.setTime(nextUpdate.getTime() + crlPeriod);
+        final StreamingX509CRLBuilder crlgen = new StreamingX509CRLBuilder(issuer, thisUpdate, nextUpdate, CesecoreConfiguration.getCrlGenerationSpoolThreshold());
+        try {
+            if (certs != null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Adding "+certs.size()+" revoked certificates to streamed CRL. Free memory="+Runtime.getRuntime().freeMemory());
+                }
+                if (certs instanceof CRLEntryIndex) {
+                    // The entries are already encoded
+                    for (final byte[] encodedEntry : ((CRLEntryIndex) certs).getEncodedEntries()) {
+                        crlgen.addEncodedCRLEntry(encodedEntry);
+                    }
+                } else {
+                    for (final RevokedCertInfo certinfo : certs) {
+                        crlgen.addCRLEntry(certinfo.getUserCertificate(), certinfo.getRevocationDate(), certinfo.getReason());
+                    }
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Finished adding "+crlgen.getNumberOfEntries()+" revoked certificates to streamed CRL. Free memory="+Runtime.getRuntime().freeMemory());
+                }
+            }
+            final Extensions crlExtensions = getCRLExtensions(cryptoToken, cacert, crlnumber, isDeltaCRL, basecrlnumber);
+            if (crlExtensions != null) {
+                for (final ASN1ObjectIdentifier oid : crlExtensions.getExtensionOIDs()) {
+                    final Extension extension = crlExtensions.getExtension(oid);
+                    crlgen.addExtension(oid, extension.isCritical(), extension.getParsedValue());
+                }
+            }
+            final StreamedX509CRL crl;
+            final String alias = getCAToken().getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CRLSIGN);
+            try {
+                final ContentSigner signer = new BufferingContentSigner(new JcaContentSignerBuilder(sigAlg).setProvider(cryptoToken.getSignProviderName()).build(cryptoToken.getPrivateKey(alias)), 20480);
+                crl = crlgen.build(signer);
+            } catch (OperatorCreationException e) {
+                // Very fatal error
+                throw new RuntimeException("Can not create Jca content signer: ", e);
+            }
+            // Verify using the CA certificate before returning
+            // If we can not verify the issued CRL using the CA certificate we don't want to issue this CRL
+            // because something is wrong...
+            final PublicKey verifyKey = cacert != null ? cacert.getPublicKey() : cryptoToken.getPublicKey(alias);
+            try {
+                final ContentVerifierProvider verifier = new JcaContentVerifierProviderBuilder().build(verifyKey);
+                if (!crl.isSignatureValid(verifier)) {
+                    throw new SignatureException("Error verifying CRL to be returned.");
+                }
+            } catch (OperatorCreationException e) {
+                // Very fatal error
+                throw new RuntimeException("Can not create Jca content signer: ", e);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Returning streamed CRL of " + crl.getEncoded().length + " bytes. Free memory="+Runtime.getRuntime().freeMemory());
+            }
+            return crl;
+        } finally {
+            crlgen.close();
+        }
+    }
+
+    /** @return the issuer to use in CRLs issued by this CA */
+    private X500Name getCRLIssuer(final X509Certificate cacert) {
+        if (cacert == null) {
+            // This is an initial root CA, since no CA-certificate exists
+            // (I don't think we can ever get here!!!)
+            final X500NameStyle nameStyle;
+            if (getUsePrintableStringSubjectDN()) {
+                nameStyle = PrintableStringNameStyle.INSTANCE;
+            } else {
+                nameStyle = CeSecoreNameStyle.INSTANCE;
+            }
+            return CertTools.stringToBcX500Name(getSubjectDN(), nameStyle, getUseLdapDNOrder());
+        }
+        return X500Name.getInstance(cacert.getSubjectX500Principal().getEncoded());
+    }
+
+    /**
+     * Creates the crlExtensions of a CRL or delta CRL issued by this CA.
+     * @return the extensions or null if the CRL should not have any extensions
+     */
+    private Extensions getCRLExtensions(CryptoToken cryptoToken, X509Certificate cacert, int crlnumber, boolean isDeltaCRL, int basecrlnumber)
+            throws CryptoTokenOfflineException, IOException {
+        final ExtensionsGenerator extgen = new ExtensionsGenerator();
         // Authority key identifier
         if (getUseAuthorityKeyIdentifier() == true) {  
             byte[] caSkid = (cacert != null ? CertTools.getSubjectKeyId(cacert) : null);
             if (caSkid != null) {
                 // Use subject key id from CA certificate
                 AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(caSkid);
-                crlgen.addExtension(Extension.authorityKeyIdentifier, getAuthorityKeyIdentifierCritical(), aki);
+                extgen.addExtension(Extension.authorityKeyIdentifier, getAuthorityKeyIdentifierCritical(), aki);
             } else {
                 // Generate from SHA1 of public key
                 ASN1InputStream asn1InputStream = new ASN1InputStream(new ByteArrayInputStream(cryptoToken.getPublicKey(
@@ -1285,7 +1503,7 @@ public class X509CA extends CA implements Serializable {
                 try {
                     SubjectPublicKeyInfo apki = new SubjectPublicKeyInfo((ASN1Sequence) asn1InputStream.readObject());
                     AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(apki);
-                    crlgen.addExtension(Extension.authorityKeyIdentifier, getAuthorityKeyIdentifierCritical(), aki);
+                    extgen.addExtension(Extension.authorityKeyIdentifier, getAuthorityKeyIdentifierCritical(), aki);
                 } finally {
                     asn1InputStream.close();
                 }
@@ -1305,19 +1523,19 @@ public class X509CA extends CA implements Serializable {
         if(accessList.size() > 0) {
             AuthorityInformationAccess authorityInformationAccess = AuthorityInformationAccess.getInstance(new DERSequence(accessList));
             // "This CRL extension MUST NOT be marked critical." according to rfc4325
-            crlgen.addExtension(Extension.authorityInfoAccess, false, authorityInformationAccess);
+            extgen.addExtension(Extension.authorityInfoAccess, false, authorityInformationAccess);
         }
                 
         // CRLNumber extension
         if (getUseCRLNumber() == true) {
             CRLNumber crlnum = new CRLNumber(BigInteger.valueOf(crlnumber));
-            crlgen.addExtension(Extension.cRLNumber, this.getCRLNumberCritical(), crlnum);
+            extgen.addExtension(Extension.cRLNumber, this.getCRLNumberCritical(), crlnum);
         }
 
         if (isDeltaCRL) {
             // DeltaCRLIndicator extension
             CRLNumber basecrlnum = new CRLNumber(BigInteger.valueOf(basecrlnumber));
-            crlgen.addExtension(Extension.deltaCRLIndicator, true, basecrlnum);
+            extgen.addExtension(Extension.deltaCRLIndicator, true, basecrlnum);
         }
         // CRL Distribution point URI and Freshest CRL DP
         if (getUseCrlDistributionPointOnCrl()) {
@@ -1331,7 +1549,7 @@ public class X509CA extends CA implements Serializable {
                 // According to the RFC, IDP must be a critical extension.
                 // Nonetheless, at the moment, Mozilla is not able to correctly
                 // handle the IDP extension and discards the CRL if it is critical.
-                crlgen.addExtension(Extension.issuingDistributionPoint, getCrlDistributionPointOnCrlCritical(), idp);
+                extgen.addExtension(Extension.issuingDistributionPoint, getCrlDistributionPointOnCrlCritical(), idp);
             }
 
             if (!isDeltaCRL) {
@@ -1345,58 +1563,12 @@ public class X509CA extends CA implements Serializable {
                     // CRL must not be marked as critical. Therefore it is
                     // hardcoded as not critical and is independent of
                     // getCrlDistributionPointOnCrlCritical().
-                    crlgen.addExtension(Extension.freshestCRL, false, ext);
+                    extgen.addExtension(Extension.freshestCRL, false, ext);
                 }
 
             }
         }
-
-        final X509CRLHolder crl;
-        if (log.isDebugEnabled()) {
-            log.debug("Signing CRL. Free memory="+Runtime.getRuntime().freeMemory());
-        }
-        final String alias = getCAToken().getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CRLSIGN);
-        try {
-            final ContentSigner signer = new BufferingContentSigner(new JcaContentSignerBuilder(sigAlg).setProvider(cryptoToken.getSignProviderName()).build(cryptoToken.getPrivateKey(alias)), 20480);
-            crl = crlgen.build(signer);
-        } catch (OperatorCreationException e) {
-            // Very fatal error
-            throw new RuntimeException("Can not create Jca content signer: ", e);
-        }
-        if (log.isDebugEnabled()) {
-            log.debug("Finished signing CRL. Free memory="+Runtime.getRuntime().freeMemory());
-        }          
-        
-        // Verify using the CA certificate before returning
-        // If we can not verify the issued CRL using the CA certificate we don't want to issue this CRL
-        // because something is wrong...
-        final PublicKey verifyKey;
-        if (cacert != null) {
-            verifyKey = cacert.getPublicKey();
-            if (log.isTraceEnabled()) {
-                log.trace("Got the verify key from the CA certificate.");
-            }
-        } else {
-            verifyKey = cryptoToken.getPublicKey(alias);
-            if (log.isTraceEnabled()) {
-                log.trace("Got the verify key from the CA token.");
-            }
-        }
-        try {
-            final ContentVerifierProvider verifier = new JcaContentVerifierProviderBuilder().build(verifyKey);
-            if (!crl.isSignatureValid(verifier)) {
-                throw new SignatureException("Error verifying CRL to be returned.");
-            }
-        } catch (OperatorCreationException e) {
-            // Very fatal error
-            throw new RuntimeException("Can not create Jca content signer: ", e);
-        } catch (CertException e) {
-            throw new SignatureException(e.getMessage(), e);
-        }
-        if (log.isDebugEnabled()) {
-            log.debug("Returning CRL. Free memory="+Runtime.getRuntime().freeMemory());
-        }          
-        return crl;
+        return extgen.isEmpty() ? null : extgen.generate();
     }
 
     /**
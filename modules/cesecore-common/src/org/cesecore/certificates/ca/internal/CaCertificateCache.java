@@ -18,15 +18,20 @@ import java.io.StringWriter;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.util.encoders.Hex;
 import org.cesecore.certificates.certificate.HashID;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCache;
 import org.cesecore.config.OcspConfiguration;
 import org.cesecore.util.Base64;
 import org.cesecore.util.CertTools;
@@ -35,6 +40,10 @@ import org.cesecore.util.CertTools;
 /**
  * A cache for storing CA certificates
  *
+ * The indexes are kept in an immutable snapshot that is replaced as a whole when the certificates change, so readers never lock and
+ * always see a consistent set of indexes. The keys of each certificate are computed once, when the certificate is added, so replacing
+ * the snapshot only has to fill new maps.
+ *
  * @version $Id: CaCertificateCache.java 20588 2015-01-22 18:26:35Z jeklund $
  *
  */
@@ -43,20 +52,92 @@ public enum CaCertificateCache  {
     
 	private final Logger log = Logger.getLogger(CaCertificateCache.class);
 
-    /** Mapping from subjectDN to key in the certs HashMap. */
-    private Map<Integer, X509Certificate> certsFromSubjectDN = new HashMap<Integer, X509Certificate>();
-    /** Mapping from issuerDN to key in the certs HashMap. */
-    private Map<Integer, Set<X509Certificate>> certsFromIssuerDN = new HashMap<Integer, Set<X509Certificate>>();
-    /** Mapping from subject key identifier to key in the certs HashMap. */
-    private Map<Integer, X509Certificate> certsFromSubjectKeyIdentifier = new HashMap<Integer, X509Certificate>();
-    /** All root certificates. */
-    private Set<X509Certificate> rootCertificates = new HashSet<X509Certificate>();
+    /** A CA certificate and its index keys. */
+    private static final class IndexedCertificate {
+        private final X509Certificate certificate;
+        private final Integer subjectDNKey;
+        private final Integer issuerDNKey;
+        private final Integer subjectKeyIdentifierKey;
+        /** Keys of the OCSP CertificateIDs, with SHA-1 and SHA-256, of certificates issued by this certificate */
+        private final List<String> certificateIDKeys;
+
+        /** @throws Throwable if the certificate can not be used */
+        private IndexedCertificate(final X509Certificate certificate) throws Throwable { // NOPMD: BC may throw anything for a broken certificate
+            this.certificate = certificate;
+            // test if certificate is OK. we have experienced that BC could decode a certificate that later on could not be used.
+            this.subjectKeyIdentifierKey = HashID.getFromKeyID(certificate).getKey();
+            this.subjectDNKey = HashID.getFromSubjectDN(certificate).getKey();
+            this.issuerDNKey = HashID.getFromIssuerDN(certificate).getKey();
+            final List<String> keys = new ArrayList<String>(2);
+            for (final CertificateID certificateID : OcspSigningCache.getCertificateIDFromCertificate(certificate)) {
+                keys.add(getCertificateIDKey(certificateID));
+            }
+            this.certificateIDKeys = keys;
+        }
+    }
+
+    /** Immutable indexes of a set of CA certificates. */
+    private static final class Snapshot {
+        /** All certificates, in the order they were added */
+        private final List<IndexedCertificate> certificates;
+        /** Mapping from subjectDN to the latest certificate. */
+        private final Map<Integer, X509Certificate> certsFromSubjectDN = new HashMap<Integer, X509Certificate>();
+        /** Mapping from issuerDN to the latest certificates of each subject issued by it, roots excluded. */
+        private final Map<Integer, X509Certificate[]> certsFromIssuerDN = new HashMap<Integer, X509Certificate[]>();
+        /** Mapping from subject key identifier to certificate. */
+        private final Map<Integer, X509Certificate> certsFromSubjectKeyIdentifier = new HashMap<Integer, X509Certificate>();
+        /** Mapping from the issuer name hash and key hash of an OCSP CertificateID to the latest certificate with that name and key. */
+        private final Map<String, X509Certificate> certsFromCertificateID = new HashMap<String, X509Certificate>();
+        /** All root certificates. */
+        private final X509Certificate[] rootCertificates;
+
+        private Snapshot(final List<IndexedCertificate> certificates) {
+            this.certificates = Collections.unmodifiableList(certificates);
+            final Map<Integer, IndexedCertificate> latestBySubjectDN = new HashMap<Integer, IndexedCertificate>();
+            for (final IndexedCertificate indexed : certificates) {
+                certsFromSubjectKeyIdentifier.put(indexed.subjectKeyIdentifierKey, indexed.certificate);
+                // We only want to store the latest cert from each issuer in this map
+                final IndexedCertificate past = latestBySubjectDN.get(indexed.subjectDNKey);
+                if (past == null || CertTools.getNotBefore(indexed.certificate).after(CertTools.getNotBefore(past.certificate))) {
+                    latestBySubjectDN.put(indexed.subjectDNKey, indexed);
+                }
+                // A CertificateID identifies a key, so the certificates of old CA keys are indexed too
+                for (final String certificateIDKey : indexed.certificateIDKeys) {
+                    final X509Certificate pastCert = certsFromCertificateID.get(certificateIDKey);
+                    if (pastCert == null || CertTools.getNotBefore(indexed.certificate).after(CertTools.getNotBefore(pastCert))) {
+                        certsFromCertificateID.put(certificateIDKey, indexed.certificate);
+                    }
+                }
+            }
+            final Map<Integer, Set<X509Certificate>> issued = new HashMap<Integer, Set<X509Certificate>>();
+            final Set<X509Certificate> roots = new LinkedHashSet<X509Certificate>();
+            for (final IndexedCertificate indexed : latestBySubjectDN.values()) {
+                certsFromSubjectDN.put(indexed.subjectDNKey, indexed.certificate);
+                if (!indexed.issuerDNKey.equals(indexed.subjectDNKey)) { // don't add roots to themselves
+                    Set<X509Certificate> sIssuer = issued.get(indexed.issuerDNKey);
+                    if (sIssuer == null) {
+                        sIssuer = new LinkedHashSet<X509Certificate>();
+                        issued.put(indexed.issuerDNKey, sIssuer);
+                    }
+                    sIssuer.add(indexed.certificate);
+                } else {
+                    roots.add(indexed.certificate);
+                }
+            }
+            for (final Map.Entry<Integer, Set<X509Certificate>> entry : issued.entrySet()) {
+                certsFromIssuerDN.put(entry.getKey(), entry.getValue().toArray(new X509Certificate[entry.getValue().size()]));
+            }
+            rootCertificates = roots.toArray(new X509Certificate[roots.size()]);
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(new ArrayList<IndexedCertificate>());
 
 	/** Cache time counter, set and used by loadCertificates */
-	private long certValidTo = 0;
+	private volatile long certValidTo = 0;
 
     public X509Certificate findLatestBySubjectDN(final HashID id) {
-        final X509Certificate ret = certsFromSubjectDN.get(id.getKey());
+        final X509Certificate ret = snapshot.certsFromSubjectDN.get(id.getKey());
         if (ret==null && log.isDebugEnabled()) {
             log.debug("Certificate not found from SubjectDN HashId in certsFromSubjectDN map. HashID=" + id.getB64());
         }
@@ -64,127 +145,154 @@ public enum CaCertificateCache  {
 	}
 
 	public X509Certificate[] findLatestByIssuerDN(final HashID id) {	    
-        final Set<X509Certificate> sCert = certsFromIssuerDN.get(id.getKey());
-        if (sCert == null || sCert.isEmpty()) {
+        final X509Certificate[] certs = snapshot.certsFromIssuerDN.get(id.getKey());
+        if (certs == null) {
             if (log.isDebugEnabled()) {
                 log.debug("Certificate not found from IssuerDN HashId in certsFromIssuerDN map. HashID=" + id.getB64());
             }
             return null;
         }
-        return sCert.toArray(new X509Certificate[sCert.size()]);
+        return certs.clone();
 
     }
 
     public X509Certificate[] getRootCertificates() {
-        return rootCertificates.toArray(new X509Certificate[0]);
+        return snapshot.rootCertificates.clone();
     }
 
     public X509Certificate findBySubjectKeyIdentifier(final HashID id) {
-        final X509Certificate ret = certsFromSubjectKeyIdentifier.get(id.getKey());
+        final X509Certificate ret = snapshot.certsFromSubjectKeyIdentifier.get(id.getKey());
         if (ret==null && log.isDebugEnabled()) {
             log.debug("Certificate not found from SubjectKeyIdentifier HashId in certsFromSubjectKeyIdentifier map. HashID=" + id.getB64());
         }
         return ret;
     }
 
+    /**
+     * Finds the issuer of the certificate in an OCSP request, by the issuer name hash and issuer key hash of the CertificateID.
+     * Only SHA-1 and SHA-256 CertificateIDs are indexed.
+     *
+     * @return the latest CA certificate with the name and key of the CertificateID, or null if not found
+     */
+    public X509Certificate findLatestByCertificateID(final CertificateID certificateID) {
+        final X509Certificate ret = snapshot.certsFromCertificateID.get(getCertificateIDKey(certificateID));
+        if (ret==null && log.isDebugEnabled()) {
+            log.debug("Certificate not found from CertificateID in certsFromCertificateID map. IssuerNameHash="
+                    + Hex.toHexString(certificateID.getIssuerNameHash()) + ", IssuerKeyHash=" + Hex.toHexString(certificateID.getIssuerKeyHash()));
+        }
+        return ret;
+    }
+
     public boolean isCacheExpired() {
         return certValidTo < System.currentTimeMillis();
     }
 
 	/** Loads CA certificates but holds a cache so it's reloaded only every five minutes (configurable).
 	 *
-	 * We keep this method as synchronized, it should not take more than a few microseconds to complete if the cache does not have
-	 * to be reloaded. If the cache must be reloaded, we must wait for it anyway to not have ConcurrentModificationException.
-	 * We also only want one single thread to do the rebuilding.
-	 * 
-	 * @return true if the cache was reloaded, false if cache wasn't expired.
+	 * Only one thread at a time replaces the certificates. Readers keep using the previous snapshot until the new one is complete.
 	 */
     public synchronized void loadCertificates(final Collection<Certificate> certs) {
         if (log.isDebugEnabled()) {
             log.debug("Loaded " + (certs == null ? "0" : Integer.toString(certs.size())) + " ca certificates");
         }
-
-        Map<Integer, X509Certificate> newCertsFromSubjectDN = new HashMap<Integer, X509Certificate>();
-        Map<Integer, Set<X509Certificate>> newCertsFromIssuerDN = new HashMap<Integer, Set<X509Certificate>>();
-        Map<Integer, X509Certificate> newCertsFromSubjectKeyIdentifier = new HashMap<Integer, X509Certificate>();
-        Set<X509Certificate> newRootCertificates = new HashSet<X509Certificate>();
-        for (final Certificate tmp : certs) {
-            if (!(tmp instanceof X509Certificate)) {
-                log.debug("Not adding CA certificate of type: " + tmp.getType());
-                continue;
-            }
-            final X509Certificate cert = (X509Certificate) tmp;
-            try { // test if certificate is OK. we have experienced that BC could decode a certificate that later on could not be used.
-                newCertsFromSubjectKeyIdentifier.put(HashID.getFromKeyID(cert).getKey(), cert);
-            } catch (Throwable t) { // NOPMD: catch all to not break with an error here.
-                if (log.isDebugEnabled()) {
-                    final StringWriter sw = new StringWriter();
-                    final PrintWriter pw = new PrintWriter(sw);
-                    pw.println("Erroneous certificate fetched from database.");
-                    pw.println("The public key can not be extracted from the certificate.");
-                    pw.println("Here follows a base64 encoding of the certificate:");
-                    try {
-                        final String b64encoded = new String(Base64.encode(cert.getEncoded()));
-                        pw.println(CertTools.BEGIN_CERTIFICATE);
-                        pw.println(b64encoded);
-                        pw.println(CertTools.END_CERTIFICATE);
-                    } catch (CertificateEncodingException e) {
-                        pw.println("Not possible to encode certificate.");
-                    }
-                    pw.flush();
-                    log.debug(sw.toString());
-                }
-                continue;
-            }
-            final Integer subjectDNKey = HashID.getFromSubjectDN(cert).getKey();
-            // Check if we already have a certificate from this issuer in the HashMap.
-            // We only want to store the latest cert from each issuer in this map
-            final X509Certificate pastCert = newCertsFromSubjectDN.get(subjectDNKey);
-            final boolean isLatest;
-            if (pastCert != null) {
-                if (CertTools.getNotBefore(cert).after(CertTools.getNotBefore(pastCert))) {
-                    isLatest = true;
-                } else {
-                    isLatest = false;
-                }
-            } else {
-                isLatest = true;
-            }
-            if (isLatest) {
-                newCertsFromSubjectDN.put(subjectDNKey, cert);
-                final Integer issuerDNKey = HashID.getFromIssuerDN(cert).getKey();
-                if (!issuerDNKey.equals(subjectDNKey)) { // don't add roots to themselves
-                    Set<X509Certificate> sIssuer = newCertsFromIssuerDN.get(issuerDNKey);
-                    if (sIssuer == null) {
-                        sIssuer = new HashSet<X509Certificate>();
-                        newCertsFromIssuerDN.put(issuerDNKey, sIssuer);
-                    }
-                    sIssuer.add(cert);
-                    sIssuer.remove(pastCert);
-                } else {
-                    newRootCertificates.add(cert);
-                    newRootCertificates.remove(pastCert);
+        final List<IndexedCertificate> indexed = new ArrayList<IndexedCertificate>();
+        if (certs != null) {
+            for (final Certificate tmp : certs) {
+                final IndexedCertificate indexedCertificate = index(tmp);
+                if (indexedCertificate != null) {
+                    indexed.add(indexedCertificate);
                 }
             }
         }
+        final Snapshot newSnapshot = new Snapshot(indexed);
         // Log what we have stored in the cache
         if (log.isDebugEnabled()) {
             final StringWriter sw = new StringWriter();
             final PrintWriter pw = new PrintWriter(sw, true);
             pw.println("Found the following CA certificates :");
-            for (Entry<Integer, X509Certificate> key : newCertsFromSubjectKeyIdentifier.entrySet()) {
-                final Certificate cert = key.getValue();
+            for (final X509Certificate cert : newSnapshot.certsFromSubjectKeyIdentifier.values()) {
                 pw.print(CertTools.getSubjectDN(cert));
                 pw.print(',');
                 pw.println(CertTools.getSerialNumberAsString(cert));
             }
             log.debug(sw);
         }
-        //Replace the old caches
-        certsFromSubjectKeyIdentifier = newCertsFromSubjectKeyIdentifier;
-        certsFromIssuerDN = newCertsFromIssuerDN;
-        certsFromSubjectDN = newCertsFromSubjectDN;
-        rootCertificates = newRootCertificates;
+        //Replace the old cache
+        snapshot = newSnapshot;
         certValidTo = System.currentTimeMillis() + OcspConfiguration.getSigningCertsValidTimeInMilliseconds();
     }
+
+    /**
+     * Adds or replaces a single CA certificate, for example when a CA has been renewed, without reloading all certificates.
+     * Does not change when the cache expires.
+     */
+    public synchronized void addCertificate(final Certificate cert) {
+        final IndexedCertificate indexedCertificate = index(cert);
+        if (indexedCertificate == null) {
+            return;
+        }
+        final List<IndexedCertificate> indexed = new ArrayList<IndexedCertificate>(snapshot.certificates.size() + 1);
+        for (final IndexedCertificate existing : snapshot.certificates) {
+            if (!existing.certificate.equals(cert)) {
+                indexed.add(existing);
+            }
+        }
+        indexed.add(indexedCertificate);
+        snapshot = new Snapshot(indexed);
+        if (log.isDebugEnabled()) {
+            log.debug("Added CA certificate " + CertTools.getSubjectDN(cert) + "," + CertTools.getSerialNumberAsString(cert));
+        }
+    }
+
+    /** Removes a single CA certificate. Does not change when the cache expires. */
+    public synchronized void removeCertificate(final Certificate cert) {
+        final List<IndexedCertificate> indexed = new ArrayList<IndexedCertificate>(snapshot.certificates.size());
+        for (final IndexedCertificate existing : snapshot.certificates) {
+            if (!existing.certificate.equals(cert)) {
+                indexed.add(existing);
+            }
+        }
+        if (indexed.size() != snapshot.certificates.size()) {
+            snapshot = new Snapshot(indexed);
+            if (log.isDebugEnabled()) {
+                log.debug("Removed CA certificate " + CertTools.getSubjectDN(cert) + "," + CertTools.getSerialNumberAsString(cert));
+            }
+        }
+    }
+
+    /** @return the certificate with its index keys, or null if it is not an X.509 certificate that can be used */
+    private IndexedCertificate index(final Certificate tmp) {
+        if (!(tmp instanceof X509Certificate)) {
+            log.debug("Not adding CA certificate of type: " + tmp.getType());
+            return null;
+        }
+        final X509Certificate cert = (X509Certificate) tmp;
+        try {
+            return new IndexedCertificate(cert);
+        } catch (Throwable t) { // NOPMD: catch all to not break with an error here.
+            if (log.isDebugEnabled()) {
+                final StringWriter sw = new StringWriter();
+                final PrintWriter pw = new PrintWriter(sw);
+                pw.println("Erroneous certificate fetched from database.");
+                pw.println("The public key can not be extracted from the certificate.");
+                pw.println("Here follows a base64 encoding of the certificate:");
+                try {
+                    final String b64encoded = new String(Base64.encode(cert.getEncoded()));
+                    pw.println(CertTools.BEGIN_CERTIFICATE);
+                    pw.println(b64encoded);
+                    pw.println(CertTools.END_CERTIFICATE);
+                } catch (CertificateEncodingException e) {
+                    pw.println("Not possible to encode certificate.");
+                }
+                pw.flush();
+                log.debug(sw.toString());
+            }
+            return null;
+        }
+    }
+
+    private static String getCertificateIDKey(final CertificateID certificateID) {
+        return certificateID.getHashAlgOID().getId() + ':' + Hex.toHexString(certificateID.getIssuerNameHash()) + ':'
+                + Hex.toHexString(certificateID.getIssuerKeyHash());
+    }
 }
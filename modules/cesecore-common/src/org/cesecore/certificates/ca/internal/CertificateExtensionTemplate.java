@@ -0,0 +1,101 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ca.internal;
+
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+
+/**
+ * Encoded standard certificate extensions that are the same in all certificates that a CA issues with a certificate profile, so that they
+ * only have to be created and encoded for the first certificate.
+ *
+ * A template belongs to a CA and a compiled certificate profile, that is replaced when the profile changes. It also holds the values of the
+ * CA that the extensions are created from, and must not be used when {@link #isValidFor(PublicKey, Certificate, Object...)} returns false.
+ *
+ * @version $Id$
+ */
+public final class CertificateExtensionTemplate {
+
+    /**
+     * Standard extensions whose values only depend on the CA and the certificate profile, and not on the end entity, its public key or the
+     * validity. Name Constraints is not one of them, since it is read from the extended information of the end entity.
+     */
+    private static final Set<ASN1ObjectIdentifier> TEMPLATE_EXTENSIONS = Collections.unmodifiableSet(new HashSet<ASN1ObjectIdentifier>(Arrays.asList(
+            Extension.authorityKeyIdentifier, Extension.cRLDistributionPoints, Extension.authorityInfoAccess, Extension.certificatePolicies,
+            Extension.freshestCRL)));
+
+    private final PublicKey caPublicKey;
+    private final Certificate caCertificate;
+    private final Object[] caValues;
+    private final Map<ASN1ObjectIdentifier, Extension> extensions = new ConcurrentHashMap<ASN1ObjectIdentifier, Extension>();
+    /** Extensions that were created without a value, and should not be added to the certificate */
+    private final Set<ASN1ObjectIdentifier> emptyExtensions = Collections.newSetFromMap(new ConcurrentHashMap<ASN1ObjectIdentifier, Boolean>());
+
+    /**
+     * @param caPublicKey the public key of the CA
+     * @param caCertificate the certificate of the CA, or null if it does not have one yet
+     * @param caValues other values of the CA that the template extensions are created from
+     */
+    public CertificateExtensionTemplate(final PublicKey caPublicKey, final Certificate caCertificate, final Object... caValues) {
+        this.caPublicKey = caPublicKey;
+        this.caCertificate = caCertificate;
+        this.caValues = caValues;
+    }
+
+    /** @return true if the value of the standard extension with the given OID can be kept in a template */
+    public static boolean isTemplateExtension(final ASN1ObjectIdentifier oid) {
+        return TEMPLATE_EXTENSIONS.contains(oid);
+    }
+
+    /**
+     * @return true if the template was created from the same values of the CA. The CA certificate is compared by identity, since the CA
+     * creates new certificate objects when its certificate chain is changed.
+     */
+    public boolean isValidFor(final PublicKey caPublicKey, final Certificate caCertificate, final Object... caValues) {
+        return this.caCertificate == caCertificate && this.caPublicKey.equals(caPublicKey) && Arrays.equals(this.caValues, caValues);
+    }
+
+    /** @return true if the extension with the given OID has been added to the template, with or without a value */
+    public boolean contains(final ASN1ObjectIdentifier oid) {
+        return extensions.containsKey(oid) || emptyExtensions.contains(oid);
+    }
+
+    /** @return the extension with the given OID, or null if it has no value or has not been added to the template */
+    public Extension getExtension(final ASN1ObjectIdentifier oid) {
+        return extensions.get(oid);
+    }
+
+    /**
+     * Adds an extension to the template. Certificates that are issued at the same time may add the same extension, which is fine since its
+     * value is the same.
+     *
+     * @param oid OID of one of the template extensions
+     * @param extension the extension, or null if it has no value
+     */
+    public void addExtension(final ASN1ObjectIdentifier oid, final Extension extension) {
+        if (extension == null) {
+            emptyExtensions.add(oid);
+        } else {
+            extensions.put(oid, extension);
+        }
+    }
+}
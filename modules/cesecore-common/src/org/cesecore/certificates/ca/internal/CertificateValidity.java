@@ -122,7 +122,7 @@ public class CertificateValidity {
 	        }
         }
         // Find out what start and end time to actually use..
-        if (certProfile.getAllowValidityOverride()) {
+        if (certProfile.getCompiled().getAllowValidityOverride()) {
             // Prio 1 is infomation supplied in Extended information object. This allows RA-users to set the time-span.
             firstDate = startTimeDate;
             lastDate = endTimeDate;
@@ -142,7 +142,7 @@ public class CertificateValidity {
         if (firstDate == null) {
         	firstDate = now;
         }
-        final long val = certProfile.getValidity();        
+        final long val = certProfile.getCompiled().getValidity();        
         Date certProfileLastDate = ValidityDate.getDate(val,firstDate);
         if (lastDate == null) {
         	lastDate = certProfileLastDate;
@@ -157,7 +157,7 @@ public class CertificateValidity {
 		// Limit validity: We do not allow a certificate to be valid before the current date, i.e. not back dated start dates
         // Unless allowValidityOverride is set, then we allow everything
         // So this check is probably completely unneeded and can never be true
-    	if (firstDate.before(now) && !certProfile.getAllowValidityOverride()) {
+    	if (firstDate.before(now) && !certProfile.getCompiled().getAllowValidityOverride()) {
 			log.error(intres.getLocalizedMessage("createcert.errorbeforecurrentdate",firstDate,subject.getUsername()));
     		firstDate = now;
     		// Update valid length from the profile since the starting point has changed
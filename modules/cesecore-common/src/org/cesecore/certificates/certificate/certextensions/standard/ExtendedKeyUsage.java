@@ -46,7 +46,11 @@ public class ExtendedKeyUsage extends StandardCertificateExtension {
     @Override
     public ASN1Encodable getValue(final EndEntityInformation subject, final CA ca, final CertificateProfile certProfile,
             final PublicKey userPublicKey, final PublicKey caPublicKey, CertificateValidity val) throws CertificateExtensionException {
-		org.bouncycastle.asn1.x509.ExtendedKeyUsage ret = null;
+		// Use the value that was created when the profile was compiled, unless the profile has no valid OIDs
+		org.bouncycastle.asn1.x509.ExtendedKeyUsage ret = certProfile.getCompiled().getExtendedKeyUsage();
+		if (ret != null) {
+			return ret;
+		}
 		// Get extended key usage from certificate profile
 		final Collection<String> oids = certProfile.getExtendedKeyUsageOids();
 		
@@ -23,7 +23,6 @@ import org.cesecore.certificates.ca.internal.CertificateValidity;
 import org.cesecore.certificates.certificate.certextensions.CertificateExtensionException;
 import org.cesecore.certificates.certificateprofile.CertificateProfile;
 import org.cesecore.certificates.endentity.EndEntityInformation;
-import org.cesecore.util.CertTools;
 
 /**
  * Class for standard X509 certificate extension. 
@@ -46,7 +45,7 @@ public class KeyUsage extends StandardCertificateExtension {
             CertificateExtensionException {
 		// Key usage
 		X509KeyUsage ret = null;
-		final int keyUsage = CertTools.sunKeyUsageToBC(certProfile.getKeyUsage());
+		final int keyUsage = certProfile.getCompiled().getKeyUsage();
 		if (log.isDebugEnabled()) {
 			log.debug("Using KeyUsage from profile: "+keyUsage);
 		}
@@ -85,6 +85,9 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      */
     private static final long serialVersionUID = -8069608639716545206L;
 
+    /** Values of the profile used when issuing certificates, created when first needed and dropped when the profile is changed */
+    private transient CompiledCertificateProfile compiled = null;
+
 
 
     /** Microsoft Template Constants */
@@ -568,7 +571,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      * Returns the version of the certificate, should be one of the VERSION_ constants defined in CertificateProfile class.
      */
     public void setCertificateVersion(String version) {
-        data.put(CERTVERSION, version);
+        putData(CERTVERSION, version);
     }
 
     public long getValidity() {
@@ -576,7 +579,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setValidity(long validity) {
-        data.put(VALIDITY, Long.valueOf(validity));
+        putData(VALIDITY, Long.valueOf(validity));
     }
 
     /**
@@ -594,7 +597,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      * A certificate created with validity override can hava a starting point in the future.
      */
     public void setAllowValidityOverride(boolean allowvalidityoverride) {
-        data.put(ALLOWVALIDITYOVERRIDE, Boolean.valueOf(allowvalidityoverride));
+        putData(ALLOWVALIDITYOVERRIDE, Boolean.valueOf(allowvalidityoverride));
     }
 
     /**
@@ -612,7 +615,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
 
     /** @see #getAllowExtensionOverride() */
     public void setAllowExtensionOverride(boolean allowextensionoverride) {
-        data.put(ALLOWEXTENSIONOVERRIDE, Boolean.valueOf(allowextensionoverride));
+        putData(ALLOWEXTENSIONOVERRIDE, Boolean.valueOf(allowextensionoverride));
     }
 
     /**
@@ -630,7 +633,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
 
     /** @see #getAllowDNOverride() */
     public void setAllowDNOverride(boolean allowdnoverride) {
-        data.put(ALLOWDNOVERRIDE, Boolean.valueOf(allowdnoverride));
+        putData(ALLOWDNOVERRIDE, Boolean.valueOf(allowdnoverride));
     }
 
     /**
@@ -648,7 +651,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
 
     /** @see #getAllowDNOverrideByEndEntityInformation() */
     public void setAllowDNOverrideByEndEntityInformation(final boolean value) {
-        data.put(ALLOWDNOVERRIDEBYEEI, Boolean.valueOf(value));
+        putData(ALLOWDNOVERRIDEBYEEI, Boolean.valueOf(value));
     }
 
     /**
@@ -670,7 +673,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      *            new value
      */
     public void setAllowCertSerialNumberOverride(boolean allowdnoverride) {
-        data.put(ALLOWCERTSNOVERIDE, Boolean.valueOf(allowdnoverride));
+        putData(ALLOWCERTSNOVERIDE, Boolean.valueOf(allowdnoverride));
     }
 
     public boolean getUseBasicConstraints() {
@@ -678,7 +681,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseBasicConstraints(boolean usebasicconstraints) {
-        data.put(USEBASICCONSTRAINTS, Boolean.valueOf(usebasicconstraints));
+        putData(USEBASICCONSTRAINTS, Boolean.valueOf(usebasicconstraints));
     }
 
     public boolean getBasicConstraintsCritical() {
@@ -686,7 +689,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setBasicConstraintsCritical(boolean basicconstraintscritical) {
-        data.put(BASICCONSTRAINTSCRITICAL, Boolean.valueOf(basicconstraintscritical));
+        putData(BASICCONSTRAINTSCRITICAL, Boolean.valueOf(basicconstraintscritical));
     }
 
     public boolean getUseKeyUsage() {
@@ -694,7 +697,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseKeyUsage(boolean usekeyusage) {
-        data.put(USEKEYUSAGE, Boolean.valueOf(usekeyusage));
+        putData(USEKEYUSAGE, Boolean.valueOf(usekeyusage));
     }
 
     public boolean getKeyUsageCritical() {
@@ -702,7 +705,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setKeyUsageCritical(boolean keyusagecritical) {
-        data.put(KEYUSAGECRITICAL, Boolean.valueOf(keyusagecritical));
+        putData(KEYUSAGECRITICAL, Boolean.valueOf(keyusagecritical));
     }
 
     public boolean getUseSubjectKeyIdentifier() {
@@ -710,7 +713,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseSubjectKeyIdentifier(boolean usesubjectkeyidentifier) {
-        data.put(USESUBJECTKEYIDENTIFIER, Boolean.valueOf(usesubjectkeyidentifier));
+        putData(USESUBJECTKEYIDENTIFIER, Boolean.valueOf(usesubjectkeyidentifier));
     }
 
     public boolean getSubjectKeyIdentifierCritical() {
@@ -718,7 +721,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setSubjectKeyIdentifierCritical(boolean subjectkeyidentifiercritical) {
-        data.put(SUBJECTKEYIDENTIFIERCRITICAL, Boolean.valueOf(subjectkeyidentifiercritical));
+        putData(SUBJECTKEYIDENTIFIERCRITICAL, Boolean.valueOf(subjectkeyidentifiercritical));
     }
 
     public boolean getUseAuthorityKeyIdentifier() {
@@ -726,7 +729,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseAuthorityKeyIdentifier(boolean useauthoritykeyidentifier) {
-        data.put(USEAUTHORITYKEYIDENTIFIER, Boolean.valueOf(useauthoritykeyidentifier));
+        putData(USEAUTHORITYKEYIDENTIFIER, Boolean.valueOf(useauthoritykeyidentifier));
     }
 
     public boolean getAuthorityKeyIdentifierCritical() {
@@ -734,7 +737,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setAuthorityKeyIdentifierCritical(boolean authoritykeyidentifiercritical) {
-        data.put(AUTHORITYKEYIDENTIFIERCRITICAL, Boolean.valueOf(authoritykeyidentifiercritical));
+        putData(AUTHORITYKEYIDENTIFIERCRITICAL, Boolean.valueOf(authoritykeyidentifiercritical));
     }
 
     public boolean getUseSubjectAlternativeName() {
@@ -742,7 +745,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseSubjectAlternativeName(boolean usesubjectalternativename) {
-        data.put(USESUBJECTALTERNATIVENAME, Boolean.valueOf(usesubjectalternativename));
+        putData(USESUBJECTALTERNATIVENAME, Boolean.valueOf(usesubjectalternativename));
     }
 
     public boolean getSubjectAlternativeNameCritical() {
@@ -750,7 +753,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setSubjectAlternativeNameCritical(boolean subjectalternativenamecritical) {
-        data.put(SUBJECTALTERNATIVENAMECRITICAL, Boolean.valueOf(subjectalternativenamecritical));
+        putData(SUBJECTALTERNATIVENAMECRITICAL, Boolean.valueOf(subjectalternativenamecritical));
     }
     
     public boolean getUseIssuerAlternativeName() {
@@ -758,7 +761,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseIssuerAlternativeName(boolean useissueralternativename) {
-        data.put(USEISSUERALTERNATIVENAME, Boolean.valueOf(useissueralternativename));
+        putData(USEISSUERALTERNATIVENAME, Boolean.valueOf(useissueralternativename));
     }
 
     public boolean getIssuerAlternativeNameCritical() {
@@ -766,7 +769,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setIssuerAlternativeNameCritical(boolean issueralternativenamecritical) {
-        data.put(ISSUERALTERNATIVENAMECRITICAL, Boolean.valueOf(issueralternativenamecritical));
+        putData(ISSUERALTERNATIVENAMECRITICAL, Boolean.valueOf(issueralternativenamecritical));
     }
 
     public boolean getUseCRLDistributionPoint() {
@@ -774,7 +777,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseCRLDistributionPoint(boolean usecrldistributionpoint) {
-        data.put(USECRLDISTRIBUTIONPOINT, Boolean.valueOf(usecrldistributionpoint));
+        putData(USECRLDISTRIBUTIONPOINT, Boolean.valueOf(usecrldistributionpoint));
     }
 
     public boolean getUseDefaultCRLDistributionPoint() {
@@ -782,7 +785,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseDefaultCRLDistributionPoint(boolean usedefaultcrldistributionpoint) {
-        data.put(USEDEFAULTCRLDISTRIBUTIONPOINT, Boolean.valueOf(usedefaultcrldistributionpoint));
+        putData(USEDEFAULTCRLDISTRIBUTIONPOINT, Boolean.valueOf(usedefaultcrldistributionpoint));
     }
 
     public boolean getCRLDistributionPointCritical() {
@@ -790,7 +793,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setCRLDistributionPointCritical(boolean crldistributionpointcritical) {
-        data.put(CRLDISTRIBUTIONPOINTCRITICAL, Boolean.valueOf(crldistributionpointcritical));
+        putData(CRLDISTRIBUTIONPOINTCRITICAL, Boolean.valueOf(crldistributionpointcritical));
     }
 
     public String getCRLDistributionPointURI() {
@@ -799,9 +802,9 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
 
     public void setCRLDistributionPointURI(String crldistributionpointuri) {
         if (crldistributionpointuri == null) {
-            data.put(CRLDISTRIBUTIONPOINTURI, "");
+            putData(CRLDISTRIBUTIONPOINTURI, "");
         } else {
-            data.put(CRLDISTRIBUTIONPOINTURI, crldistributionpointuri);
+            putData(CRLDISTRIBUTIONPOINTURI, crldistributionpointuri);
         }
     }
 
@@ -811,9 +814,9 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
 
     public void setCRLIssuer(String crlissuer) {
         if (crlissuer == null) {
-            data.put(CRLISSUER, "");
+            putData(CRLISSUER, "");
         } else {
-            data.put(CRLISSUER, crlissuer);
+            putData(CRLISSUER, crlissuer);
         }
     }
 
@@ -836,11 +839,11 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseCRLDistributionPointOnCRL(boolean usecrldistributionpointoncrl) {
-        data.put(USECRLDISTRIBUTIONPOINTONCRL, Boolean.valueOf(usecrldistributionpointoncrl));
+        putData(USECRLDISTRIBUTIONPOINTONCRL, Boolean.valueOf(usecrldistributionpointoncrl));
     }
 
     public void setUseFreshestCRL(boolean usefreshestcrl) {
-        data.put(USEFRESHESTCRL, Boolean.valueOf(usefreshestcrl));
+        putData(USEFRESHESTCRL, Boolean.valueOf(usefreshestcrl));
     }
 
     public boolean getUseCADefinedFreshestCRL() {
@@ -853,7 +856,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseCADefinedFreshestCRL(boolean usecadefinedfreshestcrl) {
-        data.put(USECADEFINEDFRESHESTCRL, Boolean.valueOf(usecadefinedfreshestcrl));
+        putData(USECADEFINEDFRESHESTCRL, Boolean.valueOf(usecadefinedfreshestcrl));
     }
 
     public String getFreshestCRLURI() {
@@ -862,9 +865,9 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
 
     public void setFreshestCRLURI(String freshestcrluri) {
         if (freshestcrluri == null) {
-            data.put(FRESHESTCRLURI, "");
+            putData(FRESHESTCRLURI, "");
         } else {
-            data.put(FRESHESTCRLURI, freshestcrluri);
+            putData(FRESHESTCRLURI, freshestcrluri);
         }
     }
 
@@ -873,7 +876,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseCertificatePolicies(boolean usecertificatepolicies) {
-        data.put(USECERTIFICATEPOLICIES, Boolean.valueOf(usecertificatepolicies));
+        putData(USECERTIFICATEPOLICIES, Boolean.valueOf(usecertificatepolicies));
     }
 
     public boolean getCertificatePoliciesCritical() {
@@ -881,7 +884,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setCertificatePoliciesCritical(boolean certificatepoliciescritical) {
-        data.put(CERTIFICATEPOLICIESCRITICAL, Boolean.valueOf(certificatepoliciescritical));
+        putData(CERTIFICATEPOLICIESCRITICAL, Boolean.valueOf(certificatepoliciescritical));
     }
 
     public List<CertificatePolicy> getCertificatePolicies() {
@@ -932,20 +935,22 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
         if (data.get(CERTIFICATE_POLICIES) == null) {
             setCertificatePolicies(new ArrayList<CertificatePolicy>());
         }
+        compiled = null;
         ((List<CertificatePolicy>) data.get(CERTIFICATE_POLICIES)).add(policy);
     }
 
     public void setCertificatePolicies(List<CertificatePolicy> policies) {
         if (policies == null) {
-            data.put(CERTIFICATE_POLICIES, new ArrayList<CertificatePolicy>(0));
+            putData(CERTIFICATE_POLICIES, new ArrayList<CertificatePolicy>(0));
         } else {
-            data.put(CERTIFICATE_POLICIES, policies);
+            putData(CERTIFICATE_POLICIES, policies);
         }
     }
 
     @SuppressWarnings("unchecked")
     public void removeCertificatePolicy(CertificatePolicy policy) {
         if (data.get(CERTIFICATE_POLICIES) != null) {
+            compiled = null;
             ((List<CertificatePolicy>) data.get(CERTIFICATE_POLICIES)).remove(policy);
         }
     }
@@ -961,7 +966,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      * @see CertificateConstants.CERTTYPE_ROOTCA etc
      */
     public void setType(int type) {
-        data.put(TYPE, Integer.valueOf(type));
+        putData(TYPE, Integer.valueOf(type));
     }
 
     public boolean isTypeSubCA() {
@@ -1005,9 +1010,9 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
                 minimumavailablebitlength = availablebitlengths.get(i);
             }
         }
-        data.put(AVAILABLEBITLENGTHS, availablebitlengths);        
-        data.put(MINIMUMAVAILABLEBITLENGTH, Integer.valueOf(minimumavailablebitlength));
-        data.put(MAXIMUMAVAILABLEBITLENGTH, Integer.valueOf(maximumavailablebitlength));        
+        putData(AVAILABLEBITLENGTHS, availablebitlengths);        
+        putData(MINIMUMAVAILABLEBITLENGTH, Integer.valueOf(minimumavailablebitlength));
+        putData(MAXIMUMAVAILABLEBITLENGTH, Integer.valueOf(maximumavailablebitlength));        
     }
 
     public void setAvailableBitLengths(int[] availablebitlengths) {
@@ -1050,7 +1055,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      * @see org.cesecore.certificates.util.core.model.AlgorithmConstants.AVAILABLE_SIGALGS
      */
     public void setSignatureAlgorithm(String signAlg) {
-        data.put(SIGNATUREALGORITHM, signAlg);
+        putData(SIGNATUREALGORITHM, signAlg);
     }
 
     public boolean[] getKeyUsage() {
@@ -1079,7 +1084,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
         for (int i = 0; i < keyusage.length; i++) {
             keyuse.add(Boolean.valueOf(keyusage[i]));
         }
-        data.put(KEYUSAGE, keyuse);
+        putData(KEYUSAGE, keyuse);
     }
 
     /**
@@ -1090,11 +1095,12 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      */
     @SuppressWarnings("unchecked")
     public void setKeyUsage(int keyusageconstant, boolean value) {
+        compiled = null;
         ((ArrayList<Boolean>) data.get(KEYUSAGE)).set(keyusageconstant, Boolean.valueOf(value));
     }
 
     public void setAllowKeyUsageOverride(boolean override) {
-        data.put(ALLOWKEYUSAGEOVERRIDE, Boolean.valueOf(override));
+        putData(ALLOWKEYUSAGEOVERRIDE, Boolean.valueOf(override));
     }
 
     public boolean getAllowKeyUsageOverride() {
@@ -1102,7 +1108,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setAllowBackdatedRevocation(boolean override) {
-        this.data.put(ALLOWBACKDATEDREVOCATION, Boolean.valueOf(override));
+        putData(ALLOWBACKDATEDREVOCATION, Boolean.valueOf(override));
     }
     public boolean getAllowBackdatedRevocation() {
         final Object value = this.data.get(ALLOWBACKDATEDREVOCATION);
@@ -1110,7 +1116,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseDocumentTypeList(boolean use) {
-        data.put(USEDOCUMENTTYPELIST, Boolean.valueOf(use));
+        putData(USEDOCUMENTTYPELIST, Boolean.valueOf(use));
     }
     
     public boolean getUseDocumentTypeList() {
@@ -1118,7 +1124,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
     
     public void setDocumentTypeListCritical(boolean critical) {
-        data.put(DOCUMENTTYPELISTCRITICAL, Boolean.valueOf(critical));
+        putData(DOCUMENTTYPELISTCRITICAL, Boolean.valueOf(critical));
     }
     
     public boolean getDocumentTypeListCritical() {
@@ -1126,7 +1132,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setDocumentTypeList(ArrayList<String> docTypes) {
-        data.put(DOCUMENTTYPELIST, docTypes);
+        putData(DOCUMENTTYPELIST, docTypes);
     }
     
     public ArrayList<String> getDocumentTypeList() {
@@ -1134,7 +1140,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
     
     public void setUseExtendedKeyUsage(boolean use) {
-        data.put(USEEXTENDEDKEYUSAGE, Boolean.valueOf(use));
+        putData(USEEXTENDEDKEYUSAGE, Boolean.valueOf(use));
     }
 
     public boolean getUseExtendedKeyUsage() {
@@ -1142,7 +1148,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setExtendedKeyUsageCritical(boolean critical) {
-        data.put(EXTENDEDKEYUSAGECRITICAL, Boolean.valueOf(critical));
+        putData(EXTENDEDKEYUSAGECRITICAL, Boolean.valueOf(critical));
     }
 
     public boolean getExtendedKeyUsageCritical() {
@@ -1165,7 +1171,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      */
     @SuppressWarnings("rawtypes")
     public void setExtendedKeyUsage(ArrayList extendedkeyusage) {
-        data.put(EXTENDEDKEYUSAGE, extendedkeyusage);
+        putData(EXTENDEDKEYUSAGE, extendedkeyusage);
     }
 
     /**
@@ -1226,7 +1232,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseLdapDnOrder(boolean use) {
-        data.put(USELDAPDNORDER, Boolean.valueOf(use));
+        putData(USELDAPDNORDER, Boolean.valueOf(use));
     }
 
     public boolean getUseMicrosoftTemplate() {
@@ -1234,7 +1240,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseMicrosoftTemplate(boolean use) {
-        data.put(USEMICROSOFTTEMPLATE, Boolean.valueOf(use));
+        putData(USEMICROSOFTTEMPLATE, Boolean.valueOf(use));
     }
 
     public String getMicrosoftTemplate() {
@@ -1242,7 +1248,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setMicrosoftTemplate(String mstemplate) {
-        data.put(MICROSOFTTEMPLATE, mstemplate);
+        putData(MICROSOFTTEMPLATE, mstemplate);
     }
 
     public boolean getUseCardNumber() {
@@ -1250,7 +1256,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseCardNumber(boolean use) {
-        data.put(USECARDNUMBER, Boolean.valueOf(use));
+        putData(USECARDNUMBER, Boolean.valueOf(use));
     }
 
     public boolean getUseCNPostfix() {
@@ -1258,7 +1264,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseCNPostfix(boolean use) {
-        data.put(USECNPOSTFIX, Boolean.valueOf(use));
+        putData(USECNPOSTFIX, Boolean.valueOf(use));
     }
 
     public String getCNPostfix() {
@@ -1266,7 +1272,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setCNPostfix(String cnpostfix) {
-        data.put(CNPOSTFIX, cnpostfix);
+        putData(CNPOSTFIX, cnpostfix);
 
     }
 
@@ -1275,7 +1281,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseSubjectDNSubSet(boolean use) {
-        data.put(USESUBJECTDNSUBSET, Boolean.valueOf(use));
+        putData(USESUBJECTDNSUBSET, Boolean.valueOf(use));
     }
 
     /**
@@ -1298,7 +1304,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
         for(String value : subjectdns) {
             convertedList.add(Integer.valueOf(value));
         }
-        data.put(SUBJECTDNSUBSET, convertedList);
+        putData(SUBJECTDNSUBSET, convertedList);
 
     }
     
@@ -1319,7 +1325,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseSubjectAltNameSubSet(boolean use) {
-        data.put(USESUBJECTALTNAMESUBSET, Boolean.valueOf(use));
+        putData(USESUBJECTALTNAMESUBSET, Boolean.valueOf(use));
     }
 
     /**
@@ -1336,7 +1342,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      * 
      */
     public void setSubjectAltNameSubSet(List<Integer> subjectaltnames) {
-        data.put(SUBJECTALTNAMESUBSET, subjectaltnames);
+        putData(SUBJECTALTNAMESUBSET, subjectaltnames);
 
     }
 
@@ -1399,7 +1405,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      */
 
     public void setAvailableCAs(List<Integer> availablecas) {
-        data.put(AVAILABLECAS, availablecas);
+        putData(AVAILABLECAS, availablecas);
     }
 
     @SuppressWarnings("unchecked")
@@ -1428,7 +1434,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      */
 
     public void setPublisherList(List<Integer> publisher) {
-        data.put(USEDPUBLISHERS, publisher);
+        putData(USEDPUBLISHERS, publisher);
     }
 
     /**
@@ -1442,7 +1448,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      * Method indicating that Path Length Constraint should be used in the BasicConstaint
      */
     public void setUsePathLengthConstraint(boolean use) {
-        data.put(USEPATHLENGTHCONSTRAINT, Boolean.valueOf(use));
+        putData(USEPATHLENGTHCONSTRAINT, Boolean.valueOf(use));
     }
 
     public int getPathLengthConstraint() {
@@ -1450,11 +1456,11 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setPathLengthConstraint(int pathlength) {
-        data.put(PATHLENGTHCONSTRAINT, Integer.valueOf(pathlength));
+        putData(PATHLENGTHCONSTRAINT, Integer.valueOf(pathlength));
     }
 
     public void setCaIssuers(List<String> caIssuers) {
-        data.put(CAISSUERS, caIssuers);
+        putData(CAISSUERS, caIssuers);
     }
 
     @SuppressWarnings("unchecked")
@@ -1468,6 +1474,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
             caIssuers.add(caIssuer);
             this.setCaIssuers(caIssuers);
         } else {
+            compiled = null;
             ((List<String>) data.get(CAISSUERS)).add(caIssuer);
         }
     }
@@ -1484,6 +1491,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     @SuppressWarnings("unchecked")
     public void removeCaIssuer(String caIssuer) {
         if (data.get(CAISSUERS) != null) {
+            compiled = null;
             ((List<String>) data.get(CAISSUERS)).remove(caIssuer);
         }
     }
@@ -1497,7 +1505,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseOcspNoCheck(boolean useocspnocheck) {
-        data.put(USEOCSPNOCHECK, Boolean.valueOf(useocspnocheck));
+        putData(USEOCSPNOCHECK, Boolean.valueOf(useocspnocheck));
     }
 
     public boolean getUseAuthorityInformationAccess() {
@@ -1505,7 +1513,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseAuthorityInformationAccess(boolean useauthorityinformationaccess) {
-        data.put(USEAUTHORITYINFORMATIONACCESS, Boolean.valueOf(useauthorityinformationaccess));
+        putData(USEAUTHORITYINFORMATIONACCESS, Boolean.valueOf(useauthorityinformationaccess));
     }
 
     public boolean getUseDefaultOCSPServiceLocator() {
@@ -1513,7 +1521,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseDefaultOCSPServiceLocator(boolean usedefaultocspservicelocator) {
-        data.put(USEDEFAULTOCSPSERVICELOCATOR, Boolean.valueOf(usedefaultocspservicelocator));
+        putData(USEDEFAULTOCSPSERVICELOCATOR, Boolean.valueOf(usedefaultocspservicelocator));
     }
 
     public String getOCSPServiceLocatorURI() {
@@ -1522,9 +1530,9 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
 
     public void setOCSPServiceLocatorURI(String ocspservicelocatoruri) {
         if (ocspservicelocatoruri == null) {
-            data.put(OCSPSERVICELOCATORURI, "");
+            putData(OCSPSERVICELOCATORURI, "");
         } else {
-            data.put(OCSPSERVICELOCATORURI, ocspservicelocatoruri);
+            putData(OCSPSERVICELOCATORURI, ocspservicelocatoruri);
         }
     }
 
@@ -1533,7 +1541,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseQCStatement(boolean useqcstatement) {
-        data.put(USEQCSTATEMENT, Boolean.valueOf(useqcstatement));
+        putData(USEQCSTATEMENT, Boolean.valueOf(useqcstatement));
     }
 
     public boolean getUsePkixQCSyntaxV2() {
@@ -1541,7 +1549,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUsePkixQCSyntaxV2(boolean pkixqcsyntaxv2) {
-        data.put(USEPKIXQCSYNTAXV2, Boolean.valueOf(pkixqcsyntaxv2));
+        putData(USEPKIXQCSYNTAXV2, Boolean.valueOf(pkixqcsyntaxv2));
     }
 
     public boolean getQCStatementCritical() {
@@ -1549,7 +1557,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setQCStatementCritical(boolean qcstatementcritical) {
-        data.put(QCSTATEMENTCRITICAL, Boolean.valueOf(qcstatementcritical));
+        putData(QCSTATEMENTCRITICAL, Boolean.valueOf(qcstatementcritical));
     }
 
     /** @return String with RAName or empty string */
@@ -1559,9 +1567,9 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
 
     public void setQCStatementRAName(String qcstatementraname) {
         if (qcstatementraname == null) {
-            data.put(QCSTATEMENTRANAME, "");
+            putData(QCSTATEMENTRANAME, "");
         } else {
-            data.put(QCSTATEMENTRANAME, qcstatementraname);
+            putData(QCSTATEMENTRANAME, qcstatementraname);
         }
     }
 
@@ -1572,9 +1580,9 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
 
     public void setQCSemanticsId(String qcsemanticsid) {
         if (qcsemanticsid == null) {
-            data.put(QCSSEMANTICSID, "");
+            putData(QCSSEMANTICSID, "");
         } else {
-            data.put(QCSSEMANTICSID, qcsemanticsid);
+            putData(QCSSEMANTICSID, qcsemanticsid);
         }
     }
 
@@ -1583,7 +1591,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseQCEtsiQCCompliance(boolean useqcetsiqccompliance) {
-        data.put(USEQCETSIQCCOMPLIANCE, Boolean.valueOf(useqcetsiqccompliance));
+        putData(USEQCETSIQCCOMPLIANCE, Boolean.valueOf(useqcetsiqccompliance));
     }
 
     public boolean getUseQCEtsiValueLimit() {
@@ -1591,7 +1599,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseQCEtsiValueLimit(boolean useqcetsivaluelimit) {
-        data.put(USEQCETSIVALUELIMIT, Boolean.valueOf(useqcetsivaluelimit));
+        putData(USEQCETSIVALUELIMIT, Boolean.valueOf(useqcetsivaluelimit));
     }
 
     public int getQCEtsiValueLimit() {
@@ -1599,7 +1607,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setQCEtsiValueLimit(int qcetsivaluelimit) {
-        data.put(QCETSIVALUELIMIT, Integer.valueOf(qcetsivaluelimit));
+        putData(QCETSIVALUELIMIT, Integer.valueOf(qcetsivaluelimit));
     }
 
     public int getQCEtsiValueLimitExp() {
@@ -1607,7 +1615,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setQCEtsiValueLimitExp(int qcetsivaluelimitexp) {
-        data.put(QCETSIVALUELIMITEXP, Integer.valueOf(qcetsivaluelimitexp));
+        putData(QCETSIVALUELIMITEXP, Integer.valueOf(qcetsivaluelimitexp));
     }
 
     /** @return String with Currency or empty string */
@@ -1617,9 +1625,9 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
 
     public void setQCEtsiValueLimitCurrency(String qcetsicaluelimitcurrency) {
         if (qcetsicaluelimitcurrency == null) {
-            data.put(QCETSIVALUELIMITCURRENCY, "");
+            putData(QCETSIVALUELIMITCURRENCY, "");
         } else {
-            data.put(QCETSIVALUELIMITCURRENCY, qcetsicaluelimitcurrency);
+            putData(QCETSIVALUELIMITCURRENCY, qcetsicaluelimitcurrency);
         }
     }
 
@@ -1628,7 +1636,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseQCEtsiRetentionPeriod(boolean useqcetsiretentionperiod) {
-        data.put(USEQCETSIRETENTIONPERIOD, Boolean.valueOf(useqcetsiretentionperiod));
+        putData(USEQCETSIRETENTIONPERIOD, Boolean.valueOf(useqcetsiretentionperiod));
     }
 
     public int getQCEtsiRetentionPeriod() {
@@ -1636,7 +1644,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setQCEtsiRetentionPeriod(int qcetsiretentionperiod) {
-        data.put(QCETSIRETENTIONPERIOD, Integer.valueOf(qcetsiretentionperiod));
+        putData(QCETSIRETENTIONPERIOD, Integer.valueOf(qcetsiretentionperiod));
     }
 
     public boolean getUseQCEtsiSignatureDevice() {
@@ -1644,7 +1652,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseQCEtsiSignatureDevice(boolean useqcetsisignaturedevice) {
-        data.put(USEQCETSISIGNATUREDEVICE, Boolean.valueOf(useqcetsisignaturedevice));
+        putData(USEQCETSISIGNATUREDEVICE, Boolean.valueOf(useqcetsisignaturedevice));
     }
 
     public boolean getUseQCCustomString() {
@@ -1652,7 +1660,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseQCCustomString(boolean useqccustomstring) {
-        data.put(USEQCCUSTOMSTRING, Boolean.valueOf(useqccustomstring));
+        putData(USEQCCUSTOMSTRING, Boolean.valueOf(useqccustomstring));
     }
 
     /** @return String with oid or empty string */
@@ -1662,9 +1670,9 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
 
     public void setQCCustomStringOid(String qccustomstringoid) {
         if (qccustomstringoid == null) {
-            data.put(QCCUSTOMSTRINGOID, "");
+            putData(QCCUSTOMSTRINGOID, "");
         } else {
-            data.put(QCCUSTOMSTRINGOID, qccustomstringoid);
+            putData(QCCUSTOMSTRINGOID, qccustomstringoid);
         }
     }
 
@@ -1675,9 +1683,9 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
 
     public void setQCCustomStringText(String qccustomstringtext) {
         if (qccustomstringtext == null) {
-            data.put(QCCUSTOMSTRINGTEXT, "");
+            putData(QCCUSTOMSTRINGTEXT, "");
         } else {
-            data.put(QCCUSTOMSTRINGTEXT, qccustomstringtext);
+            putData(QCCUSTOMSTRINGTEXT, qccustomstringtext);
         }
     }
     
@@ -1687,7 +1695,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseNameConstraints(boolean use) {
-        data.put(USENAMECONSTRAINTS, Boolean.valueOf(use));
+        putData(USENAMECONSTRAINTS, Boolean.valueOf(use));
     }
     
     public boolean getNameConstraintsCritical() {
@@ -1696,7 +1704,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setNameConstraintsCritical(boolean use) {
-        data.put(NAMECONSTRAINTSCRITICAL, Boolean.valueOf(use));
+        putData(NAMECONSTRAINTSCRITICAL, Boolean.valueOf(use));
     }
 
     public boolean getUseSubjectDirAttributes() {
@@ -1704,11 +1712,11 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setUseSubjectDirAttributes(boolean use) {
-        data.put(USESUBJECTDIRATTRIBUTES, Boolean.valueOf(use));
+        putData(USESUBJECTDIRATTRIBUTES, Boolean.valueOf(use));
     }
     
     public void setSingleActiveCertificateConstraint(final boolean enabled) {
-        data.put(USERSINGLEACTIVECERTIFICATECONSTRAINT, Boolean.valueOf(enabled));
+        putData(USERSINGLEACTIVECERTIFICATECONSTRAINT, Boolean.valueOf(enabled));
     }
     
     public boolean isSingleActiveCertificateConstraint() {
@@ -1735,7 +1743,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setCVCTerminalType(int termtype) {
-        data.put(CVCTERMINALTYPE, Integer.valueOf(termtype));
+        putData(CVCTERMINALTYPE, Integer.valueOf(termtype));
     }
 
     public int getCVCAccessRights() {
@@ -1746,7 +1754,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setCVCAccessRights(int access) {
-        data.put(CVCACCESSRIGHTS, Integer.valueOf(access));
+        putData(CVCACCESSRIGHTS, Integer.valueOf(access));
     }
     
     /**
@@ -1764,10 +1772,10 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
 
     public void setCVCLongAccessRights(byte[] access) {
         if (access == null) {
-            data.put(CVCLONGACCESSRIGHTS, null);
+            putData(CVCLONGACCESSRIGHTS, null);
         } else {
             // Convert to List<Byte> since byte[] doesn't work with database protection
-            data.put(CVCLONGACCESSRIGHTS, new ArrayList<Byte>(Arrays.asList(ArrayUtils.toObject(access))));
+            putData(CVCLONGACCESSRIGHTS, new ArrayList<Byte>(Arrays.asList(ArrayUtils.toObject(access))));
         }
     }
     
@@ -1779,7 +1787,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
 
     public void setCVCSignTermDVType(int type) {
-        data.put(CVCSIGNTERMDVTYPE, Integer.valueOf(type));
+        putData(CVCSIGNTERMDVTYPE, Integer.valueOf(type));
     }
 
     /**
@@ -1803,9 +1811,9 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      */
     public void setUsedCertificateExtensions(List<Integer> usedCertificateExtensions) {
         if (usedCertificateExtensions == null) {
-            data.put(USEDCERTIFICATEEXTENSIONS, new ArrayList<Integer>());
+            putData(USEDCERTIFICATEEXTENSIONS, new ArrayList<Integer>());
         } else {
-            data.put(USEDCERTIFICATEEXTENSIONS, usedCertificateExtensions);
+            putData(USEDCERTIFICATEEXTENSIONS, usedCertificateExtensions);
         }
     }
 
@@ -1848,7 +1856,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      * List of Integers (CAInfo.REQ_APPROVAL_ constants) of which action that requires approvals
      */
     public void setApprovalSettings(List<Integer> approvalSettings) {
-        data.put(APPROVALSETTINGS, approvalSettings);
+        putData(APPROVALSETTINGS, approvalSettings);
     }
 
     /**
@@ -1862,7 +1870,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      * The number of different administrators that needs to approve
      */
     public void setNumOfReqApprovals(int numOfReqApprovals) {
-        data.put(NUMOFREQAPPROVALS, Integer.valueOf(numOfReqApprovals));
+        putData(NUMOFREQAPPROVALS, Integer.valueOf(numOfReqApprovals));
     }
 
     /**
@@ -1899,8 +1907,8 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      * @param use True if the notBefore component should be used.
      */
     public void setUsePrivateKeyUsagePeriodNotBefore(final boolean use) {
-            data.put(USEPRIVKEYUSAGEPERIODNOTBEFORE, use);
-            data.put(USEPRIVKEYUSAGEPERIOD, use || isUsePrivateKeyUsagePeriodNotAfter());
+            putData(USEPRIVKEYUSAGEPERIODNOTBEFORE, use);
+            putData(USEPRIVKEYUSAGEPERIOD, use || isUsePrivateKeyUsagePeriodNotAfter());
     }
     
     /**
@@ -1925,8 +1933,8 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      * @param use True if the notAfter component should be used.
      */
     public void setUsePrivateKeyUsagePeriodNotAfter(final boolean use) {
-            data.put(USEPRIVKEYUSAGEPERIODNOTAFTER, use);
-            data.put(USEPRIVKEYUSAGEPERIOD, use || isUsePrivateKeyUsagePeriodNotBefore());
+            putData(USEPRIVKEYUSAGEPERIODNOTAFTER, use);
+            putData(USEPRIVKEYUSAGEPERIOD, use || isUsePrivateKeyUsagePeriodNotBefore());
     }
     
     /**
@@ -1943,7 +1951,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      * @param start Offset from certificate issuance.
      */
     public void setPrivateKeyUsagePeriodStartOffset(final long start) {
-        data.put(PRIVKEYUSAGEPERIODSTARTOFFSET, start);
+        putData(PRIVKEYUSAGEPERIODSTARTOFFSET, start);
     }
 
     /**
@@ -1959,7 +1967,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      * @param validity The length.
      */
     public void setPrivateKeyUsagePeriodLength(final long validity) {
-        data.put(PRIVKEYUSAGEPERIODLENGTH, validity);
+        putData(PRIVKEYUSAGEPERIODLENGTH, validity);
     }
     
     /**
@@ -1973,7 +1981,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
     
     public void setUseCertificateTransparencyInCerts(boolean use) {
-        data.put(USECERTIFICATETRANSPARENCYINCERTS, use);
+        putData(USECERTIFICATETRANSPARENCYINCERTS, use);
     }
     
     /**
@@ -1987,7 +1995,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
     
     public void setUseCertificateTransparencyInOCSP(boolean use) {
-        data.put(USECERTIFICATETRANSPARENCYINOCSP, use);
+        putData(USECERTIFICATETRANSPARENCYINOCSP, use);
     }
     
     /**
@@ -2003,7 +2011,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
     
     public void setUseCertificateTransparencyInPublishers(boolean use) {
-        data.put(USECERTIFICATETRANSPARENCYINPUBLISHERS, use);
+        putData(USECERTIFICATETRANSPARENCYINPUBLISHERS, use);
     }
     
     /**
@@ -2017,7 +2025,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
     
     public void setUseCTSubmitExisting(boolean use) {
-        data.put(CTSUBMITEXISTING, use);
+        putData(CTSUBMITEXISTING, use);
     }
     
     /**
@@ -2033,7 +2041,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
     
     public void setEnabledCTLogs(Set<Integer> logIds) {
-        data.put(CTLOGS, new LinkedHashSet<Integer>(logIds));
+        putData(CTLOGS, new LinkedHashSet<Integer>(logIds));
     }
     
     /**
@@ -2049,7 +2057,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
     
     public void setCTMinSCTs(int minSCTs) {
-        data.put(CTMINSCTS, minSCTs);
+        putData(CTMINSCTS, minSCTs);
     }
     
     /**
@@ -2063,7 +2071,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
     
     public void setCTMinSCTsOCSP(int minSCTsOCSP) {
-        data.put(CTMINSCTSOCSP, minSCTsOCSP);
+        putData(CTMINSCTSOCSP, minSCTsOCSP);
     }
     
     /**
@@ -2079,7 +2087,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
     
     public void setCTMaxSCTs(int maxSCTs) {
-        data.put(CTMAXSCTS, maxSCTs);
+        putData(CTMAXSCTS, maxSCTs);
     }
     
     /**
@@ -2093,7 +2101,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
     
     public void setCTMaxSCTsOCSP(int maxSCTsOCSP) {
-        data.put(CTMAXSCTSOCSP, maxSCTsOCSP);
+        putData(CTMAXSCTSOCSP, maxSCTsOCSP);
     }
     
     /** Number of times to retry connecting to a Certificate Transparency log */
@@ -2105,9 +2113,37 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
     }
     
     public void setCTMaxRetries(int numRetries) {
-        data.put(CTMAXRETRIES, numRetries);
+        putData(CTMAXRETRIES, numRetries);
     }
     
+    /**
+     * Returns an immutable view of the values used when issuing certificates with this profile. The view is created on the first call and
+     * kept until the profile is changed. Clones share the view of the profile they were cloned from, so the view of a cached profile is
+     * only created once.
+     *
+     * @return the compiled view of the profile, never null
+     */
+    public CompiledCertificateProfile getCompiled() {
+        CompiledCertificateProfile ret = compiled;
+        if (ret == null) {
+            ret = new CompiledCertificateProfile(this);
+            compiled = ret;
+        }
+        return ret;
+    }
+
+    /** Stores a value in the data map and drops the compiled view, that no longer matches the profile */
+    private void putData(final Object key, final Object value) {
+        compiled = null;
+        data.put(key, value);
+    }
+
+    @Override
+    public void loadData(final Object data) {
+        compiled = null;
+        super.loadData(data);
+    }
+
     public CertificateProfile clone() throws CloneNotSupportedException {
         final CertificateProfile clone = new CertificateProfile(0);
         // We need to make a deep copy of the hashmap here
@@ -2120,6 +2156,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
                 }
                 clone.data.put(entry.getKey(), value);
         }
+        clone.compiled = compiled;
         return clone;
     }
 
@@ -2132,7 +2169,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
      * Function setting the current version of the class data. Used for JUnit testing
      */
     protected void setVersion(float version) {
-        data.put(VERSION, Float.valueOf(version));
+        putData(VERSION, Float.valueOf(version));
     }
 
     /**
@@ -2148,29 +2185,29 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
             log.info(msg);
 
             if (data.get(ALLOWKEYUSAGEOVERRIDE) == null) {
-                data.put(ALLOWKEYUSAGEOVERRIDE, Boolean.TRUE);
+                putData(ALLOWKEYUSAGEOVERRIDE, Boolean.TRUE);
             }
             if (data.get(USEEXTENDEDKEYUSAGE) == null) {
-                data.put(USEEXTENDEDKEYUSAGE, Boolean.FALSE);
+                putData(USEEXTENDEDKEYUSAGE, Boolean.FALSE);
             }
             if (data.get(EXTENDEDKEYUSAGE) == null) {
-                data.put(EXTENDEDKEYUSAGE, new ArrayList<Object>());
+                putData(EXTENDEDKEYUSAGE, new ArrayList<Object>());
             }
             if (data.get(EXTENDEDKEYUSAGECRITICAL) == null) {
-                data.put(EXTENDEDKEYUSAGECRITICAL, Boolean.FALSE);
+                putData(EXTENDEDKEYUSAGECRITICAL, Boolean.FALSE);
             }
             if (data.get(AVAILABLECAS) == null) {
                 ArrayList<Integer> availablecas = new ArrayList<Integer>();
                 availablecas.add(Integer.valueOf(ANYCA));
-                data.put(AVAILABLECAS, availablecas);
+                putData(AVAILABLECAS, availablecas);
             }
             if (data.get(USEDPUBLISHERS) == null) {
-                data.put(USEDPUBLISHERS, new ArrayList<Integer>());
+                putData(USEDPUBLISHERS, new ArrayList<Integer>());
             }
             if ( (data.get(USEOCSPSERVICELOCATOR) == null) && (data.get(USEAUTHORITYINFORMATIONACCESS) == null) ) {
                 // Only set this flag if we have not already set the new flag USEAUTHORITYINFORMATIONACCESS
                 // setUseOCSPServiceLocator(false);
-                data.put(USEOCSPSERVICELOCATOR, Boolean.FALSE);
+                putData(USEOCSPSERVICELOCATOR, Boolean.FALSE);
                 setOCSPServiceLocatorURI("");
             }
 
@@ -2286,7 +2323,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
             if ( (data.get(USECAISSUERS) == null) && (data.get(USEAUTHORITYINFORMATIONACCESS) == null) ) {
                 // Only set this flag if we have not already set the new flag USEAUTHORITYINFORMATIONACCESS
                 // setUseCaIssuers(false); // v24
-                data.put(USECAISSUERS, Boolean.FALSE); // v24
+                putData(USECAISSUERS, Boolean.FALSE); // v24
                 setCaIssuers(new ArrayList<String>());
             }
             if ( ((data.get(USEOCSPSERVICELOCATOR) != null) || (data.get(USECAISSUERS) != null)) && (data.get(USEAUTHORITYINFORMATIONACCESS) == null) ) {
@@ -2377,7 +2414,7 @@ public class CertificateProfile extends UpgradeableDataHashMap implements Serial
             	setDocumentTypeList(new ArrayList<String>());
             }
             
-            data.put(VERSION, new Float(LATEST_VERSION));
+            putData(VERSION, new Float(LATEST_VERSION));
         }
         log.trace("<upgrade");
     }
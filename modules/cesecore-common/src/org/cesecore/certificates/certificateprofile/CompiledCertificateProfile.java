@@ -0,0 +1,154 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificateprofile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.cesecore.util.CertTools;
+
+/**
+ * Immutable view of the values of a {@link CertificateProfile} that are read when certificates are issued.
+ *
+ * The values are read from the data map of the profile once, when the view is created, and are kept as primitives and pre-parsed objects,
+ * so that issuing a certificate does not have to look up, unbox and convert the values of the map again. The data map of
+ * CertificateProfile is still what is stored and edited. Get the view of a profile with {@link CertificateProfile#getCompiled()}.
+ *
+ * @version $Id$
+ */
+public final class CompiledCertificateProfile {
+
+    private final int type;
+    private final String signatureAlgorithm;
+    private final long validity;
+    private final boolean allowValidityOverride;
+    private final boolean allowCertSerialNumberOverride;
+    private final boolean useSubjectDNSubSet;
+    private final boolean useCNPostfix;
+    private final String cnPostfix;
+    private final boolean useLdapDnOrder;
+    private final boolean allowDNOverride;
+    private final boolean allowDNOverrideByEndEntityInformation;
+    private final boolean useSubjectAltNameSubSet;
+    private final boolean useNameConstraints;
+    private final boolean useCertificateTransparencyInCerts;
+    private final boolean allowExtensionOverride;
+    private final boolean allowKeyUsageOverride;
+    private final boolean useKeyUsage;
+    private final boolean keyUsageCritical;
+    private final int keyUsage;
+    private final boolean extendedKeyUsageCritical;
+    private final ExtendedKeyUsage extendedKeyUsage;
+    private final List<ASN1ObjectIdentifier> usedStandardCertificateExtensions;
+    private final List<Integer> usedCertificateExtensions;
+
+    CompiledCertificateProfile(final CertificateProfile certProfile) {
+        type = certProfile.getType();
+        signatureAlgorithm = certProfile.getSignatureAlgorithm();
+        validity = certProfile.getValidity();
+        allowValidityOverride = certProfile.getAllowValidityOverride();
+        allowCertSerialNumberOverride = certProfile.getAllowCertSerialNumberOverride();
+        useSubjectDNSubSet = certProfile.getUseSubjectDNSubSet();
+        useCNPostfix = certProfile.getUseCNPostfix();
+        cnPostfix = certProfile.getCNPostfix();
+        useLdapDnOrder = certProfile.getUseLdapDnOrder();
+        allowDNOverride = certProfile.getAllowDNOverride();
+        allowDNOverrideByEndEntityInformation = certProfile.getAllowDNOverrideByEndEntityInformation();
+        useSubjectAltNameSubSet = certProfile.getUseSubjectAltNameSubSet();
+        useNameConstraints = certProfile.getUseNameConstraints();
+        useCertificateTransparencyInCerts = certProfile.isUseCertificateTransparencyInCerts();
+        allowExtensionOverride = certProfile.getAllowExtensionOverride();
+        allowKeyUsageOverride = certProfile.getAllowKeyUsageOverride();
+        useKeyUsage = certProfile.getUseKeyUsage();
+        keyUsageCritical = certProfile.getKeyUsageCritical();
+        keyUsage = CertTools.sunKeyUsageToBC(certProfile.getKeyUsage());
+        extendedKeyUsageCritical = certProfile.getExtendedKeyUsageCritical();
+        extendedKeyUsage = createExtendedKeyUsage(certProfile.getExtendedKeyUsageOids());
+        final List<String> standardOids = certProfile.getUsedStandardCertificateExtensions();
+        final ASN1ObjectIdentifier[] standardExtensions = new ASN1ObjectIdentifier[standardOids.size()];
+        for (int i = 0; i < standardExtensions.length; i++) {
+            standardExtensions[i] = new ASN1ObjectIdentifier(standardOids.get(i));
+        }
+        usedStandardCertificateExtensions = Collections.unmodifiableList(Arrays.asList(standardExtensions));
+        usedCertificateExtensions = Collections.unmodifiableList(new ArrayList<Integer>(certProfile.getUsedCertificateExtensions()));
+    }
+
+    /** @return the value of the extended key usage extension, or null if there are no OIDs or they can not be parsed */
+    private static ExtendedKeyUsage createExtendedKeyUsage(final List<String> oids) {
+        if (oids.isEmpty()) {
+            return null;
+        }
+        final KeyPurposeId[] usages = new KeyPurposeId[oids.size()];
+        try {
+            for (int i = 0; i < usages.length; i++) {
+                usages[i] = KeyPurposeId.getInstance(new ASN1ObjectIdentifier(oids.get(i)));
+            }
+        } catch (IllegalArgumentException e) {
+            // Reported when a certificate is issued with the profile, like before
+            return null;
+        }
+        return new ExtendedKeyUsage(usages);
+    }
+
+    /** @see CertificateProfile#getType() */
+    public int getType() { return type; }
+    /** @see CertificateProfile#getSignatureAlgorithm() */
+    public String getSignatureAlgorithm() { return signatureAlgorithm; }
+    /** @see CertificateProfile#getValidity() */
+    public long getValidity() { return validity; }
+    /** @see CertificateProfile#getAllowValidityOverride() */
+    public boolean getAllowValidityOverride() { return allowValidityOverride; }
+    /** @see CertificateProfile#getAllowCertSerialNumberOverride() */
+    public boolean getAllowCertSerialNumberOverride() { return allowCertSerialNumberOverride; }
+    /** @see CertificateProfile#getUseSubjectDNSubSet() */
+    public boolean getUseSubjectDNSubSet() { return useSubjectDNSubSet; }
+    /** @see CertificateProfile#getUseCNPostfix() */
+    public boolean getUseCNPostfix() { return useCNPostfix; }
+    /** @see CertificateProfile#getCNPostfix() */
+    public String getCNPostfix() { return cnPostfix; }
+    /** @see CertificateProfile#getUseLdapDnOrder() */
+    public boolean getUseLdapDnOrder() { return useLdapDnOrder; }
+    /** @see CertificateProfile#getAllowDNOverride() */
+    public boolean getAllowDNOverride() { return allowDNOverride; }
+    /** @see CertificateProfile#getAllowDNOverrideByEndEntityInformation() */
+    public boolean getAllowDNOverrideByEndEntityInformation() { return allowDNOverrideByEndEntityInformation; }
+    /** @see CertificateProfile#getUseSubjectAltNameSubSet() */
+    public boolean getUseSubjectAltNameSubSet() { return useSubjectAltNameSubSet; }
+    /** @see CertificateProfile#getUseNameConstraints() */
+    public boolean getUseNameConstraints() { return useNameConstraints; }
+    /** @see CertificateProfile#isUseCertificateTransparencyInCerts() */
+    public boolean isUseCertificateTransparencyInCerts() { return useCertificateTransparencyInCerts; }
+    /** @see CertificateProfile#getAllowExtensionOverride() */
+    public boolean getAllowExtensionOverride() { return allowExtensionOverride; }
+    /** @see CertificateProfile#getAllowKeyUsageOverride() */
+    public boolean getAllowKeyUsageOverride() { return allowKeyUsageOverride; }
+    /** @see CertificateProfile#getUseKeyUsage() */
+    public boolean getUseKeyUsage() { return useKeyUsage; }
+    /** @see CertificateProfile#getKeyUsageCritical() */
+    public boolean getKeyUsageCritical() { return keyUsageCritical; }
+    /** @return the key usage of the profile as bits of org.bouncycastle.jce.X509KeyUsage, or -1 if it is not set */
+    public int getKeyUsage() { return keyUsage; }
+    /** @see CertificateProfile#getExtendedKeyUsageCritical() */
+    public boolean getExtendedKeyUsageCritical() { return extendedKeyUsageCritical; }
+    /** @return the value of the extended key usage extension, or null if the profile has no valid extended key usage OIDs */
+    public ExtendedKeyUsage getExtendedKeyUsage() { return extendedKeyUsage; }
+    /** @return the object identifiers of the standard certificate extensions used by the profile, never null */
+    public List<ASN1ObjectIdentifier> getUsedStandardCertificateExtensions() { return usedStandardCertificateExtensions; }
+    /** @return the ids of the custom certificate extensions used by the profile, never null */
+    public List<Integer> getUsedCertificateExtensions() { return usedCertificateExtensions; }
+}
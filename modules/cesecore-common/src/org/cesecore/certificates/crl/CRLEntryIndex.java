@@ -0,0 +1,193 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The entries of the latest full CRL of a CA, sorted by serial number and kept DER encoded. The next full CRL can then be
+ * created by merging in only the certificates whose revocation status has changed, instead of reading and encoding all
+ * revoked certificates of the CA again. See {@link CRLEntryIndexCache}.
+ *
+ * The index is a read only collection of {@link RevokedCertInfo}, so it can be passed to CRL generation like any other
+ * collection of revoked certificates. Streamed CRL generation (see {@link StreamingX509CRLBuilder}) uses the already
+ * encoded entries from {@link #getEncodedEntries()} directly.
+ *
+ * The implementation is not thread safe.
+ *
+ * @version $Id$
+ */
+public class CRLEntryIndex extends AbstractCollection<RevokedCertInfo> {
+
+    private static class IndexEntry {
+        final byte[] fingerprint;
+        final long revocationDate;
+        final int reason;
+        final long expireDate;
+        final byte[] encoded;
+
+        IndexEntry(final byte[] fingerprint, final long revocationDate, final int reason, final long expireDate, final byte[] encoded) {
+            this.fingerprint = fingerprint;
+            this.revocationDate = revocationDate;
+            this.reason = reason;
+            this.expireDate = expireDate;
+            this.encoded = encoded;
+        }
+    }
+
+    private final String issuerDN;
+    private final TreeMap<BigInteger, IndexEntry> entries = new TreeMap<BigInteger, IndexEntry>();
+    private int crlNumber = -1;
+    private long lastUpdateTime = 0;
+    private int incrementalUpdates = 0;
+
+    /** @param issuerDN the issuer DN of the CRLs, as stored in CertificateData */
+    public CRLEntryIndex(final String issuerDN) {
+        this.issuerDN = issuerDN;
+    }
+
+    public String getIssuerDN() {
+        return issuerDN;
+    }
+
+    /** @return the CRL number of the full CRL that was created from this index, or -1 if it has not been used yet */
+    public int getCrlNumber() {
+        return crlNumber;
+    }
+
+    public void setCrlNumber(final int crlNumber) {
+        this.crlNumber = crlNumber;
+    }
+
+    /** @return the time when the revoked certificates were last read from the database to update this index */
+    public long getLastUpdateTime() {
+        return lastUpdateTime;
+    }
+
+    public void setLastUpdateTime(final long lastUpdateTime) {
+        this.lastUpdateTime = lastUpdateTime;
+    }
+
+    /** @return the number of times changes have been merged into this index since all revoked certificates were read */
+    public int getIncrementalUpdates() {
+        return incrementalUpdates;
+    }
+
+    public void setIncrementalUpdates(final int incrementalUpdates) {
+        this.incrementalUpdates = incrementalUpdates;
+    }
+
+    /**
+     * Adds a revoked certificate, or replaces the entry with the same serial number. The entry is encoded right away.
+     * @param revokedCertInfo the revoked certificate, it must have a revocation date
+     */
+    public void put(final RevokedCertInfo revokedCertInfo) throws IOException {
+        final BigInteger serialNumber = revokedCertInfo.getUserCertificate();
+        final Date revocationDate = revokedCertInfo.getRevocationDate();
+        final byte[] encoded = StreamingX509CRLBuilder.encodeCRLEntry(serialNumber, revocationDate, revokedCertInfo.getReason());
+        final Date expireDate = revokedCertInfo.getExpireDate();
+        final String fingerprint = revokedCertInfo.getCertificateFingerprint();
+        entries.put(serialNumber, new IndexEntry(fingerprint == null ? null : fingerprint.getBytes(), revocationDate.getTime(),
+                revokedCertInfo.getReason(), expireDate == null ? 0 : expireDate.getTime(), encoded));
+    }
+
+    /**
+     * Removes the entry of a certificate that is no longer revoked.
+     * @return true if there was an entry for the serial number
+     */
+    public boolean removeEntry(final BigInteger serialNumber) {
+        return entries.remove(serialNumber) != null;
+    }
+
+    /**
+     * Removes all entries of certificates that expired before the given date.
+     * @return the removed entries
+     */
+    public List<RevokedCertInfo> removeExpired(final Date expiredBefore) {
+        final List<RevokedCertInfo> removed = new ArrayList<RevokedCertInfo>();
+        final Iterator<Map.Entry<BigInteger, IndexEntry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<BigInteger, IndexEntry> mapEntry = iterator.next();
+            if (mapEntry.getValue().expireDate < expiredBefore.getTime()) {
+                removed.add(toRevokedCertInfo(mapEntry.getKey(), mapEntry.getValue()));
+                iterator.remove();
+            }
+        }
+        return removed;
+    }
+
+    /** @return the DER encoded entries, in serial number order */
+    public Iterable<byte[]> getEncodedEntries() {
+        return new Iterable<byte[]>() {
+            @Override
+            public Iterator<byte[]> iterator() {
+                final Iterator<IndexEntry> iterator = entries.values().iterator();
+                return new Iterator<byte[]>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public byte[] next() {
+                        return iterator.next().encoded;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public Iterator<RevokedCertInfo> iterator() {
+        final Iterator<Map.Entry<BigInteger, IndexEntry>> iterator = entries.entrySet().iterator();
+        return new Iterator<RevokedCertInfo>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public RevokedCertInfo next() {
+                final Map.Entry<BigInteger, IndexEntry> mapEntry = iterator.next();
+                return toRevokedCertInfo(mapEntry.getKey(), mapEntry.getValue());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    private static RevokedCertInfo toRevokedCertInfo(final BigInteger serialNumber, final IndexEntry entry) {
+        return new RevokedCertInfo(entry.fingerprint, serialNumber.toByteArray(), entry.revocationDate, entry.reason, entry.expireDate);
+    }
+}
@@ -0,0 +1,47 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the {@link CRLEntryIndex} of the latest full CRL created by this node for each CA, used for incremental CRL generation.
+ *
+ * An index is taken out of the cache while a CRL is created from it and only put back when the CRL has been created. If
+ * CRL generation fails, or if two CRLs for the same CA are created at the same time, the next CRL is simply created from
+ * all revoked certificates in the database again.
+ *
+ * @version $Id$
+ */
+public enum CRLEntryIndexCache {
+    INSTANCE;
+
+    private final ConcurrentHashMap<Integer, CRLEntryIndex> indexes = new ConcurrentHashMap<Integer, CRLEntryIndex>();
+
+    /**
+     * Removes the index of a CA from the cache.
+     * @return the index or null if there is no index for the CA
+     */
+    public CRLEntryIndex take(final int caId) {
+        return indexes.remove(Integer.valueOf(caId));
+    }
+
+    /** Puts the index of a CA in the cache, replacing any existing index. */
+    public void put(final int caId, final CRLEntryIndex index) {
+        indexes.put(Integer.valueOf(caId), index);
+    }
+
+    public void flush() {
+        indexes.clear();
+    }
+}
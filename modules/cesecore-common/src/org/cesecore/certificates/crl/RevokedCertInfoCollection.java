@@ -0,0 +1,329 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Memory efficient collection of {@link RevokedCertInfo}, stored column by column in primitive arrays.
+ *
+ * The revocation dates, expire dates and reasons are kept in arrays of their own, and the serial number and fingerprint of each entry
+ * are packed into a shared byte array. Fingerprints in lower case hex (as stored in CertificateData) take half their string length.
+ * There is no Java serialization or compression involved, so adding and reading entries is cheap, and the collection can be iterated
+ * any number of times. Each call to {@link Iterator#next()} returns a new RevokedCertInfo, so changes to the returned objects are not
+ * stored in the collection.
+ *
+ * Example use-case: a RevokedCertInfo with a 16 byte serial number and a SHA-1 fingerprint takes 60 bytes.
+ *
+ * The serial numbers and fingerprints of all entries must fit in one byte array, so the collection can hold about 55 million entries
+ * like the one above. Adding more throws an IllegalStateException.
+ *
+ * The implementation is not thread safe.
+ *
+ * @version $Id$
+ */
+public class RevokedCertInfoCollection extends AbstractCollection<RevokedCertInfo> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+    /** Some VMs can not allocate arrays of exactly Integer.MAX_VALUE elements */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    /** Fingerprint encodings */
+    private static final byte FINGERPRINT_NULL = 0;
+    private static final byte FINGERPRINT_RAW = 1;
+    private static final byte FINGERPRINT_HEX = 2;
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+
+    private int size = 0;
+    private long[] revocationDates;
+    private long[] expireDates;
+    private byte[] reasons;
+    /** Offset of each entry in data: serial number length (0 for null), serial number, fingerprint encoding, fingerprint length, fingerprint */
+    private int[] offsets;
+    private byte[] data;
+    private int dataLength = 0;
+    private final int maxDataLength;
+
+    public RevokedCertInfoCollection() {
+        this(MAX_ARRAY_LENGTH);
+    }
+
+    /** Package-private for unit tests. */
+    RevokedCertInfoCollection(final int maxDataLength) {
+        this.maxDataLength = maxDataLength;
+        clear();
+    }
+
+    @Override
+    public boolean add(final RevokedCertInfo revokedCertInfo) {
+        if (revokedCertInfo == null) {
+            return false;
+        }
+        final Date revocationDate = revokedCertInfo.getRevocationDate();
+        final Date expireDate = revokedCertInfo.getExpireDate();
+        final BigInteger serialNumber = revokedCertInfo.getUserCertificate();
+        final String fingerprint = revokedCertInfo.getCertificateFingerprint();
+        add(fingerprint == null ? null : fingerprint.getBytes(), serialNumber == null ? null : serialNumber.toByteArray(),
+                revocationDate == null ? 0 : revocationDate.getTime(), revokedCertInfo.getReason(), expireDate == null ? 0 : expireDate.getTime());
+        return true;
+    }
+
+    /**
+     * Adds an entry without creating a RevokedCertInfo. The parameters are the same as for
+     * {@link RevokedCertInfo#RevokedCertInfo(byte[], byte[], long, int, long)}.
+     */
+    public void add(final byte[] fingerprint, final byte[] serialNumber, final long revocationDate, final int reason, final long expireDate) {
+        if (serialNumber != null && (serialNumber.length == 0 || serialNumber.length > 255)) {
+            throw new IllegalArgumentException("Unsupported serial number length " + serialNumber.length + ".");
+        }
+        if (fingerprint != null && fingerprint.length > 255) {
+            throw new IllegalArgumentException("Unsupported fingerprint length " + fingerprint.length + ".");
+        }
+        if (reason < Byte.MIN_VALUE || reason > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported revocation reason " + reason + ".");
+        }
+        final boolean hex = fingerprint != null && isLowerCaseHex(fingerprint);
+        final int fingerprintLength = fingerprint == null ? 0 : (hex ? fingerprint.length / 2 : fingerprint.length);
+        // Checked before anything is changed, so the collection is still usable after a failed add
+        ensureDataCapacity((long) dataLength + 3 + (serialNumber == null ? 0 : serialNumber.length) + fingerprintLength);
+        if (size == offsets.length) {
+            if (size == MAX_ARRAY_LENGTH) {
+                throw new IllegalStateException("The collection is full with " + size + " entries.");
+            }
+            final int capacity = (int) Math.min(MAX_ARRAY_LENGTH, Math.max(INITIAL_CAPACITY, size + (long) (size >> 1)));
+            revocationDates = Arrays.copyOf(revocationDates, capacity);
+            expireDates = Arrays.copyOf(expireDates, capacity);
+            reasons = Arrays.copyOf(reasons, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+        revocationDates[size] = revocationDate;
+        expireDates[size] = expireDate;
+        reasons[size] = (byte) reason;
+        offsets[size] = dataLength;
+        if (serialNumber == null) {
+            data[dataLength++] = 0;
+        } else {
+            data[dataLength++] = (byte) serialNumber.length;
+            System.arraycopy(serialNumber, 0, data, dataLength, serialNumber.length);
+            dataLength += serialNumber.length;
+        }
+        if (fingerprint == null) {
+            data[dataLength++] = FINGERPRINT_NULL;
+            data[dataLength++] = 0;
+        } else if (hex) {
+            data[dataLength++] = FINGERPRINT_HEX;
+            data[dataLength++] = (byte) fingerprintLength;
+            for (int i = 0; i < fingerprint.length; i += 2) {
+                data[dataLength++] = (byte) ((hexValue(fingerprint[i]) << 4) | hexValue(fingerprint[i + 1]));
+            }
+        } else {
+            data[dataLength++] = FINGERPRINT_RAW;
+            data[dataLength++] = (byte) fingerprintLength;
+            System.arraycopy(fingerprint, 0, data, dataLength, fingerprint.length);
+            dataLength += fingerprint.length;
+        }
+        size++;
+    }
+
+    /** @throws IllegalStateException if the serial numbers and fingerprints would not fit in one byte array */
+    private void ensureDataCapacity(final long capacity) {
+        if (capacity > maxDataLength) {
+            throw new IllegalStateException("The collection is full with " + size + " entries, that take " + dataLength
+                    + " bytes of serial numbers and fingerprints.");
+        }
+        if (capacity > data.length) {
+            data = Arrays.copyOf(data, (int) Math.min(maxDataLength, Math.max(capacity, data.length + (long) (data.length >> 1))));
+        }
+    }
+
+    private static boolean isLowerCaseHex(final byte[] fingerprint) {
+        if (fingerprint.length % 2 != 0) {
+            return false;
+        }
+        for (final byte b : fingerprint) {
+            if (!((b >= '0' && b <= '9') || (b >= 'a' && b <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hexValue(final byte b) {
+        return b <= '9' ? b - '0' : b - 'a' + 10;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        revocationDates = new long[INITIAL_CAPACITY];
+        expireDates = new long[INITIAL_CAPACITY];
+        reasons = new byte[INITIAL_CAPACITY];
+        offsets = new int[INITIAL_CAPACITY];
+        data = new byte[Math.min(INITIAL_CAPACITY * 32, maxDataLength)];
+        dataLength = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** @return the serial number of the entry at the given position, as returned by BigInteger.toByteArray(), or null */
+    private byte[] getSerialNumberBytes(final int index) {
+        final int offset = offsets[index];
+        final int length = data[offset] & 0xff;
+        return length == 0 ? null : Arrays.copyOfRange(data, offset + 1, offset + 1 + length);
+    }
+
+    /** @return the fingerprint of the entry at the given position, as returned by String.getBytes(), or null */
+    private byte[] getFingerprintBytes(final int index) {
+        int offset = offsets[index];
+        offset += 1 + (data[offset] & 0xff);
+        final byte encoding = data[offset];
+        final int length = data[offset + 1] & 0xff;
+        offset += 2;
+        if (encoding == FINGERPRINT_NULL) {
+            return null;
+        } else if (encoding == FINGERPRINT_RAW) {
+            return Arrays.copyOfRange(data, offset, offset + length);
+        }
+        final byte[] fingerprint = new byte[length * 2];
+        for (int i = 0; i < length; i++) {
+            final int b = data[offset + i] & 0xff;
+            fingerprint[2 * i] = HEX_DIGITS[b >> 4];
+            fingerprint[2 * i + 1] = HEX_DIGITS[b & 0x0f];
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Compares the serial numbers of two entries, in the same order as BigInteger.compareTo, but without creating any objects.
+     * Entries without serial number are first.
+     */
+    private int compareSerialNumbers(final int index1, final int index2) {
+        final int offset1 = offsets[index1];
+        final int offset2 = offsets[index2];
+        final int length1 = data[offset1] & 0xff;
+        final int length2 = data[offset2] & 0xff;
+        if (length1 == 0 || length2 == 0) {
+            return length1 == 0 ? (length2 == 0 ? 0 : -1) : 1;
+        }
+        // Two's complement with minimal length, so the sign is in the first byte
+        final boolean negative1 = data[offset1 + 1] < 0;
+        final boolean negative2 = data[offset2 + 1] < 0;
+        if (negative1 != negative2) {
+            return negative1 ? -1 : 1;
+        }
+        if (length1 != length2) {
+            // A longer positive number is larger, and a longer negative number is smaller
+            return (length1 < length2) != negative1 ? -1 : 1;
+        }
+        for (int i = 1; i <= length1; i++) {
+            final int b1 = data[offset1 + i] & 0xff;
+            final int b2 = data[offset2 + i] & 0xff;
+            if (b1 != b2) {
+                return b1 < b2 ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    /** Sorts the entries by serial number, so they are returned in that order by the iterator. */
+    public void sortBySerialNumber() {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        // Bottom-up merge sort of the entry positions
+        int[] buffer = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int start = 0; start < size; start += 2 * width) {
+                final int middle = Math.min(start + width, size);
+                final int end = Math.min(start + 2 * width, size);
+                int left = start;
+                int right = middle;
+                for (int i = start; i < end; i++) {
+                    if (left < middle && (right >= end || compareSerialNumbers(order[left], order[right]) <= 0)) {
+                        buffer[i] = order[left++];
+                    } else {
+                        buffer[i] = order[right++];
+                    }
+                }
+            }
+            final int[] tmp = order;
+            order = buffer;
+            buffer = tmp;
+        }
+        // Rearrange the columns in the sorted order
+        final long[] sortedRevocationDates = new long[Math.max(INITIAL_CAPACITY, size)];
+        final long[] sortedExpireDates = new long[sortedRevocationDates.length];
+        final byte[] sortedReasons = new byte[sortedRevocationDates.length];
+        final int[] sortedOffsets = new int[sortedRevocationDates.length];
+        for (int i = 0; i < size; i++) {
+            sortedRevocationDates[i] = revocationDates[order[i]];
+            sortedExpireDates[i] = expireDates[order[i]];
+            sortedReasons[i] = reasons[order[i]];
+            sortedOffsets[i] = offsets[order[i]];
+        }
+        revocationDates = sortedRevocationDates;
+        expireDates = sortedExpireDates;
+        reasons = sortedReasons;
+        offsets = sortedOffsets;
+    }
+
+    @Override
+    public Iterator<RevokedCertInfo> iterator() {
+        return new Iterator<RevokedCertInfo>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public RevokedCertInfo next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                final int i = next++;
+                return new RevokedCertInfo(getFingerprintBytes(i), getSerialNumberBytes(i), revocationDates[i], reasons[i], expireDates[i]);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** Trims the arrays to the current size before serialization */
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        final int capacity = Math.max(1, size);
+        revocationDates = Arrays.copyOf(revocationDates, capacity);
+        expireDates = Arrays.copyOf(expireDates, capacity);
+        reasons = Arrays.copyOf(reasons, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        data = Arrays.copyOf(data, Math.max(1, dataLength));
+        out.defaultWriteObject();
+    }
+}
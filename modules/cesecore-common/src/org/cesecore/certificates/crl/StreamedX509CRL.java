@@ -0,0 +1,89 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+
+/**
+ * A CRL produced by {@link StreamingX509CRLBuilder}. Holds the encoded CRL and the few values that are needed
+ * for storing it, so the CRL never has to be parsed into an {@link org.bouncycastle.cert.X509CRLHolder}.
+ *
+ * @version $Id$
+ */
+public class StreamedX509CRL {
+
+    private final byte[] encoded;
+    private final int tbsOffset;
+    private final int tbsLength;
+    private final AlgorithmIdentifier signatureAlgorithm;
+    private final byte[] signature;
+    private final X500Name issuer;
+    private final Date thisUpdate;
+    private final Date nextUpdate;
+    private final int numberOfEntries;
+
+    StreamedX509CRL(final byte[] encoded, final int tbsOffset, final int tbsLength, final AlgorithmIdentifier signatureAlgorithm,
+            final byte[] signature, final X500Name issuer, final Date thisUpdate, final Date nextUpdate, final int numberOfEntries) {
+        this.encoded = encoded;
+        this.tbsOffset = tbsOffset;
+        this.tbsLength = tbsLength;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.signature = signature;
+        this.issuer = issuer;
+        this.thisUpdate = thisUpdate;
+        this.nextUpdate = nextUpdate;
+        this.numberOfEntries = numberOfEntries;
+    }
+
+    /** @return the DER encoded CRL. The array is not copied and must not be modified. */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    public X500Name getIssuer() {
+        return issuer;
+    }
+
+    public Date getThisUpdate() {
+        return thisUpdate;
+    }
+
+    /** @return nextUpdate or null if the CRL has no nextUpdate */
+    public Date getNextUpdate() {
+        return nextUpdate;
+    }
+
+    public int getNumberOfEntries() {
+        return numberOfEntries;
+    }
+
+    /**
+     * Verifies the signature over the TBSCertList part of the encoded CRL.
+     * @return true if the signature is valid
+     */
+    public boolean isSignatureValid(final ContentVerifierProvider verifierProvider) throws OperatorCreationException, IOException {
+        final ContentVerifier verifier = verifierProvider.get(signatureAlgorithm);
+        final OutputStream os = verifier.getOutputStream();
+        os.write(encoded, tbsOffset, tbsLength);
+        os.close();
+        return verifier.verify(signature);
+    }
+}
@@ -0,0 +1,356 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.Date;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.operator.ContentSigner;
+
+/**
+ * Builds a DER encoded X.509 v2 CRL without keeping the revoked certificate entries as ASN.1 objects in memory.
+ *
+ * Each added entry is DER encoded right away and appended to a spool buffer, that is kept in memory until it
+ * grows larger than a threshold, after which it is moved to a temporary file. Since all lengths are known when
+ * {@link #build(ContentSigner)} is called, the TBSCertList is streamed from the spool buffer through the signer,
+ * and then once more into a single byte array of the exact size of the final CRL. The heap used for the
+ * entries is therefore bounded by the spool threshold, regardless of the number of entries.
+ *
+ * The encoding is the same as produced by {@link org.bouncycastle.cert.X509v2CRLBuilder}.
+ *
+ * The implementation is not thread safe. A builder can only build one CRL, and {@link #build(ContentSigner)} removes the temporary
+ * file when it returns or fails. If the CRL is not built, for example since adding an entry failed, {@link #close()} must be called
+ * in a finally block to remove the temporary file.
+ *
+ * @version $Id$
+ */
+public class StreamingX509CRLBuilder {
+
+    private static final Logger log = Logger.getLogger(StreamingX509CRLBuilder.class);
+
+    private static final int TAG_SEQUENCE = 0x30;
+
+    private final X500Name issuer;
+    private final Date thisUpdate;
+    private final Date nextUpdate;
+    private final ExtensionsGenerator extensionsGenerator = new ExtensionsGenerator();
+    private final SpoolBuffer entries;
+    private int numberOfEntries = 0;
+
+    /**
+     * @param issuer the issuer of the CRL
+     * @param thisUpdate thisUpdate of the CRL
+     * @param nextUpdate nextUpdate of the CRL, or null
+     * @param spoolThreshold number of bytes of encoded entries that are kept in memory before they are moved to a temporary file
+     */
+    public StreamingX509CRLBuilder(final X500Name issuer, final Date thisUpdate, final Date nextUpdate, final int spoolThreshold) {
+        this.issuer = issuer;
+        this.thisUpdate = thisUpdate;
+        this.nextUpdate = nextUpdate;
+        this.entries = new SpoolBuffer(spoolThreshold);
+    }
+
+    /**
+     * Encodes a revoked certificate entry and appends it to the spool buffer.
+     * @param userCertificate serial number of the revoked certificate
+     * @param revocationDate the revocation date
+     * @param reason the reason code as defined in {@link RevokedCertInfo}, 0 means that no reason code extension is added
+     */
+    public void addCRLEntry(final BigInteger userCertificate, final Date revocationDate, final int reason) throws IOException {
+        addEncodedCRLEntry(encodeCRLEntry(userCertificate, revocationDate, reason));
+    }
+
+    /**
+     * Appends an entry that has already been encoded with {@link #encodeCRLEntry(BigInteger, Date, int)}.
+     * @param encodedEntry the DER encoded entry, it is not validated in any way
+     */
+    public void addEncodedCRLEntry(final byte[] encodedEntry) throws IOException {
+        entries.write(encodedEntry);
+        numberOfEntries++;
+    }
+
+    /**
+     * DER encodes a revoked certificate entry, the same way as {@link org.bouncycastle.cert.X509v2CRLBuilder} does.
+     * @see #addCRLEntry(BigInteger, Date, int)
+     * @return the encoded entry
+     */
+    public static byte[] encodeCRLEntry(final BigInteger userCertificate, final Date revocationDate, final int reason) throws IOException {
+        final ASN1EncodableVector v = new ASN1EncodableVector();
+        v.add(new ASN1Integer(userCertificate));
+        v.add(new Time(revocationDate));
+        if (reason != 0) {
+            final ExtensionsGenerator entryExtensions = new ExtensionsGenerator();
+            entryExtensions.addExtension(Extension.reasonCode, false, CRLReason.lookup(reason));
+            v.add(entryExtensions.generate());
+        }
+        return new DERSequence(v).getEncoded(ASN1Encoding.DER);
+    }
+
+    /** Adds a crlExtension to the CRL. */
+    public void addExtension(final ASN1ObjectIdentifier oid, final boolean critical, final ASN1Encodable value) throws IOException {
+        extensionsGenerator.addExtension(oid, critical, value);
+    }
+
+    /** @return the number of entries added so far */
+    public int getNumberOfEntries() {
+        return numberOfEntries;
+    }
+
+    /**
+     * Signs the CRL and returns the encoded result. The builder is closed afterwards, also if the CRL could not be built.
+     * @param signer the signer, the signature algorithm in the TBSCertList will be taken from it.
+     * @return the encoded and signed CRL
+     * @throws IOException if the spooled entries can not be read, or if the CRL is too large to fit in a byte array
+     */
+    public StreamedX509CRL build(final ContentSigner signer) throws IOException {
+        try {
+            return buildAndSign(signer);
+        } finally {
+            close();
+        }
+    }
+
+    private StreamedX509CRL buildAndSign(final ContentSigner signer) throws IOException {
+        entries.closeForWrite();
+        final AlgorithmIdentifier signatureAlgorithm = signer.getAlgorithmIdentifier();
+        // Everything in the TBSCertList up to the revokedCertificates
+        final ByteArrayOutputStream prefixStream = new ByteArrayOutputStream();
+        prefixStream.write(new ASN1Integer(1).getEncoded(ASN1Encoding.DER)); // v2
+        prefixStream.write(signatureAlgorithm.getEncoded(ASN1Encoding.DER));
+        prefixStream.write(issuer.getEncoded(ASN1Encoding.DER));
+        prefixStream.write(new Time(thisUpdate).getEncoded(ASN1Encoding.DER));
+        if (nextUpdate != null) {
+            prefixStream.write(new Time(nextUpdate).getEncoded(ASN1Encoding.DER));
+        }
+        final byte[] prefix = prefixStream.toByteArray();
+        final byte[] suffix;
+        if (extensionsGenerator.isEmpty()) {
+            suffix = new byte[0];
+        } else {
+            final Extensions extensions = extensionsGenerator.generate();
+            suffix = new DERTaggedObject(true, 0, extensions).getEncoded(ASN1Encoding.DER);
+        }
+        final long revokedCertificatesLength = numberOfEntries == 0 ? 0 : getEncodedLength(entries.size());
+        final long tbsContentLength = prefix.length + revokedCertificatesLength + suffix.length;
+        final long tbsLength = getEncodedLength(tbsContentLength);
+        if (log.isDebugEnabled()) {
+            log.debug("Signing streamed TBSCertList of " + tbsLength + " bytes with " + numberOfEntries + " entries. Free memory="
+                    + Runtime.getRuntime().freeMemory());
+        }
+        final OutputStream signerStream = signer.getOutputStream();
+        writeTBSCertList(signerStream, tbsContentLength, prefix, suffix);
+        signerStream.close();
+        final byte[] signature = signer.getSignature();
+        final byte[] signatureAlgorithmEncoded = signatureAlgorithm.getEncoded(ASN1Encoding.DER);
+        final byte[] signatureEncoded = new DERBitString(signature).getEncoded(ASN1Encoding.DER);
+        final long crlContentLength = tbsLength + signatureAlgorithmEncoded.length + signatureEncoded.length;
+        final long crlLength = getEncodedLength(crlContentLength);
+        if (crlLength > Integer.MAX_VALUE) {
+            throw new IOException("Encoded CRL of " + crlLength + " bytes is too large.");
+        }
+        final FixedSizeOutputStream out = new FixedSizeOutputStream((int) crlLength);
+        writeHeader(out, TAG_SEQUENCE, crlContentLength);
+        final int tbsOffset = out.getPosition();
+        writeTBSCertList(out, tbsContentLength, prefix, suffix);
+        out.write(signatureAlgorithmEncoded);
+        out.write(signatureEncoded);
+        if (out.getPosition() != crlLength) {
+            throw new IllegalStateException("Wrote " + out.getPosition() + " bytes of a CRL with the calculated length " + crlLength);
+        }
+        return new StreamedX509CRL(out.getBuffer(), tbsOffset, (int) tbsLength, signatureAlgorithm, signature, issuer, thisUpdate, nextUpdate,
+                numberOfEntries);
+    }
+
+    /** Releases all resources, including the temporary file if the entries were spooled to disk. Can be called more than once. */
+    public void close() {
+        entries.close();
+    }
+
+    private void writeTBSCertList(final OutputStream out, final long tbsContentLength, final byte[] prefix, final byte[] suffix) throws IOException {
+        writeHeader(out, TAG_SEQUENCE, tbsContentLength);
+        out.write(prefix);
+        if (numberOfEntries > 0) {
+            writeHeader(out, TAG_SEQUENCE, entries.size());
+            entries.writeTo(out);
+        }
+        out.write(suffix);
+    }
+
+    /** @return the length of a DER encoded object with content of the given length */
+    private static long getEncodedLength(final long contentLength) {
+        return 1 + getLengthOctets(contentLength) + contentLength;
+    }
+
+    private static int getLengthOctets(final long length) {
+        if (length < 128) {
+            return 1;
+        }
+        int octets = 1;
+        for (long l = length; l > 0; l >>>= 8) {
+            octets++;
+        }
+        return octets;
+    }
+
+    private static void writeHeader(final OutputStream out, final int tag, final long length) throws IOException {
+        out.write(tag);
+        if (length < 128) {
+            out.write((int) length);
+        } else {
+            final int octets = getLengthOctets(length) - 1;
+            out.write(0x80 | octets);
+            for (int i = (octets - 1) * 8; i >= 0; i -= 8) {
+                out.write((int) (length >> i));
+            }
+        }
+    }
+
+    /** Writes to a byte array of a size known in advance, so the result does not have to be copied. */
+    private static class FixedSizeOutputStream extends OutputStream {
+        private final byte[] buffer;
+        private int position = 0;
+
+        FixedSizeOutputStream(final int size) {
+            buffer = new byte[size];
+        }
+
+        @Override
+        public void write(final int b) {
+            buffer[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            System.arraycopy(b, off, buffer, position, len);
+            position += len;
+        }
+
+        int getPosition() {
+            return position;
+        }
+
+        byte[] getBuffer() {
+            return buffer;
+        }
+    }
+
+    /** Buffer that is kept in memory until it reaches a threshold, after which it is moved to a temporary file. */
+    private static class SpoolBuffer {
+        private final int threshold;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private File file = null;
+        private OutputStream fileStream = null;
+        private long size = 0;
+
+        SpoolBuffer(final int threshold) {
+            this.threshold = threshold;
+        }
+
+        void write(final byte[] data) throws IOException {
+            if (file == null && memory.size() + data.length > threshold) {
+                file = File.createTempFile("crlentries", ".der");
+                try {
+                    fileStream = new BufferedOutputStream(new FileOutputStream(file), 65536);
+                    memory.writeTo(fileStream);
+                } catch (IOException e) {
+                    close();
+                    throw e;
+                }
+                memory = null;
+                if (log.isDebugEnabled()) {
+                    log.debug("Spooling CRL entries to temporary file " + file.getAbsolutePath());
+                }
+            }
+            if (file == null) {
+                memory.write(data);
+            } else {
+                fileStream.write(data);
+            }
+            size += data.length;
+        }
+
+        long size() {
+            return size;
+        }
+
+        void closeForWrite() throws IOException {
+            if (memory == null && file == null) {
+                throw new IllegalStateException("The CRL entries have already been released.");
+            }
+            if (fileStream != null) {
+                fileStream.close();
+                fileStream = null;
+            }
+        }
+
+        void writeTo(final OutputStream out) throws IOException {
+            if (file == null) {
+                memory.writeTo(out);
+                return;
+            }
+            final InputStream in = new BufferedInputStream(new FileInputStream(file), 65536);
+            try {
+                final byte[] buf = new byte[65536];
+                int len;
+                while ((len = in.read(buf)) != -1) {
+                    out.write(buf, 0, len);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        void close() {
+            memory = null;
+            if (fileStream != null) {
+                try {
+                    fileStream.close();
+                } catch (IOException e) {
+                    log.error(e.getMessage(), e);
+                }
+                fileStream = null;
+            }
+            if (file != null) {
+                if (!file.delete()) {
+                    log.warn("Could not delete temporary file " + file.getAbsolutePath());
+                }
+                file = null;
+            }
+        }
+    }
+}
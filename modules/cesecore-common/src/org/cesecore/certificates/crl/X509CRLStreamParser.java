@@ -0,0 +1,329 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.cert.CRLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.TBSCertList;
+import org.bouncycastle.asn1.x509.Time;
+
+/**
+ * Reads a DER encoded X.509 CRL without parsing all revoked certificate entries into objects, the counterpart of
+ * {@link StreamingX509CRLBuilder}.
+ *
+ * The constructor only decodes the fields before and after the revokedCertificates, and the signature can be verified over the
+ * TBSCertList bytes with {@link StreamedX509CRL#isSignatureValid}. The entries are then decoded one at a time by an
+ * {@link EntryReader}, so a CRL with millions of entries can be processed with the heap needed for the encoded CRL and one entry.
+ *
+ * @version $Id$
+ */
+public class X509CRLStreamParser {
+
+    private static final int TAG_INTEGER = 0x02;
+    private static final int TAG_SEQUENCE = 0x30;
+    private static final int TAG_UTC_TIME = 0x17;
+    private static final int TAG_GENERALIZED_TIME = 0x18;
+    private static final int TAG_EXTENSIONS = 0xa0;
+
+    /** A revoked certificate entry. */
+    public static class Entry {
+        private final BigInteger serialNumber;
+        private final long revocationDate;
+        private final int reasonCode;
+        private final X500Name certificateIssuer;
+
+        private Entry(final BigInteger serialNumber, final long revocationDate, final int reasonCode, final X500Name certificateIssuer) {
+            this.serialNumber = serialNumber;
+            this.revocationDate = revocationDate;
+            this.reasonCode = reasonCode;
+            this.certificateIssuer = certificateIssuer;
+        }
+
+        public BigInteger getSerialNumber() { return serialNumber; }
+        public Date getRevocationDate() { return new Date(revocationDate); }
+        /** @return the reason code as defined in RevokedCertInfo.REVOCATION_REASON_..., REVOCATION_REASON_UNSPECIFIED if not present */
+        public int getReasonCode() { return reasonCode; }
+        /** @return the issuer from the certificateIssuer extension of this or a previous entry of an indirect CRL, or null */
+        public X500Name getCertificateIssuer() { return certificateIssuer; }
+
+        /** @return true if the other entry has the same serial number, revocation date, reason and certificate issuer */
+        public boolean isSameAs(final Entry other) {
+            return serialNumber.equals(other.serialNumber) && revocationDate == other.revocationDate && reasonCode == other.reasonCode
+                    && (certificateIssuer == null ? other.certificateIssuer == null : certificateIssuer.equals(other.certificateIssuer));
+        }
+    }
+
+    /** Reads the entries of the CRL in the order they are encoded. */
+    public class EntryReader {
+        private int position = revokedCertificatesStart;
+        private X500Name certificateIssuer = null;
+
+        /** @return the next entry, or null if all entries have been read */
+        public Entry next() throws CRLException {
+            if (position >= revokedCertificatesEnd) {
+                return null;
+            }
+            final int entryStart = position;
+            position = readHeader(encoded, position, revokedCertificatesEnd, TAG_SEQUENCE).end;
+            final TBSCertList.CRLEntry crlEntry = TBSCertList.CRLEntry.getInstance(decode(entryStart, position));
+            int reasonCode = RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED;
+            final Extensions extensions = crlEntry.getExtensions();
+            if (extensions != null) {
+                final Extension reasonCodeExtension = extensions.getExtension(Extension.reasonCode);
+                if (reasonCodeExtension != null) {
+                    reasonCode = ASN1Enumerated.getInstance(reasonCodeExtension.getParsedValue()).getValue().intValue();
+                }
+                final Extension certificateIssuerExtension = extensions.getExtension(Extension.certificateIssuer);
+                if (certificateIssuerExtension != null) {
+                    // Applies to the following entries too, see RFC 5280 section 5.3.3
+                    for (final GeneralName name : GeneralNames.getInstance(certificateIssuerExtension.getParsedValue()).getNames()) {
+                        if (name.getTagNo() == GeneralName.directoryName) {
+                            certificateIssuer = X500Name.getInstance(name.getName());
+                            break;
+                        }
+                    }
+                }
+            }
+            return new Entry(crlEntry.getUserCertificate().getValue(), crlEntry.getRevocationDate().getDate().getTime(), reasonCode,
+                    certificateIssuer);
+        }
+    }
+
+    /** The entries of a CRL sorted by serial number, for finding the entries that have changed since this CRL. */
+    public static class SortedEntries {
+        private final Entry[] entries;
+
+        private SortedEntries(final Entry[] entries) {
+            this.entries = entries;
+        }
+
+        /** @return true if an entry with the same serial number, revocation date, reason and certificate issuer is present */
+        public boolean contains(final Entry entry) {
+            int low = 0;
+            int high = entries.length - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                final int cmp = entries[middle].serialNumber.compareTo(entry.serialNumber);
+                if (cmp < 0) {
+                    low = middle + 1;
+                } else if (cmp > 0) {
+                    high = middle - 1;
+                } else {
+                    // The same serial number may be listed more than once in an indirect CRL
+                    int i = middle;
+                    while (i > 0 && entries[i - 1].serialNumber.equals(entry.serialNumber)) {
+                        i--;
+                    }
+                    for (; i < entries.length && entries[i].serialNumber.equals(entry.serialNumber); i++) {
+                        if (entries[i].isSameAs(entry)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        public int size() {
+            return entries.length;
+        }
+    }
+
+    /** Position of a DER encoded element in the CRL. */
+    private static class Header {
+        private final int start;
+        private final int contentStart;
+        private final int end;
+        private final int tag;
+
+        private Header(final int start, final int contentStart, final int end, final int tag) {
+            this.start = start;
+            this.contentStart = contentStart;
+            this.end = end;
+            this.tag = tag;
+        }
+    }
+
+    private final byte[] encoded;
+    private final int revokedCertificatesStart;
+    private final int revokedCertificatesEnd;
+    private final Extensions extensions;
+    private final StreamedX509CRL crl;
+
+    /**
+     * Decodes everything but the revoked certificate entries.
+     *
+     * @param encoded the DER encoded CRL. The array is not copied and must not be modified.
+     * @throws CRLException if the CRL is not a well formed X.509 v1 or v2 CRL
+     */
+    public X509CRLStreamParser(final byte[] encoded) throws CRLException {
+        this.encoded = encoded;
+        try {
+            final Header certificateList = readHeader(encoded, 0, encoded.length, TAG_SEQUENCE);
+            final Header tbsCertList = readHeader(encoded, certificateList.contentStart, certificateList.end, TAG_SEQUENCE);
+            Header field = readHeader(encoded, tbsCertList.contentStart, tbsCertList.end, -1);
+            if (field.tag == TAG_INTEGER) {
+                // Version, only present in v2 CRLs
+                field = readHeader(encoded, field.end, tbsCertList.end, -1);
+            }
+            // The inner signature algorithm, the same as the outer one for a valid CRL
+            if (field.tag != TAG_SEQUENCE) {
+                throw new CRLException("Malformed CRL: unexpected tag " + field.tag + " at offset " + field.start + ".");
+            }
+            field = readHeader(encoded, field.end, tbsCertList.end, TAG_SEQUENCE);
+            final X500Name issuer = X500Name.getInstance(decode(field.start, field.end));
+            field = readHeader(encoded, field.end, tbsCertList.end, -1);
+            final Date thisUpdate = Time.getInstance(decode(field.start, field.end)).getDate();
+            int position = field.end;
+            Date nextUpdate = null;
+            if (position < tbsCertList.end) {
+                field = readHeader(encoded, position, tbsCertList.end, -1);
+                if (field.tag == TAG_UTC_TIME || field.tag == TAG_GENERALIZED_TIME) {
+                    nextUpdate = Time.getInstance(decode(field.start, field.end)).getDate();
+                    position = field.end;
+                }
+            }
+            int numberOfEntries = 0;
+            int entriesStart = position;
+            int entriesEnd = position;
+            if (position < tbsCertList.end) {
+                field = readHeader(encoded, position, tbsCertList.end, -1);
+                if (field.tag == TAG_SEQUENCE) {
+                    entriesStart = field.contentStart;
+                    entriesEnd = field.end;
+                    // Only the headers of the entries are read to count them
+                    for (int i = entriesStart; i < entriesEnd; i = readHeader(encoded, i, entriesEnd, TAG_SEQUENCE).end) {
+                        numberOfEntries++;
+                    }
+                    position = field.end;
+                }
+            }
+            Extensions crlExtensions = null;
+            if (position < tbsCertList.end) {
+                field = readHeader(encoded, position, tbsCertList.end, TAG_EXTENSIONS);
+                crlExtensions = Extensions.getInstance(ASN1TaggedObject.getInstance(decode(field.start, field.end)), true);
+                position = field.end;
+            }
+            if (position != tbsCertList.end) {
+                throw new CRLException("Unexpected data at the end of the TBSCertList.");
+            }
+            this.revokedCertificatesStart = entriesStart;
+            this.revokedCertificatesEnd = entriesEnd;
+            this.extensions = crlExtensions;
+            field = readHeader(encoded, tbsCertList.end, certificateList.end, TAG_SEQUENCE);
+            final AlgorithmIdentifier signatureAlgorithm = AlgorithmIdentifier.getInstance(decode(field.start, field.end));
+            final Header signatureField = readHeader(encoded, field.end, certificateList.end, -1);
+            final byte[] signature = DERBitString.getInstance(decode(signatureField.start, signatureField.end)).getBytes();
+            this.crl = new StreamedX509CRL(encoded, tbsCertList.start, tbsCertList.end - tbsCertList.start, signatureAlgorithm, signature, issuer,
+                    thisUpdate, nextUpdate, numberOfEntries);
+        } catch (IllegalArgumentException e) {
+            throw new CRLException("Malformed CRL: " + e.getMessage(), e);
+        }
+    }
+
+    /** @return the CRL with its issuer, thisUpdate, nextUpdate, number of entries and signature */
+    public StreamedX509CRL getCRL() {
+        return crl;
+    }
+
+    /** @return the crlExtensions or null if the CRL has none */
+    public Extensions getExtensions() {
+        return extensions;
+    }
+
+    /** @return a reader of the entries from the first entry */
+    public EntryReader getEntryReader() {
+        return new EntryReader();
+    }
+
+    /** Reads all entries and sorts them by serial number. */
+    public SortedEntries getSortedEntries() throws CRLException {
+        final List<Entry> entries = new ArrayList<Entry>(crl.getNumberOfEntries());
+        final EntryReader reader = getEntryReader();
+        Entry entry;
+        while ((entry = reader.next()) != null) {
+            entries.add(entry);
+        }
+        final Entry[] sorted = entries.toArray(new Entry[entries.size()]);
+        Arrays.sort(sorted, new Comparator<Entry>() {
+            @Override
+            public int compare(final Entry o1, final Entry o2) {
+                return o1.serialNumber.compareTo(o2.serialNumber);
+            }
+        });
+        return new SortedEntries(sorted);
+    }
+
+    /** @return an empty index, for when there is no previous CRL */
+    public static SortedEntries getEmptySortedEntries() {
+        return new SortedEntries(new Entry[0]);
+    }
+
+    private ASN1Primitive decode(final int start, final int end) throws CRLException {
+        try {
+            return ASN1Primitive.fromByteArray(Arrays.copyOfRange(encoded, start, end));
+        } catch (IOException e) {
+            throw new CRLException("Malformed CRL: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the tag and length of a DER element.
+     *
+     * @param expectedTag the tag that the element must have, or -1 for any tag
+     * @throws CRLException if the element is not well formed or does not fit within limit
+     */
+    private static Header readHeader(final byte[] encoded, final int start, final int limit, final int expectedTag) throws CRLException {
+        if (start + 2 > limit) {
+            throw new CRLException("Malformed CRL: truncated element at offset " + start + ".");
+        }
+        final int tag = encoded[start] & 0xff;
+        if (expectedTag != -1 && tag != expectedTag) {
+            throw new CRLException("Malformed CRL: unexpected tag " + tag + " at offset " + start + ".");
+        }
+        int position = start + 1;
+        long length = encoded[position++] & 0xff;
+        if (length > 0x7f) {
+            final int lengthOctets = (int) (length & 0x7f);
+            if (lengthOctets == 0 || lengthOctets > 4 || position + lengthOctets > limit) {
+                throw new CRLException("Malformed CRL: unsupported length at offset " + start + ".");
+            }
+            length = 0;
+            for (int i = 0; i < lengthOctets; i++) {
+                length = (length << 8) | (encoded[position++] & 0xff);
+            }
+        }
+        if (position + length > limit) {
+            throw new CRLException("Malformed CRL: element at offset " + start + " is longer than its container.");
+        }
+        return new Header(start, position, (int) (position + length), tag);
+    }
+}
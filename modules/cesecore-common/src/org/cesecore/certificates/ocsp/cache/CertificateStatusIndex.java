@@ -0,0 +1,333 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+
+/**
+ * In-memory revocation status of the certificates of one issuer.
+ *
+ * Only certificates that are not good (revoked, or archived after revocation) are stored, in an open addressing hash table keyed by
+ * serial number, with the revocation date, reason and certificate profile in primitive arrays. A certificate that is taken off hold
+ * keeps its slot, marked as good, so entries are never moved or removed.
+ *
+ * Optionally all issued serial numbers are added to a Bloom filter. Serial numbers that are in the filter, but not in the table of
+ * non-good certificates, are good, with a false positive rate (never issued serial numbers that are reported as good) set when the
+ * index is created. The filter can not grow, so the index should be rebuilt when {@link #isFilterSaturated()}.
+ *
+ * The index does not know if a serial number that is neither revoked nor in the filter was ever issued. It may have been issued since
+ * the last update, or the index may have no filter. The status of such serial numbers is not returned, so that it is read from the
+ * database, where a certificate that does not exist is handled as configured for the OCSP responder.
+ *
+ * The status of a certificate is determined the same way as in CertificateStoreSessionBean.getStatus.
+ *
+ * Lookups and updates may be made concurrently.
+ *
+ * @version $Id$
+ */
+public class CertificateStatusIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+    /** Reason stored for a certificate that has been taken off hold */
+    private static final byte REASON_GOOD = (byte) RevokedCertInfo.NOT_REVOKED;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Table of non-good certificates. Each slot holds the position of an entry + 1, or 0 if the slot is free
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+    private int size = 0;
+    private long[] revocationDates = new long[INITIAL_CAPACITY];
+    private byte[] reasons = new byte[INITIAL_CAPACITY];
+    private int[] certificateProfileIds = new int[INITIAL_CAPACITY];
+    /** Offset of the serial number of each entry in serialNumbers, where the first byte is the length of the serial number */
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private byte[] serialNumbers = new byte[INITIAL_CAPACITY * 10];
+    private int serialNumbersLength = 0;
+
+    // Bloom filter of issued serial numbers, or null if not used
+    private final long[] filter;
+    private final long filterBits;
+    private final int filterHashes;
+    private final long filterCapacity;
+    private long filterCount = 0;
+
+    /** Creates an index without filter of issued serial numbers, that only knows the status of revoked certificates. */
+    public CertificateStatusIndex() {
+        this(0, 0);
+    }
+
+    /**
+     * Creates an index with a filter of issued serial numbers, so the status of issued certificates that are not revoked is known too.
+     *
+     * @param expectedIssued the number of serial numbers that can be added to the filter with the given false positive rate, or 0 for no filter
+     * @param falsePositiveRate the rate of never issued serial numbers that are reported as issued, e.g. 0.001
+     */
+    public CertificateStatusIndex(final long expectedIssued, final double falsePositiveRate) {
+        if (expectedIssued > 0) {
+            if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+                throw new IllegalArgumentException("Unsupported false positive rate " + falsePositiveRate + ".");
+            }
+            // Optimal size and number of hash functions for the expected number of serial numbers
+            final double bits = -expectedIssued * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+            final long words = Math.max(1, (long) Math.ceil(bits / 64));
+            if (words > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Too many issued serial numbers " + expectedIssued + ".");
+            }
+            filter = new long[(int) words];
+            filterBits = words * 64;
+            filterHashes = Math.max(1, (int) Math.round(filterBits / (double) expectedIssued * Math.log(2)));
+            filterCapacity = expectedIssued;
+        } else {
+            filter = null;
+            filterBits = 0;
+            filterHashes = 0;
+            filterCapacity = 0;
+        }
+    }
+
+    /**
+     * Adds or updates the status of a certificate.
+     *
+     * @param serialNumber the serial number, as returned by BigInteger.toByteArray()
+     * @param status one of CertificateConstants.CERT_...
+     * @param revocationDate the time of revocation in milliseconds
+     * @param revocationReason one of RevokedCertInfo.REVOCATION_REASON_... or RevokedCertInfo.NOT_REVOKED
+     * @param certificateProfileId the certificate profile, or CertificateProfileConstants.CERTPROFILE_NO_PROFILE
+     */
+    public void update(final byte[] serialNumber, final int status, final long revocationDate, final int revocationReason, final int certificateProfileId) {
+        if (serialNumber.length == 0 || serialNumber.length > 255) {
+            throw new IllegalArgumentException("Unsupported serial number length " + serialNumber.length + ".");
+        }
+        final boolean good = status != CertificateConstants.CERT_REVOKED && (status != CertificateConstants.CERT_ARCHIVED
+                || revocationReason == RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL || revocationReason == RevokedCertInfo.NOT_REVOKED);
+        final long hash = hash(serialNumber);
+        lock.writeLock().lock();
+        try {
+            addToFilter(hash);
+            int slot = findSlot(serialNumber, hash);
+            int entry = slots[slot] - 1;
+            if (entry < 0) {
+                if (good) {
+                    return;
+                }
+                entry = addEntry(serialNumber);
+                if ((size << 1) > slots.length) {
+                    rehash();
+                    slot = findSlot(serialNumber, hash);
+                }
+                slots[slot] = entry + 1;
+            }
+            if (good) {
+                reasons[entry] = REASON_GOOD;
+            } else {
+                revocationDates[entry] = revocationDate;
+                reasons[entry] = (byte) revocationReason;
+                certificateProfileIds[entry] = certificateProfileId;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the status of the certificate, where good certificates have no certificate profile, or null if the serial number is not
+     * known to have been issued and the status must be read from the database
+     */
+    public CertificateStatus getStatus(final BigInteger serialNumber) {
+        final byte[] serialNumberBytes = serialNumber.toByteArray();
+        final long hash = hash(serialNumberBytes);
+        lock.readLock().lock();
+        try {
+            final int entry = slots[findSlot(serialNumberBytes, hash)] - 1;
+            if (entry >= 0 && reasons[entry] != REASON_GOOD) {
+                return new CertificateStatus(revocationDates[entry], reasons[entry], certificateProfileIds[entry]);
+            }
+            // A certificate that has been taken off hold is known to be issued
+            if (entry < 0 && (filter == null || !isInFilter(hash))) {
+                return null;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new CertificateStatus(CertificateStatus.OK.toString(), CertificateProfileConstants.CERTPROFILE_NO_PROFILE);
+    }
+
+    /** @return the position in slots of the serial number, or of the free slot where it should be added */
+    private int findSlot(final byte[] serialNumber, final long hash) {
+        final int mask = slots.length - 1;
+        int slot = (int) hash & mask;
+        while (true) {
+            final int entry = slots[slot] - 1;
+            if (entry < 0 || equalsSerialNumber(entry, serialNumber)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean equalsSerialNumber(final int entry, final byte[] serialNumber) {
+        final int offset = offsets[entry];
+        if ((serialNumbers[offset] & 0xff) != serialNumber.length) {
+            return false;
+        }
+        for (int i = 0; i < serialNumber.length; i++) {
+            if (serialNumbers[offset + 1 + i] != serialNumber[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int addEntry(final byte[] serialNumber) {
+        if (size == offsets.length) {
+            final int capacity = size + (size >> 1);
+            revocationDates = Arrays.copyOf(revocationDates, capacity);
+            reasons = Arrays.copyOf(reasons, capacity);
+            certificateProfileIds = Arrays.copyOf(certificateProfileIds, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+        if (serialNumbersLength + 1 + serialNumber.length > serialNumbers.length) {
+            serialNumbers = Arrays.copyOf(serialNumbers, Math.max(serialNumbersLength + 1 + serialNumber.length, serialNumbers.length + (serialNumbers.length >> 1)));
+        }
+        offsets[size] = serialNumbersLength;
+        serialNumbers[serialNumbersLength++] = (byte) serialNumber.length;
+        System.arraycopy(serialNumber, 0, serialNumbers, serialNumbersLength, serialNumber.length);
+        serialNumbersLength += serialNumber.length;
+        return size++;
+    }
+
+    /** Doubles the number of slots, so at most half of them are used */
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        final int mask = slots.length - 1;
+        for (int entry = 0; entry < size; entry++) {
+            final int offset = offsets[entry];
+            final byte[] serialNumber = Arrays.copyOfRange(serialNumbers, offset + 1, offset + 1 + (serialNumbers[offset] & 0xff));
+            int slot = (int) hash(serialNumber) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+    }
+
+    private void addToFilter(final long hash) {
+        if (filter == null) {
+            return;
+        }
+        boolean added = false;
+        final long hash2 = mix(hash) | 1;
+        for (int i = 0; i < filterHashes; i++) {
+            final long bit = ((hash + i * hash2) >>> 1) % filterBits;
+            final long mask = 1L << (bit & 63);
+            final int word = (int) (bit >>> 6);
+            if ((filter[word] & mask) == 0) {
+                filter[word] |= mask;
+                added = true;
+            }
+        }
+        // A serial number that sets no new bit is most likely already in the filter
+        if (added) {
+            filterCount++;
+        }
+    }
+
+    private boolean isInFilter(final long hash) {
+        final long hash2 = mix(hash) | 1;
+        for (int i = 0; i < filterHashes; i++) {
+            final long bit = ((hash + i * hash2) >>> 1) % filterBits;
+            if ((filter[(int) (bit >>> 6)] & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** 64 bit FNV-1a hash of the serial number, with the bits mixed so all of them depend on every byte */
+    private static long hash(final byte[] serialNumber) {
+        long hash = 0xcbf29ce484222325L;
+        for (final byte b : serialNumber) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /** Finalization step of MurmurHash3 */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /** @return true if the index has a filter of issued serial numbers */
+    public boolean hasFilter() {
+        return filter != null;
+    }
+
+    /** @return true if more serial numbers than expected have been added to the filter, so the false positive rate is higher than requested */
+    public boolean isFilterSaturated() {
+        lock.readLock().lock();
+        try {
+            return filter != null && filterCount > filterCapacity;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** @return the number of serial numbers in the filter of issued serial numbers */
+    public long getIssuedCount() {
+        lock.readLock().lock();
+        try {
+            return filterCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** @return the number of certificates that are, or have been, revoked */
+    public int getRevokedCount() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** @return the approximate number of bytes used by the arrays of the index */
+    public long getMemoryUsage() {
+        lock.readLock().lock();
+        try {
+            return 4L * slots.length + 8L * revocationDates.length + reasons.length + 4L * certificateProfileIds.length + 4L * offsets.length
+                    + serialNumbers.length + (filter == null ? 0 : 8L * filter.length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getRevokedCount() + " revoked and " + getIssuedCount() + " issued serial numbers in " + getMemoryUsage() / 1024 + " kB";
+    }
+}
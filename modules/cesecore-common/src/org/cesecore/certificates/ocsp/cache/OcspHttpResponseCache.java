@@ -0,0 +1,275 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cesecore.internal.CacheInvalidationBus;
+import org.cesecore.internal.CacheInvalidationListener;
+
+/**
+ * Encoded OCSP responses to HTTP GET requests, keyed by the URL of the OCSP servlet and the decoded request, so that repeated GET requests
+ * can be answered by the servlet without calling the OCSP response generator. Only responses to requests for a single certificate without
+ * extensions (so without nonce) should be cached, see RFC 5019.
+ *
+ * Unlike {@link OcspResponseCache}, a cached response is returned without looking up the status of the certificate. Responses are removed
+ * when a change of the status of the certificate has been committed, see {@link #invalidate(BigInteger)}, and otherwise returned until
+ * their nextUpdate time. Changes on other nodes are only seen through {@link CacheInvalidationBus}, so without cacheinvalidation.enabled
+ * a response can be returned until its nextUpdate time after the certificate was revoked on another node. The total size of the cached
+ * responses is bounded, and the least recently used responses are evicted first.
+ *
+ * A response that was created before an invalidation may be added after it. So the caller reads {@link #getGeneration()} before the
+ * status is looked up, and a response is only added if no response has been invalidated since then.
+ *
+ * @version $Id$
+ */
+public enum OcspHttpResponseCache {
+    INSTANCE;
+
+    /** The name of the cache in {@link CacheInvalidationBus}. The keys are hex encoded serial numbers. */
+    public static final String CACHE_NAME = "OcspHttpResponseCache";
+
+    /** An encoded response and the values of its cache headers. */
+    public static class Entry {
+        private final byte[] ocspResponse;
+        private final String eTag;
+        private final long thisUpdate;
+        private final long nextUpdate;
+        private final long maxAge;
+        private final BigInteger serialNumber;
+
+        /**
+         * @param ocspResponse the encoded response
+         * @param eTag the hex encoded SHA-1 hash of the response
+         * @param thisUpdate thisUpdate of the single response
+         * @param nextUpdate nextUpdate of the single response
+         * @param maxAge the max-age of the response in milliseconds
+         * @param serialNumber the serial number of the certificate in the response
+         */
+        public Entry(final byte[] ocspResponse, final String eTag, final long thisUpdate, final long nextUpdate, final long maxAge,
+                final BigInteger serialNumber) {
+            this.ocspResponse = ocspResponse;
+            this.eTag = eTag;
+            this.thisUpdate = thisUpdate;
+            this.nextUpdate = nextUpdate;
+            this.maxAge = maxAge;
+            this.serialNumber = serialNumber;
+        }
+
+        public byte[] getOcspResponse() { return ocspResponse; }
+        public String getETag() { return eTag; }
+        public long getThisUpdate() { return thisUpdate; }
+        public long getNextUpdate() { return nextUpdate; }
+        public long getMaxAge() { return maxAge; }
+    }
+
+    /** The URL of the servlet and the decoded request. */
+    private static class Key {
+        private final String url;
+        private final byte[] request;
+        private final int hashCode;
+
+        private Key(final String url, final byte[] request) {
+            this.url = url;
+            this.request = request;
+            this.hashCode = 31 * url.hashCode() + Arrays.hashCode(request);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) obj;
+            return hashCode == key.hashCode && url.equals(key.url) && Arrays.equals(request, key.request);
+        }
+    }
+
+    private final LinkedHashMap<Key, Entry> cache = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    /** The keys of the responses for each certificate, for invalidation when the status changes */
+    private final Map<BigInteger, List<Key>> keysBySerialNumber = new HashMap<BigInteger, List<Key>>();
+    /** The total size of the cached requests and responses */
+    private long bytes = 0;
+    private volatile long maxBytes = 32L * 1024 * 1024;
+    /** Incremented when responses are invalidated. Guarded by cache. */
+    private long generation = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private OcspHttpResponseCache() {
+        // Remove responses for certificates whose status was changed on other nodes
+        CacheInvalidationBus.INSTANCE.register(CACHE_NAME, new CacheInvalidationListener() {
+            @Override
+            public void invalidate(final String key) {
+                if (key == null) {
+                    clear();
+                } else {
+                    OcspHttpResponseCache.this.invalidate(new BigInteger(key, 16));
+                }
+            }
+        });
+    }
+
+    /** @return the current generation, to be read before the status of a certificate is looked up for a response that may be added */
+    public long getGeneration() {
+        synchronized (cache) {
+            return generation;
+        }
+    }
+
+    /**
+     * @param url the URL of the OCSP servlet, without the request
+     * @param request the decoded request
+     * @return a response to the same request that is valid until after now, or null
+     */
+    public Entry get(final String url, final byte[] request) {
+        final Key key = new Key(url, request);
+        synchronized (cache) {
+            final Entry entry = cache.get(key);
+            if (entry != null) {
+                if (System.currentTimeMillis() < entry.nextUpdate) {
+                    hits.incrementAndGet();
+                    return entry;
+                }
+                remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Adds or replaces the response to a request, and evicts the least recently used responses if the cache is full. The response is not
+     * added if responses have been invalidated after the generation was read, since it may contain a status that has been changed.
+     *
+     * @param generation the value of {@link #getGeneration()} before the status of the certificate was looked up
+     */
+    public void put(final String url, final byte[] request, final Entry entry, final long generation) {
+        final Key key = new Key(url, request);
+        final long size = entrySize(key, entry);
+        if (size > maxBytes) {
+            return;
+        }
+        synchronized (cache) {
+            if (generation != this.generation) {
+                return;
+            }
+            remove(key);
+            cache.put(key, entry);
+            bytes += size;
+            List<Key> keys = keysBySerialNumber.get(entry.serialNumber);
+            if (keys == null) {
+                keys = new ArrayList<Key>(1);
+                keysBySerialNumber.put(entry.serialNumber, keys);
+            }
+            keys.add(key);
+            final Iterator<Map.Entry<Key, Entry>> eldest = cache.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                final Map.Entry<Key, Entry> eldestEntry = eldest.next();
+                eldest.remove();
+                removeKey(eldestEntry.getKey(), eldestEntry.getValue());
+            }
+        }
+    }
+
+    /** Removes the responses for the certificate, since its status has changed. */
+    public void invalidate(final BigInteger serialNumber) {
+        synchronized (cache) {
+            generation++;
+            final List<Key> keys = keysBySerialNumber.remove(serialNumber);
+            if (keys != null) {
+                for (final Key key : keys) {
+                    final Entry entry = cache.remove(key);
+                    if (entry != null) {
+                        bytes -= entrySize(key, entry);
+                    }
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            generation++;
+            cache.clear();
+            keysBySerialNumber.clear();
+            bytes = 0;
+        }
+    }
+
+    /** @param maxBytes the maximum total size of the cached requests and responses */
+    public void setMaxBytes(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** @return the number of cached responses */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /** @return the total size of the cached requests and responses */
+    public long getBytes() {
+        synchronized (cache) {
+            return bytes;
+        }
+    }
+
+    /** @return the number of requests answered with a cached response */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** @return the number of requests that were not in the cache */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Must be called with the lock held. */
+    private void remove(final Key key) {
+        final Entry entry = cache.remove(key);
+        if (entry != null) {
+            removeKey(key, entry);
+        }
+    }
+
+    /** Removes a key that has been removed from the cache from the serial number index. Must be called with the lock held. */
+    private void removeKey(final Key key, final Entry entry) {
+        bytes -= entrySize(key, entry);
+        final List<Key> keys = keysBySerialNumber.get(entry.serialNumber);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                keysBySerialNumber.remove(entry.serialNumber);
+            }
+        }
+    }
+
+    private static long entrySize(final Key key, final Entry entry) {
+        return key.request.length + entry.ocspResponse.length;
+    }
+}
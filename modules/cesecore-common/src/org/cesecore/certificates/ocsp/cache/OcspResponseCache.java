@@ -0,0 +1,285 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+
+/**
+ * Signed OCSP responses for requests with a single certificate and no extensions (RFC 5019), so the same response can be returned until
+ * its nextUpdate time instead of signing a new response for each request.
+ *
+ * A cached response is only returned if the status of the certificate is the same as in the cached response, so the caller must look up
+ * the current status first. This way a revocation is never hidden by the cache, even if it was made on another node.
+ *
+ * Responses are refreshed in the background by OcspResponseGeneratorSessionBean, by generating a new response for the request that
+ * the cached response was produced for, see {@link #getEntriesToRefresh(long)}. The number of serial numbers is bounded, and the
+ * least recently used serial numbers are evicted first.
+ *
+ * @version $Id$
+ */
+public enum OcspResponseCache {
+    INSTANCE;
+
+    /** A signed response and what it was produced for. */
+    public static class Entry {
+        private final CertificateID certId;
+        private final OCSPResp ocspResponse;
+        private final byte[] request;
+        private final String requestUrl;
+        private final X509Certificate signingCertificate;
+        private final CertificateStatus certStatus;
+        private final long thisUpdate;
+        private final long nextUpdate;
+
+        /**
+         * @param certId the certificate of the single response
+         * @param ocspResponse the signed response
+         * @param request the encoded request that the response was produced for, used to produce a new response when refreshing
+         * @param requestUrl the URL that the request was sent to
+         * @param signingCertificate the certificate of the key that signed the response
+         * @param certStatus the status of the single response, where null means good
+         * @param thisUpdate thisUpdate of the single response
+         * @param nextUpdate nextUpdate of the single response
+         */
+        public Entry(final CertificateID certId, final OCSPResp ocspResponse, final byte[] request, final String requestUrl,
+                final X509Certificate signingCertificate, final CertificateStatus certStatus, final long thisUpdate, final long nextUpdate) {
+            this.certId = certId;
+            this.ocspResponse = ocspResponse;
+            this.request = request;
+            this.requestUrl = requestUrl;
+            this.signingCertificate = signingCertificate;
+            this.certStatus = certStatus;
+            this.thisUpdate = thisUpdate;
+            this.nextUpdate = nextUpdate;
+        }
+
+        public byte[] getRequest() { return request; }
+        public String getRequestUrl() { return requestUrl; }
+        public long getNextUpdate() { return nextUpdate; }
+
+        private boolean matches(final CertificateID certId) {
+            return this.certId.getHashAlgOID().equals(certId.getHashAlgOID()) && Arrays.equals(this.certId.getIssuerNameHash(), certId.getIssuerNameHash())
+                    && Arrays.equals(this.certId.getIssuerKeyHash(), certId.getIssuerKeyHash());
+        }
+
+        private boolean matches(final CertificateStatus certStatus) {
+            if (this.certStatus == null || certStatus == null) {
+                return this.certStatus == null && certStatus == null;
+            }
+            if (!(this.certStatus instanceof RevokedStatus) || !(certStatus instanceof RevokedStatus)) {
+                return false;
+            }
+            final RevokedStatus revokedStatus1 = (RevokedStatus) this.certStatus;
+            final RevokedStatus revokedStatus2 = (RevokedStatus) certStatus;
+            return revokedStatus1.getRevocationTime().equals(revokedStatus2.getRevocationTime())
+                    && revokedStatus1.hasRevocationReason() == revokedStatus2.hasRevocationReason()
+                    && (!revokedStatus1.hasRevocationReason() || revokedStatus1.getRevocationReason() == revokedStatus2.getRevocationReason());
+        }
+    }
+
+    private final LinkedHashMap<BigInteger, List<Entry>> cache = new LinkedHashMap<BigInteger, List<Entry>>(16, 0.75f, true);
+    /** Issuers for which the revoked certificates have been pre-produced */
+    private final Set<String> preProducedIssuers = new HashSet<String>();
+    private volatile int maxSize = 100000;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong signatures = new AtomicLong();
+    private long lastReportTime = System.currentTimeMillis();
+    private long lastReportSignatures = 0;
+
+    /**
+     * @param certId the certificate of the request
+     * @param certStatus the current status of the certificate, where null means good
+     * @param signingCertificate the certificate of the key that would sign a new response
+     * @return a cached response for the same certificate and status, signed by the same key and valid until after now, or null
+     */
+    public OCSPResp get(final CertificateID certId, final CertificateStatus certStatus, final X509Certificate signingCertificate) {
+        final long now = System.currentTimeMillis();
+        synchronized (cache) {
+            final List<Entry> entries = cache.get(certId.getSerialNumber());
+            if (entries != null) {
+                for (final Entry entry : entries) {
+                    if (entry.matches(certId) && entry.matches(certStatus) && now < entry.nextUpdate
+                            && entry.signingCertificate.equals(signingCertificate)) {
+                        hits.incrementAndGet();
+                        return entry.ocspResponse;
+                    }
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /** Adds or replaces the response for a certificate, and evicts the least recently used serial numbers if the cache is full. */
+    public void put(final Entry entry) {
+        final BigInteger serialNumber = entry.certId.getSerialNumber();
+        synchronized (cache) {
+            List<Entry> entries = cache.get(serialNumber);
+            if (entries == null) {
+                entries = new ArrayList<Entry>(1);
+                cache.put(serialNumber, entries);
+            }
+            final Iterator<Entry> iterator = entries.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().matches(entry.certId)) {
+                    iterator.remove();
+                }
+            }
+            entries.add(entry);
+            final Iterator<BigInteger> eldest = cache.keySet().iterator();
+            while (cache.size() > maxSize && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    /** Removes the responses of the certificate, since its status has changed. */
+    public void invalidate(final BigInteger serialNumber) {
+        synchronized (cache) {
+            cache.remove(serialNumber);
+        }
+    }
+
+    /** Removes a response that is about to be refreshed, so the next response for the certificate will be signed. */
+    public void remove(final Entry entry) {
+        synchronized (cache) {
+            final List<Entry> entries = cache.get(entry.certId.getSerialNumber());
+            if (entries != null) {
+                entries.remove(entry);
+                if (entries.isEmpty()) {
+                    cache.remove(entry.certId.getSerialNumber());
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes expired responses, and returns the responses that have passed half of their validity, which should be refreshed.
+     * @param now the current time
+     */
+    public List<Entry> getEntriesToRefresh(final long now) {
+        final List<Entry> ret = new ArrayList<Entry>();
+        synchronized (cache) {
+            final Iterator<List<Entry>> iterator = cache.values().iterator();
+            while (iterator.hasNext()) {
+                final List<Entry> entries = iterator.next();
+                final Iterator<Entry> entryIterator = entries.iterator();
+                while (entryIterator.hasNext()) {
+                    final Entry entry = entryIterator.next();
+                    if (now >= entry.nextUpdate) {
+                        entryIterator.remove();
+                    } else if (now >= entry.thisUpdate + (entry.nextUpdate - entry.thisUpdate) / 2) {
+                        ret.add(entry);
+                    }
+                }
+                if (entries.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+        return ret;
+    }
+
+    /** @return true the first time this is called for an issuer after the cache was cleared */
+    public boolean startPreProducing(final String issuerDn) {
+        synchronized (preProducedIssuers) {
+            return preProducedIssuers.add(issuerDn);
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+        synchronized (preProducedIssuers) {
+            preProducedIssuers.clear();
+        }
+    }
+
+    /** @param maxSize the maximum number of serial numbers with cached responses */
+    public void setMaxSize(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /** @return true if the cache holds the maximum number of serial numbers */
+    public boolean isFull() {
+        synchronized (cache) {
+            return cache.size() >= maxSize;
+        }
+    }
+
+    /** Counts a signature of an OCSP response, whether it is cached or not, for the signing rate statistics. */
+    public void countSignature() {
+        signatures.incrementAndGet();
+    }
+
+    /** @return the number of serial numbers with cached responses */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /** @return the number of requests answered with a cached response */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** @return the number of requests that could have been answered from the cache, but needed a new signature */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** @return the total number of signed responses */
+    public long getSignatures() {
+        return signatures.get();
+    }
+
+    /** @return the statistics of the cache, with the signing rate since the previous call */
+    public Map<String, String> getStatistics() {
+        final long hits = getHits();
+        final long requests = hits + getMisses();
+        final long signatures = getSignatures();
+        final long now = System.currentTimeMillis();
+        final double signingRate;
+        synchronized (this) {
+            signingRate = (signatures - lastReportSignatures) * 1000.0 / Math.max(1, now - lastReportTime);
+            lastReportSignatures = signatures;
+            lastReportTime = now;
+        }
+        final Map<String, String> statistics = new LinkedHashMap<String, String>();
+        statistics.put("size", String.valueOf(size()));
+        statistics.put("hits", String.valueOf(hits));
+        statistics.put("hitratio", String.valueOf(requests == 0 ? 0 : (double) hits / requests));
+        statistics.put("signatures", String.valueOf(signatures));
+        statistics.put("signaturespersecond", String.format("%.1f", Double.valueOf(signingRate)));
+        return statistics;
+    }
+}
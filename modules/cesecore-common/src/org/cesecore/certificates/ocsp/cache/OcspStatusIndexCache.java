@@ -0,0 +1,116 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.cesecore.certificates.certificate.CertificateStatus;
+
+/**
+ * Holds a {@link CertificateStatusIndex} for each issuer that the OCSP responder answers for, so the status of a certificate can be
+ * looked up without a database query.
+ *
+ * The indexes are loaded and updated by OcspResponseGeneratorSessionBean. An index that has not been updated within the maximum age is
+ * not used, so the responder falls back to the database if the updates fail.
+ *
+ * @version $Id$
+ */
+public enum OcspStatusIndexCache {
+    INSTANCE;
+
+    private static class Entry {
+        final CertificateStatusIndex index;
+        /** Time when the index was loaded from the database */
+        final long loadTime;
+        /** Time when the last successful update was started */
+        final long updateTime;
+
+        Entry(final CertificateStatusIndex index, final long loadTime, final long updateTime) {
+            this.index = index;
+            this.loadTime = loadTime;
+            this.updateTime = updateTime;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+    private volatile long maxAge = 0;
+    private volatile boolean answerGood = true;
+
+    /**
+     * @param issuerDn the subject DN of the CA certificate, as returned by CertTools.getSubjectDN
+     * @return the status of the certificate, or null if the status must be read from the database
+     */
+    public CertificateStatus getStatus(final String issuerDn, final BigInteger serialNumber) {
+        final Entry entry = cache.get(issuerDn);
+        if (entry == null || System.currentTimeMillis() - entry.updateTime > maxAge) {
+            return null;
+        }
+        final CertificateStatus status = entry.index.getStatus(serialNumber);
+        if (status == null || (!answerGood && status.equals(CertificateStatus.OK))) {
+            return null;
+        }
+        return status;
+    }
+
+    /** @return the index of the issuer, or null if it has not been loaded */
+    public CertificateStatusIndex getIndex(final String issuerDn) {
+        final Entry entry = cache.get(issuerDn);
+        return entry == null ? null : entry.index;
+    }
+
+    /** @return the time when the index of the issuer was loaded from the database, or 0 if it has not been loaded */
+    public long getLoadTime(final String issuerDn) {
+        final Entry entry = cache.get(issuerDn);
+        return entry == null ? 0 : entry.loadTime;
+    }
+
+    /** @return the time when the last successful update of the index of the issuer was started, or 0 if it has not been loaded */
+    public long getUpdateTime(final String issuerDn) {
+        final Entry entry = cache.get(issuerDn);
+        return entry == null ? 0 : entry.updateTime;
+    }
+
+    /**
+     * Adds or replaces the index of an issuer.
+     *
+     * @param loadTime the time when the index was loaded from the database
+     * @param updateTime the time when the last update, or the load, of the index was started
+     */
+    public void put(final String issuerDn, final CertificateStatusIndex index, final long loadTime, final long updateTime) {
+        cache.put(issuerDn, new Entry(index, loadTime, updateTime));
+    }
+
+    /** Removes the indexes of issuers that the responder no longer answers for. */
+    public void retainAll(final Collection<String> issuerDns) {
+        cache.keySet().retainAll(issuerDns);
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    /** @param maxAge the time in milliseconds after the last successful update when an index is no longer used */
+    public void setMaxAge(final long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @param answerGood false if good certificates must be read from the database, for example since their certificate profile is
+     * needed to find out how long the response is valid
+     */
+    public void setAnswerGood(final boolean answerGood) {
+        this.answerGood = answerGood;
+    }
+}
@@ -0,0 +1,164 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.logging;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.time.FastDateFormat;
+import org.bouncycastle.util.encoders.Hex;
+
+/**
+ * A log row format of a {@link PatternLogger}, parsed once from the pattern and the order string into literal text and the keys of the values
+ * in between. Formatting a row with this template gives the same output as replacing each match of the pattern in the order string with
+ * Matcher.appendReplacement, but without running the regular expression for each row.
+ *
+ * @version $Id$
+ */
+final class PatternLogTemplate {
+
+    private static final Map<String, PatternLogTemplate> TEMPLATES = new ConcurrentHashMap<String, PatternLogTemplate>();
+
+    /** Literal text before each match, and after the last match */
+    private final String[] literals;
+    /** The index of the key of each match in {@link #keys} */
+    private final int[] slots;
+    /** The groups of each match, used for the text of a match without value and for group references in values */
+    private final String[][] groups;
+    /** The distinct keys of the template */
+    private final String[] keys;
+    private final Map<String, Integer> keyIndexes;
+
+    private PatternLogTemplate(final String matchPattern, final String matchString) {
+        final List<String> literalList = new ArrayList<String>();
+        final List<Integer> slotList = new ArrayList<Integer>();
+        final List<String[]> groupList = new ArrayList<String[]>();
+        final Map<String, Integer> indexes = new LinkedHashMap<String, Integer>();
+        final Matcher matcher = Pattern.compile(matchPattern).matcher(matchString);
+        int end = 0;
+        while (matcher.find()) {
+            literalList.add(matchString.substring(end, matcher.start()));
+            // when the pattern is ${identifier}, group 1 is 'identifier'
+            final String key = matcher.group(1);
+            Integer index = indexes.get(key);
+            if (index == null) {
+                index = Integer.valueOf(indexes.size());
+                indexes.put(key, index);
+            }
+            slotList.add(index);
+            final String[] matchGroups = new String[matcher.groupCount() + 1];
+            for (int i = 0; i < matchGroups.length; i++) {
+                matchGroups[i] = matcher.group(i);
+            }
+            groupList.add(matchGroups);
+            end = matcher.end();
+        }
+        literalList.add(matchString.substring(end));
+        literals = literalList.toArray(new String[literalList.size()]);
+        slots = new int[slotList.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = slotList.get(i).intValue();
+        }
+        groups = groupList.toArray(new String[groupList.size()][]);
+        keys = indexes.keySet().toArray(new String[indexes.size()]);
+        keyIndexes = indexes;
+    }
+
+    /** @return the template of the pattern and order string, which is only parsed the first time */
+    static PatternLogTemplate getInstance(final String matchPattern, final String matchString) {
+        final String cacheKey = matchPattern + '\u0000' + matchString;
+        PatternLogTemplate template = TEMPLATES.get(cacheKey);
+        if (template == null) {
+            template = new PatternLogTemplate(matchPattern, matchString);
+            TEMPLATES.put(cacheKey, template);
+        }
+        return template;
+    }
+
+    /** @return the number of distinct keys, which is the size of the value arrays used with this template */
+    int getKeyCount() {
+        return keys.length;
+    }
+
+    /** @return the index of the value of the key, or -1 if the key is not logged with this template */
+    int getKeyIndex(final String key) {
+        final Integer index = keyIndexes.get(key);
+        return index == null ? -1 : index.intValue();
+    }
+
+    /**
+     * Appends a row to the builder.
+     *
+     * @param values the values of the keys, where null means that the key has no value. Values can be Strings, Integers, byte arrays which
+     * are hex encoded or Dates which are formatted with dateFormat.
+     */
+    void format(final StringBuilder sb, final Object[] values, final FastDateFormat dateFormat) {
+        for (int i = 0; i < slots.length; i++) {
+            sb.append(literals[i]);
+            final Object value = values[slots[i]];
+            if (value == null) {
+                // keep the text of the match
+                sb.append(groups[i][0]);
+            } else if (value instanceof byte[]) {
+                sb.append(new String(Hex.encode((byte[]) value)));
+            } else if (value instanceof Date) {
+                sb.append(dateFormat.format((Date) value));
+            } else {
+                appendReplacement(sb, value.toString(), groups[i]);
+            }
+        }
+        sb.append(literals[literals.length - 1]);
+    }
+
+    /**
+     * Appends a value the way Matcher.appendReplacement does, where a backslash escapes the next character and $n is replaced by group n of
+     * the match. Where Matcher.appendReplacement would throw an exception for an invalid group reference, the reference is left out.
+     */
+    private static void appendReplacement(final StringBuilder sb, final String value, final String[] matchGroups) {
+        if (value.indexOf('\\') < 0 && value.indexOf('$') < 0) {
+            sb.append(value);
+            return;
+        }
+        int i = 0;
+        while (i < value.length()) {
+            final char c = value.charAt(i++);
+            if (c == '\\') {
+                if (i < value.length()) {
+                    sb.append(value.charAt(i++));
+                }
+            } else if (c == '$' && i < value.length() && Character.isDigit(value.charAt(i))) {
+                int group = value.charAt(i++) - '0';
+                // Take as many digits as still give a valid group number
+                while (i < value.length() && Character.isDigit(value.charAt(i))) {
+                    final int next = group * 10 + (value.charAt(i) - '0');
+                    if (next >= matchGroups.length) {
+                        break;
+                    }
+                    group = next;
+                    i++;
+                }
+                if (group < matchGroups.length && matchGroups[group] != null) {
+                    sb.append(matchGroups[group]);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.logging;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.cesecore.config.OcspConfiguration;
+
+/**
+ * Writes the flushed rows of {@link PatternLogger}s. By default the rows are written by the thread that flushes them. When ocsp.log-async
+ * is enabled, the rows are queued and formatted and written by a background thread, so the OCSP request does not wait for the log appender.
+ * When the queue is full, ocsp.log-async-overflow decides if the request waits for room in the queue, if the rows are discarded or if the
+ * request writes the rows itself.
+ *
+ * Rows are always written synchronously when ocsp.log-safer is enabled, since the transaction must then be aborted if logging fails.
+ * Queued rows that have not been written when the JVM exits are lost.
+ *
+ * @version $Id$
+ */
+public enum PatternLogWriter {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(PatternLogWriter.class);
+
+    private final BlockingQueue<Runnable> queue;
+    private final String overflowPolicy;
+    private final AtomicLong discarded = new AtomicLong();
+
+    private PatternLogWriter() {
+        // The static logger is not initialized when the enum constant is created
+        final Logger logger = Logger.getLogger(PatternLogWriter.class);
+        if (OcspConfiguration.isLogAsync() && OcspConfiguration.getLogSafer()) {
+            logger.warn(OcspConfiguration.LOG_ASYNC + " is ignored since ocsp.log-safer is enabled.");
+        }
+        if (OcspConfiguration.isLogAsync() && !OcspConfiguration.getLogSafer()) {
+            queue = new ArrayBlockingQueue<Runnable>(OcspConfiguration.getLogAsyncQueueSize());
+            overflowPolicy = OcspConfiguration.getLogAsyncOverflow();
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeQueued();
+                }
+            }, "OCSP log writer");
+            thread.setDaemon(true);
+            thread.start();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Started asynchronous OCSP log writer with a queue of " + queue.remainingCapacity() + " and overflow policy "
+                        + overflowPolicy + ".");
+            }
+        } else {
+            queue = null;
+            overflowPolicy = null;
+        }
+    }
+
+    /**
+     * Writes rows to the log, now or in the background thread.
+     *
+     * @param rows formats and writes the rows
+     */
+    void write(final Runnable rows) {
+        if (queue == null) {
+            rows.run();
+            return;
+        }
+        if (queue.offer(rows)) {
+            return;
+        }
+        if (OcspConfiguration.LOG_ASYNC_OVERFLOW_DISCARD.equals(overflowPolicy)) {
+            final long count = discarded.incrementAndGet();
+            if (count % 1000 == 1) {
+                log.warn("The OCSP log queue is full. " + count + " log entries have been discarded.");
+            }
+        } else if (OcspConfiguration.LOG_ASYNC_OVERFLOW_CALLER.equals(overflowPolicy)) {
+            rows.run();
+        } else {
+            try {
+                queue.put(rows);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Do not lose the log entry
+                rows.run();
+            }
+        }
+    }
+
+    /** @return true if rows are written by a background thread */
+    public boolean isAsync() {
+        return queue != null;
+    }
+
+    /** @return the number of log entries that have been discarded since the queue was full */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    private void writeQueued() {
+        while (true) {
+            final Runnable rows;
+            try {
+                rows = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                rows.run();
+            } catch (RuntimeException e) {
+                log.error("Failed to write OCSP log entry: ", e);
+            }
+        }
+    }
+}
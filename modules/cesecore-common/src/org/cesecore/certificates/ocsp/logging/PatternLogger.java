@@ -13,25 +13,20 @@
 
 package org.cesecore.certificates.ocsp.logging;
 
-import java.io.PrintWriter;
 import java.io.Serializable;
-import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.TimeZone;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.FastDateFormat;
 import org.apache.log4j.Logger;
-import org.bouncycastle.util.encoders.Hex;
 
 /**
- * This class can be extended to create highly configurable log classes. Values that are to be logged are stored in a Hashmap and the output is
- * configured using a Java.util.regex.Matcher and a sortString. The extending classes also need to supply a Logger and a String specifying how to log
- * Dates.
+ * This class can be extended to create highly configurable log classes. The output is configured using a Java.util.regex.Pattern and a sortString,
+ * which are parsed once into a {@link PatternLogTemplate}. Values that are to be logged are stored unformatted and are only formatted when the
+ * rows are flushed. The extending classes also need to supply a Logger and a String specifying how to log Dates.
  * 
  * Use paramPut(String key, String value) to add values, Use writeln() to log all the stored values and then use flush() to store them to file.
  * 
@@ -41,7 +36,7 @@ import org.bouncycastle.util.encoders.Hex;
  */
 public abstract class PatternLogger implements Serializable {
 
-    private static final long serialVersionUID = 8486004615125959046L;
+    private static final long serialVersionUID = -2862312436405658426L;
     public static final String LOG_TIME = "LOG_TIME";// The Date and time the request.
     public static final String LOG_ID = "LOG_ID"; // An integer identifying a log entry for a request
     public static final String SESSION_ID = "SESSION_ID"; // A random 32 bit number identifying a log entry for a request
@@ -82,23 +77,22 @@ public abstract class PatternLogger implements Serializable {
      */
     public static final String PROCESS_TIME = "PROCESS_TIME";
 
-    private final Map<String, String> valuepairs = new HashMap<String, String>();
     private final String matchString;
     private final String matchPattern;
-    // Matcher is not Serializable
-    private transient Matcher m;
-    private final String orderString;
-    private final Date startTime;
-    private Date startProcessTime = null;
+    // The template is parsed from matchPattern and matchString, and is shared by all loggers with the same format
+    private transient PatternLogTemplate template;
+    /** The values of the keys of the template, in the order of {@link PatternLogTemplate#getKeyIndex(String)} */
+    private Object[] values;
+    /** The values of each row created by writeln() */
+    private final List<Object[]> rows = new ArrayList<Object[]>();
+    private final FastDateFormat dateformat;
+    private final long startTime;
+    private long startProcessTime = -1;
     private boolean doLogging;
     final private Class<?> loggerClass;
     // Logger is not Serializable
     private transient Logger logger;
 
-    // for writing the output
-    private transient StringWriter sw;
-    private transient PrintWriter pw;
-
     /**
      * @param doLogging
      *            True if you want this pattern logger to do anything upon flush.
@@ -118,27 +112,26 @@ public abstract class PatternLogger implements Serializable {
         this.doLogging = doLogging;
         this.matchString = matchString;
         this.matchPattern = matchPattern;
-        this.orderString = matchString;
         this.loggerClass = loggerClass;
-        this.startTime = new Date();
-        final FastDateFormat dateformat;
+        this.startTime = System.currentTimeMillis();
         if (timeZone == null) {
                 dateformat = FastDateFormat.getInstance(logDateFormat);
         } else {
                 dateformat = FastDateFormat.getInstance(logDateFormat, TimeZone.getTimeZone(timeZone));
         }
-        paramPut(LOG_TIME, dateformat.format(new Date()));
+        this.values = new Object[getTemplate().getKeyCount()];
+        // The time is formatted when the row is written
+        putValue(LOG_TIME, new Date(this.startTime));
         this.paramPut(REPLY_TIME, REPLY_TIME);
         this.paramPut(LOG_ID, "0");
     }
-    
-    private Matcher getMatcher() {
-        if (this.m == null) {
-            // We have to instantiate the Matcher in the class and can not have it as an instance variable.
-            // This is because we are sending this object to a remote EJB (at least in system tests)
-            this.m = Pattern.compile(matchPattern).matcher(matchString);
+
+    private PatternLogTemplate getTemplate() {
+        if (this.template == null) {
+            // The template is not serialized, since we are sending this object to a remote EJB (at least in system tests)
+            this.template = PatternLogTemplate.getInstance(matchPattern, matchString);
         }
-        return this.m;
+        return this.template;
     }
 
     private Logger getLogger() {
@@ -150,51 +143,36 @@ public abstract class PatternLogger implements Serializable {
         return this.logger;
     }
 
-    private PrintWriter getPrintWriter() {
-        if (this.pw == null) {
-            this.sw = new StringWriter();
-            this.pw = new PrintWriter(this.sw);
-        }
-        return pw;
-    }
-    
     /**
      * 
      * @return output to be logged
      */
     private String interpolate() {
-        final StringBuffer sb = new StringBuffer(this.orderString.length());
-        final Matcher matcher = getMatcher();
-        matcher.reset();
-        while (matcher.find()) {
-            // when the pattern is ${identifier}, group 0 is 'identifier'
-            final String key = matcher.group(1);
-            final String value = this.valuepairs.get(key);
+        final StringBuilder sb = new StringBuilder(this.matchString.length());
+        getTemplate().format(sb, this.values, this.dateformat);
+        return sb.toString();
+    }
 
-            // if the pattern does exists, replace it by its value
-            // otherwise keep the pattern ( it is group(0) )
-            if (value != null) {
-                matcher.appendReplacement(sb, value);
-            } else {
-                // I'm doing this to avoid the backreference problem as there will be a $
-                // if I replace directly with the group 0 (which is also a pattern)
-                matcher.appendReplacement(sb, "");
-                final String unknown = matcher.group(0);
-                sb.append(unknown);
-            }
+    /** Stores a value if the key is logged, since values of other keys are never written */
+    private void putValue(final String key, final Object value) {
+        final int index = getTemplate().getKeyIndex(key);
+        if (index >= 0) {
+            this.values[index] = value;
         }
-        matcher.appendTail(sb);
-        return sb.toString();
     }
 
     /**
-     * Hex-encodes the bytes.
+     * Hex-encodes the bytes when the row is written.
      * method that makes sure that a "" is inserted instead of null
      * @param key
      * @param value
      */
     public void paramPut(String key, byte[] value) {
-        paramPut(key, new String(Hex.encode(value)));
+        if (value == null) {
+            putValue(key, "");
+        } else {
+            putValue(key, value);
+        }
     }
 
     /**
@@ -203,14 +181,13 @@ public abstract class PatternLogger implements Serializable {
      * @param value
      */
     public void paramPut(String key, String value) {
-        // logger.debug("paramput: "+ key+ ";" +value +";" +valuepairs.toString());
         if (value == null) {
-            this.valuepairs.put(key, "");
+            putValue(key, "");
         } else {
-            this.valuepairs.put(key, value);
+            putValue(key, value);
         }
         if (StringUtils.equals(key, PROCESS_TIME)) {
-            startProcessTime = new Date();
+            startProcessTime = System.currentTimeMillis();
         }
     }
 
@@ -221,9 +198,9 @@ public abstract class PatternLogger implements Serializable {
      */
     public void paramPut(String key, Integer value) {
         if (value == null) {
-            this.valuepairs.put(key, "");
+            putValue(key, "");
         } else {
-            this.valuepairs.put(key, value.toString());
+            putValue(key, value);
         }
     }
 
@@ -232,27 +209,51 @@ public abstract class PatternLogger implements Serializable {
      */
     public void writeln() {
         if (doLogging) {
-            getPrintWriter().println(interpolate());
+            // The values are formatted when the rows are flushed, but later paramPut calls must not change this row
+            this.rows.add(this.values.clone());
         }
     }
 
     /**
-     * Writes all the rows created by writeln() to the Logger
+     * Writes all the rows created by writeln() to the Logger. The rows are formatted and written by a background thread if
+     * asynchronous logging is enabled, see {@link PatternLogWriter}.
      */
     public void flush() {
-        if (doLogging) {
-            getPrintWriter().flush();
-            String output = this.sw.toString();
-            output = output.replaceAll(REPLY_TIME, String.valueOf(new Date().getTime() - this.startTime.getTime()));
-            if (startProcessTime != null) {
-                output = output.replaceAll(PROCESS_TIME, String.valueOf(new Date().getTime() - this.startProcessTime.getTime()));
-            }
-            //Remove an extra linebreak between flushes.
-            if(output.endsWith(System.getProperty("line.separator"))) {
-                output = output.substring(0, output.length()-1);
-            }
-            getLogger().debug(output); // Finally output the log row to the logging device
+        if (doLogging && getLogger().isDebugEnabled()) {
+            // Measure the times now and not when a background thread writes the rows
+            final long now = System.currentTimeMillis();
+            final String replyTime = String.valueOf(now - this.startTime);
+            final String processTime = this.startProcessTime < 0 ? null : String.valueOf(now - this.startProcessTime);
+            final PatternLogTemplate rowTemplate = getTemplate();
+            final Object[][] rowValues = this.rows.toArray(new Object[this.rows.size()][]);
+            final FastDateFormat rowDateFormat = this.dateformat;
+            final Logger rowLogger = getLogger();
+            PatternLogWriter.INSTANCE.write(new Runnable() {
+                @Override
+                public void run() {
+                    rowLogger.debug(format(rowTemplate, rowValues, rowDateFormat, replyTime, processTime));
+                }
+            });
+        }
+    }
+
+    private static String format(final PatternLogTemplate template, final Object[][] rowValues, final FastDateFormat dateformat, final String replyTime,
+            final String processTime) {
+        final String lineSeparator = System.getProperty("line.separator");
+        final StringBuilder sb = new StringBuilder();
+        for (final Object[] row : rowValues) {
+            template.format(sb, row, dateformat);
+            sb.append(lineSeparator);
+        }
+        String output = StringUtils.replace(sb.toString(), REPLY_TIME, replyTime);
+        if (processTime != null) {
+            output = StringUtils.replace(output, PROCESS_TIME, processTime);
+        }
+        //Remove an extra linebreak between flushes.
+        if(output.endsWith(lineSeparator)) {
+            output = output.substring(0, output.length()-1);
         }
+        return output; // Finally output the log row to the logging device
     }
 
     /** @return true if this logger is enabled */
@@ -31,6 +31,7 @@ import org.bouncycastle.asn1.x509.CRLDistPoint;
 import org.bouncycastle.asn1.x509.CRLNumber;
 import org.bouncycastle.asn1.x509.DistributionPoint;
 import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
 import org.bouncycastle.asn1.x509.GeneralNames;
 import org.bouncycastle.x509.extension.X509ExtensionUtil;
 import org.cesecore.certificates.crl.RevokedCertInfo;
@@ -83,6 +84,30 @@ public class CrlExtensions {
 		return ret;
     }
 
+    /**
+     * @param extensions the crlExtensions of a CRL, or null
+     * @see #getCrlNumber(X509CRL)
+     */
+    public static BigInteger getCrlNumber(final Extensions extensions) {
+        final Extension extension = extensions == null ? null : extensions.getExtension(Extension.cRLNumber);
+        if (extension == null) {
+            return BigInteger.valueOf(0);
+        }
+        return CRLNumber.getInstance(extension.getParsedValue()).getCRLNumber();
+    }
+
+    /**
+     * @param extensions the crlExtensions of a CRL, or null
+     * @see #getDeltaCRLIndicator(X509CRL)
+     */
+    public static BigInteger getDeltaCRLIndicator(final Extensions extensions) {
+        final Extension extension = extensions == null ? null : extensions.getExtension(Extension.deltaCRLIndicator);
+        if (extension == null) {
+            return BigInteger.valueOf(-1);
+        }
+        return CRLNumber.getInstance(extension.getParsedValue()).getCRLNumber();
+    }
+
     /**
      * Return an Extension ASN1Primitive from a CRL
      */
@@ -120,8 +145,26 @@ public class CrlExtensions {
 
     /** @return a list of URLs in String format with present freshest CRL extensions or an empty List */
     public static List<String> extractFreshestCrlDistributionPoints(final X509CRL crl) {
+        return extractFreshestCrlDistributionPoints(crl.getExtensionValue(Extension.freshestCRL.getId()));
+    }
+
+    /**
+     * @param extensions the crlExtensions of a CRL, or null
+     * @see #extractFreshestCrlDistributionPoints(X509CRL)
+     */
+    public static List<String> extractFreshestCrlDistributionPoints(final Extensions extensions) {
+        final Extension extension = extensions == null ? null : extensions.getExtension(Extension.freshestCRL);
+        try {
+            return extractFreshestCrlDistributionPoints(extension == null ? null : extension.getExtnValue().getEncoded());
+        } catch (IOException e) {
+            log.info("Failed to encode freshest CRL extension.", e);
+            return new ArrayList<String>();
+        }
+    }
+
+    /** @param extensionValue the DER encoded OCTET STRING with the freshest CRL extension, or null */
+    private static List<String> extractFreshestCrlDistributionPoints(final byte[] extensionValue) {
         final List<String> freshestCdpUrls = new ArrayList<String>();
-        final byte[] extensionValue = crl.getExtensionValue(Extension.freshestCRL.getId());
         if (extensionValue!=null) {
             final ASN1OctetString asn1OctetString = getAsn1ObjectFromBytes(extensionValue, ASN1OctetString.class);
             if (asn1OctetString!=null) {
@@ -185,6 +185,26 @@ public final class CesecoreConfiguration {
         return getLongValue("authorization.cachetime", 30000L, "milliseconds to cache authorization");
     }
 
+    /** @return true if cache invalidations should be propagated to the other nodes in the cluster through the database. */
+    public static boolean isCacheInvalidationEnabled() {
+        return TRUE.equalsIgnoreCase(ConfigurationHolder.getString("cacheinvalidation.enabled"));
+    }
+
+    /** @return how often each node reads the cache invalidations published by other nodes. */
+    public static long getCacheInvalidationPollInterval() {
+        return getLongValue("cacheinvalidation.pollinterval", 1000L, "milliseconds");
+    }
+
+    /** @return how long before the previous read cache invalidations are read again, to allow for clock differences and slow commits. */
+    public static long getCacheInvalidationWindow() {
+        return getLongValue("cacheinvalidation.window", 10000L, "milliseconds");
+    }
+
+    /** @return how long cache invalidations are kept in the database. */
+    public static long getCacheInvalidationRetention() {
+        return getLongValue("cacheinvalidation.retention", 3600000L, "milliseconds");
+    }
+
     private static long getLongValue(final String propertyName, final long defaultValue, final String unit) {
         final String value = ConfigurationHolder.getString(propertyName);
         long time = defaultValue;
@@ -240,6 +260,15 @@ public final class CesecoreConfiguration {
         return value == null || !value.trim().equalsIgnoreCase("false");
     }
 
+    /**
+     * Option if the data of CAs, publishers, services and other objects should be written to the database in a compact binary format
+     * instead of XML. Both formats are always read. Default to false. Set to true when all nodes in a cluster can read the compact format.
+     */
+    public static boolean isCompactDataMaps() {
+        final String value = ConfigurationHolder.getString("db.compactdatamaps");
+        return value != null && value.trim().equalsIgnoreCase(TRUE);
+    }
+
     /**
      * When we run in a cluster, each node should have it's own identifier. By default we use the DNS name.
      */
@@ -349,6 +378,33 @@ public final class CesecoreConfiguration {
         return Long.valueOf(getLongValue("database.crlgenfetchsize", 500000L, "rows")).intValue();
     }
 
+    /** @return true if CRLs should be encoded and signed as a stream instead of being built in memory. */
+    public static boolean isCrlGenerationStreaming() {
+        final String value = ConfigurationHolder.getString("crlgen.streaming");
+        return value != null && value.trim().equalsIgnoreCase(TRUE);
+    }
+
+    /** @return the number of bytes of encoded CRL entries that are kept in memory before they are spooled to a temporary file. */
+    public static int getCrlGenerationSpoolThreshold() {
+        return Long.valueOf(getLongValue("crlgen.spoolthreshold", 16777216L, "bytes")).intValue();
+    }
+
+    /** @return true if full CRLs should be created by merging the changes since the previous CRL into its entries. */
+    public static boolean isCrlGenerationIncremental() {
+        final String value = ConfigurationHolder.getString("crlgen.incremental");
+        return value != null && value.trim().equalsIgnoreCase(TRUE);
+    }
+
+    /** @return milliseconds before the previous incremental CRL generation that changes are read from, to cover transactions and clock skew. */
+    public static long getCrlGenerationIncrementalOverlapTime() {
+        return getLongValue("crlgen.incremental.overlaptime", 600000L, "milliseconds");
+    }
+
+    /** @return the number of incremental CRLs after which all revoked certificates are read from the database again. */
+    public static int getCrlGenerationIncrementalMaxUpdates() {
+        return Long.valueOf(getLongValue("crlgen.incremental.maxupdates", 24L, "updates")).intValue();
+    }
+
     /**
      * Used just in {@link #getForbiddenCharacters()}. The method is called very
      * often so we declare this String in the class so it does not have to be
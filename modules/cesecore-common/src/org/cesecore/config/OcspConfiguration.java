@@ -16,6 +16,7 @@ package org.cesecore.config;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -60,6 +61,25 @@ public class OcspConfiguration {
     public static final String INCLUDE_SIGNING_CERT = "ocsp.includesignercert";
     public static final String INCLUDE_CERT_CHAIN = "ocsp.includecertchain";
     public static final String RESPONDER_ID_TYPE = "ocsp.responderidtype";
+    public static final String STATUS_INDEX_ENABLED = "ocsp.statusindex.enabled";
+    public static final String STATUS_INDEX_FILTER = "ocsp.statusindex.filter";
+    public static final String STATUS_INDEX_FILTER_FALSE_POSITIVE_RATE = "ocsp.statusindex.filter.falsepositiverate";
+    public static final String STATUS_INDEX_UPDATE_INTERVAL = "ocsp.statusindex.updateinterval";
+    public static final String STATUS_INDEX_RELOAD_INTERVAL = "ocsp.statusindex.reloadinterval";
+    public static final String RESPONSE_CACHE_ENABLED = "ocsp.responsecache.enabled";
+    public static final String RESPONSE_CACHE_MAX_SIZE = "ocsp.responsecache.maxsize";
+    public static final String RESPONSE_CACHE_REFRESH_INTERVAL = "ocsp.responsecache.refreshinterval";
+    public static final String RESPONSE_CACHE_PRESIGN_REVOKED = "ocsp.responsecache.presignrevoked";
+    public static final String HTTP_CACHE_ENABLED = "ocsp.httpcache.enabled";
+    public static final String HTTP_CACHE_MAX_BYTES = "ocsp.httpcache.maxbytes";
+    public static final String SIGNING_THREADS = "ocsp.signing.threads";
+    public static final String SIGNING_QUEUE_SIZE = "ocsp.signing.queuesize";
+    public static final String LOG_ASYNC = "ocsp.log-async";
+    public static final String LOG_ASYNC_QUEUE_SIZE = "ocsp.log-async-queuesize";
+    public static final String LOG_ASYNC_OVERFLOW = "ocsp.log-async-overflow";
+    public static final String LOG_ASYNC_OVERFLOW_BLOCK = "block";
+    public static final String LOG_ASYNC_OVERFLOW_DISCARD = "discard";
+    public static final String LOG_ASYNC_OVERFLOW_CALLER = "caller";
     
     @Deprecated //Remove this value once upgrading VAs to EJBCA 6 has been dropped
     public static final int RESTRICTONISSUER = 0;
@@ -371,6 +391,37 @@ public class OcspConfiguration {
         return value;
     }
 
+    /**
+     * @return true if transaction and audit log rows should be written by a background thread
+     */
+    public static boolean isLogAsync() {
+        final String value = ConfigurationHolder.getString(LOG_ASYNC);
+        return "true".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value);
+    }
+
+    /**
+     * @return the number of flushed transaction and audit log entries that can wait for the background thread
+     */
+    public static int getLogAsyncQueueSize() {
+        return (int) Math.min(Integer.MAX_VALUE, getLongValue(LOG_ASYNC_QUEUE_SIZE, 10000, "10000"));
+    }
+
+    /**
+     * @return what to do with a log entry when the queue of the background thread is full, one of {@link #LOG_ASYNC_OVERFLOW_BLOCK},
+     * {@link #LOG_ASYNC_OVERFLOW_DISCARD} or {@link #LOG_ASYNC_OVERFLOW_CALLER}
+     */
+    public static String getLogAsyncOverflow() {
+        final String value = ConfigurationHolder.getString(LOG_ASYNC_OVERFLOW);
+        if (value != null) {
+            final String policy = value.trim().toLowerCase();
+            if (LOG_ASYNC_OVERFLOW_BLOCK.equals(policy) || LOG_ASYNC_OVERFLOW_DISCARD.equals(policy) || LOG_ASYNC_OVERFLOW_CALLER.equals(policy)) {
+                return policy;
+            }
+            log.warn(LOG_ASYNC_OVERFLOW + " is not one of block, discard or caller. Using default block.");
+        }
+        return LOG_ASYNC_OVERFLOW_BLOCK;
+    }
+
     /**
      * All available signing keys should be tested.
      */
@@ -544,6 +595,144 @@ public class OcspConfiguration {
         }
     }
 
+    /** @return true if untilNextUpdate or maxAge of good certificates is configured for any certificate profile */
+    public static boolean isProfileSpecificGoodValidityConfigured() {
+        final Iterator<?> keys = ConfigurationHolder.instance().getKeys("ocsp");
+        while (keys.hasNext()) {
+            final String key = (String) keys.next();
+            if (key.matches("ocsp\\.[-0-9]+\\.(untilNextUpdate|maxAge)")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the revocation status of certificates should be kept in memory, see {@link #STATUS_INDEX_ENABLED}
+     */
+    public static boolean isStatusIndexEnabled() {
+        final String value = ConfigurationHolder.getString(STATUS_INDEX_ENABLED);
+        return "true".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value);
+    }
+
+    /**
+     * @return true if the in-memory status index should keep a filter of issued serial numbers, so good certificates are answered from memory
+     */
+    public static boolean isStatusIndexFilterEnabled() {
+        final String value = ConfigurationHolder.getString(STATUS_INDEX_FILTER);
+        return !"false".equalsIgnoreCase(value) && !"no".equalsIgnoreCase(value);
+    }
+
+    /**
+     * @return the rate of never issued serial numbers that the filter of issued serial numbers reports as issued
+     */
+    public static double getStatusIndexFilterFalsePositiveRate() {
+        final double defaultValue = 0.0001;
+        final String value = ConfigurationHolder.getString(STATUS_INDEX_FILTER_FALSE_POSITIVE_RATE);
+        if (value != null) {
+            try {
+                final double rate = Double.parseDouble(value.trim());
+                if (rate > 0 && rate < 1) {
+                    return rate;
+                }
+            } catch (NumberFormatException e) {
+                // Use the default value below
+            }
+            log.warn(STATUS_INDEX_FILTER_FALSE_POSITIVE_RATE + " is not a number between 0 and 1. Using default value: " + defaultValue);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @return the interval in milliseconds between the updates of the in-memory status index from the database
+     */
+    public static long getStatusIndexUpdateInterval() {
+        return getLongValue(STATUS_INDEX_UPDATE_INTERVAL, 10, "10 seconds") * 1000L;
+    }
+
+    /**
+     * @return the interval in milliseconds between full reloads of the in-memory status index from the database
+     */
+    public static long getStatusIndexReloadInterval() {
+        return getLongValue(STATUS_INDEX_RELOAD_INTERVAL, 86400, "1 day") * 1000L;
+    }
+
+    /**
+     * @return true if signed responses to requests without nonce should be cached, see {@link #RESPONSE_CACHE_ENABLED}
+     */
+    public static boolean isResponseCacheEnabled() {
+        final String value = ConfigurationHolder.getString(RESPONSE_CACHE_ENABLED);
+        return "true".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value);
+    }
+
+    /**
+     * @return the maximum number of certificates with cached responses
+     */
+    public static int getResponseCacheMaxSize() {
+        return (int) Math.min(Integer.MAX_VALUE, getLongValue(RESPONSE_CACHE_MAX_SIZE, 100000, "100000"));
+    }
+
+    /**
+     * @return the interval in milliseconds between the refreshes of cached responses
+     */
+    public static long getResponseCacheRefreshInterval() {
+        return getLongValue(RESPONSE_CACHE_REFRESH_INTERVAL, 60, "60 seconds") * 1000L;
+    }
+
+    /**
+     * @return true if responses for all revoked certificates of the CAs should be signed in advance
+     */
+    public static boolean isResponseCachePresignRevoked() {
+        final String value = ConfigurationHolder.getString(RESPONSE_CACHE_PRESIGN_REVOKED);
+        return "true".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value);
+    }
+
+    /**
+     * @return true if responses to GET requests without nonce should be cached by the OCSP servlet, see {@link #HTTP_CACHE_ENABLED}
+     */
+    public static boolean isHttpCacheEnabled() {
+        final String value = ConfigurationHolder.getString(HTTP_CACHE_ENABLED);
+        return "true".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value);
+    }
+
+    /**
+     * @return the maximum total size in bytes of the requests and responses cached by the OCSP servlet
+     */
+    public static long getHttpCacheMaxBytes() {
+        return getLongValue(HTTP_CACHE_MAX_BYTES, 32L * 1024 * 1024, "33554432");
+    }
+
+    /**
+     * @return the number of OCSP responses that can be signed in parallel with the keys of each crypto token
+     */
+    public static int getSigningThreads() {
+        final int defaultValue = Runtime.getRuntime().availableProcessors();
+        return (int) Math.min(1000, getLongValue(SIGNING_THREADS, defaultValue, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * @return the number of OCSP responses that can wait for a signing thread of each crypto token, before requests are answered with tryLater
+     */
+    public static int getSigningQueueSize() {
+        return (int) Math.min(Integer.MAX_VALUE, getLongValue(SIGNING_QUEUE_SIZE, 100, "100"));
+    }
+
+    private static long getLongValue(final String key, final long defaultValue, final String defaultDescription) {
+        final String value = ConfigurationHolder.getString(key);
+        if (value != null) {
+            try {
+                final long ret = Long.parseLong(value.trim());
+                if (ret > 0) {
+                    return ret;
+                }
+            } catch (NumberFormatException e) {
+                // Use the default value below
+            }
+            log.warn(key + " is not a positive decimal integer. Using default " + defaultDescription + ".");
+        }
+        return defaultValue;
+    }
+
 
     // Values for stand-alone OCSP
 
@@ -0,0 +1,53 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.internal;
+
+import java.io.Serializable;
+
+/**
+ * An entry in the cache invalidation log.
+ * 
+ * @version $Id$
+ */
+public class CacheInvalidation implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long id;
+    private final String cacheName;
+    private final String key;
+    private final int nodeId;
+
+    /**
+     * @param id the id of the entry, see {@link CacheInvalidationBus#getTimeFromId(long)}
+     * @param cacheName the name that the listeners of the cache are registered with
+     * @param key the key of the changed entry, or null if all entries should be removed
+     * @param nodeId the id of the node that published the invalidation
+     */
+    public CacheInvalidation(final long id, final String cacheName, final String key, final int nodeId) {
+        this.id = id;
+        this.cacheName = cacheName;
+        this.key = key;
+        this.nodeId = nodeId;
+    }
+
+    public long getId() { return id; }
+    public String getCacheName() { return cacheName; }
+    public String getKey() { return key; }
+    public int getNodeId() { return nodeId; }
+
+    @Override
+    public String toString() {
+        return "CacheInvalidation id=" + id + ", cacheName=" + cacheName + ", key=" + key + ", nodeId=" + nodeId;
+    }
+}
@@ -0,0 +1,179 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.internal;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Propagates cache invalidations between the nodes of a cluster through a shared {@link CacheInvalidationLog}.
+ * 
+ * A node queues an invalidation when the change of the cached object has been committed, see {@link #addPending(String, String)}, and
+ * stores the queued invalidations in the log in a separate transaction. So a failure to store an invalidation never rolls back the
+ * change itself. The other nodes read the log periodically and pass new invalidations to the listeners registered for the cache.
+ * Invalidations published by a node are not passed to its own listeners, since the publishing code has already updated the local cache.
+ * 
+ * The id of an invalidation is the time it is stored in milliseconds multiplied by {@link #ID_TIME_FACTOR} plus a counter that starts
+ * at a random value on each node, so that the nodes can create ids in increasing order without coordination. The ids fit in the 18
+ * digit decimal columns used for time stamps on some databases. Two nodes may still create the same id in the same millisecond. The
+ * store then fails, and the invalidations are stored again later with new ids, see {@link #returnPending(List)}.
+ * 
+ * @version $Id$
+ */
+public class CacheInvalidationBus {
+
+    /** The bus of this node. */
+    public static final CacheInvalidationBus INSTANCE = new CacheInvalidationBus(new SecureRandom().nextInt());
+
+    public static final long ID_TIME_FACTOR = 100000L;
+
+    private static final Logger log = Logger.getLogger(CacheInvalidationBus.class);
+
+    private final int nodeId;
+    private final AtomicLong idCounter = new AtomicLong(new SecureRandom().nextInt() & Integer.MAX_VALUE);
+    /** Invalidations of committed changes that have not been stored in the log yet. Guarded by itself. */
+    private final List<CacheInvalidation> pending = new ArrayList<CacheInvalidation>();
+    private final ConcurrentMap<String, Set<CacheInvalidationListener>> listeners = new ConcurrentHashMap<String, Set<CacheInvalidationListener>>();
+    /** Ids of the invalidations that have been read, and that may be read again. Guarded by this. */
+    private final TreeSet<Long> processedIds = new TreeSet<Long>();
+    /** Guarded by this. */
+    private long lastReadTime;
+
+    /** @param nodeId an id that is unique for each node in the cluster */
+    public CacheInvalidationBus(final int nodeId) {
+        this.nodeId = nodeId;
+        this.lastReadTime = System.currentTimeMillis();
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /** @return the lowest id that an invalidation created at the provided time can have */
+    public static long getFirstIdAt(final long time) {
+        return time * ID_TIME_FACTOR;
+    }
+
+    /** Registers a listener for invalidations of the named cache. Registering the same listener again has no effect. */
+    public void register(final String cacheName, final CacheInvalidationListener listener) {
+        Set<CacheInvalidationListener> cacheListeners = listeners.get(cacheName);
+        if (cacheListeners == null) {
+            listeners.putIfAbsent(cacheName, new CopyOnWriteArraySet<CacheInvalidationListener>());
+            cacheListeners = listeners.get(cacheName);
+        }
+        cacheListeners.add(listener);
+    }
+
+    /** @return a listener that removes the entry with the integer id in the key from the cache, or flushes the cache if the key is null */
+    public static CacheInvalidationListener getListener(final CommonCache<?> cache) {
+        return new CacheInvalidationListener() {
+            @Override
+            public void invalidate(final String key) {
+                if (key == null) {
+                    cache.flush();
+                } else {
+                    cache.removeEntry(Integer.parseInt(key));
+                }
+            }
+        };
+    }
+
+    /**
+     * Queues an invalidation, to be stored in the log by the next call to {@link #takePending()}. Should only be called when the change
+     * of the cached object has been committed.
+     * 
+     * @param key the key of the changed entry, or null if all entries should be removed
+     */
+    public void addPending(final String cacheName, final String key) {
+        synchronized (pending) {
+            pending.add(new CacheInvalidation(0, cacheName, key, nodeId));
+        }
+    }
+
+    /**
+     * Removes the queued invalidations from the queue and gives them new ids. The caller should store them in the log, and return
+     * them with {@link #returnPending(List)} if that fails.
+     * 
+     * @return the queued invalidations, in the order they were queued
+     */
+    public List<CacheInvalidation> takePending() {
+        final List<CacheInvalidation> ret = new ArrayList<CacheInvalidation>();
+        synchronized (pending) {
+            for (final CacheInvalidation cacheInvalidation : pending) {
+                final long id = getFirstIdAt(System.currentTimeMillis()) + idCounter.getAndIncrement() % ID_TIME_FACTOR;
+                ret.add(new CacheInvalidation(id, cacheInvalidation.getCacheName(), cacheInvalidation.getKey(), nodeId));
+            }
+            pending.clear();
+        }
+        return ret;
+    }
+
+    /** Puts invalidations that could not be stored back first in the queue, so that they are stored with new ids the next time. */
+    public void returnPending(final List<CacheInvalidation> cacheInvalidations) {
+        synchronized (pending) {
+            pending.addAll(0, cacheInvalidations);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Returned " + cacheInvalidations.size() + " invalidations that could not be stored.");
+        }
+    }
+
+    /**
+     * Reads new invalidations from the log and passes the ones published by other nodes to the registered listeners.
+     * 
+     * An invalidation is only visible after the storing transaction is committed, which is later than the time in its id, and
+     * the clocks of the nodes may differ. So the invalidations created up to window milliseconds before the previous read are read
+     * again, and the ones that have already been processed are skipped.
+     * 
+     * @param window milliseconds
+     * @return the names of the caches that invalidations were passed to
+     */
+    public synchronized Set<String> process(final CacheInvalidationLog invalidationLog, final long window) {
+        final long readTime = System.currentTimeMillis();
+        final long fromId = getFirstIdAt(lastReadTime - window);
+        final Set<String> ret = new HashSet<String>();
+        for (final CacheInvalidation cacheInvalidation : invalidationLog.readFrom(fromId)) {
+            if (!processedIds.add(Long.valueOf(cacheInvalidation.getId())) || cacheInvalidation.getNodeId() == nodeId) {
+                continue;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Processing " + cacheInvalidation);
+            }
+            final Set<CacheInvalidationListener> cacheListeners = listeners.get(cacheInvalidation.getCacheName());
+            if (cacheListeners != null) {
+                for (final CacheInvalidationListener listener : cacheListeners) {
+                    try {
+                        listener.invalidate(cacheInvalidation.getKey());
+                    } catch (RuntimeException e) {
+                        log.error("Failed to process " + cacheInvalidation + ": " + e.getMessage(), e);
+                    }
+                }
+            }
+            ret.add(cacheInvalidation.getCacheName());
+        }
+        // The next read starts after these ids
+        processedIds.headSet(Long.valueOf(fromId)).clear();
+        lastReadTime = readTime;
+        return ret;
+    }
+}
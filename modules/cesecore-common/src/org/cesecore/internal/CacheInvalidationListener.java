@@ -0,0 +1,28 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.internal;
+
+/**
+ * Receives invalidations of a cache, published on another node in the cluster through the {@link CacheInvalidationBus}.
+ * 
+ * @version $Id$
+ */
+public interface CacheInvalidationListener {
+
+    /**
+     * Remove the entry from the cache, so that the next access reads it from the database.
+     * 
+     * @param key the key of the changed entry, or null if all entries should be removed
+     */
+    void invalidate(String key);
+}
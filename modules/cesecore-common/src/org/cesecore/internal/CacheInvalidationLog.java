@@ -0,0 +1,32 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.internal;
+
+import java.util.List;
+
+/**
+ * Storage of cache invalidations that is shared by all nodes in the cluster, for example a database table.
+ * 
+ * @version $Id$
+ */
+public interface CacheInvalidationLog {
+
+    /** Store the invalidation, so that it is visible to other nodes when the current transaction (if any) is committed. */
+    void append(CacheInvalidation cacheInvalidation);
+
+    /** @return all stored invalidations with an id that is greater than or equal to fromId, ordered by id. */
+    List<CacheInvalidation> readFrom(long fromId);
+
+    /** Remove all stored invalidations with an id less than the provided id. */
+    void removeBefore(long id);
+}
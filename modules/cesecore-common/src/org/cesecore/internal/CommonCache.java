@@ -28,6 +28,14 @@ public interface CommonCache<T> {
     /** @return true when the cache for this object has expired or the token is non-existing. */
     boolean shouldCheckForUpdates(int id);
 
+    /**
+     * Allows the caller to only read a version marker from the database (like an update time), instead of reading and decoding the
+     * full object, when {@link #shouldCheckForUpdates(int)} returns true.
+     * 
+     * @return true if an object is cached for the id and it was cached with the provided digest.
+     */
+    boolean isCurrent(int id, int digest);
+
     /** Update the cache with the current version read from the database. */
     void updateWith(int id, int digest, String name, T object);
 
@@ -104,6 +104,11 @@ public abstract class CommonCacheBase<T> implements CommonCache<T> {
         return false;
     }
 
+    @Override
+    public boolean isCurrent(final int id, final int digest) {
+        final CacheEntry cacheEntry = getCacheEntry(Integer.valueOf(id));
+        return cacheEntry != null && cacheEntry.digest == digest;
+    }
 
     @Override
     public void removeEntry(int id) {
@@ -17,6 +17,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.internal.CacheInvalidationBus;
 import org.cesecore.internal.CommonCache;
 import org.cesecore.internal.CommonCacheBase;
 
@@ -28,6 +29,9 @@ import org.cesecore.internal.CommonCacheBase;
 public enum InternalKeyBindingCache implements CommonCache<InternalKeyBinding> {
     INSTANCE;
 
+    /** The name of the cache in {@link CacheInvalidationBus} */
+    public static final String CACHE_NAME = "InternalKeyBindingCache";
+
     final private CommonCacheBase<InternalKeyBinding> internalKeyBindingCache = new CommonCacheBase<InternalKeyBinding>() {
         @Override
         protected long getCacheTime() {
@@ -41,6 +45,11 @@ public enum InternalKeyBindingCache implements CommonCache<InternalKeyBinding> {
         };
     };
 
+    private InternalKeyBindingCache() {
+        // Remove entries that were changed on other nodes
+        CacheInvalidationBus.INSTANCE.register(CACHE_NAME, CacheInvalidationBus.getListener(this));
+    }
+
     @Override
     public InternalKeyBinding getEntry(final int signerId) {
         return internalKeyBindingCache.getEntry(signerId);
@@ -51,6 +60,11 @@ public enum InternalKeyBindingCache implements CommonCache<InternalKeyBinding> {
         return internalKeyBindingCache.shouldCheckForUpdates(signerId);
     }
     
+    @Override
+    public boolean isCurrent(final int signerId, final int digest) {
+        return internalKeyBindingCache.isCurrent(signerId, digest);
+    }
+
     @Override
     public void updateWith(int signerId, int digest, String name, InternalKeyBinding object) {
         internalKeyBindingCache.updateWith(signerId, digest, name, object);
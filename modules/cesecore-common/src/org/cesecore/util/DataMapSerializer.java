@@ -0,0 +1,518 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util;
+
+import java.beans.XMLDecoder;
+import java.beans.XMLEncoder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.cesecore.config.CesecoreConfiguration;
+
+/**
+ * Serializes the objects stored in the data columns of entities, usually the maps from UpgradeableDataHashMap.saveData(), to Strings.
+ *
+ * Two formats are read. The XML format of java.beans.XMLEncoder, that has always been used, and a compact binary format that is
+ * stored Base64 encoded after {@link #COMPACT_PREFIX}. The compact format is written when db.compactdatamaps is true and the object
+ * only contains null values and objects of the following classes: String, Boolean, Byte, Short, Integer, Long, Float, Double,
+ * Character, BigInteger, Date, byte[], ArrayList, LinkedList, HashSet, LinkedHashSet, HashMap, LinkedHashMap, Base64GetHashMap,
+ * Base64PutHashMap, the empty collections of java.util.Collections and enums. Other objects, like JavaBeans, are written as XML. The classes of all objects are kept, like with XMLDecoder.
+ *
+ * @version $Id$
+ */
+public final class DataMapSerializer {
+
+    private static final Logger log = Logger.getLogger(DataMapSerializer.class);
+
+    /** Prefix of data in the compact format. It can not be the start of an XML document. */
+    public static final String COMPACT_PREFIX = "DMC:";
+    /** Version of the compact format, stored in its first byte */
+    private static final int COMPACT_VERSION = 1;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_TRUE = 2;
+    private static final byte TAG_FALSE = 3;
+    private static final byte TAG_BYTE = 4;
+    private static final byte TAG_SHORT = 5;
+    private static final byte TAG_INTEGER = 6;
+    private static final byte TAG_LONG = 7;
+    private static final byte TAG_FLOAT = 8;
+    private static final byte TAG_DOUBLE = 9;
+    private static final byte TAG_CHARACTER = 10;
+    private static final byte TAG_BIGINTEGER = 11;
+    private static final byte TAG_DATE = 12;
+    private static final byte TAG_BYTES = 13;
+    private static final byte TAG_ARRAYLIST = 14;
+    private static final byte TAG_LINKEDLIST = 15;
+    private static final byte TAG_HASHSET = 16;
+    private static final byte TAG_LINKEDHASHSET = 17;
+    private static final byte TAG_HASHMAP = 18;
+    private static final byte TAG_LINKEDHASHMAP = 19;
+    private static final byte TAG_BASE64GETHASHMAP = 20;
+    private static final byte TAG_BASE64PUTHASHMAP = 21;
+    private static final byte TAG_EMPTYLIST = 22;
+    private static final byte TAG_EMPTYSET = 23;
+    private static final byte TAG_EMPTYMAP = 24;
+    private static final byte TAG_ENUM = 25;
+
+    private DataMapSerializer() {}
+
+    /** @return true if the data is in the compact format */
+    public static boolean isCompact(final String data) {
+        return data != null && data.startsWith(COMPACT_PREFIX);
+    }
+
+    /**
+     * @param data data in either the XML or the compact format
+     * @return the decoded object, or null if data is null
+     */
+    public static Object decode(final String data) {
+        if (isCompact(data)) {
+            return decodeCompact(data);
+        }
+        return decodeXml(data);
+    }
+
+    /**
+     * Encodes the object in the compact format if db.compactdatamaps is true and the object can be stored in it, otherwise as XML.
+     *
+     * @return the encoded object, or null if the object is null
+     */
+    public static String encode(final Object object) {
+        if (object != null && CesecoreConfiguration.isCompactDataMaps()) {
+            try {
+                return encodeCompact(object);
+            } catch (IllegalArgumentException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Using XML encoding since the compact format can not be used: " + e.getMessage());
+                }
+            }
+        }
+        return encodeXml(object);
+    }
+
+    /** @return the object as XML written by java.beans.XMLEncoder, or null if the object is null */
+    public static String encodeXml(final Object object) {
+        if (object == null) {
+            return null;
+        }
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final XMLEncoder encoder = new XMLEncoder(baos);
+        encoder.writeObject(object);
+        encoder.close();
+        try {
+            return baos.toString("UTF8");
+        } catch (UnsupportedEncodingException e) {
+            // Fatal. No point in handling the lack of UTF-8
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return the object read with java.beans.XMLDecoder, or null if data is null */
+    public static Object decodeXml(final String data) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            final XMLDecoder decoder = new XMLDecoder(new ByteArrayInputStream(data.getBytes("UTF8")));
+            final Object ret = decoder.readObject();
+            decoder.close();
+            return ret;
+        } catch (UnsupportedEncodingException e) {
+            // Fatal. No point in handling the lack of UTF-8
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the object in the compact format, or null if the object is null
+     * @throws IllegalArgumentException if the object contains an object of a class that the compact format does not support
+     */
+    public static String encodeCompact(final Object object) {
+        if (object == null) {
+            return null;
+        }
+        final Output output = new Output();
+        output.writeByte(COMPACT_VERSION);
+        writeObject(output, object);
+        try {
+            return COMPACT_PREFIX + new String(Base64.encode(output.toByteArray(), false), "US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the object decoded from the compact format, or null if data is null
+     * @throws IllegalArgumentException if the data is not valid compact data
+     */
+    public static Object decodeCompact(final String data) {
+        if (data == null) {
+            return null;
+        }
+        if (!isCompact(data)) {
+            throw new IllegalArgumentException("Data does not start with " + COMPACT_PREFIX);
+        }
+        final byte[] bytes;
+        try {
+            bytes = Base64.decode(data.substring(COMPACT_PREFIX.length()).getBytes("US-ASCII"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            // BouncyCastle throws a DecoderException for invalid Base64
+            throw new IllegalArgumentException("Compact data is not valid Base64: " + e.getMessage(), e);
+        }
+        if (bytes.length == 0) {
+            throw new IllegalArgumentException("Compact data is empty.");
+        }
+        final Input input = new Input(bytes);
+        final int version = input.readByte();
+        if (version != COMPACT_VERSION) {
+            throw new IllegalArgumentException("Unsupported version of compact data: " + version);
+        }
+        final Object ret = readObject(input);
+        if (input.pos != bytes.length) {
+            throw new IllegalArgumentException("Compact data has " + (bytes.length - input.pos) + " trailing bytes.");
+        }
+        return ret;
+    }
+
+    private static void writeObject(final Output output, final Object object) {
+        if (object == null) {
+            output.writeByte(TAG_NULL);
+            return;
+        }
+        final Class<?> c = object.getClass();
+        if (c == String.class) {
+            output.writeByte(TAG_STRING);
+            output.writeString((String) object);
+        } else if (c == Boolean.class) {
+            output.writeByte(((Boolean) object).booleanValue() ? TAG_TRUE : TAG_FALSE);
+        } else if (c == Integer.class) {
+            output.writeByte(TAG_INTEGER);
+            output.writeInt(((Integer) object).intValue());
+        } else if (c == Long.class) {
+            output.writeByte(TAG_LONG);
+            output.writeLong(((Long) object).longValue());
+        } else if (c == Float.class) {
+            output.writeByte(TAG_FLOAT);
+            output.writeInt(Float.floatToIntBits(((Float) object).floatValue()));
+        } else if (c == Double.class) {
+            output.writeByte(TAG_DOUBLE);
+            output.writeLong(Double.doubleToLongBits(((Double) object).doubleValue()));
+        } else if (c == Byte.class) {
+            output.writeByte(TAG_BYTE);
+            output.writeByte(((Byte) object).byteValue());
+        } else if (c == Short.class) {
+            output.writeByte(TAG_SHORT);
+            output.writeInt(((Short) object).shortValue());
+        } else if (c == Character.class) {
+            output.writeByte(TAG_CHARACTER);
+            output.writeInt(((Character) object).charValue());
+        } else if (c == BigInteger.class) {
+            output.writeByte(TAG_BIGINTEGER);
+            output.writeBytes(((BigInteger) object).toByteArray());
+        } else if (c == Date.class) {
+            output.writeByte(TAG_DATE);
+            output.writeLong(((Date) object).getTime());
+        } else if (c == byte[].class) {
+            output.writeByte(TAG_BYTES);
+            output.writeBytes((byte[]) object);
+        } else if (c == ArrayList.class) {
+            writeCollection(output, TAG_ARRAYLIST, (Collection<?>) object);
+        } else if (c == LinkedList.class) {
+            writeCollection(output, TAG_LINKEDLIST, (Collection<?>) object);
+        } else if (c == HashSet.class) {
+            writeCollection(output, TAG_HASHSET, (Collection<?>) object);
+        } else if (c == LinkedHashSet.class) {
+            writeCollection(output, TAG_LINKEDHASHSET, (Collection<?>) object);
+        } else if (c == HashMap.class) {
+            writeMap(output, TAG_HASHMAP, (Map<?, ?>) object);
+        } else if (c == LinkedHashMap.class) {
+            writeMap(output, TAG_LINKEDHASHMAP, (Map<?, ?>) object);
+        } else if (c == Base64GetHashMap.class) {
+            writeMap(output, TAG_BASE64GETHASHMAP, (Map<?, ?>) object);
+        } else if (c == Base64PutHashMap.class) {
+            writeMap(output, TAG_BASE64PUTHASHMAP, (Map<?, ?>) object);
+        } else if (c == Collections.EMPTY_LIST.getClass()) {
+            output.writeByte(TAG_EMPTYLIST);
+        } else if (c == Collections.EMPTY_SET.getClass()) {
+            output.writeByte(TAG_EMPTYSET);
+        } else if (c == Collections.EMPTY_MAP.getClass()) {
+            output.writeByte(TAG_EMPTYMAP);
+        } else if (object instanceof Enum) {
+            // The declaring class, since constants with a body are instances of an anonymous subclass
+            output.writeByte(TAG_ENUM);
+            output.writeString(((Enum<?>) object).getDeclaringClass().getName());
+            output.writeString(((Enum<?>) object).name());
+        } else {
+            throw new IllegalArgumentException("Class " + c.getName() + " is not supported.");
+        }
+    }
+
+    private static void writeCollection(final Output output, final byte tag, final Collection<?> collection) {
+        output.writeByte(tag);
+        output.writeInt(collection.size());
+        for (final Object element : collection) {
+            writeObject(output, element);
+        }
+    }
+
+    private static void writeMap(final Output output, final byte tag, final Map<?, ?> map) {
+        output.writeByte(tag);
+        output.writeInt(map.size());
+        // The entries contain the stored values, also for Base64GetHashMap where get(key) decodes the value
+        for (final Map.Entry<?, ?> entry : map.entrySet()) {
+            writeObject(output, entry.getKey());
+            writeObject(output, entry.getValue());
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static Object readObject(final Input input) {
+        final byte tag = input.readByte();
+        switch (tag) {
+        case TAG_NULL:
+            return null;
+        case TAG_STRING:
+            return input.readString();
+        case TAG_TRUE:
+            return Boolean.TRUE;
+        case TAG_FALSE:
+            return Boolean.FALSE;
+        case TAG_INTEGER:
+            return Integer.valueOf(input.readInt());
+        case TAG_LONG:
+            return Long.valueOf(input.readLong());
+        case TAG_FLOAT:
+            return Float.valueOf(Float.intBitsToFloat(input.readInt()));
+        case TAG_DOUBLE:
+            return Double.valueOf(Double.longBitsToDouble(input.readLong()));
+        case TAG_BYTE:
+            return Byte.valueOf(input.readByte());
+        case TAG_SHORT:
+            return Short.valueOf((short) input.readInt());
+        case TAG_CHARACTER:
+            return Character.valueOf((char) input.readInt());
+        case TAG_BIGINTEGER:
+            return new BigInteger(input.readBytes());
+        case TAG_DATE:
+            return new Date(input.readLong());
+        case TAG_BYTES:
+            return input.readBytes();
+        case TAG_ARRAYLIST:
+            return readCollection(input, new ArrayList());
+        case TAG_LINKEDLIST:
+            return readCollection(input, new LinkedList());
+        case TAG_HASHSET:
+            return readCollection(input, new HashSet());
+        case TAG_LINKEDHASHSET:
+            return readCollection(input, new LinkedHashSet());
+        case TAG_HASHMAP:
+            return readMap(input, new HashMap());
+        case TAG_LINKEDHASHMAP:
+            return readMap(input, new LinkedHashMap());
+        case TAG_BASE64GETHASHMAP:
+            return readMap(input, new Base64GetHashMap());
+        case TAG_BASE64PUTHASHMAP:
+            // Values were encoded when they were put in the original map, and are not encoded again
+            return readMap(input, new Base64PutHashMap());
+        case TAG_EMPTYLIST:
+            return Collections.EMPTY_LIST;
+        case TAG_EMPTYSET:
+            return Collections.EMPTY_SET;
+        case TAG_EMPTYMAP:
+            return Collections.EMPTY_MAP;
+        case TAG_ENUM:
+            return readEnum(input.readString(), input.readString());
+        default:
+            throw new IllegalArgumentException("Unknown tag " + tag + " in compact data.");
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static Object readEnum(final String className, final String name) {
+        // Load the class like XMLDecoder does, since the enum may not be visible from this class loader
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = DataMapSerializer.class.getClassLoader();
+        }
+        final Class<?> c;
+        try {
+            c = Class.forName(className, false, classLoader);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Enum class " + className + " in compact data was not found.", e);
+        }
+        if (!c.isEnum()) {
+            throw new IllegalArgumentException("Class " + className + " in compact data is not an enum.");
+        }
+        // Throws IllegalArgumentException if there is no such constant
+        return Enum.valueOf((Class<Enum>) c, name);
+    }
+
+    private static Collection<Object> readCollection(final Input input, final Collection<Object> collection) {
+        final int size = input.readSize();
+        for (int i = 0; i < size; i++) {
+            collection.add(readObject(input));
+        }
+        return collection;
+    }
+
+    private static Map<Object, Object> readMap(final Input input, final Map<Object, Object> map) {
+        final int size = input.readSize();
+        for (int i = 0; i < size; i++) {
+            final Object key = readObject(input);
+            map.put(key, readObject(input));
+        }
+        return map;
+    }
+
+    /** Growable big-endian byte buffer. Strings are written as their number of chars followed by modified UTF-8, so any String is kept. */
+    private static final class Output {
+        private byte[] buf = new byte[1024];
+        private int pos = 0;
+
+        private void ensure(final int length) {
+            if (pos + length > buf.length) {
+                final byte[] newBuf = new byte[Math.max(buf.length * 2, pos + length)];
+                System.arraycopy(buf, 0, newBuf, 0, pos);
+                buf = newBuf;
+            }
+        }
+
+        void writeByte(final int value) {
+            ensure(1);
+            buf[pos++] = (byte) value;
+        }
+
+        void writeInt(final int value) {
+            ensure(4);
+            buf[pos++] = (byte) (value >>> 24);
+            buf[pos++] = (byte) (value >>> 16);
+            buf[pos++] = (byte) (value >>> 8);
+            buf[pos++] = (byte) value;
+        }
+
+        void writeLong(final long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeBytes(final byte[] bytes) {
+            writeInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void writeString(final String s) {
+            final int length = s.length();
+            writeInt(length);
+            ensure(length * 3);
+            for (int i = 0; i < length; i++) {
+                final char c = s.charAt(i);
+                if (c != 0 && c < 0x80) {
+                    buf[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[pos++] = (byte) (0xc0 | (c >> 6));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3f));
+                } else {
+                    buf[pos++] = (byte) (0xe0 | (c >> 12));
+                    buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            final byte[] ret = new byte[pos];
+            System.arraycopy(buf, 0, ret, 0, pos);
+            return ret;
+        }
+    }
+
+    private static final class Input {
+        private final byte[] buf;
+        private int pos = 0;
+
+        Input(final byte[] buf) {
+            this.buf = buf;
+        }
+
+        private void require(final int length) {
+            if (length < 0 || pos + length > buf.length) {
+                throw new IllegalArgumentException("Compact data is truncated.");
+            }
+        }
+
+        byte readByte() {
+            require(1);
+            return buf[pos++];
+        }
+
+        int readInt() {
+            require(4);
+            return ((buf[pos++] & 0xff) << 24) | ((buf[pos++] & 0xff) << 16) | ((buf[pos++] & 0xff) << 8) | (buf[pos++] & 0xff);
+        }
+
+        long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+        }
+
+        /** @return a number of elements, that each take at least one byte */
+        int readSize() {
+            final int size = readInt();
+            require(size);
+            return size;
+        }
+
+        byte[] readBytes() {
+            final int length = readInt();
+            require(length);
+            final byte[] ret = new byte[length];
+            System.arraycopy(buf, pos, ret, 0, length);
+            pos += length;
+            return ret;
+        }
+
+        String readString() {
+            final int length = readSize();
+            final char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                final int b = readByte() & 0xff;
+                if (b < 0x80) {
+                    chars[i] = (char) b;
+                } else if ((b & 0xe0) == 0xc0) {
+                    chars[i] = (char) (((b & 0x1f) << 6) | (readByte() & 0x3f));
+                } else {
+                    chars[i] = (char) (((b & 0x0f) << 12) | ((readByte() & 0x3f) << 6) | (readByte() & 0x3f));
+                }
+            }
+            return new String(chars);
+        }
+    }
+}
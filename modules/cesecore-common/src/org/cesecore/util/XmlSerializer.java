@@ -12,11 +12,6 @@
  *************************************************************************/
 package org.cesecore.util;
 
-import java.beans.XMLDecoder;
-import java.beans.XMLEncoder;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.UnsupportedEncodingException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -25,6 +20,8 @@ import java.util.Map;
  * 
  * Stored Strings in the input are stored as Base64 encoded strings.  
  * 
+ * The compact format of {@link DataMapSerializer} is read too, and written when db.compactdatamaps is true.
+ * 
  * @version $Id: XmlSerializer.java 17625 2013-09-20 07:12:06Z netmackan $
  */
 public class XmlSerializer {
@@ -33,16 +30,9 @@ public class XmlSerializer {
     public static Map<String, Object> decode(final String input) {
 		Map<String, Object> ret = null;
 		if (input != null) {
-			try {
-				XMLDecoder decoder = new XMLDecoder(new ByteArrayInputStream(input.getBytes("UTF8")));
-                final LinkedHashMap<String,Object> h = (LinkedHashMap<String,Object>) decoder.readObject();
-				decoder.close();
-				// Handle Base64 encoded string values
-				ret = new Base64GetHashMap(h);
-			} catch (UnsupportedEncodingException e) {
-				// Fatal. No point in handling the lack of UTF-8
-				throw new RuntimeException(e);
-			}
+			final LinkedHashMap<String,Object> h = (LinkedHashMap<String,Object>) DataMapSerializer.decode(input);
+			// Handle Base64 encoded string values
+			ret = new Base64GetHashMap(h);
 		}
 		return ret;
 	}
@@ -50,18 +40,9 @@ public class XmlSerializer {
 	public static String encode(final Map<String, Object> input) {
 		String ret = null;
 		if (input != null) {
-			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			final XMLEncoder encoder = new XMLEncoder(baos);
 			final LinkedHashMap<Object,Object> linkedHashMap = new Base64PutHashMap();
 			linkedHashMap.putAll(input);
-			encoder.writeObject(linkedHashMap);
-			encoder.close();
-			try {
-				ret = baos.toString("UTF8");
-			} catch (UnsupportedEncodingException e) {
-				// Fatal. No point in handling the lack of UTF-8
-				throw new RuntimeException(e);
-			}
+			ret = DataMapSerializer.encode(linkedHashMap);
 		}
 		return ret;
 	}
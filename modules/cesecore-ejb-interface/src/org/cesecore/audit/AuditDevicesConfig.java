@@ -201,11 +201,41 @@ public class AuditDevicesConfig {
         return getInt(properties, "validate.fetchsize", 1000);
     }
 
+    /** Parameter to specify the number of batches of fetched logs that each validation and export verifies the integrity protection of in parallel. */
+    public static int getAuditLogValidationThreads(final Properties properties) {
+        return getInt(properties, "validate.threads", Runtime.getRuntime().availableProcessors());
+    }
+
     /** Parameter to specify the number of logs to be fetched in each export round trip. */
     public static int getAuditLogExportFetchSize(final Properties properties) {
         return getInt(properties, "export.fetchsize", 1000);
     }
 
+    /** Parameter to specify if logs that fail the integrity protection verification should be exported. */
+    public static boolean isAuditLogExportUnverified(final Properties properties) {
+        return properties == null || Boolean.valueOf(properties.getProperty("export.unverified", Boolean.TRUE.toString()).trim());
+    }
+
+    /** Parameter to specify if audit records should be written in batches shared by concurrent callers (group commit). */
+    public static boolean isAuditLogGroupCommit(final Properties properties) {
+        return properties != null && Boolean.valueOf(properties.getProperty("groupcommit.enabled", Boolean.FALSE.toString()).trim());
+    }
+
+    /** Parameter to specify the maximum number of audit records that are written in each group commit transaction. */
+    public static int getAuditLogGroupCommitBatchSize(final Properties properties) {
+        return getInt(properties, "groupcommit.batchsize", 100);
+    }
+
+    /** Parameter to specify the number of milliseconds a group commit waits for more audit records, if the batch is not full. */
+    public static int getAuditLogGroupCommitMaxWait(final Properties properties) {
+        return getInt(properties, "groupcommit.maxwait", 0);
+    }
+
+    /** Parameter to specify the maximum number of audit records that can wait for a group commit, before new records are blocked. */
+    public static int getAuditLogGroupCommitQueueSize(final Properties properties) {
+        return getInt(properties, "groupcommit.queuesize", 1000);
+    }
+
     private static int getInt(final Properties properties, final String key, final int defaultValue) {
         int ret = defaultValue;
         try {
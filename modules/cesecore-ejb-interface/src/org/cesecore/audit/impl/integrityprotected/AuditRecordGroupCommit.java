@@ -0,0 +1,178 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+import org.cesecore.audit.log.AuditRecordStorageException;
+
+/**
+ * Group commit of audit records for the IntegrityProtectedDevice.
+ *
+ * Each caller puts its record in a bounded queue and then waits until the record has been committed. One of the waiting
+ * callers at the time becomes the leader and writes all queued records (up to the batch size) in a single transaction,
+ * while the other callers wait for the result. Records that are queued while a batch is being committed are written
+ * in the next batch, so under concurrent load many records share each transaction commit, while a single caller
+ * still gets its record written without any added delay (unless a maximum wait time is configured).
+ *
+ * No caller returns before its record has been committed, and a failed batch is reported to all callers with records
+ * in it, just as if each record had been written in a transaction of its own. Sequence numbers are assigned when the
+ * batch is written, so they are in commit order for this node.
+ *
+ * No threads are created, all work is done by the calling threads.
+ *
+ * @version $Id$
+ */
+public enum AuditRecordGroupCommit {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(AuditRecordGroupCommit.class);
+
+    private static class PendingRecord {
+        final AuditRecordData auditRecordData;
+        volatile boolean done = false;
+        volatile AuditRecordStorageException failure = null;
+
+        PendingRecord(final AuditRecordData auditRecordData) {
+            this.auditRecordData = auditRecordData;
+        }
+    }
+
+    /** Held by the caller that is currently writing a batch */
+    private final ReentrantLock flushLock = new ReentrantLock();
+    /** Notified when records are queued and when a batch has been written */
+    private final Object monitor = new Object();
+    private BlockingQueue<PendingRecord> queue = null;
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    private synchronized BlockingQueue<PendingRecord> getQueue(final int queueSize) {
+        if (queue == null) {
+            queue = new ArrayBlockingQueue<PendingRecord>(Math.max(1, queueSize));
+        }
+        return queue;
+    }
+
+    /**
+     * Writes an audit record together with records from concurrent callers and returns when it has been committed.
+     *
+     * @param loggerSession used to write each batch in a new transaction
+     * @param auditRecordData the record to write, the sequence number is assigned when the record is written
+     * @param batchSize maximum number of records in each transaction
+     * @param maxWait milliseconds to wait for more records before a batch that is not full is written
+     * @param queueSize maximum number of queued records, further callers wait until there is room in the queue
+     * @throws AuditRecordStorageException if the batch with the record could not be written
+     */
+    public void log(final IntegrityProtectedLoggerSessionLocal loggerSession, final AuditRecordData auditRecordData, final int batchSize, final int maxWait,
+            final int queueSize) throws AuditRecordStorageException {
+        final PendingRecord pendingRecord = new PendingRecord(auditRecordData);
+        final BlockingQueue<PendingRecord> pendingRecords = getQueue(queueSize);
+        try {
+            pendingRecords.put(pendingRecord);
+            if (maxWait > 0 && pendingRecords.size() >= batchSize) {
+                synchronized (monitor) {
+                    monitor.notifyAll();
+                }
+            }
+            while (!pendingRecord.done) {
+                if (flushLock.tryLock()) {
+                    try {
+                        if (!pendingRecord.done) {
+                            writeBatch(loggerSession, pendingRecords, Math.max(1, batchSize), maxWait);
+                        }
+                    } finally {
+                        flushLock.unlock();
+                    }
+                    // Wake up the callers whose records were written, and the ones that can now write the next batch
+                    synchronized (monitor) {
+                        monitor.notifyAll();
+                    }
+                } else {
+                    synchronized (monitor) {
+                        // The leader releases the lock before notifying, so this will not miss the notification
+                        if (!pendingRecord.done && flushLock.isLocked()) {
+                            monitor.wait();
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // The record might still be written by another caller, but we can not wait for it to happen
+            throw new AuditRecordStorageException("Interrupted while waiting for audit log group commit.", e);
+        }
+        if (pendingRecord.failure != null) {
+            throw pendingRecord.failure;
+        }
+    }
+
+    /** Writes the next batch of queued records. Must only be called while holding flushLock. */
+    private void writeBatch(final IntegrityProtectedLoggerSessionLocal loggerSession, final BlockingQueue<PendingRecord> pendingRecords, final int batchSize,
+            final int maxWait) throws InterruptedException {
+        if (maxWait > 0 && pendingRecords.size() < batchSize) {
+            // Give other callers a chance to add their records to this batch
+            final long deadline = System.currentTimeMillis() + maxWait;
+            synchronized (monitor) {
+                long remaining;
+                while (pendingRecords.size() < batchSize && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    monitor.wait(remaining);
+                }
+            }
+        }
+        final List<PendingRecord> batch = new ArrayList<PendingRecord>(Math.min(batchSize, pendingRecords.size()));
+        pendingRecords.drainTo(batch, batchSize);
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<AuditRecordData> auditRecordDatas = new ArrayList<AuditRecordData>(batch.size());
+        for (final PendingRecord pendingRecord : batch) {
+            auditRecordDatas.add(pendingRecord.auditRecordData);
+        }
+        AuditRecordStorageException failure = null;
+        try {
+            loggerSession.log(auditRecordDatas);
+        } catch (AuditRecordStorageException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            // E.g. an EJBException from a failed commit
+            failure = new AuditRecordStorageException(e.getMessage(), e);
+        } finally {
+            for (final PendingRecord pendingRecord : batch) {
+                pendingRecord.failure = failure;
+                pendingRecord.done = true;
+            }
+        }
+        final long totalBatches = batches.incrementAndGet();
+        final long totalRecords = records.addAndGet(batch.size());
+        if (log.isDebugEnabled()) {
+            log.debug("Wrote batch of " + batch.size() + " audit records" + (failure == null ? "" : " unsuccessfully") + ". Average batch size is "
+                    + (totalRecords / totalBatches) + ".");
+        }
+    }
+
+    /** @return the number of records written (or attempted to be written) since startup */
+    public long getRecordCount() {
+        return records.get();
+    }
+
+    /** @return the number of batches written (or attempted to be written) since startup */
+    public long getBatchCount() {
+        return batches.get();
+    }
+}
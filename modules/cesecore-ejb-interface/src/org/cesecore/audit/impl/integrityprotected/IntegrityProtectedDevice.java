@@ -17,6 +17,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import org.cesecore.audit.AuditDevicesConfig;
 import org.cesecore.audit.AuditLogDevice;
 import org.cesecore.audit.AuditLogEntry;
 import org.cesecore.audit.audit.AuditExporter;
@@ -102,7 +103,15 @@ public class IntegrityProtectedDevice implements AuditLogDevice {
 	@Override
 	public void log(TrustedTime trustedTime, EventType eventType, EventStatus eventStatus, ModuleType module, ServiceType service, String authToken, String customId,
 			String searchDetail1, String searchDetail2, Map<String, Object> additionalDetails, Properties properties) throws AuditRecordStorageException {
-		getEjb(IntegrityProtectedLoggerSessionLocal.class).log(trustedTime, eventType, eventStatus, module, service, authToken, customId, searchDetail1, searchDetail2, additionalDetails, properties);
+		if (AuditDevicesConfig.isAuditLogGroupCommit(properties)) {
+			// Node identifier and sequence number are assigned when the batch with this record is written
+			final AuditRecordData auditRecordData = new AuditRecordData(null, null, Long.valueOf(trustedTime.getTime().getTime()), eventType, eventStatus, authToken,
+					service, module, customId, searchDetail1, searchDetail2, additionalDetails);
+			AuditRecordGroupCommit.INSTANCE.log(getEjb(IntegrityProtectedLoggerSessionLocal.class), auditRecordData, AuditDevicesConfig.getAuditLogGroupCommitBatchSize(properties),
+					AuditDevicesConfig.getAuditLogGroupCommitMaxWait(properties), AuditDevicesConfig.getAuditLogGroupCommitQueueSize(properties));
+		} else {
+			getEjb(IntegrityProtectedLoggerSessionLocal.class).log(trustedTime, eventType, eventStatus, module, service, authToken, customId, searchDetail1, searchDetail2, additionalDetails, properties);
+		}
 	}
 
 	@Override
@@ -12,13 +12,25 @@
  *************************************************************************/
 package org.cesecore.audit.impl.integrityprotected;
 
+import java.util.List;
+
 import javax.ejb.Local;
 
 import org.cesecore.audit.AuditLogger;
+import org.cesecore.audit.log.AuditRecordStorageException;
 
 /**
  * @version $Id: IntegrityProtectedLoggerSessionLocal.java 17625 2013-09-20 07:12:06Z netmackan $
  */
 @Local
 public interface IntegrityProtectedLoggerSessionLocal extends AuditLogger {
+
+    /**
+     * Writes a batch of audit records in a single new transaction, used for group commit (see {@link AuditRecordGroupCommit}).
+     * The node identifier and the next sequence numbers of this node are assigned to the records in list order.
+     * 
+     * @param auditRecordDatas the records to write
+     * @throws AuditRecordStorageException if the records could not be written
+     */
+    void log(List<AuditRecordData> auditRecordDatas) throws AuditRecordStorageException;
 }
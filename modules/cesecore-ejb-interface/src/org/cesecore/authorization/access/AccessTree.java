@@ -13,9 +13,11 @@
 package org.cesecore.authorization.access;
 
 import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.cesecore.authentication.AuthenticationFailedException;
 import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.LocalJvmOnlyAuthenticationToken;
 import org.cesecore.authorization.control.StandardRules;
 import org.cesecore.authorization.rules.AccessRuleData;
 import org.cesecore.roles.RoleData;
@@ -23,12 +25,19 @@ import org.cesecore.roles.RoleData;
 /**
  * Maintains an access tree in memory
  * 
+ * For authentication tokens created in this JVM, the access tree is compiled once for each token (see {@link CompiledAccessTree}) and
+ * authorization decisions are then made from the compiled tree. The compiled trees are discarded when the tree is rebuilt.
+ * 
  * @version $Id: AccessTree.java 17625 2013-09-20 07:12:06Z netmackan $
  * 
  */
 public class AccessTree {
 
-    private AccessTreeNode rootNode = null;
+    /** Maximum number of authentication tokens with a compiled access tree */
+    private static final int MAX_COMPILED_TREES = 1000;
+
+    private volatile AccessTreeNode rootNode = null;
+    private volatile ConcurrentHashMap<AuthenticationToken, CompiledAccessTree> compiledTrees = new ConcurrentHashMap<AuthenticationToken, CompiledAccessTree>();
 
     /**
      * Builds an access tree out of the given roles. In order to maintain consistency over several nodes connected to the same persistence layer, the
@@ -47,6 +56,7 @@ public class AccessTree {
             }
         }
         rootNode = newRootnode; // Replace the old access rules with the new ones
+        compiledTrees = new ConcurrentHashMap<AuthenticationToken, CompiledAccessTree>();
     }
 
     /**
@@ -82,8 +92,33 @@ public class AccessTree {
         if ((checkresource.toCharArray())[0] != '/') {
             checkresource = "/" + checkresource;
         }
-        // Check if user is authorized in the tree.
-        return rootNode.isAuthorized(authenticationToken, checkresource, requireRecursive);
+        final AccessTreeNode currentRootNode = rootNode;
+        if (!isCompilable(authenticationToken)) {
+            // Check if user is authorized in the tree.
+            return currentRootNode.isAuthorized(authenticationToken, checkresource, requireRecursive);
+        }
+        final ConcurrentHashMap<AuthenticationToken, CompiledAccessTree> currentCompiledTrees = compiledTrees;
+        CompiledAccessTree compiledTree = currentCompiledTrees.get(authenticationToken);
+        if (compiledTree == null || compiledTree.getRootNode() != currentRootNode) {
+            // Not compiled yet, or compiled from the tree that was replaced while this was read
+            compiledTree = new CompiledAccessTree(currentRootNode, authenticationToken);
+            if (currentCompiledTrees.size() >= MAX_COMPILED_TREES) {
+                currentCompiledTrees.clear();
+            }
+            currentCompiledTrees.put(authenticationToken, compiledTree);
+        }
+        return compiledTree.isAuthorized(checkresource, requireRecursive);
+    }
+
+    /**
+     * A compiled tree is shared by all tokens that are equal to the token it was compiled for, so this is only allowed for tokens
+     * where the outcome of matching only depends on what equals compares. This is not the case for tokens that were not created in
+     * this JVM, since they never match anything, while being equal to tokens that were.
+     * 
+     * @return true if the access tree can be compiled for the token
+     */
+    private boolean isCompilable(final AuthenticationToken authenticationToken) {
+        return authenticationToken instanceof LocalJvmOnlyAuthenticationToken && ((LocalJvmOnlyAuthenticationToken) authenticationToken).isCreatedInThisJvm();
     }
 
 }
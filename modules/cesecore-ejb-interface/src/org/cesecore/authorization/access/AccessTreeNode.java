@@ -16,6 +16,7 @@ import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.cesecore.authentication.AuthenticationFailedException;
@@ -136,7 +137,7 @@ public class AccessTreeNode {
         }
         boolean returnval = false;
 
-        AccessTreeState internalstate = findPreferredRule(authenticationToken);
+        AccessTreeState internalstate = findPreferredRule(authenticationToken, null);
         if (log.isTraceEnabled()) {
             log.trace("preferredRule: "+internalstate);
         }
@@ -237,12 +238,43 @@ public class AccessTreeNode {
         }
     }
 
+    /**
+     * Resolves the state of this node, and of all nodes below it, for an authentication token. See {@link CompiledAccessTree}.
+     * 
+     * Nodes where no rule matches the token are left out, unless there are nodes with matching rules below them. This gives the same
+     * result as the full tree, since such a node has state STATE_UNKNOWN and only passes on the state of the nodes above it.
+     * 
+     * @param aspectMatches holds the outcome of matching each user aspect with the token, since the same aspects are shared by many nodes
+     * @return the compiled node, or null if no rule in this node or below it matches the token
+     * @throws AuthenticationFailedException if any authentication errors were encountered during authorization process
+     */
+    CompiledAccessTree.Node compile(final AuthenticationToken authenticationToken, final Map<AccessUserAspect, Boolean> aspectMatches)
+            throws AuthenticationFailedException {
+        HashMap<String, CompiledAccessTree.Node> compiledLeafs = null;
+        for (final AccessTreeNode leaf : leafs.values()) {
+            final CompiledAccessTree.Node compiledLeaf = leaf.compile(authenticationToken, aspectMatches);
+            if (compiledLeaf != null) {
+                if (compiledLeafs == null) {
+                    compiledLeafs = new HashMap<String, CompiledAccessTree.Node>();
+                }
+                compiledLeafs.put(leaf.getResource(), compiledLeaf);
+            }
+        }
+        final AccessTreeState state = findPreferredRule(authenticationToken, aspectMatches);
+        if (state == AccessTreeState.STATE_UNKNOWN && compiledLeafs == null) {
+            return null;
+        }
+        return new CompiledAccessTree.Node(resource, state, compiledLeafs);
+    }
+
     /** Finds the user aspect matching with the highest priority for the authentication token
      * and return the AccessTreeState for the rule with the highest priority.
      * Important if the UserAspect matches more than one rule.
+     * @param aspectMatches outcome of earlier matches of user aspects with the token, or null to always match the aspects with the token
      * @throws AuthenticationFailedException if any authentication errors were encountered during authorization process
      */
-    private AccessTreeState findPreferredRule(final AuthenticationToken authenticationToken) throws AuthenticationFailedException {
+    private AccessTreeState findPreferredRule(final AuthenticationToken authenticationToken, final Map<AccessUserAspect, Boolean> aspectMatches)
+            throws AuthenticationFailedException {
         AccessTreeState state = null; 
         AccessMatchValue statePriority = authenticationToken.getDefaultMatchValue();
         if (log.isTraceEnabled()) {
@@ -258,7 +290,7 @@ public class AccessTreeNode {
                 // If aspect is of the correct token type
                 if (authenticationToken.matchTokenType(accessUser.getTokenType())) {
                     // And the two principals match (done inside to save on cycles)
-                    if (authenticationToken.matches(accessUser)) {
+                    if (matches(authenticationToken, accessUser, aspectMatches)) {
                         /*
                          * The below line is a hack in order to allow supertokens. By setting state = null at the top of this
                          * method, any authentication token that doesn't match will get STATE_UNKNOWN in this method's last line. 
@@ -323,6 +355,20 @@ public class AccessTreeNode {
         return state;
     }
 
+    /** @return true if the aspect matches the token, using and updating aspectMatches if it is not null */
+    private boolean matches(final AuthenticationToken authenticationToken, final AccessUserAspect accessUser,
+            final Map<AccessUserAspect, Boolean> aspectMatches) throws AuthenticationFailedException {
+        if (aspectMatches == null) {
+            return authenticationToken.matches(accessUser);
+        }
+        Boolean match = aspectMatches.get(accessUser);
+        if (match == null) {
+            match = Boolean.valueOf(authenticationToken.matches(accessUser));
+            aspectMatches.put(accessUser, match);
+        }
+        return match.booleanValue();
+    }
+
     public String getResource() {
         return resource;
     }
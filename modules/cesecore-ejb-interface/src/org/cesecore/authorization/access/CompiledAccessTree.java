@@ -0,0 +1,131 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.authorization.access;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.cesecore.authentication.AuthenticationFailedException;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authorization.user.AccessUserAspect;
+
+/**
+ * The access tree as seen by a single authentication token.
+ *
+ * When compiled, every user aspect in the tree is matched with the token once, and the preferred rule of each node is resolved to an
+ * {@link AccessTreeState}. Authorization then walks a tree of resolved states, without matching any aspects, and the outcome for each
+ * resource is remembered. The rules for walking the tree are the same as in {@link AccessTreeNode}.
+ *
+ * A compiled tree is only valid for the {@link AccessTreeNode} it was compiled from, so it is discarded with the access tree when the
+ * access tree is rebuilt after an update of the roles.
+ *
+ * @version $Id$
+ */
+public class CompiledAccessTree {
+
+    /** Maximum number of remembered authorization decisions for each of recursive and non-recursive checks */
+    private static final int MAX_DECISIONS = 10000;
+
+    /** A node of the access tree with the state resolved for the token. */
+    static class Node {
+        private final String resource;
+        private final AccessTreeState state;
+        private final Map<String, Node> leafs;
+
+        Node(final String resource, final AccessTreeState state, final Map<String, Node> leafs) {
+            this.resource = resource;
+            this.state = state;
+            this.leafs = leafs;
+        }
+
+        Node getLeaf(final String name) {
+            return leafs == null ? null : leafs.get(name);
+        }
+    }
+
+    private final AccessTreeNode rootNode;
+    private final Node compiledRootNode;
+    private final ConcurrentHashMap<String, Boolean> decisions = new ConcurrentHashMap<String, Boolean>();
+    private final ConcurrentHashMap<String, Boolean> recursiveDecisions = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * Compiles the access tree for an authentication token.
+     *
+     * @param rootNode the root node of the access tree
+     * @param authenticationToken a token where the outcome of matching a user aspect only depends on what the equals method compares
+     * @throws AuthenticationFailedException if any authentication errors were encountered during the matching of user aspects
+     */
+    public CompiledAccessTree(final AccessTreeNode rootNode, final AuthenticationToken authenticationToken) throws AuthenticationFailedException {
+        this.rootNode = rootNode;
+        final Node compiled = rootNode.compile(authenticationToken, new IdentityHashMap<AccessUserAspect, Boolean>());
+        this.compiledRootNode = compiled != null ? compiled : new Node(rootNode.getResource(), AccessTreeState.STATE_UNKNOWN, null);
+    }
+
+    /** @return the root node of the access tree that this was compiled from */
+    public AccessTreeNode getRootNode() {
+        return rootNode;
+    }
+
+    /**
+     * @param resourcePath the resource, beginning with '/'
+     * @param requireRecursive true if only accept recursive values should be accepted
+     * @return true if the token is authorized to the resource
+     */
+    public boolean isAuthorized(final String resourcePath, final boolean requireRecursive) {
+        final ConcurrentHashMap<String, Boolean> cache = requireRecursive ? recursiveDecisions : decisions;
+        Boolean decision = cache.get(resourcePath);
+        if (decision == null) {
+            decision = Boolean.valueOf(isAuthorizedInternal(resourcePath, requireRecursive));
+            if (cache.size() < MAX_DECISIONS) {
+                cache.put(resourcePath, decision);
+            }
+        }
+        return decision.booleanValue();
+    }
+
+    /** Same as AccessTreeNode.isAuthorizedRecursive, but walking the resource path by index instead of recursion. */
+    private boolean isAuthorizedInternal(final String resourcePath, final boolean requireRecursive) {
+        Node node = compiledRootNode;
+        AccessTreeState legacyState = AccessTreeState.STATE_UNKNOWN;
+        int position = 0;
+        while (true) {
+            final AccessTreeState internalstate = node.state;
+            final int end = position + node.resource.length();
+            if (end == resourcePath.length()) {
+                if (legacyState == AccessTreeState.STATE_DECLINE) {
+                    return false;
+                } else if (legacyState == AccessTreeState.STATE_ACCEPT_RECURSIVE) {
+                    return internalstate != AccessTreeState.STATE_DECLINE;
+                } else {
+                    return (internalstate == AccessTreeState.STATE_ACCEPT && !requireRecursive) || internalstate == AccessTreeState.STATE_ACCEPT_RECURSIVE;
+                }
+            }
+            position = end;
+            if (resourcePath.charAt(position) == '/') {
+                position++;
+            }
+            final int index = resourcePath.indexOf('/', position);
+            final Node next = node.getLeaf(resourcePath.substring(position, index == -1 ? resourcePath.length() : index));
+            if (next == null) {
+                // Resource path doesn't exist (or has no rules matching the token)
+                return internalstate == AccessTreeState.STATE_ACCEPT_RECURSIVE
+                        || (legacyState == AccessTreeState.STATE_ACCEPT_RECURSIVE && internalstate != AccessTreeState.STATE_DECLINE);
+            }
+            if (internalstate == AccessTreeState.STATE_ACCEPT_RECURSIVE || internalstate == AccessTreeState.STATE_DECLINE) {
+                legacyState = internalstate;
+            }
+            node = next;
+        }
+    }
+}
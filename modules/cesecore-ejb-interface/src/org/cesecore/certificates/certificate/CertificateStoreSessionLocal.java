@@ -17,6 +17,7 @@ import java.security.cert.Certificate;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.ejb.CreateException;
 import javax.ejb.Local;
@@ -24,6 +25,8 @@ import javax.ejb.Local;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.certificates.certificate.request.RequestMessage;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.ocsp.cache.CertificateStatusIndex;
 
 /**
  * Local interface for CertificateStoreSession.
@@ -176,7 +179,51 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
      * @throws AuthorizationDeniedException
      */
     void updateLimitedCertificateDataStatus(AuthenticationToken admin, int caId, String issuerDn, BigInteger serialNumber, Date revocationDate, int reasonCode, String caFingerprint) throws AuthorizationDeniedException;
+
+    /**
+     * Same as {@link #updateLimitedCertificateDataStatus} for many entries of the same issuer, for example a chunk of the entries of a
+     * large CRL. The existing rows are read with a few queries for all entries, and the changes are committed in a new transaction.
+     * 
+     * @param admin an admin that is authorized to the CA that issued the certificates
+     * @param caId the CA identifier
+     * @param issuerDn the BC normalized version of the issuer DN
+     * @param entries the serial number, revocation date and reason of each certificate
+     * @param caFingerprint the SHA-1 of the CA Certificate that issued the entries
+     * @return the number of entries that were added, updated or removed
+     * @throws AuthorizationDeniedException
+     */
+    int updateLimitedCertificateDataStatuses(AuthenticationToken admin, int caId, String issuerDn, List<RevokedCertInfo> entries, String caFingerprint)
+            throws AuthorizationDeniedException;
        
+    /**
+     * Reads the status of all certificates of an issuer into a new in-memory index, for the OCSP responder.
+     *
+     * @param issuerDN the issuer of the certificates
+     * @param filter true if the index should have a filter of all issued serial numbers, false to only read the revoked certificates
+     * @param falsePositiveRate the false positive rate of the filter of issued serial numbers
+     * @return the new index
+     */
+    CertificateStatusIndex loadStatusIndex(String issuerDN, boolean filter, double falsePositiveRate);
+
+    /**
+     * Updates an in-memory index with the status of the certificates of an issuer that have changed since the given time.
+     *
+     * @param issuerDN the issuer of the certificates
+     * @param index an index returned by {@link #loadStatusIndex(String, boolean, double)}
+     * @param updateTime only certificates with an updateTime at or after this time are read
+     * @return the number of certificates read
+     */
+    int updateStatusIndex(String issuerDN, CertificateStatusIndex index, long updateTime);
+
+    /**
+     * Gets the status of several certificates of an issuer with as few database queries as possible, for OCSP requests about many certificates.
+     *
+     * @param issuerDN the issuer of the certificates
+     * @param serialNumbers the serial numbers of the certificates
+     * @return the status of each of the serial numbers, never null, CertificateStatus.NOT_AVAILABLE for the certificates that are not found
+     */
+    Map<BigInteger, CertificateStatus> getStatuses(String issuerDN, Collection<BigInteger> serialNumbers);
+
     /** Reloads the cache containing CA certificates */
     void reloadCaCertificateCache();
     
@@ -0,0 +1,49 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.internal;
+
+import java.util.List;
+
+import javax.ejb.Local;
+
+/**
+ * Local interface for CacheInvalidationSession, that propagates cache invalidations to the other nodes of a cluster.
+ * 
+ * @version $Id$
+ */
+@Local
+public interface CacheInvalidationSessionLocal {
+
+    /**
+     * Publishes an invalidation of a cache entry to the other nodes, if cacheinvalidation.enabled is true. The invalidation is
+     * queued when the current transaction is committed, so the other nodes only see it if the change of the cached object is
+     * committed, and stored by the timer of this node in a separate transaction.
+     * 
+     * @param cacheName the name that the listeners of the cache are registered with in {@link CacheInvalidationBus}
+     * @param key the key of the changed entry, or null if all entries of the cache should be removed
+     */
+    void publish(String cacheName, String key);
+
+    /**
+     * Stores invalidations that have been taken from the queue of this node, in a new transaction. Called from the timer.
+     * 
+     * @param cacheInvalidations invalidations from {@link CacheInvalidationBus#takePending()}
+     */
+    void storeInvalidations(List<CacheInvalidation> cacheInvalidations);
+
+    /** Starts reading the invalidations published by other nodes, if cacheinvalidation.enabled is true. */
+    void initTimers();
+
+    /** Removes invalidations that are older than cacheinvalidation.retention. Called from the timer, in a separate transaction. */
+    void removeOldInvalidations();
+}
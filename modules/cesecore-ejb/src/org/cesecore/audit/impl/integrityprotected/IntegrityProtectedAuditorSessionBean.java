@@ -14,12 +14,21 @@ package org.cesecore.audit.impl.integrityprotected;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
@@ -53,6 +62,7 @@ import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.dbprotection.DatabaseProtectionException;
 import org.cesecore.keys.token.CryptoToken;
 import org.cesecore.util.ValidityDate;
+import org.cesecore.util.ValueExtractor;
 import org.cesecore.util.query.Criteria;
 import org.cesecore.util.query.QueryCriteria;
 import org.cesecore.util.query.QueryGenerator;
@@ -64,7 +74,7 @@ import org.cesecore.util.query.QueryGenerator;
  * instead of custom code for log singing.
  * 
  * The index
- *  "CREATE UNIQUE INDEX auditrecorddata_idx1 ON AuditRecordData (nodeId,timeStamp,sequenceNumber);"
+ *  "CREATE UNIQUE INDEX auditrecorddata_idx2 ON AuditRecordData (nodeId,sequenceNumber);"
  * should be present for proper validation and export performance.
  * 
  * @version $Id: IntegrityProtectedAuditorSessionBean.java 17625 2013-09-20 07:12:06Z netmackan $
@@ -74,6 +84,24 @@ import org.cesecore.util.query.QueryGenerator;
 public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedAuditorSessionLocal {
 
 	private static final Logger log = Logger.getLogger(IntegrityProtectedAuditorSessionBean.class);
+
+	/**
+	 * Verifies the integrity protection of the rows for all concurrent validations and exports, so the total number of verifier
+	 * threads is bounded by the number of processors. Idle threads exit, so there are no threads when nothing is verified.
+	 */
+	private static final ThreadPoolExecutor verifiers;
+	static {
+	    final int maxThreads = Runtime.getRuntime().availableProcessors();
+	    verifiers = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+	        @Override
+	        public Thread newThread(final Runnable r) {
+	            final Thread thread = new Thread(r, "AuditLogVerifier");
+	            thread.setDaemon(true);
+	            return thread;
+	        }
+	    });
+	    verifiers.allowCoreThreadTimeOut(true);
+	}
 	
     @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
     private EntityManager entityManager;
@@ -99,7 +127,8 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
             final SigningFileOutputStream signingFileOutputStream = new SigningFileOutputStream(exportFile, cryptoToken, signatureDetails);
             final AuditExporter auditExporter = c.newInstance();
             auditExporter.setOutputStream(signingFileOutputStream);
-            verifyAndOptionalExport(auditExporter, report, timestamp, AuditDevicesConfig.getAuditLogExportFetchSize(properties));
+            verifyAndOptionalExport(auditExporter, report, timestamp, AuditDevicesConfig.getAuditLogExportFetchSize(properties),
+                    AuditDevicesConfig.getAuditLogValidationThreads(properties), AuditDevicesConfig.isAuditLogExportUnverified(properties));
         	report.setExportedFile(exportFile.getCanonicalPath());
         	if (log.isDebugEnabled()) {
         		log.debug("Exported " + report.getExportCount() + " rows.");
@@ -153,7 +182,8 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
 	public AuditLogValidationReport verifyLogsIntegrity(final AuthenticationToken token, final Date timestamp, final Properties properties) throws AuditLogValidatorException {
         final AuditLogValidationReport report = new AuditLogValidationReport();
         try {
-            verifyAndOptionalExport(null, report, timestamp, AuditDevicesConfig.getAuditLogExportFetchSize(properties));
+            verifyAndOptionalExport(null, report, timestamp, AuditDevicesConfig.getAuditLogExportFetchSize(properties),
+                    AuditDevicesConfig.getAuditLogValidationThreads(properties), false);
         	// Log the success or failure depending on if verification returns error or not
         	logVerificationResult(report.errors().size(), timestamp, token);
         } catch (final Exception e) {
@@ -163,66 +193,177 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
 	}
 
 	/**
-	 * Read batches of logs from the database. If the database integrity check fails, the batch will be processed row by row.
-	 * Results are added to the report.
+	 * Read batches of logs from the database and verify them. Results are added to the report.
+	 * 
+	 * The logs of each node are read in sequence number order, in batches using keyset pagination on (nodeId, sequenceNumber).
+	 * The rows are read as plain values and not as entities, so the integrity protection of each row is verified by the shared
+	 * verifier threads instead of when the rows are loaded. While the next batches are verified, the verified batches are
+	 * checked for missing sequence numbers and streamed to the exporter in order.
+	 * 
 	 * @param auditExporter can be null if no export should take place
 	 * @param report is a AuditLogValidationReport or AuditLogExportReport
 	 * @param timestamp process all entries up until this time (should be epoch GMT)
+	 * @param threads the number of batches that are verified at the same time, in addition to the batches that are read ahead
+	 * @param exportUnverified true if rows that could not be verified should be exported
 	 */
-	private void verifyAndOptionalExport(AuditExporter auditExporter, AuditLogValidationReport report, Date timestamp, final int fetchSize) throws IOException {
-    	// Get a list of the nodes that have data in the database
-    	for (final String nodeId : getNodeIds()) {
-    		if (log.isDebugEnabled()) {
-    			log.debug("exportAuditLogs for nodeId " + nodeId);
-    		}
-    		// Assuming timeStamp is in UTC
-    		final QueryCriteria queryCriteria = QueryCriteria.create().add((Criteria.and(Criteria.eq(AuditLogEntry.FIELD_NODEID, nodeId), Criteria.leq(AuditLogEntry.FIELD_TIMESTAMP, timestamp.getTime())))).add(Criteria.orderAsc(AuditLogEntry.FIELD_SEQUENCENUMBER));
-    		int startIndex = 1;
-    		final Holder<Long> lastSeqNumber = new Holder<Long>(Long.valueOf(-1L));
-    		while (true) {
-    			try {
-        			final List<AuditRecordData> queryResult = verifyLogsIntegritySubset(startIndex, fetchSize, queryCriteria, report, lastSeqNumber, nodeId);
-    				final int results = queryResult.size();
-    				if (results == 0) {
-    					break;	// No more data for this node
-    				}
-    				startIndex += results;
-					if (auditExporter!=null) {
-						for (final AuditRecordData auditRecordData : queryResult) {
-							writeToExport(auditExporter, auditRecordData);
-        					((AuditLogExportReport) report).incExportCount();
-						}
-					}
-    			} catch (DatabaseProtectionException e) {
-    				// One of the FETCH_SIZE entries failed.. we have to go through line by line to find out witch one..
-    				for (int i=0; i<fetchSize; i++) {
-        				try {
-                			final List<AuditRecordData> queryResult = verifyLogsIntegritySubset(startIndex, 1, queryCriteria, report, lastSeqNumber, nodeId);
-            				final int results = queryResult.size();
-            				if (results != 1) {
-            					break;	// No more data for this node
-            				}
-        					if (auditExporter!=null) {
-        						writeToExport(auditExporter, queryResult.get(0));
-            					((AuditLogExportReport) report).incExportCount();
-        					}
-        				} catch (DatabaseProtectionException e2) {
-        					final AuditRecordData auditRecordData = (AuditRecordData) e2.getEntity();
-        					// Add to report
-        					report.warn(new AuditLogReportElem(lastSeqNumber.get().longValue(), auditRecordData.getSequenceNumber(), "log with sequence number after " + lastSeqNumber + " on nodeId " + nodeId + " could not be verified"));
-        					lastSeqNumber.set(auditRecordData.getSequenceNumber());
-        					// We still export it
-        					// TODO: It might make sense to make it configurable to export when verification fails..
-        					if (auditExporter!=null) {
-            					writeToExport(auditExporter, auditRecordData);
-            					((AuditLogExportReport) report).incExportCount();
-        					}
-        				}
-        				startIndex += 1;
-    				}
-    			}
-    		}
-    	}
+	private void verifyAndOptionalExport(final AuditExporter auditExporter, final AuditLogValidationReport report, final Date timestamp, final int fetchSize,
+	        final int threads, final boolean exportUnverified) throws IOException, InterruptedException {
+	    final long startTime = System.currentTimeMillis();
+	    long totalRows = 0;
+	    // Get a list of the nodes that have data in the database
+	    for (final String nodeId : getNodeIds()) {
+	        if (log.isDebugEnabled()) {
+	            log.debug("exportAuditLogs for nodeId " + nodeId);
+	        }
+	        totalRows += verifyAndOptionalExport(auditExporter, report, timestamp, Math.max(1, fetchSize), Math.max(1, threads) * 2, exportUnverified, nodeId);
+	    }
+	    final long time = Math.max(1, System.currentTimeMillis() - startTime);
+	    log.info("Verified " + totalRows + " audit log rows in " + time + " ms (" + (totalRows * 1000 / time) + " rows/s). Found " + report.errors().size()
+	            + " errors and " + report.warnings().size() + " warnings.");
+	}
+
+	/**
+	 * Read, verify and optionally export the logs of one node.
+	 * @param maxBatchesInProgress the number of batches that are read ahead while earlier batches are verified
+	 * @return the number of rows processed
+	 */
+	private long verifyAndOptionalExport(final AuditExporter auditExporter, final AuditLogValidationReport report, final Date timestamp, final int fetchSize,
+	        final int maxBatchesInProgress, final boolean exportUnverified, final String nodeId) throws IOException, InterruptedException {
+	    final long startTime = System.currentTimeMillis();
+	    final LinkedList<Future<VerifiedBatch>> batchesInProgress = new LinkedList<Future<VerifiedBatch>>();
+	    final Holder<Long> lastSeqNumber = new Holder<Long>(Long.valueOf(-1L));
+	    long lastReadSeqNumber = -1L;
+	    boolean moreRows = true;
+	    long rows = 0;
+	    try {
+	        while (true) {
+	            // Read ahead, to keep the workers busy while the verified batches are processed in order
+	            while (moreRows && batchesInProgress.size() < maxBatchesInProgress) {
+	                final List<AuditRecordData> batch = readBatch(nodeId, timestamp, lastReadSeqNumber, fetchSize);
+	                if (batch.size() < fetchSize) {
+	                    moreRows = false;
+	                }
+	                if (batch.isEmpty()) {
+	                    break;
+	                }
+	                lastReadSeqNumber = batch.get(batch.size()-1).getSequenceNumber().longValue();
+	                batchesInProgress.add(verifiers.submit(new Callable<VerifiedBatch>() {
+	                    @Override
+	                    public VerifiedBatch call() {
+	                        return new VerifiedBatch(batch);
+	                    }
+	                }));
+	            }
+	            if (batchesInProgress.isEmpty()) {
+	                break;  // No more data for this node
+	            }
+	            final VerifiedBatch verifiedBatch;
+	            try {
+	                verifiedBatch = batchesInProgress.removeFirst().get();
+	            } catch (ExecutionException e) {
+	                throw new IOException("Audit log verification failed for nodeId " + nodeId + ": " + e.getCause().getMessage(), e.getCause());
+	            }
+	            processVerifiedBatch(auditExporter, report, verifiedBatch, lastSeqNumber, exportUnverified, nodeId);
+	            rows += verifiedBatch.auditRecordDatas.size();
+	            if (log.isDebugEnabled()) {
+	                log.debug("Verified " + rows + " audit log rows for nodeId " + nodeId + ", up to sequence number " + lastSeqNumber.get() + ".");
+	            }
+	        }
+	    } finally {
+	        // Batches that are still in progress if the verification failed
+	        for (final Future<VerifiedBatch> batchInProgress : batchesInProgress) {
+	            batchInProgress.cancel(true);
+	        }
+	    }
+	    final long time = Math.max(1, System.currentTimeMillis() - startTime);
+	    log.info("Verified " + rows + " audit log rows for nodeId " + nodeId + " in " + time + " ms (" + (rows * 1000 / time) + " rows/s).");
+	    return rows;
+	}
+
+	/** The rows of a batch and the outcome of the integrity protection verification of each row. */
+	private static class VerifiedBatch {
+	    final List<AuditRecordData> auditRecordDatas;
+	    final boolean[] failed;
+
+	    /** Verifies the integrity protection of each row. */
+	    VerifiedBatch(final List<AuditRecordData> auditRecordDatas) {
+	        this.auditRecordDatas = auditRecordDatas;
+	        this.failed = new boolean[auditRecordDatas.size()];
+	        for (int i=0; i<auditRecordDatas.size(); i++) {
+	            try {
+	                auditRecordDatas.get(i).verifyProtection();
+	            } catch (DatabaseProtectionException e) {
+	                failed[i] = true;
+	            }
+	        }
+	    }
+	}
+
+	/**
+	 * Verifies that all sequence numbers are present, adds rows that failed verification to the report and optionally exports the batch.
+	 * @param lastSeqNumber will be updated to the last sequence number processed in this batch
+	 * @param exportUnverified true if rows that failed verification should be exported
+	 */
+	private void processVerifiedBatch(final AuditExporter auditExporter, final AuditLogValidationReport report, final VerifiedBatch verifiedBatch,
+	        final Holder<Long> lastSeqNumber, final boolean exportUnverified, final String nodeId) throws IOException {
+	    for (int i=0; i<verifiedBatch.auditRecordDatas.size(); i++) {
+	        final AuditRecordData auditRecordData = verifiedBatch.auditRecordDatas.get(i);
+	        final long currentSeqNumber = auditRecordData.getSequenceNumber().longValue();
+	        if (verifiedBatch.failed[i]) {
+	            // Add to report
+	            report.warn(new AuditLogReportElem(lastSeqNumber.get().longValue(), auditRecordData.getSequenceNumber(), "log with sequence number after " + lastSeqNumber + " on nodeId " + nodeId + " could not be verified"));
+	        } else if (currentSeqNumber != lastSeqNumber.get().longValue() + 1) {
+	            if (log.isDebugEnabled()) {
+	                log.debug("Log verification failure for log on node " + nodeId + ". Missing entry. Last sequenceNumber was " + lastSeqNumber + " and current is " + currentSeqNumber);
+	            }
+	            // Add to report
+	            report.warn(new AuditLogReportElem(lastSeqNumber.get(), Long.valueOf(currentSeqNumber), "missing log with sequence number " + (lastSeqNumber.get().longValue() + 1) + " on nodeId " + nodeId));
+	        }
+	        lastSeqNumber.set(Long.valueOf(currentSeqNumber));
+	        // Rows that could not be verified are exported unless configured otherwise, they are still listed in the report
+	        if (auditExporter!=null && (exportUnverified || !verifiedBatch.failed[i])) {
+	            writeToExport(auditExporter, auditRecordData);
+	            ((AuditLogExportReport) report).incExportCount();
+	        }
+	    }
+	}
+
+	/**
+	 * Reads the next batch of rows of a node as plain values, so no integrity protection verification takes place.
+	 * @param lastSeqNumber only rows with a higher sequence number are read
+	 * @return the rows in sequence number order
+	 */
+	private List<AuditRecordData> readBatch(final String nodeId, final Date timestamp, final long lastSeqNumber, final int fetchSize) {
+	    final Query query = entityManager.createQuery("SELECT a.pk, a.nodeId, a.sequenceNumber, a.timeStamp, a.eventType, a.eventStatus, a.authToken, a.service,"
+	            + " a.module, a.customId, a.searchDetail1, a.searchDetail2, a.additionalDetails, a.rowVersion, a.rowProtection FROM AuditRecordData a"
+	            + " WHERE a.nodeId=:nodeId AND a.timeStamp<=:timeStamp AND a.sequenceNumber>:sequenceNumber ORDER BY a.sequenceNumber");
+	    query.setParameter("nodeId", nodeId);
+	    query.setParameter("timeStamp", Long.valueOf(timestamp.getTime()));
+	    query.setParameter("sequenceNumber", Long.valueOf(lastSeqNumber));
+	    query.setMaxResults(fetchSize);
+	    @SuppressWarnings("unchecked")
+	    final List<Object[]> rows = query.getResultList();
+	    final List<AuditRecordData> auditRecordDatas = new ArrayList<AuditRecordData>(rows.size());
+	    for (final Object[] row : rows) {
+	        final AuditRecordData auditRecordData = new AuditRecordData();
+	        auditRecordData.setPk((String) row[0]);
+	        auditRecordData.setNodeId((String) row[1]);
+	        auditRecordData.setSequenceNumber(ValueExtractor.extractLongValue(row[2]));
+	        auditRecordData.setTimeStamp(ValueExtractor.extractLongValue(row[3]));
+	        auditRecordData.setEventType((String) row[4]);
+	        auditRecordData.setEventStatus((String) row[5]);
+	        auditRecordData.setAuthToken((String) row[6]);
+	        auditRecordData.setService((String) row[7]);
+	        auditRecordData.setModule((String) row[8]);
+	        auditRecordData.setCustomId((String) row[9]);
+	        auditRecordData.setSearchDetail1((String) row[10]);
+	        auditRecordData.setSearchDetail2((String) row[11]);
+	        auditRecordData.setAdditionalDetails((String) row[12]);
+	        auditRecordData.setRowVersion(ValueExtractor.extractIntValue(row[13]));
+	        auditRecordData.setRowProtection((String) row[14]);
+	        auditRecordDatas.add(auditRecordData);
+	    }
+	    return auditRecordDatas;
 	}
 
 	/** We want to export exactly like it was stored in the database, to comply with requirements on logging systems where no altering of the original log data is allowed. */
@@ -245,35 +386,6 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
         auditExporter.writeEndObject();
     }
     
-    /**
-     * Fetch a batch of log rows from the database (implying database integrity check) and verifies
-     * that all sequence numbers are present.
-     * @param startIndex start batch from this position 
-     * @param max entries per batch
-     * @param queryCriteria where clause
-     * @param report will be updated when a problem is found
-     * @param lastSeqNumber will be updated to the last sequence number processed in this subset
-     * @param nodeId identifier of which node that claims to have written this data
-     * @return the log entries we fetched from the database so the caller may export these
-     * @throws DatabaseProtectionException if the intregrity verification fails for one of the entries in the batch during fetch
-     */
-	private List<AuditRecordData> verifyLogsIntegritySubset(final int startIndex, final int max, final QueryCriteria queryCriteria, final AuditLogValidationReport report, final Holder<Long> lastSeqNumber, final String nodeId) throws DatabaseProtectionException {
-		final List<AuditRecordData> queryResult = internalSelectAuditLogs(startIndex, max, queryCriteria);	// Might throw DatabaseProtectionException
-		// Loop through results and verify that the sequence order is correct
-		for (int i=0; i<queryResult.size(); i++) {
-			final long currentSeqNumber = queryResult.get(i).getSequenceNumber().longValue();
-			if (currentSeqNumber != lastSeqNumber.get().longValue() + 1) {
-				if (log.isDebugEnabled()) {
-					log.debug("Log verification failure for log on node " + nodeId + ". Missing entry. Last sequenceNumber was " + lastSeqNumber + " and current is " + currentSeqNumber);
-				}
-				// Add to report
-				report.warn(new AuditLogReportElem(lastSeqNumber.get(), Long.valueOf(currentSeqNumber), "missing log with sequence number " + (lastSeqNumber.get().longValue() + 1) + " on nodeId " + nodeId));
-			}
-			lastSeqNumber.set(Long.valueOf(currentSeqNumber));
-		}
-		return queryResult;
-	}
-	
 	/** Log the outcome of the verification to the secure audit log based on the supplied number of errors. */
 	private void logVerificationResult(final int errors, final Date timestamp, final AuthenticationToken token) {
     	final Map<String, Object> details = new LinkedHashMap<String, Object>();
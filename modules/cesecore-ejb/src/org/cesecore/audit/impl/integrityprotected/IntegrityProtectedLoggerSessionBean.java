@@ -12,6 +12,7 @@
  *************************************************************************/
 package org.cesecore.audit.impl.integrityprotected;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -78,4 +79,28 @@ public class IntegrityProtectedLoggerSessionBean implements IntegrityProtectedLo
             }
         }
     }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    // Always persist audit log
+    public void log(final List<AuditRecordData> auditRecordDatas) throws AuditRecordStorageException {
+        if (log.isTraceEnabled()) {
+            log.trace(">log: " + auditRecordDatas.size() + " records");
+        }
+        try {
+            final String nodeId = CesecoreConfiguration.getNodeIdentifier();
+            for (final AuditRecordData auditRecordData : auditRecordDatas) {
+                auditRecordData.setNodeId(nodeId);
+                auditRecordData.setSequenceNumber(NodeSequenceHolder.INSTANCE.getNext(entityManager, nodeId));
+                entityManager.persist(auditRecordData);
+            }
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            throw new AuditRecordStorageException(e.getMessage(), e);
+        } finally {
+            if (log.isTraceEnabled()) {
+                log.trace("<log");
+            }
+        }
+    }
 }
@@ -30,6 +30,9 @@ import org.cesecore.roles.RoleData;
  */
 public class AccessTreeCache {
 
+    /** The name of the cache in {@link org.cesecore.internal.CacheInvalidationBus} */
+    public static final String CACHE_NAME = "AccessTreeCache";
+
     /*
      * Cache of authorization data. This cache may be unsynchronized between multiple instances of EJBCA, but is common to all threads in the same VM.
      * Set volatile to make it thread friendly.
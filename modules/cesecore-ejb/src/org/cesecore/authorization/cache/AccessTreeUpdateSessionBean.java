@@ -12,6 +12,7 @@
  *************************************************************************/
 package org.cesecore.authorization.cache;
 
+import javax.ejb.EJB;
 import javax.ejb.EJBException;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
@@ -21,6 +22,7 @@ import javax.persistence.PersistenceContext;
 
 import org.apache.log4j.Logger;
 import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.internal.CacheInvalidationSessionLocal;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 
@@ -39,6 +41,9 @@ public class AccessTreeUpdateSessionBean implements AccessTreeUpdateSessionLocal
     @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
     private EntityManager entityManager;
 
+    @EJB
+    private CacheInvalidationSessionLocal cacheInvalidationSession;
+
     @Override
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)    // We don't modify the database in this call
     public int getAccessTreeUpdateNumber() {
@@ -66,5 +71,6 @@ public class AccessTreeUpdateSessionBean implements AccessTreeUpdateSessionLocal
         } else {
             accessTreeUpdateData.setAccessTreeUpdateNumber(accessTreeUpdateData.getAccessTreeUpdateNumber() + 1);
         }
+        cacheInvalidationSession.publish(AccessTreeCache.CACHE_NAME, null);
     }
 }
@@ -30,6 +30,8 @@ import org.cesecore.authentication.AuthenticationFailedException;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.cache.AccessTreeCache;
 import org.cesecore.authorization.cache.AccessTreeUpdateSessionLocal;
+import org.cesecore.internal.CacheInvalidationBus;
+import org.cesecore.internal.CacheInvalidationListener;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.roles.access.RoleAccessSessionLocal;
@@ -74,6 +76,19 @@ public class AccessControlSessionBean implements AccessControlSessionLocal, Acce
      */
     private static volatile AccessTreeCache accessTreeCache;
 
+    static {
+        // Check the access tree update number on the next authorization when the roles have been changed on another node
+        CacheInvalidationBus.INSTANCE.register(AccessTreeCache.CACHE_NAME, new CacheInvalidationListener() {
+            @Override
+            public void invalidate(final String key) {
+                final AccessTreeCache cache = accessTreeCache;
+                if (cache != null) {
+                    cache.forceCacheExpire();
+                }
+            }
+        });
+    }
+
     private boolean isAuthorized(final AuthenticationToken authenticationToken, final boolean doLogging, final boolean requireRecursive,
             final String... resources) {
         try {
@@ -54,6 +54,7 @@ import org.cesecore.certificates.ca.catoken.CAToken;
 import org.cesecore.certificates.ca.internal.CACacheHelper;
 import org.cesecore.certificates.ca.internal.CaCache;
 import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.internal.CacheInvalidationSessionLocal;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.internal.UpgradeableDataHashMap;
 import org.cesecore.jndi.JndiConstants;
@@ -89,6 +90,8 @@ public class CaSessionBean implements CaSessionLocal, CaSessionRemote {
     @EJB
     private AccessControlSessionLocal accessSession;
     @EJB
+    private CacheInvalidationSessionLocal cacheInvalidationSession;
+    @EJB
     private CryptoTokenManagementSessionLocal cryptoTokenManagementSession;
     @EJB
     private CryptoTokenSessionLocal cryptoTokenSession;
@@ -354,6 +357,7 @@ public class CaSessionBean implements CaSessionLocal, CaSessionRemote {
             entityManager.remove(cadata);
             // Invalidate CA cache to refresh information
             CaCache.INSTANCE.removeEntry(caid);
+            cacheInvalidationSession.publish(CaCache.CACHE_NAME, String.valueOf(caid));
             final String detailsMsg = intres.getLocalizedMessage("caadmin.removedca", Integer.valueOf(caid), cadata.getName());
             logSession.log(EventTypes.CA_DELETION, EventStatus.SUCCESS, ModuleTypes.CA, ServiceTypes.CORE,admin.toString(), String.valueOf(caid), null, null, detailsMsg);
         }
@@ -372,9 +376,12 @@ public class CaSessionBean implements CaSessionLocal, CaSessionRemote {
         if (CAData.findByName(entityManager, newname) == null) {
             // new CA doesn't exits, it's ok to rename old one.
             cadata.setName(newname);
+            // The update time is what the CA cache compares to see if a cached CA is current, so it must change whenever a column does
+            cadata.increaseUpdateTime();
             // Invalidate CA cache to refresh information
             int caid = cadata.getCaId().intValue();
             CaCache.INSTANCE.removeEntry(caid);
+            cacheInvalidationSession.publish(CaCache.CACHE_NAME, String.valueOf(caid));
             final String detailsMsg = intres.getLocalizedMessage("caadmin.renamedca", oldname, cadata.getCaId(), newname);
             logSession.log(EventTypes.CA_RENAMING, EventStatus.SUCCESS, ModuleTypes.CA, ServiceTypes.CORE,admin.toString(), String.valueOf(caid), null, null, detailsMsg);
         } else {
@@ -666,10 +673,19 @@ public class CaSessionBean implements CaSessionLocal, CaSessionRemote {
         // 1. Check (new) CaCache if it is time to sync-up with database
         if (CaCache.INSTANCE.shouldCheckForUpdates(caId)) {
             log.debug("CA with ID " + caId + " will be checked for updates.");
-            // 2. If cache is expired or missing, first thread to discover this reloads item from database and sends it to the cache
+            // 2. If cache is expired or missing, first thread to discover this checks the update time of the item in the database,
+            //    since reading and decoding the full CA data only to find that nothing has changed is expensive
+            final Long updateTime = CAData.findUpdateTimeById(entityManager, Integer.valueOf(caId));
+            if (updateTime != null && CaCache.INSTANCE.isCurrent(caId, getDigest(updateTime.longValue()))) {
+                if (log.isDebugEnabled()) {
+                    log.debug("CA with ID " + caId + " has not been updated since it was cached.");
+                }
+                return CaCache.INSTANCE.getEntry(caId);
+            }
+            // 2b. If the item has changed or is missing, reload item from database and send it to the cache
             try {
                 CAData caData = getCAData(caId, null);
-                final int digest = caData.getProtectString(0).hashCode();
+                final int digest = getDigest(caData.getUpdateTime());
                 // Special for splitting out the CAToken and committing it..
                 // Since getCAData has already run upgradeAndMergeToDatabase we can just get the CA here..
                 CA ca = caData.getCA();
@@ -688,6 +704,11 @@ public class CaSessionBean implements CaSessionLocal, CaSessionRemote {
         return CaCache.INSTANCE.getEntry(caId);
     }
 
+    /** All changes to a CA are written through {@link CAData#setCA(CA)}, which sets a new update time, so the update time is used as the cache digest. */
+    private int getDigest(final long updateTime) {
+        return Long.valueOf(updateTime).hashCode();
+    }
+
     @TransactionAttribute(TransactionAttributeType.REQUIRED)
     @Override
     public int mergeCa(final CA ca) {
@@ -704,6 +725,7 @@ public class CaSessionBean implements CaSessionLocal, CaSessionRemote {
         caData = entityManager.merge(caData);
         // Since loading a CA is quite complex (populating CAInfo etc), we simple purge the cache here
         CaCache.INSTANCE.removeEntry(caId);
+        cacheInvalidationSession.publish(CaCache.CACHE_NAME, String.valueOf(caId));
         return caId;
     }
 
@@ -17,6 +17,7 @@ import java.util.Map;
 
 import org.cesecore.certificates.ca.CA;
 import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.internal.CacheInvalidationBus;
 import org.cesecore.internal.CommonCache;
 import org.cesecore.internal.CommonCacheBase;
 
@@ -28,6 +29,9 @@ import org.cesecore.internal.CommonCacheBase;
 public enum CaCache implements CommonCache<CA> {
     INSTANCE;
 
+    /** The name of the cache in {@link CacheInvalidationBus} */
+    public static final String CACHE_NAME = "CaCache";
+
     final private CommonCache<CA> caCache = new CommonCacheBase<CA>() {
         @Override
         protected long getCacheTime() {
@@ -40,6 +44,11 @@ public enum CaCache implements CommonCache<CA> {
         };
     };
 
+    private CaCache() {
+        // Remove entries that were changed on other nodes
+        CacheInvalidationBus.INSTANCE.register(CACHE_NAME, CacheInvalidationBus.getListener(this));
+    }
+
     @Override
     public CA getEntry(final int caId) {
         return caCache.getEntry(caId);
@@ -50,6 +59,11 @@ public enum CaCache implements CommonCache<CA> {
         return caCache.shouldCheckForUpdates(caId);
     }
     
+    @Override
+    public boolean isCurrent(final int caId, final int digest) {
+        return caCache.isCurrent(caId, digest);
+    }
+
     @Override
     public void updateWith(int caId, int digest, String name, CA object) {
         caCache.updateWith(caId, digest, name, object);
@@ -21,13 +21,16 @@ import java.security.spec.ECParameterSpec;
 import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
@@ -44,6 +47,9 @@ import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -62,14 +68,19 @@ import org.cesecore.certificates.ca.internal.CaCertificateCache;
 import org.cesecore.certificates.certificate.request.RequestMessage;
 import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.ocsp.cache.CertificateStatusIndex;
+import org.cesecore.certificates.ocsp.cache.OcspHttpResponseCache;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCache;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.config.OcspConfiguration;
+import org.cesecore.internal.CacheInvalidationSessionLocal;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.keys.util.KeyTools;
 import org.cesecore.util.Base64;
 import org.cesecore.util.CertTools;
 import org.cesecore.util.StringTools;
+import org.cesecore.util.ValueExtractor;
 import org.ejbca.cvc.PublicKeyEC;
 
 /**
@@ -83,6 +94,11 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     /** Internal localization of logs and errors */
     private static final InternalResources INTRES = InternalResources.getInstance();
     private static final int TIMERID_CACERTIFICATECACHE = 1;
+    /** Issuer DN strings as given by the caller, mapped to the BC normalized form used in the database */
+    private static final ConcurrentHashMap<String, String> ISSUER_DN_CACHE = new ConcurrentHashMap<String, String>();
+    private static final int ISSUER_DN_CACHE_MAX_SIZE = 1000;
+    /** The maximum number of serial numbers in the IN list of one status query */
+    private static final int STATUS_QUERY_MAX_SERIAL_NUMBERS = 100;
 
     @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
     private EntityManager entityManager;
@@ -91,9 +107,13 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     private AccessControlSessionLocal accessSession;
     @EJB
     private SecurityEventsLoggerSessionLocal logSession;
+    @EJB
+    private CacheInvalidationSessionLocal cacheInvalidationSession;
     // Myself needs to be looked up in postConstruct
     @Resource
     private SessionContext sessionContext;
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
     private CertificateStoreSessionLocal certificateStoreSession;
     /* When the sessionContext is injected, the timerService should be looked up.
      * This is due to the Glassfish EJB verifier complaining. 
@@ -155,6 +175,10 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         }
         data1 = new CertificateData(incert, pubk, username, cafp, status, type, certificateProfileId, tag, updateTime, useBase64CertTable);
         this.entityManager.persist(data1);
+        if (type == CertificateConstants.CERTTYPE_SUBCA || type == CertificateConstants.CERTTYPE_ROOTCA) {
+            // Make a new or renewed CA certificate available without waiting for the next reload of the CA certificate cache
+            addToCaCertificateCacheAfterCommit(incert);
+        }
 
         final String serialNo = CertTools.getSerialNumberAsString(incert);
         final String msg = INTRES.getLocalizedMessage("store.storecert", username, data1.getFingerprint(), data1.getSubjectDN(), data1.getIssuerDN(),
@@ -859,6 +883,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         int caid = CertTools.getIssuerDN(certificate).hashCode();
         authorizedToCA(authenticationToken, caid);
         certdata.setRevocationDate(revocationDate);
+        certdata.setUpdateTime(System.currentTimeMillis());
         final String username = certdata.getUsername();
         final String serialNo = CertTools.getSerialNumberAsString(certificate); // for logging
         final String msg = INTRES.getLocalizedMessage("store.revocationdateset", username, certificateFingerprint, certdata.getSubjectDN(),
@@ -934,6 +959,11 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             log.info(msg);
     		returnVal = false; // we did _not_ change status in the database
         }
+        if (returnVal) {
+            // Cached OCSP responses are never returned for a changed status, but there is no need to keep them
+            OcspResponseCache.INSTANCE.invalidate(CertTools.getSerialNumber(certificate));
+            invalidateOcspHttpResponsesAfterCommit(Collections.singletonList(CertTools.getSerialNumber(certificate)));
+        }
         if (log.isTraceEnabled()) {
             log.trace("<private setRevokeStatusNoAuth(), issuerdn=" + CertTools.getIssuerDN(certificate) + ", serno="
                     + CertTools.getSerialNumberAsString(certificate));
@@ -965,6 +995,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
                 	d.setStatus(CertificateConstants.CERT_REVOKED);
                 	d.setRevocationDate(System.currentTimeMillis());
                 	d.setRevocationReason(reason);
+                	d.setUpdateTime(System.currentTimeMillis());
                 	revoked++;
             	}
             	firstResult += maxRows;
@@ -974,6 +1005,8 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     		Map<String, Object> details = new LinkedHashMap<String, Object>();
     		details.put("msg", msg);
     		logSession.log(EventTypes.CERT_REVOKED, EventStatus.SUCCESS, ModuleTypes.CERTIFICATE, ServiceTypes.CORE, admin.toString(), String.valueOf(caid), null, null, details);            
+            OcspResponseCache.INSTANCE.clear();
+            invalidateOcspHttpResponsesAfterCommit(null);
         } catch (Exception e) {
             final String msg = INTRES.getLocalizedMessage("store.errorrevokeallbyca", issuerdn);
             log.info(msg);
@@ -1008,20 +1041,18 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             log.trace(">isRevoked(), dn:" + issuerDN + ", serno=" + serno.toString(16));
         }
         // First make a DN in our well-known format
-        String dn = CertTools.stringToBCDNString(issuerDN);
+        String dn = getNormalizedIssuerDn(issuerDN);
         boolean ret = false;
         try {
-            Collection<CertificateData> coll = CertificateData.findByIssuerDNSerialNumber(entityManager, dn, serno.toString());
-            if (coll.size() > 0) {
-                if (coll.size() > 1) {
+            final List<Object[]> rows = CertificateData.findStatusByIssuerDNSerialNumber(entityManager, dn, serno.toString());
+            if (rows.size() > 0) {
+                if (rows.size() > 1) {
                     final String msg = INTRES.getLocalizedMessage("store.errorseveralissuerserno", issuerDN, serno.toString(16));
                     log.error(msg);
                 }
-                Iterator<CertificateData> iter = coll.iterator();
-                while (iter.hasNext()) {
-                    CertificateData data = iter.next();
+                for (final Object[] row : rows) {
                     // if any of the certificates with this serno is revoked, return true
-                    if (data.getStatus() == CertificateConstants.CERT_REVOKED) {
+                    if (ValueExtractor.extractIntValue(row[0]) == CertificateConstants.CERT_REVOKED) {
                         ret = true;
                         break;
                     }
@@ -1048,17 +1079,20 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             log.trace(">getStatus(), dn:" + issuerDN + ", serno=" + serno.toString(16));
         }
         // First make a DN in our well-known format
-        final String dn = CertTools.stringToBCDNString(issuerDN);
+        final String dn = getNormalizedIssuerDn(issuerDN);
 
         try {
-            Collection<CertificateData> coll = CertificateData.findByIssuerDNSerialNumber(entityManager, dn, serno.toString());
-            if (coll.size() > 1) {
+            // Only read the status columns, not the whole certificate
+            final List<Object[]> rows = CertificateData.findStatusByIssuerDNSerialNumber(entityManager, dn, serno.toString());
+            if (rows.size() > 1) {
                 final String msg = INTRES.getLocalizedMessage("store.errorseveralissuerserno", issuerDN, serno.toString(16));
                 log.error(msg);
             }
            
-            for(CertificateData data : coll) {
-                final CertificateStatus result = getCertificateStatus(data);
+            for (final Object[] row : rows) {
+                final int pId = row[3] == null ? CertificateProfileConstants.CERTPROFILE_NO_PROFILE : ValueExtractor.extractIntValue(row[3]);
+                final CertificateStatus result = getCertificateStatus(ValueExtractor.extractIntValue(row[0]), ValueExtractor.extractLongValue(row[1]),
+                        ValueExtractor.extractIntValue(row[2]), pId);
                 if (log.isTraceEnabled()) {
                     log.trace("<getStatus() returned " + result + " for cert number " + serno.toString(16));
                 }
@@ -1073,13 +1107,53 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         return CertificateStatus.NOT_AVAILABLE;
     }
 
+    @Override
+    public Map<BigInteger, CertificateStatus> getStatuses(String issuerDN, Collection<BigInteger> serialNumbers) {
+        if (log.isTraceEnabled()) {
+            log.trace(">getStatuses(), dn:" + issuerDN + ", " + serialNumbers.size() + " serial numbers");
+        }
+        final String dn = getNormalizedIssuerDn(issuerDN);
+        final Map<BigInteger, CertificateStatus> ret = new HashMap<BigInteger, CertificateStatus>();
+        final List<BigInteger> chunk = new ArrayList<BigInteger>(STATUS_QUERY_MAX_SERIAL_NUMBERS);
+        try {
+            final Iterator<BigInteger> iterator = serialNumbers.iterator();
+            while (iterator.hasNext()) {
+                final BigInteger serno = iterator.next();
+                if (!ret.containsKey(serno)) {
+                    ret.put(serno, CertificateStatus.NOT_AVAILABLE);
+                    chunk.add(serno);
+                }
+                if (chunk.size() == STATUS_QUERY_MAX_SERIAL_NUMBERS || (!iterator.hasNext() && !chunk.isEmpty())) {
+                    for (final Object[] row : CertificateData.findStatusByIssuerDNSerialNumbers(entityManager, dn, chunk)) {
+                        final BigInteger rowSerno = new BigInteger((String) row[0]);
+                        if (ret.get(rowSerno) != CertificateStatus.NOT_AVAILABLE) {
+                            // Same as getStatus, which uses the first row it finds
+                            log.error(INTRES.getLocalizedMessage("store.errorseveralissuerserno", issuerDN, rowSerno.toString(16)));
+                            continue;
+                        }
+                        final int pId = row[4] == null ? CertificateProfileConstants.CERTPROFILE_NO_PROFILE : ValueExtractor.extractIntValue(row[4]);
+                        ret.put(rowSerno, getCertificateStatus(ValueExtractor.extractIntValue(row[1]), ValueExtractor.extractLongValue(row[2]),
+                                ValueExtractor.extractIntValue(row[3]), pId));
+                    }
+                    chunk.clear();
+                }
+            }
+        } catch (Exception e) {
+            throw new EJBException(e);
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("<getStatuses() returned the status of " + ret.size() + " certificates");
+        }
+        return ret;
+    }
+
     @Override
     public CertificateStatusHolder getCertificateAndStatus(String issuerDN, BigInteger serno) {
         if (log.isTraceEnabled()) {
             log.trace(">getCertificateAndStatus(), dn:" + issuerDN + ", serno=" + serno.toString(16));
         }
         // First make a DN in our well-known format
-        final String dn = CertTools.stringToBCDNString(issuerDN);
+        final String dn = getNormalizedIssuerDn(issuerDN);
         Collection<CertificateData> collection = CertificateData.findByIssuerDNSerialNumber(entityManager, dn, serno.toString());
         if (collection.size() > 1) {
             final String msg = INTRES.getLocalizedMessage("store.errorseveralissuerserno", issuerDN, serno.toString(16));
@@ -1098,8 +1172,57 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         return new CertificateStatusHolder(null, CertificateStatus.NOT_AVAILABLE);
     }
 
+    @Override
+    public CertificateStatusIndex loadStatusIndex(String issuerDN, boolean filter, double falsePositiveRate) {
+        final String dn = CertTools.stringToBCDNString(issuerDN);
+        final CertificateStatusIndex index;
+        if (filter) {
+            // Room for certificates issued before the next reload, the index is reloaded if the filter is full
+            final long issuedCount = CertificateData.getIssuedCount(entityManager, dn);
+            index = new CertificateStatusIndex(Math.max(1000, issuedCount + issuedCount / 4), falsePositiveRate);
+        } else {
+            index = new CertificateStatusIndex();
+        }
+        final int count = readStatusBatches(dn, index, !filter, 0);
+        if (log.isDebugEnabled()) {
+            log.debug("Loaded status of " + count + " certificates issued by '" + dn + "': " + index);
+        }
+        return index;
+    }
+
+    @Override
+    public int updateStatusIndex(String issuerDN, CertificateStatusIndex index, long updateTime) {
+        // All changes are read, even if the index has no filter, since a certificate may have been taken off hold
+        return readStatusBatches(CertTools.stringToBCDNString(issuerDN), index, false, Math.max(1, updateTime));
+    }
+
+    /** Reads the status of the certificates of an issuer into the index, in batches of database.crlgenfetchsize rows. */
+    private int readStatusBatches(final String issuerDN, final CertificateStatusIndex index, final boolean revokedOnly, final long updateTime) {
+        final int maxResults = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize();
+        // No condition on the fingerprint for the first batch
+        String lastFingerprint = null;
+        int count = 0;
+        while (true) {
+            final List<Object[]> rows = CertificateData.getStatusBatch(entityManager, issuerDN, revokedOnly, updateTime, lastFingerprint, maxResults);
+            for (final Object[] row : rows) {
+                final byte[] serialNumber = new BigInteger((String) row[1]).toByteArray();
+                final int status = ValueExtractor.extractIntValue(row[2]);
+                final long revocationDate = ValueExtractor.extractLongValue(row[3]);
+                final int revocationReason = ValueExtractor.extractIntValue(row[4]);
+                final int certificateProfileId = row[5] == null ? CertificateProfileConstants.CERTPROFILE_NO_PROFILE : ValueExtractor.extractIntValue(row[5]);
+                index.update(serialNumber, status, revocationDate, revocationReason, certificateProfileId);
+            }
+            count += rows.size();
+            if (rows.size() < maxResults) {
+                break;
+            }
+            lastFingerprint = (String) rows.get(rows.size() - 1)[0];
+        }
+        return count;
+    }
+
     /**
-     * Algorithm: 
+     * Algorithm:
      * If status is CERT_REVOKED the certificate is revoked and reason and date is picked up.
      * If status is CERT_ARCHIVED and reason is _NOT_ REMOVEFROMCRL or NOT_REVOKED the certificate is revoked and reason and date is picked up.
      * If status is CERT_ARCHIVED and reason is REMOVEFROMCRL or NOT_REVOKED the certificate is NOT revoked.
@@ -1117,20 +1240,47 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             final Integer tmp = data.getCertificateProfileId();
             pId = tmp != null ? tmp.intValue() : CertificateProfileConstants.CERTPROFILE_NO_PROFILE;
         }
-        final int status = data.getStatus();
+        return getCertificateStatus(data.getStatus(), data.getRevocationDate(), data.getRevocationReason(), pId);
+    }
+
+    /** @see #getCertificateStatus(CertificateData) */
+    private CertificateStatus getCertificateStatus(final int status, final long revocationDate, final int revReason, final int pId) {
         if (status == CertificateConstants.CERT_REVOKED) {
-            return new CertificateStatus(data.getRevocationDate(), data.getRevocationReason(), pId);
+            return new CertificateStatus(revocationDate, revReason, pId);
         }
         if (status != CertificateConstants.CERT_ARCHIVED) {
             return new CertificateStatus(CertificateStatus.OK.toString(), pId);
         }
         // If the certificate have status ARCHIVED, BUT revocationReason is REMOVEFROMCRL or NOTREVOKED, the certificate is OK
         // Otherwise it is a revoked certificate that has been archived and we must return REVOKED
-        final int revReason = data.getRevocationReason(); // Read revocationReason from database if we really need to..
         if (revReason == RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL || revReason == RevokedCertInfo.NOT_REVOKED) {
             return new CertificateStatus(CertificateStatus.OK.toString(), pId);
         }
-        return new CertificateStatus(data.getRevocationDate(), revReason, pId);
+        return new CertificateStatus(revocationDate, revReason, pId);
+    }
+
+    /**
+     * Status lookups are made with the issuer DN of the request or certificate, and there are only a few distinct issuers, so the
+     * normalized form is cached instead of parsed for each lookup.
+     *
+     * @return the issuer DN in the BC normalized form used in the database, see CertTools.stringToBCDNString
+     */
+    private static String getNormalizedIssuerDn(final String issuerDN) {
+        if (issuerDN == null) {
+            return CertTools.stringToBCDNString(issuerDN);
+        }
+        String ret = ISSUER_DN_CACHE.get(issuerDN);
+        if (ret == null) {
+            ret = CertTools.stringToBCDNString(issuerDN);
+            if (ret != null) {
+                if (ISSUER_DN_CACHE.size() >= ISSUER_DN_CACHE_MAX_SIZE) {
+                    // Many distinct issuer DNs, for example from clients sending arbitrary DNs. Start over rather than grow without bound.
+                    ISSUER_DN_CACHE.clear();
+                }
+                ISSUER_DN_CACHE.put(issuerDN, ret);
+            }
+        }
+        return ret;
     }
 
     @Override
@@ -1160,6 +1310,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             authorizedToCA(admin, caid);
 
         	data.setStatus(status);
+        	data.setUpdateTime(System.currentTimeMillis());
         	final String serialNo = CertTools.getSerialNumberAsString(data.getCertificate(this.entityManager));
             final String msg = INTRES.getLocalizedMessage("store.setstatus", data.getUsername(), fingerprint, status, data.getSubjectDN(), data.getIssuerDN(), serialNo);
     		Map<String, Object> details = new LinkedHashMap<String, Object>();
@@ -1362,6 +1513,62 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             // Refuse to update a normal entry with this method
         	throw new UnsupportedOperationException("Only limited certificate entries can be updated using this method.");
         }
+        OcspResponseCache.INSTANCE.invalidate(serialNumber);
+        invalidateOcspHttpResponsesAfterCommit(Collections.singletonList(serialNumber));
+    }
+
+    /**
+     * Removes the cached responses to OCSP GET requests for the certificates when the current transaction has been committed, so that
+     * a request that is answered from the status before the commit can not add a response after the removal. The other nodes are
+     * notified through the cache invalidation bus.
+     * 
+     * @param serialNumbers the serial numbers of the certificates whose status has changed, or null to remove all responses
+     */
+    private void invalidateOcspHttpResponsesAfterCommit(final List<BigInteger> serialNumbers) {
+        if (serialNumbers == null) {
+            cacheInvalidationSession.publish(OcspHttpResponseCache.CACHE_NAME, null);
+        } else {
+            for (final BigInteger serialNumber : serialNumbers) {
+                cacheInvalidationSession.publish(OcspHttpResponseCache.CACHE_NAME, serialNumber.toString(16));
+            }
+        }
+        transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(final int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    if (serialNumbers == null) {
+                        OcspHttpResponseCache.INSTANCE.clear();
+                    } else {
+                        for (final BigInteger serialNumber : serialNumbers) {
+                            OcspHttpResponseCache.INSTANCE.invalidate(serialNumber);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds a CA certificate to the CA certificate cache when the current transaction has been committed, so that a certificate that is
+     * rolled back is never found in the cache.
+     */
+    private void addToCaCertificateCacheAfterCommit(final Certificate caCertificate) {
+        transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(final int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    CaCertificateCache.INSTANCE.addCertificate(caCertificate);
+                }
+            }
+        });
     }
 
     @Override
@@ -1451,6 +1658,85 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         return count;
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int updateLimitedCertificateDataStatuses(final AuthenticationToken admin, final int caId, final String issuerDn,
+            final List<RevokedCertInfo> entries, final String caFingerprint) throws AuthorizationDeniedException {
+        if (!accessSession.isAuthorizedNoLogging(admin, StandardRules.CAACCESS.resource() + caId)) {
+            final String msg = INTRES.getLocalizedMessage("caadmin.notauthorizedtoca", admin.toString(), caId);
+            throw new AuthorizationDeniedException(msg);
+        }
+        // Read the existing rows of all entries, {serialNumber, status, revocationDate, revocationReason, certificateProfileId, fingerprint}
+        final Map<BigInteger, Object[]> existingRows = new HashMap<BigInteger, Object[]>();
+        final String dn = getNormalizedIssuerDn(issuerDn);
+        for (int i = 0; i < entries.size(); i += STATUS_QUERY_MAX_SERIAL_NUMBERS) {
+            final List<BigInteger> serialNumbers = new ArrayList<BigInteger>(STATUS_QUERY_MAX_SERIAL_NUMBERS);
+            for (final RevokedCertInfo entry : entries.subList(i, Math.min(entries.size(), i + STATUS_QUERY_MAX_SERIAL_NUMBERS))) {
+                serialNumbers.add(entry.getUserCertificate());
+            }
+            for (final Object[] row : CertificateData.findStatusByIssuerDNSerialNumbers(entityManager, dn, serialNumbers)) {
+                final BigInteger serialNumber = new BigInteger((String) row[0]);
+                if (!existingRows.containsKey(serialNumber)) {
+                    existingRows.put(serialNumber, row);
+                }
+            }
+        }
+        int changed = 0;
+        final List<BigInteger> changedSerialNumbers = new ArrayList<BigInteger>();
+        for (final RevokedCertInfo entry : entries) {
+            final BigInteger serialNumber = entry.getUserCertificate();
+            final int changedBefore = changed;
+            final int reasonCode = entry.getReason();
+            final String limitedFingerprint = getLimitedCertificateDataFingerprint(issuerDn, serialNumber);
+            final Object[] row = existingRows.get(serialNumber);
+            if (row == null) {
+                // There is no limited entry to remove if there is no row at all
+                if (reasonCode != RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Adding limited CertificateData entry with fingerprint=" + limitedFingerprint + ", serialNumber="
+                                + serialNumber.toString(16).toUpperCase() + ", issuerDn='" + issuerDn + "'");
+                    }
+                    entityManager.persist(createLimitedCertificateData(admin, limitedFingerprint, issuerDn, serialNumber, entry.getRevocationDate(),
+                            reasonCode, caFingerprint));
+                    // The same serial number may occur again later in the list
+                    existingRows.put(serialNumber, new Object[] { serialNumber.toString(), Integer.valueOf(CertificateConstants.CERT_REVOKED),
+                            Long.valueOf(entry.getRevocationDate().getTime()), Integer.valueOf(reasonCode), null, limitedFingerprint });
+                    changed++;
+                }
+            } else if (limitedFingerprint.equals(row[5])) {
+                if (reasonCode == RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
+                    deleteLimitedCertificateData(limitedFingerprint);
+                    existingRows.remove(serialNumber);
+                    changed++;
+                } else if (ValueExtractor.extractIntValue(row[1]) != CertificateConstants.CERT_REVOKED
+                        || ValueExtractor.extractLongValue(row[2]) != entry.getRevocationDate().getTime()
+                        || ValueExtractor.extractIntValue(row[3]) != reasonCode) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Updating limited CertificateData entry with fingerprint=" + limitedFingerprint + ", serialNumber="
+                                + serialNumber.toString(16).toUpperCase() + ", issuerDn='" + issuerDn + "'");
+                    }
+                    entityManager.merge(createLimitedCertificateData(admin, limitedFingerprint, issuerDn, serialNumber, entry.getRevocationDate(),
+                            reasonCode, caFingerprint));
+                    row[1] = Integer.valueOf(CertificateConstants.CERT_REVOKED);
+                    row[2] = Long.valueOf(entry.getRevocationDate().getTime());
+                    row[3] = Integer.valueOf(reasonCode);
+                    changed++;
+                }
+            } else {
+                // Refuse to update a normal entry with this method
+                throw new UnsupportedOperationException("Only limited certificate entries can be updated using this method.");
+            }
+            OcspResponseCache.INSTANCE.invalidate(serialNumber);
+            if (changed > changedBefore) {
+                changedSerialNumbers.add(serialNumber);
+            }
+        }
+        if (!changedSerialNumbers.isEmpty()) {
+            invalidateOcspHttpResponsesAfterCommit(changedSerialNumbers);
+        }
+        return changed;
+    }
+
     /** @return a limited CertificateData object based on the information we have */
     private CertificateData createLimitedCertificateData(final AuthenticationToken admin, final String limitedFingerprint, final String issuerDn, final BigInteger serialNumber,
             final Date revocationDate, final int reasonCode, final String caFingerprint) {
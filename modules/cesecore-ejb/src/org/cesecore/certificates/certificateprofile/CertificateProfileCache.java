@@ -35,6 +35,9 @@ import org.cesecore.config.CesecoreConfiguration;
  * 
  * The intention of this design is better throughput than fully ordered sequential updates.
  * 
+ * When the cache has expired, only the row versions of the profiles are read, and only profiles with a changed row version are
+ * read and deserialized again. Forced updates always read all profiles.
+ * 
  * Probably based on EJBCA's org.ejbca.core.ejb.ca.store.CertificateProfileCache r11155
  * 
  * @version $Id: CertificateProfileCache.java 19902 2014-09-30 14:32:24Z anatom $
@@ -43,6 +46,9 @@ public final class CertificateProfileCache {
 
     private static final Logger LOG = Logger.getLogger(CertificateProfileCache.class);
 
+    /** The name of the cache in {@link org.cesecore.internal.CacheInvalidationBus} */
+    public static final String CACHE_NAME = "CertificateProfileCache";
+
     /*
      * Cache of profiles, with Id as keys. This cache may be
      * unsynchronized between multiple instances of EJBCA, but is common to all
@@ -55,6 +61,8 @@ public final class CertificateProfileCache {
     private volatile Map<String, Integer> nameIdMapCache = null;
     /** Cache of certificate profiles, with Id as keys */
     private volatile Map<Integer, CertificateProfile> profileCache = null;
+    /** Row versions of the cached certificate profiles, with Id as keys */
+    private volatile Map<Integer, Integer> rowVersionCache = null;
 
     private volatile long lastUpdate = 0;
 
@@ -122,14 +130,51 @@ public final class CertificateProfileCache {
         @SuppressWarnings("unchecked")
         final Map<String, Integer> nameIdCache = (Map<String, Integer>) nameIdMapCacheTemplate.clone();
         final Map<Integer, CertificateProfile> profCache = new HashMap<Integer, CertificateProfile>();
+        final Map<Integer, Integer> versionCache = new HashMap<Integer, Integer>();
+        final Map<Integer, CertificateProfile> previousProfCache = profileCache;
+        final Map<Integer, Integer> previousVersionCache = rowVersionCache;
         try {
-            final List<CertificateProfileData> result = CertificateProfileData.findAll(entityManager);
-            for (final CertificateProfileData current : result) {
-                final Integer id = Integer.valueOf(current.getId());
-                final String certificateProfileName = current.getCertificateProfileName();
-                idNameCache.put(id, certificateProfileName);
-                nameIdCache.put(certificateProfileName, id);
-                profCache.put(id, current.getCertificateProfile());
+            if (force || previousProfCache == null || previousVersionCache == null) {
+                final List<CertificateProfileData> result = CertificateProfileData.findAll(entityManager);
+                for (final CertificateProfileData current : result) {
+                    final Integer id = Integer.valueOf(current.getId());
+                    final String certificateProfileName = current.getCertificateProfileName();
+                    idNameCache.put(id, certificateProfileName);
+                    nameIdCache.put(certificateProfileName, id);
+                    final CertificateProfile certificateProfile = current.getCertificateProfile();
+                    // Compile the profile once here, instead of in every issuance that uses a clone of it
+                    certificateProfile.getCompiled();
+                    profCache.put(id, certificateProfile);
+                    versionCache.put(id, Integer.valueOf(current.getRowVersion()));
+                }
+            } else {
+                // Only read and deserialize the profiles that have changed since they were cached
+                int reloaded = 0;
+                for (final Object[] current : CertificateProfileData.findAllIdNameAndRowVersion(entityManager)) {
+                    final Integer id = (Integer) current[0];
+                    String certificateProfileName = (String) current[1];
+                    Integer rowVersion = (Integer) current[2];
+                    CertificateProfile certificateProfile = previousProfCache.get(id);
+                    if (certificateProfile == null || !rowVersion.equals(previousVersionCache.get(id))) {
+                        final CertificateProfileData certificateProfileData = CertificateProfileData.findById(entityManager, id);
+                        if (certificateProfileData == null) {
+                            // Removed since the row versions were read
+                            continue;
+                        }
+                        certificateProfileName = certificateProfileData.getCertificateProfileName();
+                        certificateProfile = certificateProfileData.getCertificateProfile();
+                        certificateProfile.getCompiled();
+                        rowVersion = Integer.valueOf(certificateProfileData.getRowVersion());
+                        reloaded++;
+                    }
+                    idNameCache.put(id, certificateProfileName);
+                    nameIdCache.put(certificateProfileName, id);
+                    profCache.put(id, certificateProfile);
+                    versionCache.put(id, rowVersion);
+                }
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Reloaded " + reloaded + " of " + profCache.size() + " certificate profiles from the database.");
+                }
             }
         } catch (Exception e) {
             LOG.error("Error reading certificate profiles: ", e);
@@ -137,12 +182,18 @@ public final class CertificateProfileCache {
         idNameMapCache = idNameCache;
         nameIdMapCache = nameIdCache;
         profileCache = profCache;
+        rowVersionCache = versionCache;
 
         if (LOG.isTraceEnabled()) {
             LOG.trace("<updateProfileCache");
         }
     }
 
+    /** Makes the next read check the database for changed profiles, for example when a profile has been changed on another node. */
+    public void expire() {
+        lastUpdate = 0;
+    }
+
     /** @return the latest object from the cache or a current database representation if no caching is used. */
     public Map<Integer, CertificateProfile> getProfileCache(final EntityManager entityManager) {
         updateProfileCache(entityManager, false);
@@ -42,6 +42,9 @@ import org.cesecore.authorization.control.StandardRules;
 import org.cesecore.certificates.ca.CaSessionLocal;
 import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.internal.CacheInvalidationBus;
+import org.cesecore.internal.CacheInvalidationListener;
+import org.cesecore.internal.CacheInvalidationSessionLocal;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.util.ProfileID;
@@ -64,9 +67,21 @@ public class CertificateProfileSessionBean implements CertificateProfileSessionL
     /** Cache of certificate profiles and id-name mappings */
     private static final CertificateProfileCache profileCache = new CertificateProfileCache();
 
+    static {
+        // Read changed profiles on the next access when a profile has been changed on another node
+        CacheInvalidationBus.INSTANCE.register(CertificateProfileCache.CACHE_NAME, new CacheInvalidationListener() {
+            @Override
+            public void invalidate(final String key) {
+                profileCache.expire();
+            }
+        });
+    }
+
     @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
     private EntityManager entityManager;
 
+    @EJB
+    private CacheInvalidationSessionLocal cacheInvalidationSession;
     @EJB
     private CaSessionLocal caSession;
     @EJB
@@ -107,7 +122,7 @@ public class CertificateProfileSessionBean implements CertificateProfileSessionL
         if (isFreeCertificateProfileId(id)) {
             if (CertificateProfileData.findByProfileName(entityManager, name) == null) {
                 entityManager.persist(new CertificateProfileData(Integer.valueOf(id), name, profile));
-                flushProfileCache();
+                flushProfileCacheOnAllNodes();
                 final String msg = INTRES.getLocalizedMessage("store.addedcertprofile", name);
                 Map<String, Object> details = new LinkedHashMap<String, Object>();
                 details.put("msg", msg);
@@ -131,7 +146,7 @@ public class CertificateProfileSessionBean implements CertificateProfileSessionL
     public void changeCertificateProfile(final AuthenticationToken admin, final String name, final CertificateProfile profile)
             throws AuthorizationDeniedException {
         internalChangeCertificateProfileNoFlushCache(admin, name, profile);
-        flushProfileCache();
+        flushProfileCacheOnAllNodes();
     }
 
     @Override
@@ -177,6 +192,12 @@ public class CertificateProfileSessionBean implements CertificateProfileSessionL
         }
     } // flushProfileCache
 
+    /** Flushes the cache of this node and makes the other nodes check for changed profiles. */
+    private void flushProfileCacheOnAllNodes() {
+        flushProfileCache();
+        cacheInvalidationSession.publish(CertificateProfileCache.CACHE_NAME, null);
+    }
+
     @Override
     @TransactionAttribute(TransactionAttributeType.REQUIRED)
     public void cloneCertificateProfile(final AuthenticationToken admin, final String orgname, final String newname,
@@ -208,7 +229,7 @@ public class CertificateProfileSessionBean implements CertificateProfileSessionL
 
             if (CertificateProfileData.findByProfileName(entityManager, newname) == null) {
                 entityManager.persist(new CertificateProfileData(findFreeCertificateProfileId(), newname, profile));
-                flushProfileCache();
+                flushProfileCacheOnAllNodes();
                 final String msg = INTRES.getLocalizedMessage("store.addedprofilewithtempl", newname, orgname);
                 Map<String, Object> details = new LinkedHashMap<String, Object>();
                 details.put("msg", msg);
@@ -423,7 +444,7 @@ public class CertificateProfileSessionBean implements CertificateProfileSessionL
                 authorizedToEditProfile(admin, pdl.getCertificateProfile(), pdl.getId());
 
                 pdl.setCertificateProfileName(newname);
-                flushProfileCache();
+                flushProfileCacheOnAllNodes();
                 final String msg = INTRES.getLocalizedMessage("store.renamedprofile", oldname, newname);
                 Map<String, Object> details = new LinkedHashMap<String, Object>();
                 details.put("msg", msg);
@@ -449,7 +470,7 @@ public class CertificateProfileSessionBean implements CertificateProfileSessionL
             authorizedToEditProfile(admin, pdl.getCertificateProfile(), pdl.getId());
 
             entityManager.remove(pdl);
-            flushProfileCache();
+            flushProfileCacheOnAllNodes();
             final String msg = INTRES.getLocalizedMessage("store.removedprofile", name);
             Map<String, Object> details = new LinkedHashMap<String, Object>();
             details.put("msg", msg);
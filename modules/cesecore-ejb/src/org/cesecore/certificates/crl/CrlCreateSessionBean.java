@@ -13,6 +13,7 @@
 package org.cesecore.certificates.crl;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -36,6 +37,8 @@ import org.cesecore.authorization.control.AccessControlSessionLocal;
 import org.cesecore.authorization.control.StandardRules;
 import org.cesecore.certificates.ca.CA;
 import org.cesecore.certificates.ca.CAConstants;
+import org.cesecore.certificates.ca.X509CA;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.keys.token.CryptoToken;
@@ -89,8 +92,6 @@ public class CrlCreateSessionBean implements CrlCreateSessionLocal, CrlCreateSes
     			String msg = intres.getLocalizedMessage("createcert.canotactive", ca.getSubjectDN());
     			throw new CryptoTokenOfflineException(msg);
     		}
-    		final X509CRLHolder crl;
-    		
     		boolean deltaCRL = (basecrlnumber > -1);
     		final CryptoToken cryptoToken = cryptoTokenManagementSession.getCryptoToken(ca.getCAToken().getCryptoTokenId());
     		if (cryptoToken==null) {
@@ -101,22 +102,55 @@ public class CrlCreateSessionBean implements CrlCreateSessionLocal, CrlCreateSes
     			if (nextCrlNumber == basecrlnumber) {
     				nextCrlNumber++;
     			}
-    			crl = ca.generateDeltaCRL(cryptoToken, certs, nextCrlNumber, basecrlnumber);       
+    		}
+    		byte[] tmpcrlBytes = null;
+    		final String crlIssuerDN;
+    		final Date thisUpdate;
+    		final Date nextUpdate;
+    		if (ca instanceof X509CA && CesecoreConfiguration.isCrlGenerationStreaming()) {
+    		    // Encode and sign the CRL as a stream, so we never hold the CRL as ASN.1 objects in memory
+    		    final X509CA x509ca = (X509CA) ca;
+    		    final StreamedX509CRL crl;
+    		    if (deltaCRL) {
+    		        crl = x509ca.generateStreamedDeltaCRL(cryptoToken, certs, nextCrlNumber, basecrlnumber);
+    		    } else {
+    		        crl = x509ca.generateStreamedCRL(cryptoToken, certs, nextCrlNumber);
+    		    }
+    		    tmpcrlBytes = crl.getEncoded();
+    		    crlIssuerDN = crl.getIssuer().toString();
+    		    thisUpdate = crl.getThisUpdate();
+    		    nextUpdate = crl.getNextUpdate();
     		} else {
-    			crl = ca.generateCRL(cryptoToken, certs, nextCrlNumber);
+    		    final X509CRLHolder crl;
+    		    if (deltaCRL) {
+    		        crl = ca.generateDeltaCRL(cryptoToken, certs, nextCrlNumber, basecrlnumber);       
+    		    } else {
+    		        crl = ca.generateCRL(cryptoToken, certs, nextCrlNumber);
+    		    }
+    		    if (crl != null) {
+    		        if (log.isDebugEnabled()) {
+    		            log.debug("Encoding CRL to byte array. Free memory="+Runtime.getRuntime().freeMemory());
+    		        }          
+    		        tmpcrlBytes = crl.getEncoded();                    
+    		        if (log.isDebugEnabled()) {
+    		            log.debug("Finished encoding CRL to byte array. Free memory="+Runtime.getRuntime().freeMemory());
+    		        }
+    		        crlIssuerDN = crl.getIssuer().toString();
+    		        thisUpdate = crl.toASN1Structure().getThisUpdate().getDate();
+    		        nextUpdate = crl.toASN1Structure().getNextUpdate().getDate();
+    		    } else {
+    		        crlIssuerDN = null;
+    		        thisUpdate = null;
+    		        nextUpdate = null;
+    		    }
     		}
-    		if (crl != null) {
+    		if (tmpcrlBytes != null) {
     			// Store CRL in the database, this can still fail so the whole thing is rolled back
     			String cafp = CertTools.getFingerprintAsString(ca.getCACertificate());
     			if (log.isDebugEnabled()) {
-    			    log.debug("Encoding CRL to byte array. Free memory="+Runtime.getRuntime().freeMemory());
-    			}          
-    			byte[] tmpcrlBytes = crl.getEncoded();                    
-    			if (log.isDebugEnabled()) {
-    			    log.debug("Finished encoding CRL to byte array. Free memory="+Runtime.getRuntime().freeMemory());
     				log.debug("Storing CRL in certificate store.");
     			}
-    			crlSession.storeCRL(admin, tmpcrlBytes, cafp, nextCrlNumber, crl.getIssuer().toString(), crl.toASN1Structure().getThisUpdate().getDate(), crl.toASN1Structure().getNextUpdate().getDate(), (deltaCRL ? 1 : -1));
+    			crlSession.storeCRL(admin, tmpcrlBytes, cafp, nextCrlNumber, crlIssuerDN, thisUpdate, nextUpdate, (deltaCRL ? 1 : -1));
     			String msg = intres.getLocalizedMessage("createcrl.createdcrl", Integer.valueOf(nextCrlNumber), ca.getName(), ca.getSubjectDN());
     			Map<String, Object> details = new LinkedHashMap<String, Object>();
     			details.put("msg", msg);
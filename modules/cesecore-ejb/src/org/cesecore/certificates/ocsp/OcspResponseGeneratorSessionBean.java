@@ -41,13 +41,14 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -87,11 +88,14 @@ import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
 import org.bouncycastle.cert.ocsp.CertificateID;
 import org.bouncycastle.cert.ocsp.OCSPException;
 import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
 import org.bouncycastle.cert.ocsp.Req;
 import org.bouncycastle.cert.ocsp.RevokedStatus;
 import org.bouncycastle.cert.ocsp.UnknownStatus;
+import org.bouncycastle.cert.ocsp.jcajce.JcaCertificateID;
+import org.bouncycastle.operator.DigestCalculator;
 import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.operator.bc.BcDigestCalculatorProvider;
 import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
@@ -118,17 +122,24 @@ import org.cesecore.certificates.certificate.HashID;
 import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
 import org.cesecore.certificates.certificatetransparency.CertificateTransparency;
 import org.cesecore.certificates.certificatetransparency.CertificateTransparencyFactory;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.ocsp.cache.CertificateStatusIndex;
 import org.cesecore.certificates.ocsp.cache.OcspConfigurationCache;
 import org.cesecore.certificates.ocsp.cache.OcspExtensionsCache;
+import org.cesecore.certificates.ocsp.cache.OcspHttpResponseCache;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCache;
 import org.cesecore.certificates.ocsp.cache.OcspSigningCache;
 import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
+import org.cesecore.certificates.ocsp.cache.OcspStatusIndexCache;
 import org.cesecore.certificates.ocsp.exception.CryptoProviderException;
 import org.cesecore.certificates.ocsp.exception.MalformedRequestException;
 import org.cesecore.certificates.ocsp.exception.OcspFailureException;
 import org.cesecore.certificates.ocsp.extension.OCSPExtension;
 import org.cesecore.certificates.ocsp.keys.CardKeys;
 import org.cesecore.certificates.ocsp.logging.AuditLogger;
+import org.cesecore.certificates.ocsp.logging.GuidHolder;
 import org.cesecore.certificates.ocsp.logging.PatternLogger;
+import org.cesecore.certificates.ocsp.logging.TransactionCounter;
 import org.cesecore.certificates.ocsp.logging.TransactionLogger;
 import org.cesecore.certificates.util.AlgorithmTools;
 import org.cesecore.config.ConfigurationHolder;
@@ -175,6 +186,10 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     private static final int MAX_REQUEST_SIZE = 100000;
     /** Timer identifiers */
     private static final int TIMERID_OCSPSIGNINGCACHE = 1;
+    private static final int TIMERID_OCSPSTATUSINDEX = 2;
+    private static final int TIMERID_OCSPRESPONSECACHE = 3;
+    /** Certificates updated this long before the start of the previous status index update are read again, in case they were committed late */
+    private static final long STATUS_INDEX_UPDATE_OVERLAP = 60000L;
 
     private static final String hardTokenClassName = OcspConfiguration.getHardTokenClassName();
 
@@ -182,8 +197,6 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
 
     private static final InternalResources intres = InternalResources.getInstance();
     
-    private static volatile ExecutorService service = Executors.newCachedThreadPool();
-    
     @Resource
     private SessionContext sessionContext;
     /* When the sessionContext is injected, the timerService should be looked up.
@@ -226,6 +239,13 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         } else {
             log.info("Not initing OCSP reload timers, there are already some.");
         }
+        if (OcspConfiguration.isStatusIndexEnabled() && getTimerCount(TIMERID_OCSPSTATUSINDEX)==0) {
+            // Load the status index as soon as the signing cache has been loaded
+            addTimer(1000L, TIMERID_OCSPSTATUSINDEX);
+        }
+        if (OcspConfiguration.isResponseCacheEnabled() && getTimerCount(TIMERID_OCSPRESPONSECACHE)==0) {
+            addTimer(OcspConfiguration.getResponseCacheRefreshInterval(), TIMERID_OCSPRESPONSECACHE);
+        }
     }
     
     @Override
@@ -390,6 +410,19 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                     }
                 }
                 OcspSigningCache.INSTANCE.stagingCommit(ocspConfiguration.getOcspDefaultResponderReference());
+                // Cached responses may have been produced with a responder configuration that has changed
+                OcspResponseCache.INSTANCE.clear();
+                OcspHttpResponseCache.INSTANCE.clear();
+                // Stop the signing threads of crypto tokens that are no longer used
+                OcspSigningExecutors.INSTANCE.configure(OcspConfiguration.getSigningThreads(), OcspConfiguration.getSigningQueueSize());
+                final Set<String> signatureProviderNames = new HashSet<String>();
+                for (final OcspSigningCacheEntry ocspSigningCacheEntry : OcspSigningCache.INSTANCE.getEntries()) {
+                    signatureProviderNames.add(String.valueOf(ocspSigningCacheEntry.getSignatureProviderName()));
+                }
+                OcspSigningExecutors.INSTANCE.retainAll(signatureProviderNames);
+                if (log.isInfoEnabled()) {
+                    log.info("OCSP signing statistics: " + OcspSigningExecutors.INSTANCE.getStatistics());
+                }
             } finally {
                 OcspSigningCache.INSTANCE.stagingRelease();
             }
@@ -876,13 +909,176 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         if (log.isTraceEnabled()) {
             log.trace(">timeoutHandler: " + timer.getInfo().toString());
         }
-        // reloadTokenAndChainCache cancels old timers and adds a new timer
-        reloadOcspSigningCache();
+        final int timerId = ((Integer) timer.getInfo()).intValue();
+        if (timerId == TIMERID_OCSPSTATUSINDEX) {
+            updateStatusIndex();
+        } else if (timerId == TIMERID_OCSPRESPONSECACHE) {
+            refreshResponseCache();
+        } else {
+            // reloadTokenAndChainCache cancels old timers and adds a new timer
+            reloadOcspSigningCache();
+        }
         if (log.isTraceEnabled()) {
             log.trace("<timeoutHandler");
         }
     }
 
+    /**
+     * Loads or updates the in-memory status index of each CA that the responder answers for, and schedules the next update.
+     * The index of a CA is fully reloaded when the reload interval has passed or the filter of issued serial numbers is full,
+     * otherwise the certificates that have changed since the previous update are read.
+     */
+    private void updateStatusIndex() {
+        cancelTimers(TIMERID_OCSPSTATUSINDEX);
+        if (!OcspConfiguration.isStatusIndexEnabled()) {
+            OcspStatusIndexCache.INSTANCE.clear();
+            return;
+        }
+        final long updateInterval = OcspConfiguration.getStatusIndexUpdateInterval();
+        try {
+            final boolean filter = OcspConfiguration.isStatusIndexFilterEnabled();
+            final long reloadInterval = OcspConfiguration.getStatusIndexReloadInterval();
+            OcspStatusIndexCache.INSTANCE.setMaxAge(3*updateInterval);
+            OcspStatusIndexCache.INSTANCE.setAnswerGood(!OcspConfiguration.isProfileSpecificGoodValidityConfigured());
+            final Set<String> issuerDns = new HashSet<String>();
+            for (final OcspSigningCacheEntry ocspSigningCacheEntry : OcspSigningCache.INSTANCE.getEntries()) {
+                if (ocspSigningCacheEntry.getIssuerCaCertificate() != null) {
+                    issuerDns.add(CertTools.getSubjectDN(ocspSigningCacheEntry.getIssuerCaCertificate()));
+                }
+            }
+            OcspStatusIndexCache.INSTANCE.retainAll(issuerDns);
+            for (final String issuerDn : issuerDns) {
+                final long startTime = System.currentTimeMillis();
+                try {
+                    final CertificateStatusIndex index = OcspStatusIndexCache.INSTANCE.getIndex(issuerDn);
+                    if (index == null || index.hasFilter() != filter || index.isFilterSaturated()
+                            || startTime - OcspStatusIndexCache.INSTANCE.getLoadTime(issuerDn) > reloadInterval) {
+                        final CertificateStatusIndex newIndex = certificateStoreSession.loadStatusIndex(issuerDn, filter,
+                                OcspConfiguration.getStatusIndexFilterFalsePositiveRate());
+                        OcspStatusIndexCache.INSTANCE.put(issuerDn, newIndex, startTime, startTime);
+                        log.info("Loaded OCSP status index for '" + issuerDn + "' in " + (System.currentTimeMillis() - startTime) + " ms: " + newIndex);
+                    } else {
+                        final long updateTime = OcspStatusIndexCache.INSTANCE.getUpdateTime(issuerDn) - STATUS_INDEX_UPDATE_OVERLAP;
+                        final int count = certificateStoreSession.updateStatusIndex(issuerDn, index, updateTime);
+                        OcspStatusIndexCache.INSTANCE.put(issuerDn, index, OcspStatusIndexCache.INSTANCE.getLoadTime(issuerDn), startTime);
+                        if (log.isDebugEnabled()) {
+                            log.debug("Updated OCSP status index for '" + issuerDn + "' with " + count + " certificates in "
+                                    + (System.currentTimeMillis() - startTime) + " ms: " + index);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // The index is not used when it has not been updated for a while, so the database will be used until the next successful update
+                    log.warn("Failed to update OCSP status index for '" + issuerDn + "': " + e.getMessage());
+                    if (log.isDebugEnabled()) {
+                        log.debug("Failed to update OCSP status index.", e);
+                    }
+                }
+            }
+        } finally {
+            addTimer(updateInterval, TIMERID_OCSPSTATUSINDEX);
+        }
+    }
+
+    /**
+     * Signs new responses for cached responses that have passed half of their validity, and optionally for all revoked certificates
+     * of the CAs that the responder answers for, and schedules the next refresh.
+     */
+    private void refreshResponseCache() {
+        cancelTimers(TIMERID_OCSPRESPONSECACHE);
+        if (!OcspConfiguration.isResponseCacheEnabled()) {
+            OcspResponseCache.INSTANCE.clear();
+            return;
+        }
+        try {
+            OcspResponseCache.INSTANCE.setMaxSize(OcspConfiguration.getResponseCacheMaxSize());
+            final long startTime = System.currentTimeMillis();
+            int refreshed = 0;
+            for (final OcspResponseCache.Entry entry : OcspResponseCache.INSTANCE.getEntriesToRefresh(startTime)) {
+                // The new response is added to the cache when it is produced
+                OcspResponseCache.INSTANCE.remove(entry);
+                if (refreshResponse(entry.getRequest(), entry.getRequestUrl())) {
+                    refreshed++;
+                }
+            }
+            int presigned = 0;
+            if (OcspConfiguration.isResponseCachePresignRevoked()) {
+                for (final OcspSigningCacheEntry ocspSigningCacheEntry : OcspSigningCache.INSTANCE.getEntries()) {
+                    final X509Certificate caCertificate = ocspSigningCacheEntry.getIssuerCaCertificate();
+                    if (caCertificate == null || ocspSigningCacheEntry.isPlaceholder()
+                            || !OcspResponseCache.INSTANCE.startPreProducing(CertTools.getSubjectDN(caCertificate))) {
+                        continue;
+                    }
+                    presigned += presignRevoked(caCertificate);
+                }
+            }
+            if (log.isInfoEnabled()) {
+                log.info("OCSP response cache refreshed " + refreshed + " and pre-produced " + presigned + " responses in "
+                        + (System.currentTimeMillis() - startTime) + " ms: " + OcspResponseCache.INSTANCE.getStatistics());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to refresh OCSP response cache: " + e.getMessage());
+            if (log.isDebugEnabled()) {
+                log.debug("Failed to refresh OCSP response cache.", e);
+            }
+        } finally {
+            addTimer(OcspConfiguration.getResponseCacheRefreshInterval(), TIMERID_OCSPRESPONSECACHE);
+        }
+    }
+
+    /**
+     * Produces responses to SHA-1 CertID requests for the revoked certificates of a CA, until the response cache is full.
+     * @return the number of produced responses
+     */
+    private int presignRevoked(final X509Certificate caCertificate) {
+        final DigestCalculator digestCalculator;
+        try {
+            digestCalculator = new BcDigestCalculatorProvider().get(new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1));
+        } catch (OperatorCreationException e) {
+            throw new IllegalStateException("SHA-1 digest calculator is not available.", e);
+        }
+        int ret = 0;
+        for (final RevokedCertInfo revokedCertInfo : certificateStoreSession.listRevokedCertInfo(CertTools.getSubjectDN(caCertificate), -1)) {
+            if (OcspResponseCache.INSTANCE.isFull()) {
+                break;
+            }
+            if (!revokedCertInfo.isRevoked()) {
+                continue;
+            }
+            try {
+                final CertificateID certId = new JcaCertificateID(digestCalculator, caCertificate, revokedCertInfo.getUserCertificate());
+                if (refreshResponse(new OCSPReqBuilder().addRequest(certId).build().getEncoded(), null)) {
+                    ret++;
+                }
+            } catch (OCSPException e) {
+                log.warn("Failed to create OCSP request for pre-produced response: " + e.getMessage());
+            } catch (CertificateEncodingException e) {
+                log.warn("Failed to create OCSP request for pre-produced response: " + e.getMessage());
+            } catch (IOException e) {
+                log.warn("Failed to create OCSP request for pre-produced response: " + e.getMessage());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Produces a new response to a request, which adds the response to the response cache.
+     * @return true if a response was produced
+     */
+    private boolean refreshResponse(final byte[] request, final String requestUrl) {
+        final int localTransactionId = TransactionCounter.INSTANCE.getTransactionNumber();
+        final TransactionLogger transactionLogger = new TransactionLogger(localTransactionId, GuidHolder.INSTANCE.getGlobalUid(), "");
+        final AuditLogger auditLogger = new AuditLogger("", localTransactionId, GuidHolder.INSTANCE.getGlobalUid(), "");
+        try {
+            getOcspResponse(request, null, "", "", requestUrl == null ? null : new StringBuffer(requestUrl), auditLogger, transactionLogger);
+            return true;
+        } catch (MalformedRequestException e) {
+            log.warn("Failed to refresh cached OCSP response: " + e.getMessage());
+        } catch (OCSPException e) {
+            log.warn("Failed to refresh cached OCSP response: " + e.getMessage());
+        }
+        return false;
+    }
+
     /**
      * This method cancels all timers associated with this bean.
      */
@@ -970,7 +1166,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         }
         if (auditLogger.isEnabled()) {
             auditLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
-            auditLogger.paramPut(AuditLogger.OCSPREQUEST, new String(Hex.encode(request)));
+            auditLogger.paramPut(AuditLogger.OCSPREQUEST, request);
         }
         OCSPReq req;
         long maxAge = OcspConfiguration.getMaxAge(CertificateProfileConstants.CERTPROFILE_NO_PROFILE);
@@ -1006,6 +1202,13 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             Map<ASN1ObjectIdentifier, Extension> responseExtensions = getStandardResponseExtensions(req);
             // Look for extension OIDs
             final Collection<String> extensionOids = OcspConfiguration.getExtensionOids();
+            // When only the status is needed, read the status of all certificates of the same issuer in one query instead of one per certificate
+            final Map<String, Map<BigInteger, CertificateStatus>> statusesByIssuer;
+            if (extensionOids.isEmpty() && ocspRequests.length > 1) {
+                statusesByIssuer = getStatusesByIssuer(ocspRequests);
+            } else {
+                statusesByIssuer = null;
+            }
             // Look over the status requests
             List<OCSPResponseItem> responseList = new ArrayList<OCSPResponseItem>();
             boolean addExtendedRevokedExtension = false;
@@ -1116,7 +1319,17 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                      */
                     final CertificateStatus status;
                     if (extensionOids.isEmpty()) {
-                        status = certificateStoreSession.getStatus(caCertificateSubjectDn, certId.getSerialNumber());
+                        // Use the in-memory status index if it is enabled and has been loaded for the CA
+                        final CertificateStatus indexedStatus = OcspStatusIndexCache.INSTANCE.getStatus(caCertificateSubjectDn, certId.getSerialNumber());
+                        final Map<BigInteger, CertificateStatus> issuerStatuses = statusesByIssuer == null ? null : statusesByIssuer.get(caCertificateSubjectDn);
+                        final CertificateStatus batchedStatus = issuerStatuses == null ? null : issuerStatuses.get(certId.getSerialNumber());
+                        if (indexedStatus != null) {
+                            status = indexedStatus;
+                        } else if (batchedStatus != null) {
+                            status = batchedStatus;
+                        } else {
+                            status = certificateStoreSession.getStatus(caCertificateSubjectDn, certId.getSerialNumber());
+                        }
                     } else {
                         certificateStatusHolder = certificateStoreSession.getCertificateAndStatus(caCertificateSubjectDn, certId.getSerialNumber());
                         status = certificateStatusHolder.getCertificateStatus();
@@ -1274,9 +1487,27 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             if (ocspSigningCacheEntry != null) {
                 // Add responseExtensions
                 Extensions exts = new Extensions(responseExtensions.values().toArray(new Extension[0]));
-                // generate the signed response object
-                BasicOCSPResp basicresp = signOcspResponse(req, responseList, exts, ocspSigningCacheEntry, producedAt);
-                ocspResponse = responseGenerator.build(OCSPRespBuilder.SUCCESSFUL, basicresp);
+                // A response to a request for a single certificate without nonce or other extensions is the same for all clients, until nextUpdate
+                final OCSPResponseItem respItem = responseList.size() == 1 ? responseList.get(0) : null;
+                final boolean cacheable = respItem != null && OcspConfiguration.isResponseCacheEnabled() && !req.hasExtensions() && !req.isSigned()
+                        && responseExtensions.isEmpty() && respItem.getExtensions() == null && respItem.getNextUpdate() != null
+                        && !(respItem.getCertStatus() instanceof UnknownStatus) && ocspSigningCacheEntry.getSigningCertificate() != null;
+                if (cacheable) {
+                    // The status has been looked up for this request, so the cached response is only used if the status is still the same
+                    ocspResponse = OcspResponseCache.INSTANCE.get(respItem.getCertID(), respItem.getCertStatus(),
+                            ocspSigningCacheEntry.getSigningCertificate());
+                }
+                if (ocspResponse == null) {
+                    // generate the signed response object
+                    BasicOCSPResp basicresp = signOcspResponse(req, responseList, exts, ocspSigningCacheEntry, producedAt);
+                    ocspResponse = responseGenerator.build(OCSPRespBuilder.SUCCESSFUL, basicresp);
+                    OcspResponseCache.INSTANCE.countSignature();
+                    if (cacheable) {
+                        OcspResponseCache.INSTANCE.put(new OcspResponseCache.Entry(respItem.getCertID(), ocspResponse, request,
+                                requestUrl == null ? null : requestUrl.toString(), ocspSigningCacheEntry.getSigningCertificate(),
+                                respItem.getCertStatus(), respItem.getThisUpdate().getTime(), respItem.getNextUpdate().getTime()));
+                    }
+                }
                 if (auditLogger.isEnabled()) {
                     auditLogger.paramPut(AuditLogger.STATUS, OCSPRespBuilder.SUCCESSFUL);
                 }
@@ -1356,11 +1587,29 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             ocspResponse = processDefaultError(responseGenerator, transactionLogger, auditLogger, e);
         } catch (CryptoTokenOfflineException e) {
             ocspResponse = processDefaultError(responseGenerator, transactionLogger, auditLogger, e);
+        } catch (RejectedExecutionException e) {
+            if (transactionLogger.isEnabled()) {
+                transactionLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
+            }
+            if (auditLogger.isEnabled()) {
+                auditLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
+            }
+            // All signing threads of the crypto token are busy and the queue is full
+            log.info(intres.getLocalizedMessage("ocsp.errorprocessreq", "Signing queue is full."));
+            // RFC 2560: responseBytes are not set on error.
+            ocspResponse = responseGenerator.build(OCSPRespBuilder.TRY_LATER, null);
+            if (transactionLogger.isEnabled()) {
+                transactionLogger.paramPut(TransactionLogger.STATUS, OCSPRespBuilder.TRY_LATER);
+                transactionLogger.writeln();
+            }
+            if (auditLogger.isEnabled()) {
+                auditLogger.paramPut(AuditLogger.STATUS, OCSPRespBuilder.TRY_LATER);
+            }
         }
         try {
             respBytes = ocspResponse.getEncoded();
             if (auditLogger.isEnabled()) {
-                auditLogger.paramPut(AuditLogger.OCSPRESPONSE, new String(Hex.encode(respBytes)));
+                auditLogger.paramPut(AuditLogger.OCSPRESPONSE, respBytes);
                 auditLogger.writeln();
                 auditLogger.flush();
             }
@@ -1445,6 +1694,44 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         return result;
     }
 
+    /**
+     * Reads the status of the requested certificates with one query per issuer, for the issuers that are in the OCSP signing cache and have
+     * more than one certificate in the request. Certificates that are in the in-memory status index, and issuers that are revoked, are left
+     * for the lookup of each request.
+     *
+     * @return the status of each of the read serial numbers by the subject DN of the issuer
+     */
+    private Map<String, Map<BigInteger, CertificateStatus>> getStatusesByIssuer(final Req[] ocspRequests) {
+        final Map<String, List<BigInteger>> serialNumbersByIssuer = new HashMap<String, List<BigInteger>>();
+        for (final Req ocspRequest : ocspRequests) {
+            final CertificateID certId = ocspRequest.getCertID();
+            final OcspSigningCacheEntry ocspSigningCacheEntry = OcspSigningCache.INSTANCE.getEntry(certId);
+            if (ocspSigningCacheEntry == null || ocspSigningCacheEntry.getIssuerCaCertificateStatus().equals(CertificateStatus.REVOKED)) {
+                continue;
+            }
+            final String caCertificateSubjectDn = CertTools.getSubjectDN(ocspSigningCacheEntry.getIssuerCaCertificate());
+            if (OcspStatusIndexCache.INSTANCE.getStatus(caCertificateSubjectDn, certId.getSerialNumber()) != null) {
+                continue;
+            }
+            List<BigInteger> serialNumbers = serialNumbersByIssuer.get(caCertificateSubjectDn);
+            if (serialNumbers == null) {
+                serialNumbers = new ArrayList<BigInteger>();
+                serialNumbersByIssuer.put(caCertificateSubjectDn, serialNumbers);
+            }
+            serialNumbers.add(certId.getSerialNumber());
+        }
+        final Map<String, Map<BigInteger, CertificateStatus>> ret = new HashMap<String, Map<BigInteger, CertificateStatus>>();
+        for (final Map.Entry<String, List<BigInteger>> entry : serialNumbersByIssuer.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                ret.put(entry.getKey(), certificateStoreSession.getStatuses(entry.getKey(), entry.getValue()));
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Read the status of the certificates of " + ret.size() + " issuers with one query per issuer.");
+        }
+        return ret;
+    }
+
     /**
      * This method handles cache misses where there exists an active key binding which hasn't been cached.
      * 
@@ -1453,6 +1740,9 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
      */
     private OcspSigningCacheEntry findAndAddMissingCacheEntry(CertificateID certId) throws CertificateEncodingException {
         OcspSigningCacheEntry ocspSigningCacheEntry = null;
+        // If we know the issuer of the requested certificate, only key bindings with certificates from that issuer can match
+        final X509Certificate requestedIssuer = CaCertificateCache.INSTANCE.findLatestByCertificateID(certId);
+        final String requestedIssuerDn = requestedIssuer == null ? null : CertTools.getSubjectDN(requestedIssuer);
         for (final int internalKeyBindingId : internalKeyBindingDataSession.getIds(OcspKeyBinding.IMPLEMENTATION_ALIAS)) {
             final OcspKeyBinding ocspKeyBinding = (OcspKeyBinding) internalKeyBindingDataSession.getInternalKeyBinding(internalKeyBindingId);
             if (ocspKeyBinding.getStatus().equals(InternalKeyBindingStatus.ACTIVE)) {
@@ -1463,6 +1753,10 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                     if (log.isDebugEnabled()) {
                         log.debug("Could not find certificate for OCSP Key Binding '"+ocspKeyBinding.getName()+"'. Certificate fingerprint: "+ocspKeyBinding.getCertificateId());
                     }
+                } else if (requestedIssuerDn != null && !requestedIssuerDn.equals(CertTools.getIssuerDN(ocspCertificate))) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("OCSP Key Binding '" + ocspKeyBinding.getName() + "' is not for the requested issuer '" + requestedIssuerDn + "'.");
+                    }
                 } else {
                     X509Certificate issuingCertificate = certificateStoreSession.findLatestX509CertificateBySubject(CertTools
                             .getIssuerDN(ocspCertificate));
@@ -1545,14 +1839,16 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             log.debug("The response certificate chain contains " + chain.length + " certificates");
         }
         /*
-         * The below code breaks the EJB standard by creating its own thread pool and creating a single thread (of the HsmResponseThread 
+         * The below code breaks the EJB standard by creating its own thread pools and running the signature in a thread (of the HsmResponseThread 
          * type). The reason for this is that the HSM may deadlock when requesting an OCSP response, which we need to guard against. Since 
-         * there is no way of performing this action within the EJB3.0 standard, we are consciously creating threads here. 
+         * there is no way of performing this action within the EJB3.0 standard, we are consciously creating threads here. The thread pool of
+         * each crypto token is bounded, so a hung HSM results in tryLater responses instead of an unbounded number of waiting threads.
          * 
          * Note that this does in no way break the spirit of the EJB standard, which is to not interrupt EJB's transaction handling by 
          * competing with its own thread pool, since these operations have no database impact.
          */
-        final Future<BasicOCSPResp> task = service.submit(new HsmResponseThread(basicRes, sigAlg, signerKey, chain, provider, producedAt));
+        final Future<BasicOCSPResp> task = OcspSigningExecutors.INSTANCE.submit(provider,
+                new HsmResponseThread(basicRes, sigAlg, signerKey, chain, provider, producedAt));
         try {
             returnval = task.get(HsmResponseThread.HSM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
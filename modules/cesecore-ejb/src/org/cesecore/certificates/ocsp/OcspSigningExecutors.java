@@ -0,0 +1,200 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+
+/**
+ * Bounded thread pools for signing OCSP responses, one for each signature provider. The provider of a PKCS#11 crypto token is specific to
+ * the token, so signatures with keys of different HSM slots do not wait for each other. The number of threads is the number of signatures
+ * that can run in parallel on a token, each using its own session from the session pool of the provider.
+ *
+ * When all threads of a provider are busy and the queue is full, the signature is rejected with a {@link RejectedExecutionException}, so the
+ * request can be answered with tryLater instead of piling up threads behind a slow or hung HSM.
+ *
+ * @version $Id$
+ */
+public enum OcspSigningExecutors {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(OcspSigningExecutors.class);
+
+    /** Upper bounds in milliseconds of the buckets of the signing latency histogram. The last bucket has no upper bound. */
+    private static final long[] LATENCY_BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 5000 };
+
+    /** Signing threads, queue and statistics of a signature provider. */
+    private static class SigningExecutor {
+        private final ThreadPoolExecutor executor;
+        private final AtomicLong signatures = new AtomicLong();
+        private final AtomicLong rejections = new AtomicLong();
+        private final AtomicLong totalQueueWaitMillis = new AtomicLong();
+        private final AtomicLong maxQueueWaitMillis = new AtomicLong();
+        private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+
+        private SigningExecutor(final String provider, final int threads, final int queueSize) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "OCSP signer " + provider + " " + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        private void recordQueueWait(final long queueWaitMillis) {
+            totalQueueWaitMillis.addAndGet(queueWaitMillis);
+            long max = maxQueueWaitMillis.get();
+            while (queueWaitMillis > max && !maxQueueWaitMillis.compareAndSet(max, queueWaitMillis)) {
+                max = maxQueueWaitMillis.get();
+            }
+        }
+
+        private void recordLatency(final long latencyMillis) {
+            signatures.incrementAndGet();
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS.length && latencyMillis >= LATENCY_BUCKETS[bucket]) {
+                bucket++;
+            }
+            latencyHistogram.incrementAndGet(bucket);
+        }
+    }
+
+    private final Map<String, SigningExecutor> executors = new ConcurrentHashMap<String, SigningExecutor>();
+    private volatile int threads = Runtime.getRuntime().availableProcessors();
+    private volatile int queueSize = 100;
+
+    /**
+     * Runs a signature in the thread pool of the signature provider.
+     *
+     * @param provider the name of the signature provider of the key
+     * @param signer the signature
+     * @return the result of the signature, available when the signature is done
+     * @throws RejectedExecutionException if all threads of the provider are busy and the queue is full
+     */
+    public Future<BasicOCSPResp> submit(final String provider, final Callable<BasicOCSPResp> signer) {
+        final SigningExecutor signingExecutor = getExecutor(provider);
+        final long submitTime = System.currentTimeMillis();
+        try {
+            return signingExecutor.executor.submit(new Callable<BasicOCSPResp>() {
+                @Override
+                public BasicOCSPResp call() throws Exception {
+                    final long startTime = System.currentTimeMillis();
+                    signingExecutor.recordQueueWait(startTime - submitTime);
+                    try {
+                        return signer.call();
+                    } finally {
+                        signingExecutor.recordLatency(System.currentTimeMillis() - startTime);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            signingExecutor.rejections.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private SigningExecutor getExecutor(final String provider) {
+        final String key = String.valueOf(provider);
+        SigningExecutor signingExecutor = executors.get(key);
+        if (signingExecutor == null) {
+            synchronized (executors) {
+                signingExecutor = executors.get(key);
+                if (signingExecutor == null) {
+                    signingExecutor = new SigningExecutor(key, threads, queueSize);
+                    executors.put(key, signingExecutor);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Created OCSP signing executor for provider " + key + " with " + threads + " threads and a queue of " + queueSize + ".");
+                    }
+                }
+            }
+        }
+        return signingExecutor;
+    }
+
+    /**
+     * Sets the size of the thread pools. Thread pools that were created with another size are replaced when their queued signatures are done.
+     *
+     * @param threads the number of signatures that can run in parallel for each provider
+     * @param queueSize the number of signatures that can wait for a thread for each provider
+     */
+    public void configure(final int threads, final int queueSize) {
+        if (this.threads != threads || this.queueSize != queueSize) {
+            this.threads = threads;
+            this.queueSize = queueSize;
+            retainAll(null);
+        }
+    }
+
+    /**
+     * Shuts down the thread pools of providers that are no longer used. Signatures that are running or queued are completed.
+     *
+     * @param providers the names of the providers in use, or null to shut down all thread pools
+     */
+    public void retainAll(final Collection<String> providers) {
+        synchronized (executors) {
+            final Iterator<Map.Entry<String, SigningExecutor>> iterator = executors.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<String, SigningExecutor> entry = iterator.next();
+                if (providers == null || !providers.contains(entry.getKey())) {
+                    entry.getValue().executor.shutdown();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return for each provider, the number of signatures, rejections, queued signatures, average and max queue wait in milliseconds, and
+     * the number of signatures in each latency bucket, where for example "latency.<5ms" is the number of signatures that took from 2 to 5 ms.
+     */
+    public Map<String, Map<String, String>> getStatistics() {
+        final Map<String, Map<String, String>> ret = new LinkedHashMap<String, Map<String, String>>();
+        for (final Map.Entry<String, SigningExecutor> entry : executors.entrySet()) {
+            final SigningExecutor signingExecutor = entry.getValue();
+            final long signatures = signingExecutor.signatures.get();
+            final Map<String, String> statistics = new LinkedHashMap<String, String>();
+            statistics.put("signatures", String.valueOf(signatures));
+            statistics.put("rejections", String.valueOf(signingExecutor.rejections.get()));
+            statistics.put("queued", String.valueOf(signingExecutor.executor.getQueue().size()));
+            statistics.put("queuewait.avg", String.valueOf(signatures == 0 ? 0 : signingExecutor.totalQueueWaitMillis.get() / signatures));
+            statistics.put("queuewait.max", String.valueOf(signingExecutor.maxQueueWaitMillis.get()));
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                statistics.put("latency.<" + LATENCY_BUCKETS[i] + "ms", String.valueOf(signingExecutor.latencyHistogram.get(i)));
+            }
+            statistics.put("latency.>=" + LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1] + "ms",
+                    String.valueOf(signingExecutor.latencyHistogram.get(LATENCY_BUCKETS.length)));
+            ret.put(entry.getKey(), statistics);
+        }
+        return ret;
+    }
+}
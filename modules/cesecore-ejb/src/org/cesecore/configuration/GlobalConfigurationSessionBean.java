@@ -43,6 +43,9 @@ import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.authorization.control.AccessControlSessionLocal;
 import org.cesecore.authorization.control.StandardRules;
 import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.internal.CacheInvalidationBus;
+import org.cesecore.internal.CacheInvalidationListener;
+import org.cesecore.internal.CacheInvalidationSessionLocal;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.internal.UpgradeableDataHashMap;
 import org.cesecore.jndi.JndiConstants;
@@ -68,6 +71,8 @@ public class GlobalConfigurationSessionBean implements GlobalConfigurationSessio
     private SecurityEventsLoggerSessionLocal auditSession;
     @EJB
     private AccessControlSessionLocal accessSession;
+    @EJB
+    private CacheInvalidationSessionLocal cacheInvalidationSession;
 
     // Myself needs to be looked up in postConstruct
     @Resource
@@ -155,6 +160,7 @@ public class GlobalConfigurationSessionBean implements GlobalConfigurationSessio
                 final Map<Object, Object> orgmap = (Map<Object, Object>) GlobalConfigurationCacheHolder.INSTANCE.getConfiguration(gcdata.getData(), configID).saveData();
                 gcdata.setConfiguration(conf);
                 GlobalConfigurationCacheHolder.INSTANCE.updateConfiguration(conf, configID);
+                cacheInvalidationSession.publish(GlobalConfigurationCacheHolder.CACHE_NAME, configID);
                 @SuppressWarnings("unchecked")
                 final Map<Object, Object> newmap = (Map<Object, Object>) conf.saveData();
                 // Get the diff of what changed
@@ -202,6 +208,7 @@ public class GlobalConfigurationSessionBean implements GlobalConfigurationSessio
         GlobalConfigurationData gcd = new GlobalConfigurationData(configID, conf);
         entityManager.persist(gcd);
         GlobalConfigurationCacheHolder.INSTANCE.updateConfiguration(conf, configID);
+        cacheInvalidationSession.publish(GlobalConfigurationCacheHolder.CACHE_NAME, configID);
     }
 
     @Override
@@ -227,6 +234,9 @@ public class GlobalConfigurationSessionBean implements GlobalConfigurationSessio
     
     private static enum GlobalConfigurationCacheHolder {
         INSTANCE;
+
+        /** The name of the cache in {@link CacheInvalidationBus} */
+        private static final String CACHE_NAME = "GlobalConfigurationCache";
         
         private final Map<String, ConfigurationCache> caches = new ConcurrentHashMap<String, ConfigurationCache>();
         
@@ -241,6 +251,17 @@ public class GlobalConfigurationSessionBean implements GlobalConfigurationSessio
                     caches.put(cache.getConfigId(), cache);
                 }
             }
+            // Clear configurations that were changed on other nodes
+            CacheInvalidationBus.INSTANCE.register(CACHE_NAME, new CacheInvalidationListener() {
+                @Override
+                public void invalidate(final String configId) {
+                    for (final Map.Entry<String, ConfigurationCache> entry : caches.entrySet()) {
+                        if (configId == null || configId.equals(entry.getKey())) {
+                            entry.getValue().clearCache();
+                        }
+                    }
+                }
+            });
         }
         
         /** @return all registered configuration IDs. */
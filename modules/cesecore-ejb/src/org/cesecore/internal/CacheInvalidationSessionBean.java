@@ -0,0 +1,236 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.ca.internal.CaCache;
+import org.cesecore.certificates.ocsp.OcspResponseGeneratorSessionLocal;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCache;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.jndi.JndiConstants;
+import org.cesecore.keybind.InternalKeyBindingCache;
+import org.cesecore.keys.token.CryptoTokenCache;
+
+/**
+ * Propagates cache invalidations between the nodes of a cluster through the CacheInvalidationData table. Every
+ * cacheinvalidation.pollinterval milliseconds, each node stores the invalidations of its committed changes and reads the
+ * invalidations published by the other nodes.
+ * 
+ * @version $Id$
+ */
+@Stateless(mappedName = JndiConstants.APP_JNDI_PREFIX + "CacheInvalidationSessionLocal")
+@TransactionAttribute(TransactionAttributeType.REQUIRED)
+public class CacheInvalidationSessionBean implements CacheInvalidationSessionLocal {
+
+    private static final Logger log = Logger.getLogger(CacheInvalidationSessionBean.class);
+
+    /** Timer identifier */
+    private static final int TIMERID_CACHEINVALIDATION = 1;
+
+    /** The last time old invalidations were removed by this node */
+    private static volatile long lastRemoveTime = 0;
+
+    @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
+    private EntityManager entityManager;
+    @Resource
+    private SessionContext sessionContext;
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+    /* When the sessionContext is injected, the timerService should be looked up.
+     * This is due to the Glassfish EJB verifier complaining. 
+     */
+    private TimerService timerService;
+
+    @EJB
+    private OcspResponseGeneratorSessionLocal ocspResponseGeneratorSession;
+
+    private CacheInvalidationSessionLocal cacheInvalidationSession;
+
+    @PostConstruct
+    public void postConstruct() {
+        timerService = sessionContext.getTimerService();
+        // It is not possible to @EJB-inject our self on all application servers so we need to do a lookup
+        cacheInvalidationSession = sessionContext.getBusinessObject(CacheInvalidationSessionLocal.class);
+    }
+
+    @Override
+    public void publish(final String cacheName, final String key) {
+        if (CesecoreConfiguration.isCacheInvalidationEnabled()) {
+            // Only a committed change is published, and it is stored in another transaction that can fail without rolling back the change
+            transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(final int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        CacheInvalidationBus.INSTANCE.addPending(cacheName, key);
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void storeInvalidations(final List<CacheInvalidation> cacheInvalidations) {
+        final CacheInvalidationLog invalidationLog = new DatabaseCacheInvalidationLog(entityManager);
+        for (final CacheInvalidation cacheInvalidation : cacheInvalidations) {
+            invalidationLog.append(cacheInvalidation);
+            if (log.isDebugEnabled()) {
+                log.debug("Published " + cacheInvalidation);
+            }
+        }
+        // Report a duplicate id here instead of when the container commits
+        entityManager.flush();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void initTimers() {
+        cancelTimers();
+        if (CesecoreConfiguration.isCacheInvalidationEnabled()) {
+            log.info("Reading cache invalidations from other nodes every " + CesecoreConfiguration.getCacheInvalidationPollInterval()
+                    + " ms. Node id of this node: " + CacheInvalidationBus.INSTANCE.getNodeId());
+            addTimer(CesecoreConfiguration.getCacheInvalidationPollInterval());
+        }
+    }
+
+    @Override
+    public void removeOldInvalidations() {
+        final long removeBeforeId = CacheInvalidationBus.getFirstIdAt(System.currentTimeMillis() - CesecoreConfiguration.getCacheInvalidationRetention());
+        new DatabaseCacheInvalidationLog(entityManager).removeBefore(removeBeforeId);
+    }
+
+    /**
+     * Reads the invalidations published by other nodes and passes them to the listeners of the caches.
+     * 
+     * According to JSR 220 FR (18.2.2), this method may not throw any exceptions.
+     * 
+     * @param timer The timer whose expiration caused this notification.
+     */
+    @Timeout
+    /* We cannot mix timer updates with our EJBCA DataSource transactions. */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void timeoutHandler(final Timer timer) {
+        if (log.isTraceEnabled()) {
+            log.trace(">timeoutHandler: " + timer.getInfo().toString());
+        }
+        final List<CacheInvalidation> pending = CacheInvalidationBus.INSTANCE.takePending();
+        if (!pending.isEmpty()) {
+            try {
+                cacheInvalidationSession.storeInvalidations(pending);
+            } catch (RuntimeException e) {
+                // Probably an id that another node created in the same millisecond, so try again with new ids
+                log.info("Failed to store " + pending.size() + " cache invalidations, will try again: " + e.getMessage());
+                CacheInvalidationBus.INSTANCE.returnPending(pending);
+            }
+        }
+        try {
+            final Set<String> cacheNames = CacheInvalidationBus.INSTANCE.process(new DatabaseCacheInvalidationLog(entityManager),
+                    CesecoreConfiguration.getCacheInvalidationWindow());
+            // The OCSP signing cache is built from CAs, crypto tokens and key bindings, so it is reloaded instead of publishing its own invalidations
+            if ((cacheNames.contains(CaCache.CACHE_NAME) || cacheNames.contains(CryptoTokenCache.CACHE_NAME) || cacheNames
+                    .contains(InternalKeyBindingCache.CACHE_NAME)) && !OcspSigningCache.INSTANCE.getEntries().isEmpty()) {
+                ocspResponseGeneratorSession.reloadOcspSigningCache();
+            }
+            final long now = System.currentTimeMillis();
+            if (now - lastRemoveTime > CesecoreConfiguration.getCacheInvalidationRetention() / 10) {
+                lastRemoveTime = now;
+                cacheInvalidationSession.removeOldInvalidations();
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to read cache invalidations: " + e.getMessage(), e);
+        } finally {
+            if (CesecoreConfiguration.isCacheInvalidationEnabled()) {
+                addTimer(CesecoreConfiguration.getCacheInvalidationPollInterval());
+            }
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("<timeoutHandler");
+        }
+    }
+
+    // We don't want the appserver to persist/update the timer in the same transaction if they are stored in different non XA DataSources. This method
+    // should not be run from within a transaction.
+    private void cancelTimers() {
+        @SuppressWarnings("unchecked")
+        final Collection<Timer> timers = timerService.getTimers();
+        for (final Timer timer : timers) {
+            if (((Integer) timer.getInfo()).intValue() == TIMERID_CACHEINVALIDATION) {
+                timer.cancel();
+            }
+        }
+    }
+
+    // We don't want the appserver to persist/update the timer in the same transaction if they are stored in different non XA DataSources. This method
+    // should not be run from within a transaction.
+    private void addTimer(final long interval) {
+        if (interval > 0) {
+            timerService.createTimer(interval, Integer.valueOf(TIMERID_CACHEINVALIDATION));
+        }
+    }
+
+    /** The cluster-wide log of invalidations, stored in the database of the current transaction. */
+    private static class DatabaseCacheInvalidationLog implements CacheInvalidationLog {
+        private final EntityManager entityManager;
+
+        private DatabaseCacheInvalidationLog(final EntityManager entityManager) {
+            this.entityManager = entityManager;
+        }
+
+        @Override
+        public void append(final CacheInvalidation cacheInvalidation) {
+            entityManager.persist(new CacheInvalidationData(cacheInvalidation));
+        }
+
+        @Override
+        public List<CacheInvalidation> readFrom(final long fromId) {
+            final List<CacheInvalidation> ret = new ArrayList<CacheInvalidation>();
+            for (final CacheInvalidationData data : CacheInvalidationData.findFromId(entityManager, fromId)) {
+                ret.add(data.getCacheInvalidation());
+            }
+            return ret;
+        }
+
+        @Override
+        public void removeBefore(final long id) {
+            final int removed = CacheInvalidationData.removeBeforeId(entityManager, id);
+            if (log.isDebugEnabled()) {
+                log.debug("Removed " + removed + " old cache invalidations.");
+            }
+        }
+    }
+}
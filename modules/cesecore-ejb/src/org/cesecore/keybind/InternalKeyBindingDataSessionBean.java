@@ -20,6 +20,7 @@ import java.util.Random;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
@@ -30,6 +31,7 @@ import javax.persistence.Query;
 
 import org.apache.log4j.Logger;
 import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.internal.CacheInvalidationSessionLocal;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.util.QueryResultWrapper;
 
@@ -48,6 +50,9 @@ public class InternalKeyBindingDataSessionBean implements InternalKeyBindingData
     @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
     private EntityManager entityManager;
 
+    @EJB
+    private CacheInvalidationSessionLocal cacheInvalidationSession;
+
     // Myself needs to be looked up in postConstruct
     @Resource
     private SessionContext sessionContext;
@@ -192,6 +197,7 @@ public class InternalKeyBindingDataSessionBean implements InternalKeyBindingData
         internalKeyBindingData = createOrUpdateData(internalKeyBindingData);
         // Update cache with provided token (it might be active and we like keeping things active)
         InternalKeyBindingCache.INSTANCE.updateWith(internalKeyBindingId, internalKeyBindingData.getProtectString(0).hashCode(), name, internalKeyBinding);
+        cacheInvalidationSession.publish(InternalKeyBindingCache.CACHE_NAME, String.valueOf(internalKeyBindingId));
         if (log.isDebugEnabled()) {
             log.debug("<mergeInternalKeyBinding " + internalKeyBinding.getName());
         }
@@ -202,6 +208,7 @@ public class InternalKeyBindingDataSessionBean implements InternalKeyBindingData
     public boolean removeInternalKeyBinding(final int id) {
         final boolean ret = deleteData(id);
         InternalKeyBindingCache.INSTANCE.updateWith(id, 0, null, null);
+        cacheInvalidationSession.publish(InternalKeyBindingCache.CACHE_NAME, String.valueOf(id));
         return ret;
     }
     
@@ -16,6 +16,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.internal.CacheInvalidationBus;
 import org.cesecore.internal.CommonCache;
 import org.cesecore.internal.CommonCacheBase;
 
@@ -27,6 +28,9 @@ import org.cesecore.internal.CommonCacheBase;
 public enum CryptoTokenCache implements CommonCache<CryptoToken> {
     INSTANCE;
 
+    /** The name of the cache in {@link CacheInvalidationBus} */
+    public static final String CACHE_NAME = "CryptoTokenCache";
+
     final private CommonCache<CryptoToken> cryptoTokenCache = new CommonCacheBase<CryptoToken>() {
         @Override
         protected long getCacheTime() {
@@ -41,6 +45,11 @@ public enum CryptoTokenCache implements CommonCache<CryptoToken> {
         };
     };
 
+    private CryptoTokenCache() {
+        // Remove entries that were changed on other nodes
+        CacheInvalidationBus.INSTANCE.register(CACHE_NAME, CacheInvalidationBus.getListener(this));
+    }
+
     @Override
     public CryptoToken getEntry(final int cryptoTokenId) {
         return cryptoTokenCache.getEntry(cryptoTokenId);
@@ -51,6 +60,11 @@ public enum CryptoTokenCache implements CommonCache<CryptoToken> {
         return cryptoTokenCache.shouldCheckForUpdates(cryptoTokenId);
     }
     
+    @Override
+    public boolean isCurrent(final int cryptoTokenId, final int digest) {
+        return cryptoTokenCache.isCurrent(cryptoTokenId, digest);
+    }
+
     @Override
     public void updateWith(int cryptoTokenId, int digest, String name, CryptoToken object) {
         cryptoTokenCache.updateWith(cryptoTokenId, digest, name, object);
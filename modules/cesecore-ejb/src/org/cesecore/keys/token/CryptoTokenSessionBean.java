@@ -17,6 +17,7 @@ import java.util.Map;
 import java.util.Properties;
 
 import javax.annotation.PostConstruct;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
@@ -26,6 +27,7 @@ import javax.persistence.Query;
 
 import org.apache.log4j.Logger;
 import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.internal.CacheInvalidationSessionLocal;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.keys.token.p11.exception.NoSuchSlotException;
@@ -47,6 +49,9 @@ public class CryptoTokenSessionBean implements CryptoTokenSessionLocal, CryptoTo
     @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
     private EntityManager entityManager;
 
+    @EJB
+    private CacheInvalidationSessionLocal cacheInvalidationSession;
+
     @PostConstruct
     public void postConstruct() {
         CryptoProviderTools.installBCProviderIfNotAvailable();
@@ -78,7 +83,15 @@ public class CryptoTokenSessionBean implements CryptoTokenSessionLocal, CryptoTo
             if (log.isDebugEnabled()) {
                 log.debug("CryptoToken with ID " + cryptoTokenId + " will be checked for updates.");
             }
-            // 2. If cache is expired or missing, first thread to discover this reloads item from database and sends it to the cache
+            // 2. If cache is expired or missing, first thread to discover this checks the last update time of the item in the database
+            final Long lastUpdate = readCryptoTokenLastUpdate(cryptoTokenId);
+            if (lastUpdate != null && CryptoTokenCache.INSTANCE.isCurrent(cryptoTokenId, getDigest(lastUpdate.longValue()))) {
+                if (log.isDebugEnabled()) {
+                    log.debug("CryptoToken with ID " + cryptoTokenId + " has not been updated since it was cached.");
+                }
+                return CryptoTokenCache.INSTANCE.getEntry(cryptoTokenId);
+            }
+            // 2b. If the item has changed or is missing, reload item from database and send it to the cache
             final CryptoTokenData cryptoTokenData = readCryptoTokenData(cryptoTokenId);
             if (cryptoTokenData==null) {
                 if (log.isDebugEnabled()) {
@@ -87,7 +100,7 @@ public class CryptoTokenSessionBean implements CryptoTokenSessionLocal, CryptoTo
                 // Ensure that it is removed from cache
                 CryptoTokenCache.INSTANCE.removeEntry(cryptoTokenId);
             } else {
-                final int digest = cryptoTokenData.getProtectString(0).hashCode();
+                final int digest = getDigest(cryptoTokenData.getLastUpdate());
                 final String tokenType = cryptoTokenData.getTokenType();
                 final Properties properties = cryptoTokenData.getTokenProperties();
                 final byte[] data = cryptoTokenData.getTokenDataAsBytes();
@@ -161,7 +174,8 @@ public class CryptoTokenSessionBean implements CryptoTokenSessionLocal, CryptoTo
         }
         cryptoTokenData = createOrUpdateCryptoTokenData(cryptoTokenData);
         // Update cache with provided token (it might be active and we like keeping things active)
-        CryptoTokenCache.INSTANCE.updateWith(cryptoTokenId, cryptoTokenData.getProtectString(0).hashCode(), tokenName, cryptoToken);
+        CryptoTokenCache.INSTANCE.updateWith(cryptoTokenId, getDigest(cryptoTokenData.getLastUpdate()), tokenName, cryptoToken);
+        cacheInvalidationSession.publish(CryptoTokenCache.CACHE_NAME, String.valueOf(cryptoTokenId));
         if (log.isTraceEnabled()) {
             log.trace("<addCryptoToken " + cryptoToken.getTokenName());
         }
@@ -172,6 +186,7 @@ public class CryptoTokenSessionBean implements CryptoTokenSessionLocal, CryptoTo
     public boolean removeCryptoToken(final int cryptoTokenId) {
         final boolean ret = deleteCryptoTokenData(cryptoTokenId);
         CryptoTokenCache.INSTANCE.updateWith(cryptoTokenId, 0, null, null);
+        cacheInvalidationSession.publish(CryptoTokenCache.CACHE_NAME, String.valueOf(cryptoTokenId));
         return ret;
     }
     
@@ -201,6 +216,14 @@ public class CryptoTokenSessionBean implements CryptoTokenSessionLocal, CryptoTo
         return true;
     }
 
+    /**
+     * All changes to a crypto token are written through {@link #mergeCryptoToken(CryptoToken)}, which sets a new last update time,
+     * so the last update time is used as the cache digest.
+     */
+    private int getDigest(final long lastUpdate) {
+        return Long.valueOf(lastUpdate).hashCode();
+    }
+
     //
     // Create Read Update Delete (CRUD) methods
     //
@@ -211,6 +234,13 @@ public class CryptoTokenSessionBean implements CryptoTokenSessionLocal, CryptoTo
         return QueryResultWrapper.getSingleResult(query);
     }
 
+    /** @return the last update time of the crypto token, without reading the token data, or null if the token does not exist */
+    private Long readCryptoTokenLastUpdate(final int cryptoTokenId) {
+        final Query query = entityManager.createQuery("SELECT a.lastUpdate FROM CryptoTokenData a WHERE a.id=:id");
+        query.setParameter("id", cryptoTokenId);
+        return QueryResultWrapper.getSingleResult(query);
+    }
+
     private CryptoTokenData createOrUpdateCryptoTokenData(final CryptoTokenData data) {
         return entityManager.merge(data);
     }
@@ -314,6 +314,15 @@ public class AuditRecordData extends ProtectedData implements Serializable, Audi
 		super.verifyData();
 	}
 
+	/**
+	 * Verifies the integrity protection of a row that was read without loading it as an entity, e.g. by a worker thread
+	 * during audit log verification.
+	 * @throws org.cesecore.dbprotection.DatabaseProtectionException if the verification fails
+	 */
+	public void verifyProtection() {
+		verifyData();
+	}
+
 	@Override 
     @Transient
 	protected String getRowId() {
@@ -13,7 +13,6 @@
 package org.cesecore.certificates.ca;
 
 import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
 import java.security.cert.Certificate;
 import java.util.Date;
 import java.util.LinkedHashMap;
@@ -35,6 +34,7 @@ import org.cesecore.dbprotection.ProtectionStringBuilder;
 import org.cesecore.util.Base64GetHashMap;
 import org.cesecore.util.Base64PutHashMap;
 import org.cesecore.util.CertTools;
+import org.cesecore.util.DataMapSerializer;
 import org.cesecore.util.QueryResultWrapper;
 
 /**
@@ -151,7 +151,7 @@ public class CAData extends ProtectedData implements Serializable {
     @Transient
     public final void setCA(final CA ca) {
         setDataMap((LinkedHashMap<Object, Object>) ca.saveData());
-        setUpdateTime(System.currentTimeMillis());
+        increaseUpdateTime();
         // We have to update status as well, because it is kept in it's own database column, but only do that if it was actually provided in the request
         if (ca.getStatus() > 0) {
             setStatus(ca.getStatus());        	
@@ -167,41 +167,37 @@ public class CAData extends ProtectedData implements Serializable {
 
 	@Transient
 	public LinkedHashMap<Object, Object> getDataMap() {
-        try {
-            java.beans.XMLDecoder decoder = new  java.beans.XMLDecoder(new java.io.ByteArrayInputStream(getData().getBytes("UTF8")));
-            final Map<?, ?> h = (Map<?, ?>)decoder.readObject();
-            decoder.close();
-            // Handle Base64 encoded string values
-            @SuppressWarnings("unchecked")
-            final LinkedHashMap<Object, Object> dataMap = new Base64GetHashMap(h);
-            return dataMap;
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);  // No UTF8 would be real trouble
-        }
+        final Map<?, ?> h = (Map<?, ?>) DataMapSerializer.decode(getData());
+        // Handle Base64 encoded string values
+        @SuppressWarnings("unchecked")
+        final LinkedHashMap<Object, Object> dataMap = new Base64GetHashMap(h);
+        return dataMap;
 	}
 
     @Transient
     @SuppressWarnings({"rawtypes", "unchecked"})
 	public void setDataMap(final LinkedHashMap<Object, Object> dataMap) {
-        try {
-            // We must base64 encode string for UTF safety
-            final LinkedHashMap<?, ?> a = new Base64PutHashMap();
-            a.putAll((LinkedHashMap)dataMap);
-            final java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-            final java.beans.XMLEncoder encoder = new java.beans.XMLEncoder(baos);
-            encoder.writeObject(a);
-            encoder.close();
-            final String data = baos.toString("UTF8");
-            if (log.isDebugEnabled()) {
-                log.debug("Saving CA data with length: "+data.length()+" for CA.");
-            }
-            setData(data);
-            setUpdateTime(System.currentTimeMillis());
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
+        // We must base64 encode string for UTF safety
+        final LinkedHashMap<?, ?> a = new Base64PutHashMap();
+        a.putAll((LinkedHashMap)dataMap);
+        final String data = DataMapSerializer.encode(a);
+        if (log.isDebugEnabled()) {
+            log.debug("Saving CA data with length: "+data.length()+" for CA.");
         }
+        setData(data);
+        increaseUpdateTime();
 	}
 
+    /**
+     * Sets the update time to now, or to one millisecond after the current update time if that is later. The CA cache uses the update
+     * time as the version of the CA, so it must increase with every change, also for changes in the same millisecond or from a node with
+     * a clock that is behind.
+     */
+    @Transient
+    public void increaseUpdateTime() {
+        setUpdateTime(Math.max(System.currentTimeMillis(), getUpdateTime() + 1));
+    }
+
 	//
 	// Search functions. 
 	//
@@ -246,6 +242,16 @@ public class CAData extends ProtectedData implements Serializable {
 		return ret;
 	}
 
+	/**
+	 * Reads only the update time column, so that a cached CA can be checked for changes without reading and decoding the CA data.
+	 * @return the update time of the CA or null if the entity does not exist
+	 */
+	public static Long findUpdateTimeById(final EntityManager entityManager, final Integer cAId) {
+		final Query query = entityManager.createQuery("SELECT a.updateTime FROM CAData a WHERE a.caId=:caId");
+		query.setParameter("caId", cAId);
+		return (Long) QueryResultWrapper.getSingleResult(query);
+	}
+
 	/** @return return the query results as a List<CAData>. */
 	@SuppressWarnings("unchecked")
     public static List<CAData> findAll(final EntityManager entityManager) {
@@ -18,11 +18,14 @@ import java.security.PublicKey;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.persistence.ColumnResult;
@@ -39,13 +42,13 @@ import javax.persistence.Transient;
 
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCollection;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.dbprotection.ProtectedData;
 import org.cesecore.dbprotection.ProtectionStringBuilder;
 import org.cesecore.keys.util.KeyTools;
 import org.cesecore.util.Base64;
 import org.cesecore.util.CertTools;
-import org.cesecore.util.CompressedCollection;
 import org.cesecore.util.QueryResultWrapper;
 import org.cesecore.util.StringTools;
 import org.cesecore.util.ValueExtractor;
@@ -70,7 +73,9 @@ import org.cesecore.util.ValueExtractor;
                 @ColumnResult(name = "expireDate"), @ColumnResult(name = "revocationDate"), @ColumnResult(name = "revocationReason"),
                 @ColumnResult(name = "username"), @ColumnResult(name = "tag"), @ColumnResult(name = "certificateProfileId"),
                 @ColumnResult(name = "updateTime"), @ColumnResult(name = "subjectKeyId") }),
-        @SqlResultSetMapping(name = "FingerprintUsernameSubset", columns = { @ColumnResult(name = "fingerprint"), @ColumnResult(name = "username") }) })
+        @SqlResultSetMapping(name = "FingerprintUsernameSubset", columns = { @ColumnResult(name = "fingerprint"), @ColumnResult(name = "username") }),
+        @SqlResultSetMapping(name = "CertificateStatusSubset", columns = { @ColumnResult(name = "status"), @ColumnResult(name = "revocationDate"),
+                @ColumnResult(name = "revocationReason"), @ColumnResult(name = "certificateProfileId") }) })
 public class CertificateData extends ProtectedData implements Serializable {
 
     private static final long serialVersionUID = -8493105317760641442L;
@@ -734,6 +739,17 @@ public class CertificateData extends ProtectedData implements Serializable {
         return entityManager.find(CertificateData.class, fingerprint);
     }
 
+    /** @return the found entity instances, in no particular order. Fingerprints that do not exist are ignored. */
+    @SuppressWarnings("unchecked")
+    public static List<CertificateData> findByFingerprints(EntityManager entityManager, Collection<String> fingerprints) {
+        if (fingerprints.isEmpty()) {
+            return new LinkedList<CertificateData>();
+        }
+        final Query query = entityManager.createQuery("SELECT a FROM CertificateData a WHERE a.fingerprint IN (:fingerprints)");
+        query.setParameter("fingerprints", fingerprints);
+        return query.getResultList();
+    }
+
     /** @return return the query results as a Set. */
     @SuppressWarnings("unchecked")
     public static Set<String> findUsernamesBySubjectDNAndIssuerDN(EntityManager entityManager, String subjectDN, String issuerDN) {
@@ -768,6 +784,76 @@ public class CertificateData extends ProtectedData implements Serializable {
         return query.getResultList();
     }
 
+    /**
+     * Reads only the columns needed for the revocation status of a certificate, so the certificate itself is not transferred from the database.
+     * At most two rows are returned, which is enough to detect duplicate issuerDN and serialNumber.
+     * 
+     * The row protection of the columns can only be verified when the whole entity is loaded, so when database integrity verification is
+     * enabled for CertificateData the entities are read instead.
+     *
+     * @return a list of {status, revocationDate, revocationReason, certificateProfileId}
+     */
+    public static List<Object[]> findStatusByIssuerDNSerialNumber(EntityManager entityManager, String issuerDN, String serialNumber) {
+        if (CesecoreConfiguration.useDatabaseIntegrityVerification(CertificateData.class.getSimpleName())) {
+            final List<Object[]> ret = new ArrayList<Object[]>();
+            for (final CertificateData certificateData : findByIssuerDNSerialNumber(entityManager, issuerDN, serialNumber)) {
+                ret.add(new Object[] { Integer.valueOf(certificateData.getStatus()), Long.valueOf(certificateData.getRevocationDate()),
+                        Integer.valueOf(certificateData.getRevocationReason()), certificateData.getCertificateProfileId() });
+                if (ret.size() == 2) {
+                    break;
+                }
+            }
+            return ret;
+        }
+        final Query query = entityManager.createNativeQuery(
+                "SELECT a.status, a.revocationDate, a.revocationReason, a.certificateProfileId FROM CertificateData a"
+                        + " WHERE a.issuerDN=:issuerDN AND a.serialNumber=:serialNumber", "CertificateStatusSubset");
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("serialNumber", serialNumber);
+        query.setMaxResults(2);
+        @SuppressWarnings("unchecked")
+        final List<Object[]> resultList = (List<Object[]>) query.getResultList();
+        return resultList;
+    }
+
+    /**
+     * Reads the revocation status of several certificates of an issuer in one query, see {@link #findStatusByIssuerDNSerialNumber}. The caller
+     * should limit the number of serial numbers, since databases limit the length of the IN list.
+     * 
+     * As for a single certificate, the entities are read instead when database integrity verification is enabled for CertificateData.
+     *
+     * @param serialNumbers the serial numbers, as used in the serialNumber column
+     * @return a list of {serialNumber, status, revocationDate, revocationReason, certificateProfileId, fingerprint}, in no particular order
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Object[]> findStatusByIssuerDNSerialNumbers(EntityManager entityManager, String issuerDN, Collection<BigInteger> serialNumbers) {
+        if (serialNumbers.isEmpty()) {
+            return new LinkedList<Object[]>();
+        }
+        final List<String> sernos = new ArrayList<String>(serialNumbers.size());
+        for (final BigInteger serno : serialNumbers) {
+            sernos.add(serno.toString());
+        }
+        if (CesecoreConfiguration.useDatabaseIntegrityVerification(CertificateData.class.getSimpleName())) {
+            final Query query = entityManager.createQuery("SELECT a FROM CertificateData a WHERE a.issuerDN=:issuerDN AND a.serialNumber IN (:serialNumbers)");
+            query.setParameter("issuerDN", issuerDN);
+            query.setParameter("serialNumbers", sernos);
+            final List<Object[]> ret = new ArrayList<Object[]>();
+            for (final CertificateData certificateData : (List<CertificateData>) query.getResultList()) {
+                ret.add(new Object[] { certificateData.getSerialNumber(), Integer.valueOf(certificateData.getStatus()),
+                        Long.valueOf(certificateData.getRevocationDate()), Integer.valueOf(certificateData.getRevocationReason()),
+                        certificateData.getCertificateProfileId(), certificateData.getFingerprint() });
+            }
+            return ret;
+        }
+        final Query query = entityManager.createNativeQuery(
+                "SELECT a.serialNumber, a.status, a.revocationDate, a.revocationReason, a.certificateProfileId, a.fingerprint FROM CertificateData a"
+                        + " WHERE a.issuerDN=:issuerDN AND a.serialNumber IN (:serialNumbers)");
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("serialNumbers", sernos);
+        return query.getResultList();
+    }
+
     /** @return return the query results as a List. */
     public static CertificateInfo findFirstCertificateInfo(EntityManager entityManager, String issuerDN, String serialNumber) {
         CertificateInfo ret = null;
@@ -930,33 +1016,157 @@ public class CertificateData extends ProtectedData implements Serializable {
         return query.getResultList();
     }
 
-    /** @return return the query results as a Collection<RevokedCertInfo>. */
+    /**
+     * Reads the revoked certificates of an issuer in batches of database.crlgenfetchsize rows.
+     * 
+     * The batches are read using keyset (seek) pagination on the primary key (fingerprint) instead of an
+     * OFFSET, so each batch continues the index range scan where the previous batch ended instead of
+     * skipping over all previously read rows. This keeps the total cost linear in the number of revoked
+     * certificates.
+     * 
+     * @return return the query results as a Collection<RevokedCertInfo>.
+     */
     public static Collection<RevokedCertInfo> getRevokedCertInfos(EntityManager entityManager, String issuerDN, long lastbasecrldate) {
-        Query query;
+        final Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("issuerDN", issuerDN);
         if (lastbasecrldate > 0) {
-            query = entityManager.createNativeQuery(
-                    "SELECT a.fingerprint, a.serialNumber, a.expireDate, a.revocationDate, a.revocationReason FROM CertificateData a WHERE "
-                            + "a.issuerDN=:issuerDN AND a.revocationDate>:revocationDate AND (a.status=:status1 OR (a.status=:status2 AND a.revocationReason=:revocationReason))",
-                    "RevokedCertInfoSubset");
-            query.setParameter("issuerDN", issuerDN);
-            query.setParameter("revocationDate", lastbasecrldate);
-            query.setParameter("status1", CertificateConstants.CERT_REVOKED);
-            query.setParameter("status2", CertificateConstants.CERT_ACTIVE);
-            query.setParameter("revocationReason", RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL);
+            parameters.put("revocationDate", lastbasecrldate);
+            parameters.put("status1", CertificateConstants.CERT_REVOKED);
+            parameters.put("status2", CertificateConstants.CERT_ACTIVE);
+            parameters.put("revocationReason", RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL);
+            return getRevokedCertInfos(entityManager, "a.issuerDN=:issuerDN AND a.revocationDate>:revocationDate"
+                    + " AND (a.status=:status1 OR (a.status=:status2 AND a.revocationReason=:revocationReason))", parameters);
         } else {
-            query = entityManager.createNativeQuery(
-                    "SELECT a.fingerprint, a.serialNumber, a.expireDate, a.revocationDate, a.revocationReason FROM CertificateData a WHERE "
-                            + "a.issuerDN=:issuerDN AND a.status=:status",
-                    "RevokedCertInfoSubset");
-            query.setParameter("issuerDN", issuerDN);
-            query.setParameter("status", CertificateConstants.CERT_REVOKED);
+            parameters.put("status", CertificateConstants.CERT_REVOKED);
+            return getRevokedCertInfos(entityManager, "a.issuerDN=:issuerDN AND a.status=:status", parameters);
+        }
+    }
+
+    /**
+     * Reads the certificates of an issuer that have been revoked, or have had their revocation reason changed, after the given time.
+     * Used for incremental CRL generation, where only the changes since the last CRL are merged into the previous set of entries.
+     * 
+     * @param updateTime only rows with an updateTime at or after this time are returned
+     * @return return the query results as a Collection<RevokedCertInfo>.
+     */
+    public static Collection<RevokedCertInfo> getRevokedCertInfosUpdatedAfter(EntityManager entityManager, String issuerDN, long updateTime) {
+        final Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("issuerDN", issuerDN);
+        parameters.put("status", CertificateConstants.CERT_REVOKED);
+        parameters.put("updateTime", updateTime);
+        return getRevokedCertInfos(entityManager, "a.issuerDN=:issuerDN AND a.status=:status AND a.updateTime>=:updateTime", parameters);
+    }
+
+    /**
+     * Reads the certificates of an issuer that have been taken off hold (and should be removed from the CRL) after the given time.
+     * 
+     * @param updateTime only rows with an updateTime at or after this time are returned
+     * @return return the query results as a Collection<RevokedCertInfo>.
+     */
+    public static Collection<RevokedCertInfo> getUnrevokedCertInfosUpdatedAfter(EntityManager entityManager, String issuerDN, long updateTime) {
+        final Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("issuerDN", issuerDN);
+        parameters.put("status", CertificateConstants.CERT_ACTIVE);
+        parameters.put("revocationReason", RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL);
+        parameters.put("updateTime", updateTime);
+        return getRevokedCertInfos(entityManager, "a.issuerDN=:issuerDN AND a.status=:status AND a.revocationReason=:revocationReason"
+                + " AND a.updateTime>=:updateTime", parameters);
+    }
+
+    /**
+     * Counts the rows with COUNT(*) in a native query, since JPQL COUNT(a) counts the primary key column, which makes the database read
+     * each row. COUNT(*) with conditions on issuerDN and status only can be answered from the index certificatedata_idx6.
+     * 
+     * @return the number of revoked certificates of an issuer, i.e. the number of entries a full CRL should have
+     */
+    public static long getRevokedCount(EntityManager entityManager, String issuerDN) {
+        final Query countQuery = entityManager.createNativeQuery("SELECT COUNT(*) FROM CertificateData a WHERE a.issuerDN=:issuerDN AND a.status=:status");
+        countQuery.setParameter("issuerDN", issuerDN);
+        countQuery.setParameter("status", CertificateConstants.CERT_REVOKED);
+        return ValueExtractor.extractLongValue(countQuery.getSingleResult()); // Always returns a result
+    }
+
+    /**
+     * Counts the rows with COUNT(*) in a native query, like {@link #getRevokedCount(EntityManager, String)}. The condition on issuerDN
+     * only can be answered from the index certificatedata_idx6, since issuerDN is its first column.
+     * 
+     * @return the number of certificates of an issuer
+     */
+    public static long getIssuedCount(EntityManager entityManager, String issuerDN) {
+        final Query countQuery = entityManager.createNativeQuery("SELECT COUNT(*) FROM CertificateData a WHERE a.issuerDN=:issuerDN");
+        countQuery.setParameter("issuerDN", issuerDN);
+        return ValueExtractor.extractLongValue(countQuery.getSingleResult()); // Always returns a result
+    }
+
+    /**
+     * Reads the status of certificates of an issuer, for the in-memory status index of the OCSP responder. The rows are read in order of
+     * fingerprint, starting after lastFingerprint, so all rows can be read in batches using keyset pagination. The first batch is read
+     * without a condition on the fingerprint, since an empty string is NULL on Oracle and no row is greater than NULL.
+     *
+     * @param revokedOnly true if only certificates that are revoked, or have been archived after revocation, should be returned
+     * @param updateTime only rows with an updateTime at or after this time are returned
+     * @param lastFingerprint the fingerprint of the last row of the previous batch, or null for the first batch
+     * @return a list of {fingerprint, serialNumber, status, revocationDate, revocationReason, certificateProfileId}
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Object[]> getStatusBatch(EntityManager entityManager, String issuerDN, boolean revokedOnly, long updateTime,
+            String lastFingerprint, int maxResults) {
+        final StringBuilder sql = new StringBuilder(
+                "SELECT a.fingerprint, a.serialNumber, a.status, a.revocationDate, a.revocationReason, a.certificateProfileId FROM CertificateData a"
+                        + " WHERE a.issuerDN=:issuerDN");
+        if (lastFingerprint != null) {
+            sql.append(" AND a.fingerprint>:lastFingerprint");
+        }
+        if (revokedOnly) {
+            sql.append(" AND (a.status=:status1 OR (a.status=:status2 AND a.revocationReason<>:reason1 AND a.revocationReason<>:reason2))");
+        }
+        if (updateTime > 0) {
+            sql.append(" AND a.updateTime>=:updateTime");
+        }
+        sql.append(" ORDER BY a.fingerprint");
+        final Query query = entityManager.createNativeQuery(sql.toString());
+        query.setParameter("issuerDN", issuerDN);
+        if (lastFingerprint != null) {
+            query.setParameter("lastFingerprint", lastFingerprint);
+        }
+        if (revokedOnly) {
+            query.setParameter("status1", CertificateConstants.CERT_REVOKED);
+            query.setParameter("status2", CertificateConstants.CERT_ARCHIVED);
+            query.setParameter("reason1", RevokedCertInfo.NOT_REVOKED);
+            query.setParameter("reason2", RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL);
+        }
+        if (updateTime > 0) {
+            query.setParameter("updateTime", updateTime);
         }
-        final int maxResults = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize(); 
         query.setMaxResults(maxResults);
-        int firstResult = 0;
-        final CompressedCollection<RevokedCertInfo> revokedCertInfos = new CompressedCollection<RevokedCertInfo>();
+        return query.getResultList();
+    }
+
+    /**
+     * Runs a "RevokedCertInfoSubset" query ordered by fingerprint, in batches of database.crlgenfetchsize rows. The batches after the first
+     * one continue after the last fingerprint of the previous batch. The first batch has no condition on the fingerprint, since an empty
+     * string is NULL on Oracle and no row is greater than NULL.
+     *
+     * @param where the conditions of the query on CertificateData a
+     * @param parameters the values of the named parameters in the conditions
+     */
+    private static Collection<RevokedCertInfo> getRevokedCertInfos(final EntityManager entityManager, final String where,
+            final Map<String, Object> parameters) {
+        final int maxResults = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize(); 
+        String lastFingerprint = null;
+        final RevokedCertInfoCollection revokedCertInfos = new RevokedCertInfoCollection();
         while (true) {
-            query.setFirstResult(firstResult);
+            final Query query = entityManager.createNativeQuery(
+                    "SELECT a.fingerprint, a.serialNumber, a.expireDate, a.revocationDate, a.revocationReason FROM CertificateData a WHERE " + where
+                            + (lastFingerprint == null ? "" : " AND a.fingerprint>:lastFingerprint") + " ORDER BY a.fingerprint",
+                    "RevokedCertInfoSubset");
+            for (final Map.Entry<String, Object> parameter : parameters.entrySet()) {
+                query.setParameter(parameter.getKey(), parameter.getValue());
+            }
+            if (lastFingerprint != null) {
+                query.setParameter("lastFingerprint", lastFingerprint);
+            }
+            query.setMaxResults(maxResults);
             @SuppressWarnings("unchecked")
             final List<Object[]> incompleteCertificateDatas = query.getResultList();
             if (incompleteCertificateDatas.size()==0) {
@@ -972,11 +1182,14 @@ public class CertificateData extends ProtectedData implements Serializable {
                 final long expireDate = ValueExtractor.extractLongValue(current[2]);
                 final long revocationDate = ValueExtractor.extractLongValue(current[3]);
                 final int revocationReason = ValueExtractor.extractIntValue(current[4]);
-                revokedCertInfos.add(new RevokedCertInfo(fingerprint, serialNumber, revocationDate, revocationReason, expireDate));
+                revokedCertInfos.add(fingerprint, serialNumber, revocationDate, revocationReason, expireDate);
+            }
+            if (incompleteCertificateDatas.size() < maxResults) {
+                // This was the last batch, no need to ask the database for an empty one
+                break;
             }
-            firstResult += maxResults;
+            lastFingerprint = (String) incompleteCertificateDatas.get(incompleteCertificateDatas.size()-1)[0];
         }
-        revokedCertInfos.closeForWrite();
         return revokedCertInfos;
     }
     
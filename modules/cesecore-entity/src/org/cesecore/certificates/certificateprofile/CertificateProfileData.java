@@ -195,6 +195,18 @@ public class CertificateProfileData extends ProtectedData implements Serializabl
         return query.getResultList();
     }
 
+    /**
+     * Reads only the id, name and row version columns, so that cached profiles can be checked for changes without reading and
+     * deserializing the profile data.
+     * 
+     * @return return the query results as a List of Object[] with {id, certificateProfileName, rowVersion}.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Object[]> findAllIdNameAndRowVersion(final EntityManager entityManager) {
+        final Query query = entityManager.createQuery("SELECT a.id, a.certificateProfileName, a.rowVersion FROM CertificateProfileData a");
+        return query.getResultList();
+    }
+
     //
     // Start Database integrity protection methods
     //
@@ -0,0 +1,148 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.internal;
+
+import java.io.Serializable;
+import java.util.List;
+
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.PostLoad;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Query;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+import org.cesecore.dbprotection.ProtectedData;
+import org.cesecore.dbprotection.ProtectionStringBuilder;
+
+/**
+ * Database representation of a cache invalidation, see {@link CacheInvalidationBus}.
+ * 
+ * @version $Id$
+ */
+@Entity
+@Table(name = "CacheInvalidationData")
+public class CacheInvalidationData extends ProtectedData implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long id;            // Storage time and a counter, see CacheInvalidationBus
+    private String cacheName;   // The name that the listeners of the cache are registered with
+    private String cacheKey;    // The key of the changed entry or null for all entries
+    private int nodeId;         // The node that published the invalidation
+    private int rowVersion = 0;
+    private String rowProtection;
+
+    public CacheInvalidationData(final CacheInvalidation cacheInvalidation) {
+        setId(cacheInvalidation.getId());
+        setCacheName(cacheInvalidation.getCacheName());
+        setCacheKey(cacheInvalidation.getKey());
+        setNodeId(cacheInvalidation.getNodeId());
+    }
+
+    public CacheInvalidationData() {}
+
+    // @Id @Column
+    public long getId() { return id; }
+    public void setId(long id) { this.id = id; }
+
+    // @Column
+    public String getCacheName() { return cacheName; }
+    public void setCacheName(String cacheName) { this.cacheName = cacheName; }
+
+    // @Column
+    public String getCacheKey() { return cacheKey; }
+    public void setCacheKey(String cacheKey) { this.cacheKey = cacheKey; }
+
+    // @Column
+    public int getNodeId() { return nodeId; }
+    public void setNodeId(int nodeId) { this.nodeId = nodeId; }
+
+    // @Version @Column
+    public int getRowVersion() { return rowVersion; }
+    public void setRowVersion(int rowVersion) { this.rowVersion = rowVersion; }
+
+    // @Column @Lob
+    @Override
+    public String getRowProtection() { return rowProtection; }
+    @Override
+    public void setRowProtection(String rowProtection) { this.rowProtection = rowProtection; }
+
+    @Transient
+    public CacheInvalidation getCacheInvalidation() {
+        return new CacheInvalidation(getId(), getCacheName(), getCacheKey(), getNodeId());
+    }
+
+    //
+    // Search functions.
+    //
+
+    /** @return return the query results as a List, ordered by id. */
+    @SuppressWarnings("unchecked")
+    public static List<CacheInvalidationData> findFromId(final EntityManager entityManager, final long fromId) {
+        final Query query = entityManager.createQuery("SELECT a FROM CacheInvalidationData a WHERE a.id>=:fromId ORDER BY a.id");
+        query.setParameter("fromId", fromId);
+        return query.getResultList();
+    }
+
+    /** @return the number of removed rows */
+    public static int removeBeforeId(final EntityManager entityManager, final long id) {
+        final Query query = entityManager.createQuery("DELETE FROM CacheInvalidationData a WHERE a.id<:id");
+        query.setParameter("id", id);
+        return query.executeUpdate();
+    }
+
+    //
+    // Start Database integrity protection methods
+    //
+
+    @Transient
+    @Override
+    protected String getProtectString(final int version) {
+        final ProtectionStringBuilder build = new ProtectionStringBuilder();
+        // What is important to protect here is the data that we define
+        // rowVersion is automatically updated by JPA, so it's not important, it is only used for optimistic locking
+        build.append(getId()).append(getCacheName()).append(getCacheKey()).append(getNodeId());
+        return build.toString();
+    }
+
+    @Transient
+    @Override
+    protected int getProtectVersion() {
+        return 1;
+    }
+
+    @PrePersist
+    @PreUpdate
+    @Override
+    protected void protectData() {
+        super.protectData();
+    }
+
+    @PostLoad
+    @Override
+    protected void verifyData() {
+        super.verifyData();
+    }
+
+    @Override
+    @Transient
+    protected String getRowId() {
+        return String.valueOf(getId());
+    }
+    //
+    // End Database integrity protection methods
+    //
+}
@@ -54,6 +54,7 @@ public abstract class ClientToolBox {
         		new PKCS11HSMKeyTool(), 
         		new NCipherHSMKeyTool(), 
         		new Ocsp(), 
+        		new OcspLoadTest(), 
         		new EjbcaWsRaCli(), 
         		new CvcWsRaCli(), 
         		new CMPTest(),
@@ -0,0 +1,521 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.ui.cli;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.cert.ocsp.jcajce.JcaCertificateID;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.cesecore.certificates.ocsp.SHA1DigestCalculator;
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.Base64;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.ejbca.util.LatencyHistogram;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Open-loop load test of an OCSP responder. Requests are sent at a fixed rate regardless of how fast the responder answers, and the latency
+ * of each request is measured from the time it should have been sent, so a responder that stalls is not hidden by fewer requests being sent
+ * (coordinated omission). Latencies are recorded in histograms and the result is written as JSON, so that runs can be compared.
+ *
+ * @version $Id$
+ */
+public class OcspLoadTest extends ClientToolBox {
+
+    private static final String STUB = "stub";
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+    /** Serial numbers to request, optionally with a relative request frequency for each. */
+    private static class Serials {
+        private final List<BigInteger> serialNumbers;
+        /** Cumulative weights, or null if all serial numbers are requested equally often */
+        private final double[] cumulativeWeights;
+
+        private Serials(final List<BigInteger> serialNumbers, final List<Double> weights) {
+            this.serialNumbers = serialNumbers;
+            if (weights == null) {
+                this.cumulativeWeights = null;
+            } else {
+                this.cumulativeWeights = new double[weights.size()];
+                double total = 0;
+                for (int i = 0; i < cumulativeWeights.length; i++) {
+                    total += weights.get(i).doubleValue();
+                    cumulativeWeights[i] = total;
+                }
+            }
+        }
+
+        /**
+         * Reads a text file with one serial number on each line, decimal or hex with a '0x' prefix. An optional second column separated by
+         * comma or semicolon is the relative request frequency of the serial number. Lines starting with '#' are ignored.
+         */
+        private static Serials fromFile(final String fileName) throws IOException {
+            final List<BigInteger> serialNumbers = new ArrayList<BigInteger>();
+            final List<Double> weights = new ArrayList<Double>();
+            boolean weighted = false;
+            final BufferedReader reader = new BufferedReader(new FileReader(fileName));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.length() < 1 || line.startsWith("#")) {
+                        continue;
+                    }
+                    final String[] columns = line.split("[,;]");
+                    final String serial = columns[0].trim();
+                    try {
+                        serialNumbers.add(serial.startsWith("0x") ? new BigInteger(serial.substring(2), 16) : new BigInteger(serial));
+                    } catch (NumberFormatException e) {
+                        // A header line of a CSV file
+                        continue;
+                    }
+                    if (columns.length > 1) {
+                        weighted = true;
+                        weights.add(Double.valueOf(columns[1].trim()));
+                    } else {
+                        weights.add(Double.valueOf(1));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            return new Serials(serialNumbers, weighted ? weights : null);
+        }
+
+        /** Reads the serial numbers of all certificates issued by the CA from CertificateData. */
+        private static Serials fromDatabase(final String jdbcUrl, final String issuerDn) throws Exception {
+            final List<BigInteger> serialNumbers = new ArrayList<BigInteger>();
+            final Connection connection = DriverManager.getConnection(jdbcUrl, System.getProperty("ocspload.db.user"),
+                    System.getProperty("ocspload.db.password"));
+            try {
+                final PreparedStatement statement = connection.prepareStatement("SELECT serialNumber FROM CertificateData WHERE issuerDN=?");
+                statement.setString(1, issuerDn);
+                final ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    serialNumbers.add(new BigInteger(resultSet.getString(1)));
+                }
+                resultSet.close();
+                statement.close();
+            } finally {
+                connection.close();
+            }
+            return new Serials(serialNumbers, null);
+        }
+
+        private int size() {
+            return serialNumbers.size();
+        }
+
+        private BigInteger next(final Random random) {
+            if (cumulativeWeights == null) {
+                return serialNumbers.get(random.nextInt(serialNumbers.size()));
+            }
+            final double target = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+            int ix = Arrays.binarySearch(cumulativeWeights, target);
+            if (ix < 0) {
+                ix = -ix - 1;
+            }
+            return serialNumbers.get(Math.min(ix, serialNumbers.size() - 1));
+        }
+    }
+
+    /** In-process responder that answers every request with the same signed response after a fixed service time. */
+    private static class StubResponder implements HttpHandler {
+        private final HttpServer server;
+        private final byte[] response;
+        private final long serviceTimeMillis;
+
+        private StubResponder(final X509Certificate caCert, final KeyPair caKeys, final long serviceTimeMillis, final int threads) throws Exception {
+            this.serviceTimeMillis = serviceTimeMillis;
+            final BasicOCSPRespBuilder builder = new BasicOCSPRespBuilder(new RespID(SubjectPublicKeyInfo.getInstance(caKeys.getPublic().getEncoded()),
+                    SHA1DigestCalculator.buildSha1Instance()));
+            final Date now = new Date();
+            builder.addResponse(new JcaCertificateID(SHA1DigestCalculator.buildSha1Instance(), caCert, BigInteger.ONE), CertificateStatus.GOOD, now,
+                    new Date(now.getTime() + 3600000L), null);
+            final BasicOCSPResp basicResponse = builder.build(new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).build(caKeys.getPrivate()),
+                    new X509CertificateHolder[] { new X509CertificateHolder(caCert.getEncoded()) }, now);
+            this.response = new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, basicResponse).getEncoded();
+            // Without TCP_NODELAY the response headers and body wait for the delayed ACK of the client, which adds 40 ms to each request
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1000);
+            this.server.createContext("/ocsp", this);
+            this.server.setExecutor(Executors.newFixedThreadPool(threads));
+            this.server.start();
+        }
+
+        private String getUrl() {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + "/ocsp";
+        }
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            IOUtils.toByteArray(exchange.getRequestBody());
+            if (serviceTimeMillis > 0) {
+                try {
+                    Thread.sleep(serviceTimeMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/ocsp-response");
+            exchange.sendResponseHeaders(200, response.length);
+            final OutputStream os = exchange.getResponseBody();
+            os.write(response);
+            os.close();
+        }
+
+        private void stop() {
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdownNow();
+        }
+    }
+
+    /** The result counters and histograms of a run. */
+    private static class Result {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong good = new AtomicLong();
+        private final AtomicLong revoked = new AtomicLong();
+        private final AtomicLong unknown = new AtomicLong();
+        private final AtomicLong httpErrors = new AtomicLong();
+        private final AtomicLong ocspErrors = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+    }
+
+    /** A request that should be sent at a given time. */
+    private class Request implements Runnable {
+        private final long intendedStartNanos;
+        private final boolean measured;
+
+        private Request(final long intendedStartNanos, final boolean measured) {
+            this.intendedStartNanos = intendedStartNanos;
+            this.measured = measured;
+        }
+
+        @Override
+        public void run() {
+            final long startNanos = System.nanoTime();
+            try {
+                final BigInteger serialNumber;
+                synchronized (random) {
+                    serialNumber = serials.next(random);
+                }
+                final OCSPReqBuilder builder = new OCSPReqBuilder();
+                builder.addRequest(new JcaCertificateID(SHA1DigestCalculator.buildSha1Instance(), caCert, serialNumber));
+                final byte[] ocspResponse = send(builder.build().getEncoded());
+                if (measured) {
+                    count(ocspResponse);
+                }
+            } catch (Exception e) {
+                if (measured) {
+                    result.failures.incrementAndGet();
+                    if (result.failures.get() <= 10) {
+                        System.err.println("Request failed: " + e.getMessage());
+                    }
+                }
+            } finally {
+                if (measured) {
+                    final long endNanos = System.nanoTime();
+                    result.latency.record((endNanos - intendedStartNanos) / 1000L);
+                    result.serviceTime.record((endNanos - startNanos) / 1000L);
+                    result.completed.incrementAndGet();
+                }
+            }
+        }
+
+        /** @return the response, or null if the HTTP status was not 200 */
+        private byte[] send(final byte[] ocspRequest) throws IOException {
+            final HttpURLConnection connection;
+            if (useGet) {
+                connection = (HttpURLConnection) new URL(ocspUrl + '/' + URLEncoder.encode(new String(Base64.encode(ocspRequest, false)), "UTF-8"))
+                        .openConnection();
+            } else {
+                connection = (HttpURLConnection) new URL(ocspUrl).openConnection();
+                connection.setDoOutput(true);
+                connection.setRequestMethod("POST");
+                connection.setRequestProperty("Content-Type", "application/ocsp-request");
+            }
+            connection.setConnectTimeout(10000);
+            connection.setReadTimeout(10000);
+            if (!useGet) {
+                final OutputStream os = connection.getOutputStream();
+                try {
+                    os.write(ocspRequest);
+                } finally {
+                    os.close();
+                }
+            }
+            if (connection.getResponseCode() != 200) {
+                // Read the error page so the connection can be reused
+                final InputStream es = connection.getErrorStream();
+                if (es != null) {
+                    IOUtils.toByteArray(es);
+                    es.close();
+                }
+                if (measured) {
+                    result.httpErrors.incrementAndGet();
+                }
+                return null;
+            }
+            final InputStream is = connection.getInputStream();
+            try {
+                return IOUtils.toByteArray(is);
+            } finally {
+                is.close();
+            }
+        }
+
+        private void count(final byte[] ocspResponse) throws Exception {
+            if (ocspResponse == null) {
+                return;
+            }
+            final OCSPResp response = new OCSPResp(ocspResponse);
+            if (response.getStatus() != OCSPRespBuilder.SUCCESSFUL) {
+                result.ocspErrors.incrementAndGet();
+                return;
+            }
+            final SingleResp[] singleResponses = ((BasicOCSPResp) response.getResponseObject()).getResponses();
+            final Object status = singleResponses.length > 0 ? singleResponses[0].getCertStatus() : null;
+            if (status == CertificateStatus.GOOD) {
+                result.good.incrementAndGet();
+            } else if (status instanceof RevokedStatus) {
+                result.revoked.incrementAndGet();
+            } else {
+                result.unknown.incrementAndGet();
+            }
+        }
+    }
+
+    private String ocspUrl;
+    private X509Certificate caCert;
+    private Serials serials;
+    private boolean useGet;
+    private final Random random = new Random();
+    private final Result result = new Result();
+
+    @Override
+    protected void execute(String[] args) {
+        if (args.length < 6) {
+            System.out.println("Usage: OCSPLoad <OCSP URL | stub[:<service time in ms>]> <serial number file | JDBC URL> <CA certificate file | -> "
+                    + "<requests per second> <duration in seconds> [<GET | POST>] [<number of threads>] [<warm-up in seconds>] [<JSON result file>]");
+            System.out.println();
+            System.out.println("Requests are sent at the given rate, whether or not earlier requests have been answered. The latency of a request is");
+            System.out.println("measured from the time it should have been sent, so queueing when the responder can not keep up is included. The");
+            System.out.println("service time is measured from when the request was actually sent. Requests do not have a nonce.");
+            System.out.println();
+            System.out.println("The serial number file has one serial number on each line, decimal or hex starting with '0x'. A second column");
+            System.out.println("separated by ',' or ';' is the relative request frequency of the serial number, for replaying a realistic");
+            System.out.println("distribution. Example: 0x1a2b3c,50");
+            System.out.println("With a JDBC URL, all serial numbers of the CA are read from CertificateData. The JDBC driver must be on the class");
+            System.out.println("path, and the user and password are given with -Docspload.db.user and -Docspload.db.password in JAVA_OPT.");
+            System.out.println();
+            System.out.println("'stub' starts an in-process responder that answers every request with the same response after the service time.");
+            System.out.println("The CA certificate can then be '-' to use a generated CA.");
+            System.out.println();
+            System.out.println("Default is GET, 100 threads and 10 seconds warm-up that is not included in the result. The result is written as");
+            System.out.println("JSON to the result file, or to standard output.");
+            return;
+        }
+        StubResponder stub = null;
+        try {
+            CryptoProviderTools.installBCProvider();
+            final String target = args[1];
+            final double rate = Double.parseDouble(args[4]);
+            final long durationSeconds = Long.parseLong(args[5]);
+            this.useGet = args.length <= 6 || !"POST".equalsIgnoreCase(args[6]);
+            final int threads = args.length > 7 ? Integer.parseInt(args[7]) : 100;
+            final long warmupSeconds = args.length > 8 ? Long.parseLong(args[8]) : 10;
+            final String resultFile = args.length > 9 ? args[9] : null;
+            KeyPair caKeys = null;
+            if ("-".equals(args[3])) {
+                caKeys = KeyTools.genKeys("2048", AlgorithmConstants.KEYALGORITHM_RSA);
+                this.caCert = CertTools.genSelfCert("CN=OCSP Load Test CA", 365, null, caKeys.getPrivate(), caKeys.getPublic(),
+                        AlgorithmConstants.SIGALG_SHA256_WITH_RSA, true);
+            } else {
+                this.caCert = Ocsp.getCertFromPemFile(args[3]);
+            }
+            if (args[2].startsWith("jdbc:")) {
+                this.serials = Serials.fromDatabase(args[2], CertTools.getSubjectDN(caCert));
+            } else {
+                this.serials = Serials.fromFile(args[2]);
+            }
+            if (serials.size() == 0) {
+                System.err.println("No serial numbers to request.");
+                return;
+            }
+            if (target.equals(STUB) || target.startsWith(STUB + ":")) {
+                if (caKeys == null) {
+                    System.err.println("The stub responder needs a generated CA. Use '-' as CA certificate.");
+                    return;
+                }
+                final long serviceTimeMillis = target.length() > STUB.length() ? Long.parseLong(target.substring(STUB.length() + 1)) : 0;
+                stub = new StubResponder(caCert, caKeys, serviceTimeMillis, threads);
+                this.ocspUrl = stub.getUrl();
+            } else {
+                this.ocspUrl = target;
+            }
+            System.err.println("Sending " + rate + " requests per second with " + (useGet ? "GET" : "POST") + " to " + ocspUrl + " for "
+                    + durationSeconds + " seconds after " + warmupSeconds + " seconds warm-up, for " + serials.size() + " serial numbers.");
+            final long elapsedNanos = run(rate, warmupSeconds, durationSeconds, threads);
+            final String json = toJson(target, rate, durationSeconds, threads, elapsedNanos);
+            if (resultFile == null) {
+                System.out.println(json);
+            } else {
+                final PrintStream ps = new PrintStream(new FileOutputStream(resultFile), false, "UTF-8");
+                ps.println(json);
+                ps.close();
+                System.err.println("Result written to " + resultFile);
+            }
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+            System.exit(-1); // NOPMD, it's not a JEE app
+        } finally {
+            if (stub != null) {
+                stub.stop();
+            }
+        }
+    }
+
+    /**
+     * Sends requests at the rate until the warm-up and the duration have passed, and waits for the answers.
+     * @return the time in nanoseconds from the first measured request until all requests were answered
+     */
+    private long run(final double rate, final long warmupSeconds, final long durationSeconds, final int threads) throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final long startNanos = System.nanoTime();
+        final long measureStartNanos = startNanos + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        final long endNanos = measureStartNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long nextReportNanos = startNanos + TimeUnit.SECONDS.toNanos(10);
+        for (long i = 0;; i++) {
+            // Computed from the start for each request, so rounding errors do not add up
+            final long intendedStartNanos = startNanos + (long) (i * 1e9 / rate);
+            if (intendedStartNanos - endNanos >= 0) {
+                break;
+            }
+            long delay;
+            while ((delay = intendedStartNanos - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            final boolean measured = intendedStartNanos - measureStartNanos >= 0;
+            if (measured) {
+                result.sent.incrementAndGet();
+            }
+            executor.execute(new Request(intendedStartNanos, measured));
+            if (System.nanoTime() - nextReportNanos >= 0) {
+                nextReportNanos += TimeUnit.SECONDS.toNanos(10);
+                System.err.println("Sent " + result.sent.get() + ", completed " + result.completed.get() + ", p99 "
+                        + formatMillis(result.latency.getValueAtPercentile(99)) + " ms");
+            }
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+            System.err.println("Requests that were not answered within 60 seconds after the end of the test are not included.");
+            executor.shutdownNow();
+        }
+        return System.nanoTime() - measureStartNanos;
+    }
+
+    private String toJson(final String target, final double rate, final long durationSeconds, final int threads, final long elapsedNanos) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"target\": \"").append(target.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",\n");
+        sb.append("  \"method\": \"").append(useGet ? "GET" : "POST").append("\",\n");
+        sb.append("  \"rate\": ").append(rate).append(",\n");
+        sb.append("  \"durationSeconds\": ").append(durationSeconds).append(",\n");
+        sb.append("  \"threads\": ").append(threads).append(",\n");
+        sb.append("  \"serialNumbers\": ").append(serials.size()).append(",\n");
+        sb.append("  \"sent\": ").append(result.sent.get()).append(",\n");
+        sb.append("  \"completed\": ").append(result.completed.get()).append(",\n");
+        sb.append("  \"achievedRate\": ").append(String.format(Locale.ROOT, "%.1f", result.completed.get() * 1e9 / elapsedNanos)).append(",\n");
+        sb.append("  \"good\": ").append(result.good.get()).append(",\n");
+        sb.append("  \"revoked\": ").append(result.revoked.get()).append(",\n");
+        sb.append("  \"unknown\": ").append(result.unknown.get()).append(",\n");
+        sb.append("  \"httpErrors\": ").append(result.httpErrors.get()).append(",\n");
+        sb.append("  \"ocspErrors\": ").append(result.ocspErrors.get()).append(",\n");
+        sb.append("  \"failures\": ").append(result.failures.get()).append(",\n");
+        sb.append("  \"latencyMs\": ");
+        appendHistogram(sb, result.latency);
+        sb.append(",\n  \"serviceTimeMs\": ");
+        appendHistogram(sb, result.serviceTime);
+        sb.append("\n}");
+        return sb.toString();
+    }
+
+    private static void appendHistogram(final StringBuilder sb, final LatencyHistogram histogram) {
+        sb.append("{ \"min\": ").append(formatMillis(histogram.getMin()));
+        sb.append(", \"mean\": ").append(String.format(Locale.ROOT, "%.3f", histogram.getMean() / 1000));
+        for (final double percentile : PERCENTILES) {
+            sb.append(", \"p").append(String.valueOf(percentile).replace(".0", "").replace(".", "_")).append("\": ");
+            sb.append(formatMillis(histogram.getValueAtPercentile(percentile)));
+        }
+        sb.append(", \"max\": ").append(formatMillis(histogram.getMax())).append(" }");
+    }
+
+    private static String formatMillis(final long micros) {
+        return String.format(Locale.ROOT, "%.3f", micros / 1000.0);
+    }
+
+    @Override
+    protected String getName() {
+        return "OCSPLoad";
+    }
+}
@@ -14,10 +14,15 @@
 package org.ejbca.core.protocol.crlstore;
 
 import java.security.cert.X509Certificate;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.ca.internal.CaCertificateCache;
@@ -29,42 +34,77 @@ import org.cesecore.util.CertTools;
 /**
  * See {@link ICRLCache} to see what this is.
  *
+ * The cached CRLs are kept as immutable snapshots in maps that are never modified after they have been published.
+ * A change is made by copying the current map, modifying the copy and atomically swapping the reference. Lookups
+ * of cached CRLs are therefore done without any locking and without any database access. Cached snapshots are
+ * revalidated against the database by a background thread, so a newly stored CRL is served at the latest
+ * one revalidation interval after it has been stored. Only the first request for an issuer (a cache
+ * miss) will read from the database in the calling thread.
+ *
  * @version $Id: CRLCache.java 20267 2014-11-19 10:36:48Z mikekushner $
  */
 class CRLCache implements ICRLCache {
 	private static final Logger log = Logger.getLogger(CRLCache.class);
-	
+
 	private final CrlStoreSessionLocal crlSession;
 	private final CaCertificateCache certCache;
-	final private Map<Integer, CRLEntity> crls = new HashMap<Integer, CRLEntity>();
-	final private Map<Integer, CRLEntity> deltaCrls = new HashMap<Integer, CRLEntity>();
-	private class CRLEntity {
+	/** Snapshots of the latest full CRLs, key is the hash of the issuer DN. */
+	private final AtomicReference<Map<Integer, CRLEntity>> crls = new AtomicReference<Map<Integer, CRLEntity>>(Collections.<Integer, CRLEntity>emptyMap());
+	/** Snapshots of the latest delta CRLs, key is the hash of the issuer DN. */
+	private final AtomicReference<Map<Integer, CRLEntity>> deltaCrls = new AtomicReference<Map<Integer, CRLEntity>>(Collections.<Integer, CRLEntity>emptyMap());
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final ScheduledExecutorService revalidator;
+
+	/** Immutable snapshot of one CRL. */
+	private static class CRLEntity {
+		final Integer key;
+		final String issuerDN;
 		final CRLInfo crlInfo;
 		final byte encoded[];
 		/**
+		 * @param key
+		 * @param issuerDN
 		 * @param crlInfo
 		 * @param encoded
 		 */
-		CRLEntity(CRLInfo crlInfo, byte[] encoded) {
+		CRLEntity(Integer key, String issuerDN, CRLInfo crlInfo, byte[] encoded) {
 			super();
+			this.key = key;
+			this.issuerDN = issuerDN;
 			this.crlInfo = crlInfo;
 			this.encoded = encoded;
 		}
 	}
-	/** We need an object to synchronize around when rebuilding and reading the cache. When rebuilding the cache no thread
-	 * can be allowed to read the cache, since the cache will be in an inconsistent state. In the normal case we want to use
-	 * as fast objects as possible (HashMap) for reading fast.
-	 */
-	final private Lock rebuildlock = new ReentrantLock();
 
 	/**
 	 * @param crlSession DB connections
 	 * @param certStore references to needed CA certificates.
+	 * @param revalidationInterval milliseconds between each check if there is a newer CRL in the database. 0 or less disables the background revalidation.
 	 */
-	CRLCache(CrlStoreSessionLocal crlSession, CaCertificateCache certCache) {
+	CRLCache(CrlStoreSessionLocal crlSession, CaCertificateCache certCache, long revalidationInterval) {
 		super();
 		this.crlSession = crlSession;
 		this.certCache = certCache;
+		if ( revalidationInterval>0 ) {
+			this.revalidator = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "CRLCache-revalidator");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.revalidator.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					revalidateAll();
+				}
+			}, revalidationInterval, revalidationInterval, TimeUnit.MILLISECONDS);
+		} else {
+			this.revalidator = null;
+		}
 	}
 
 	@Override
@@ -77,6 +117,44 @@ class CRLCache implements ICRLCache {
 		return findLatest(this.certCache.findLatestBySubjectDN(id), isDelta);
 	}
 
+	@Override
+	public void clear() {
+		this.crls.set(Collections.<Integer, CRLEntity>emptyMap());
+		this.deltaCrls.set(Collections.<Integer, CRLEntity>emptyMap());
+		log.info("CRL cache cleared. "+getStatistics());
+	}
+
+	@Override
+	public String getStatistics() {
+		return "CRL cache hits: "+this.hits.get()+", misses: "+this.misses.get()+", refreshes: "+this.refreshes.get();
+	}
+
+	@Override
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	@Override
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	@Override
+	public long getRefreshes() {
+		return this.refreshes.get();
+	}
+
+	@Override
+	public void shutdown() {
+		if ( this.revalidator!=null ) {
+			this.revalidator.shutdownNow();
+		}
+	}
+
+	private AtomicReference<Map<Integer, CRLEntity>> getMap(boolean isDelta) {
+		return isDelta ? this.deltaCrls : this.crls;
+	}
+
 	private byte[] findLatest(X509Certificate caCert, boolean isDelta) {
 		if ( caCert==null ) {
 			if (log.isDebugEnabled()) {
@@ -84,33 +162,77 @@ class CRLCache implements ICRLCache {
 			}
 			return null;
 		}
-		final HashID id = HashID.getFromSubjectDN(caCert);
-		final String issuerDN = CertTools.getSubjectDN(caCert);
-		this.rebuildlock.lock();
+		final Integer key = HashID.getFromSubjectDN(caCert).getKey();
+		final CRLEntity cachedCRL = getMap(isDelta).get().get(key);
+		if ( cachedCRL!=null ) {
+			this.hits.incrementAndGet();
+			if (log.isDebugEnabled()) {
+				log.debug("Retrieved CRL (from cache) with issuerDN '"+cachedCRL.issuerDN+"', with CRL number "+cachedCRL.crlInfo.getLastCRLNumber());
+			}
+			return cachedCRL.encoded;
+		}
+		this.misses.incrementAndGet();
+		final CRLEntity entry = refresh(key, CertTools.getSubjectDN(caCert), isDelta);
+		if ( entry==null ) {
+			return null;
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Retrieved CRL (not from cache) with issuerDN '"+entry.issuerDN+"', with CRL number "+entry.crlInfo.getLastCRLNumber());
+		}
+		return entry.encoded;
+	}
+
+	/**
+	 * Checks the database for a newer CRL than the cached one and publishes a new snapshot if one is found.
+	 * @return the snapshot that is current after the check, or null if there is no CRL for the issuer.
+	 */
+	private CRLEntity refresh(Integer key, String issuerDN, boolean isDelta) {
+		final AtomicReference<Map<Integer, CRLEntity>> usedCrls = getMap(isDelta);
+		final CRLInfo crlInfo = this.crlSession.getLastCRLInfo(issuerDN, isDelta);
+		if ( crlInfo==null ) {
+			if (log.isDebugEnabled()) {
+				log.debug("No CRL found with issuerDN '"+issuerDN+"', returning null.");
+			}
+			return null;
+		}
+		final CRLEntity cachedCRL = usedCrls.get().get(key);
+		if ( cachedCRL!=null && !crlInfo.getCreateDate().after(cachedCRL.crlInfo.getCreateDate()) ) {
+			return cachedCRL;
+		}
+		final CRLEntity entry = new CRLEntity( key, issuerDN, crlInfo, this.crlSession.getLastCRL(issuerDN, isDelta) );
+		while ( true ) {
+			final Map<Integer, CRLEntity> current = usedCrls.get();
+			final CRLEntity other = current.get(key);
+			if ( other!=null && !entry.crlInfo.getCreateDate().after(other.crlInfo.getCreateDate()) ) {
+				// Another thread has already published this (or a newer) CRL
+				return other;
+			}
+			final Map<Integer, CRLEntity> updated = new HashMap<Integer, CRLEntity>(current);
+			updated.put(key, entry);
+			if ( usedCrls.compareAndSet(current, Collections.unmodifiableMap(updated)) ) {
+				this.refreshes.incrementAndGet();
+				return entry;
+			}
+		}
+	}
+
+	/** Called from the background thread to check all cached issuers for newer CRLs. */
+	private void revalidateAll() {
 		try {
-			final CRLInfo crlInfo = this.crlSession.getLastCRLInfo(issuerDN, isDelta);
-			if ( crlInfo==null ) {
-				if (log.isDebugEnabled()) {
-					log.debug("No CRL found with issuerDN '"+issuerDN+"', returning null.");
-				}
-				return null;
+			for ( final CRLEntity entity : this.crls.get().values() ) {
+				refresh(entity.key, entity.issuerDN, false);
 			}
-			final Map<Integer, CRLEntity> usedCrls = isDelta ? this.deltaCrls : this.crls;
-			final CRLEntity cachedCRL = usedCrls.get(id.getKey());
-			if ( cachedCRL!=null && !crlInfo.getCreateDate().after(cachedCRL.crlInfo.getCreateDate()) ) {
-				if (log.isDebugEnabled()) {
-					log.debug("Retrieved CRL (from cache) with issuerDN '"+issuerDN+"', with CRL number "+crlInfo.getLastCRLNumber());
-				}
-				return cachedCRL.encoded;
+			for ( final CRLEntity entity : this.deltaCrls.get().values() ) {
+				refresh(entity.key, entity.issuerDN, true);
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("CRL cache revalidated. "+getStatistics());
 			}
-			final CRLEntity entry = new CRLEntity( crlInfo, this.crlSession.getLastCRL(issuerDN, isDelta) );
-			usedCrls.put(id.getKey(), entry);
+		} catch (RuntimeException e) { // NOPMD: the scheduled task must survive a temporary database problem
+			log.info("Not possible to revalidate the CRL cache: "+e.getMessage());
 			if (log.isDebugEnabled()) {
-				log.debug("Retrieved CRL (not from cache) with issuerDN '"+issuerDN+"', with CRL number "+crlInfo.getLastCRLNumber());
+				log.debug("Revalidation failure: ", e);
 			}
-			return entry.encoded;
-		} finally {
-			this.rebuildlock.unlock();
 		}
 	}
 }
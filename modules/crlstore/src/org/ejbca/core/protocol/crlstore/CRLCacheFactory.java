@@ -17,6 +17,7 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import org.cesecore.certificates.ca.internal.CaCertificateCache;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
+import org.ejbca.config.VAConfiguration;
 
 /**
  * Factory for creating a {@link CRLCache} object to be used by the OCSP responder of the CA.
@@ -38,7 +39,7 @@ public class CRLCacheFactory {
         lock.lock();
         try {
         	if ( instance==null ) {
-        		instance = new CRLCache(crlSession, certCache);
+        		instance = new CRLCache(crlSession, certCache, VAConfiguration.getCrlStoreRevalidationTimeInMilliseconds());
         	}
     		return instance;
         } finally {
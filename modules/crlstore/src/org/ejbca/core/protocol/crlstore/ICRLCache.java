@@ -37,4 +37,34 @@ public interface ICRLCache {
 	 * @return CRL or null if the CRL does not exist in the cache.
 	 */
 	byte[] findBySubjectKeyIdentifier(HashID id, boolean isDelta);
+
+	/**
+	 * Removes all cached CRLs. They will be read from the database again on the next request.
+	 */
+	void clear();
+
+	/**
+	 * @return number of requests that were answered from the cache.
+	 */
+	long getHits();
+
+	/**
+	 * @return number of requests that had to read the CRL from the database.
+	 */
+	long getMisses();
+
+	/**
+	 * @return number of times a new CRL has been put in the cache.
+	 */
+	long getRefreshes();
+
+	/**
+	 * @return a printable summary of the hit, miss and refresh counters.
+	 */
+	String getStatistics();
+
+	/**
+	 * Stops the background revalidation of the cache. Should be called when the application is undeployed.
+	 */
+	void shutdown();
 }
@@ -51,6 +51,17 @@ public class CRLStoreServlet extends StoreServletBase {
 		this.crlCache = CRLCacheFactory.getInstance(this.crlSession, this.certCache);		
 	}
 
+	@Override
+	public void destroy() {
+		this.crlCache.shutdown();
+		super.destroy();
+	}
+
+	@Override
+	protected void reloadCaches() {
+		this.crlCache.clear();
+	}
+
 	@Override
 	public void sHash(String iHash, HttpServletResponse resp, HttpServletRequest req) throws IOException, ServletException {
 		// do nothing for CRLs
@@ -102,8 +102,9 @@ public interface PublisherQueueSessionLocal {
     /**
      * Intended for use from PublishQueueProcessWorker.
      * 
-     * Publishing algorithm that is a plain fifo queue, but limited to selecting entries to republish at 100 records at a time. It will select from the database for this particular publisher id, and process 
-     * the record that is returned one by one. The records are ordered by date, descending so the oldest record is returned first. 
+     * Publishing algorithm that is a plain fifo queue, but limited to selecting entries to republish at 100 records at a time (see {@link org.ejbca.config.EjbcaConfiguration#getPublisherQueueBatchSize()}).
+     * It will select from the database for this particular publisher id, and process the records that are returned one by one, or with several concurrent
+     * workers (see {@link org.ejbca.config.EjbcaConfiguration#getPublisherQueueWorkers()}). The records are ordered by date, descending so the oldest record is returned first. 
      * Publishing is tried every time for every record returned, with no limit.
      * Repeat this process as long as we actually manage to publish something this is because when publishing starts to work we want to publish everything in one go, if possible.
      * However we don't want to publish more than 20000 certificates each time, because we want to commit to the database some time as well.
@@ -111,6 +112,25 @@ public interface PublisherQueueSessionLocal {
      */
     void plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(AuthenticationToken admin, int publisherId, BasePublisher publisher);
 
+    /**
+     * Gets the rate at which entries have recently been published from the queue of a publisher by
+     * {@link #plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(AuthenticationToken, int, BasePublisher)} on this node.
+     * Together with the number of pending entries this gives an estimate of the time it takes to drain the queue.
+     * 
+     * @param publisherId The publisher to get the drain rate for.
+     * @return The number of entries per second, or 0 if no entries have been published from the queue since startup.
+     */
+    double getDrainRate(int publisherId);
+
+    /**
+     * Estimates the time it takes to publish the pending entries of a publisher's queue at the drain rate, see {@link #getDrainRate(int)}.
+     * 
+     * @param publisherId The publisher to estimate the time for.
+     * @param pendingEntries The number of entries in the queue of the publisher.
+     * @return The estimated number of seconds, or -1 if no entries have been published from the queue since startup.
+     */
+    long getEstimatedDrainTime(int publisherId, int pendingEntries);
+
     
     /** Publishers do not run a part of regular transactions and expect to run in auto-commit mode. */
 	boolean storeCertificateNonTransactional(BasePublisher publisher, AuthenticationToken admin, CertificateDataWrapper cert, String username, String password, String userDN,
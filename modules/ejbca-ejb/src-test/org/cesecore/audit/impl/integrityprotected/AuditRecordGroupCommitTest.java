@@ -0,0 +1,181 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cesecore.audit.enums.EventStatus;
+import org.cesecore.audit.enums.EventType;
+import org.cesecore.audit.enums.EventTypes;
+import org.cesecore.audit.enums.ModuleType;
+import org.cesecore.audit.enums.ModuleTypes;
+import org.cesecore.audit.enums.ServiceType;
+import org.cesecore.audit.enums.ServiceTypes;
+import org.cesecore.audit.log.AuditRecordStorageException;
+import org.cesecore.time.TrustedTime;
+import org.junit.Test;
+
+/**
+ * Tests group commit of audit records, using a logger session where each commit takes a fixed time and commits are
+ * serialized, like the flush of a database transaction log.
+ *
+ * @version $Id$
+ */
+public class AuditRecordGroupCommitTest {
+
+    private static final long COMMIT_TIME = 2;
+
+    /**
+     * Writes batches to a list, taking COMMIT_TIME ms for each commit. Fails all batches while failing is set, and every
+     * failEvery commit if it is larger than 0.
+     */
+    private static class SimulatedLoggerSession implements IntegrityProtectedLoggerSessionLocal {
+        final List<AuditRecordData> written = new ArrayList<AuditRecordData>();
+        final AtomicInteger commits = new AtomicInteger();
+        volatile boolean failing = false;
+        int failEvery = 0;
+
+        @Override
+        public void log(final TrustedTime trustedTime, final EventType eventType, final EventStatus eventStatus, final ModuleType module,
+                final ServiceType service, final String authToken, final String customId, final String searchDetail1, final String searchDetail2,
+                final Map<String, Object> additionalDetails, final Properties properties) throws AuditRecordStorageException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void log(final List<AuditRecordData> auditRecordDatas) throws AuditRecordStorageException {
+            synchronized (this) {
+                try {
+                    Thread.sleep(COMMIT_TIME);
+                } catch (InterruptedException e) {
+                    throw new AuditRecordStorageException(e.getMessage(), e);
+                }
+                final int commit = commits.incrementAndGet();
+                if (failing || (failEvery > 0 && commit % failEvery == 0)) {
+                    throw new AuditRecordStorageException("Simulated failure");
+                }
+                written.addAll(auditRecordDatas);
+            }
+        }
+    }
+
+    @Test
+    public void testAllRecordsWrittenOnce() throws Exception {
+        final SimulatedLoggerSession session = new SimulatedLoggerSession();
+        final int records = runConcurrently(session, 32, 20);
+        assertEquals(32*20, records);
+        assertEquals(32*20, session.written.size());
+        final Set<String> pks = new HashSet<String>();
+        for (final AuditRecordData auditRecordData : session.written) {
+            assertTrue("Record written more than once.", pks.add(auditRecordData.getPk()));
+        }
+        assertTrue("Records were not grouped. " + session.commits.get() + " commits.", session.commits.get() < 32*20);
+    }
+
+    @Test
+    public void testFailureReportedToCaller() throws Exception {
+        final SimulatedLoggerSession session = new SimulatedLoggerSession();
+        session.failing = true;
+        try {
+            AuditRecordGroupCommit.INSTANCE.log(session, getAuditRecordData(), 100, 0, 1000);
+            fail("Failed batch should be reported to the caller.");
+        } catch (AuditRecordStorageException e) {
+            assertEquals("Simulated failure", e.getMessage());
+        }
+        session.failing = false;
+        AuditRecordGroupCommit.INSTANCE.log(session, getAuditRecordData(), 100, 0, 1000);
+        assertEquals(1, session.written.size());
+    }
+
+    /** Callers that retry their record when a batch fails should get all records written once, in the order each caller logged them. */
+    @Test
+    public void testRecordsInOrderWhenFailedBatchesAreRetried() throws Exception {
+        final SimulatedLoggerSession session = new SimulatedLoggerSession();
+        session.failEvery = 3;
+        final int records = runConcurrently(session, 16, 20);
+        assertEquals(16*20, records);
+        assertEquals(16*20, session.written.size());
+        final Map<String, Integer> lastRecordOfCaller = new HashMap<String, Integer>();
+        for (final AuditRecordData auditRecordData : session.written) {
+            final Integer last = lastRecordOfCaller.get(auditRecordData.getAuthToken());
+            final int current = Integer.parseInt(auditRecordData.getCustomId());
+            assertEquals("Record of " + auditRecordData.getAuthToken() + " written out of order or more than once.", last == null ? 0 : last.intValue()+1, current);
+            lastRecordOfCaller.put(auditRecordData.getAuthToken(), Integer.valueOf(current));
+        }
+        assertTrue("No batch failed. " + session.commits.get() + " commits.", session.commits.get() >= session.failEvery);
+        assertTrue("Records were not grouped. " + session.commits.get() + " commits.", session.commits.get() < 16*20);
+    }
+
+    /**
+     * Each caller logs its records one at a time with group commit, and retries a record until it has been written.
+     * @return the number of records written
+     */
+    private int runConcurrently(final SimulatedLoggerSession session, final int threads, final int recordsPerThread) throws Exception {
+        final AtomicInteger written = new AtomicInteger();
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        final Thread[] callers = new Thread[threads];
+        for (int i=0; i<threads; i++) {
+            final String caller = "caller" + i;
+            callers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j=0; j<recordsPerThread; j++) {
+                            final AuditRecordData auditRecordData = getAuditRecordData(caller, j);
+                            while (true) {
+                                try {
+                                    AuditRecordGroupCommit.INSTANCE.log(session, auditRecordData, 100, 0, 1000);
+                                    break;
+                                } catch (AuditRecordStorageException e) {
+                                    // Retry the record, like a caller would repeat the operation that should be audited
+                                }
+                            }
+                            written.incrementAndGet();
+                        }
+                    } catch (Throwable t) {
+                        synchronized (failures) {
+                            failures.add(t);
+                        }
+                    }
+                }
+            };
+            callers[i].start();
+        }
+        for (final Thread caller : callers) {
+            caller.join();
+        }
+        assertTrue("Logging failed: " + failures, failures.isEmpty());
+        return written.get();
+    }
+
+    private static AuditRecordData getAuditRecordData() {
+        return getAuditRecordData("test", 0);
+    }
+
+    /** @return a record of the caller, with the index of the record as custom id */
+    private static AuditRecordData getAuditRecordData(final String caller, final int index) {
+        return new AuditRecordData(null, null, Long.valueOf(System.currentTimeMillis()), EventTypes.CERT_CREATION, EventStatus.SUCCESS, caller,
+                ServiceTypes.CORE, ModuleTypes.CERTIFICATE, String.valueOf(index), null, null, null);
+    }
+}
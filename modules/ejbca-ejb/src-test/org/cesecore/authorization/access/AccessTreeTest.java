@@ -12,15 +12,46 @@
  *************************************************************************/
 package org.cesecore.authorization.access;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 import org.junit.Assert;
 
 import org.cesecore.authentication.AuthenticationFailedException;
 import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.X509CertificateAuthenticationToken;
+import org.cesecore.authorization.rules.AccessRuleData;
+import org.cesecore.authorization.rules.AccessRuleState;
+import org.cesecore.authorization.user.AccessMatchType;
+import org.cesecore.authorization.user.AccessUserAspectData;
+import org.cesecore.authorization.user.matchvalues.X500PrincipalAccessMatchValue;
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.keys.util.KeyTools;
 import org.cesecore.roles.RoleData;
+import org.cesecore.util.CryptoProviderTools;
 import org.easymock.EasyMock;
 import org.junit.Test;
 
@@ -32,6 +63,10 @@ import org.junit.Test;
  */
 public class AccessTreeTest {
 
+    private static final Logger log = Logger.getLogger(AccessTreeTest.class);
+
+    private static final String ADMIN_CA_DN = "CN=AccessTreeTestCA";
+
     /**
      * Tests the buildTree method. In order to keep this method on unit level, only the root level node will be built. A proper is built in the
      * functional tests.
@@ -82,4 +117,158 @@ public class AccessTreeTest {
         EasyMock.verify(rootNode);
     }
 
+    /** Compares the decisions from the compiled access trees with the decisions of the access tree itself, for a tree with 500 roles and 10000 rules. */
+    @Test
+    public void testCompiledTreeSameAsAccessTree() throws Exception {
+        final List<String> resources = getResources();
+        final AccessTree accessTree = new AccessTree();
+        accessTree.buildTree(getRoles(resources, 500, 20));
+        final AccessTreeNode rootNode = getRootNode(accessTree);
+        int accepted = 0;
+        for (final AuthenticationToken authenticationToken : getAuthenticationTokens(20)) {
+            for (int i=0; i<2; i++) {
+                // The second time, the decisions are remembered
+                for (final String resource : resources) {
+                    for (final boolean requireRecursive : new boolean[] {false, true}) {
+                        final boolean expected = rootNode.isAuthorized(authenticationToken, resource, requireRecursive);
+                        Assert.assertEquals("Different decision for " + authenticationToken + " and " + resource + (requireRecursive ? " (recursive)" : ""),
+                                expected, accessTree.isAuthorized(authenticationToken, resource, requireRecursive));
+                        if (expected) {
+                            accepted++;
+                        }
+                    }
+                }
+            }
+        }
+        Assert.assertTrue("Test data should give both accepted and declined decisions.", accepted > 0 && accepted < 20*2*resources.size()*2);
+    }
+
+    /** A token that was not created in this JVM must not get the decisions of an equal token that was. */
+    @Test
+    public void testCompiledTreeNotUsedForRemoteToken() throws Exception {
+        final List<String> resources = getResources();
+        final AccessTree accessTree = new AccessTree();
+        accessTree.buildTree(getRoles(resources, 50, 20));
+        final X509CertificateAuthenticationToken localToken = getAuthenticationTokens(1).get(0);
+        final String acceptedResource = "/ca_functionality";
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(localToken);
+        oos.close();
+        final AuthenticationToken remoteToken = (AuthenticationToken) new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())).readObject();
+        Assert.assertEquals(localToken, remoteToken);
+        Assert.assertTrue(accessTree.isAuthorized(localToken, acceptedResource));
+        Assert.assertFalse("Token from another JVM was authorized.", accessTree.isAuthorized(remoteToken, acceptedResource));
+    }
+
+    /** Compares the time for authorization checks with and without compiled access trees. Only logs the result. */
+    @Test
+    public void testCompiledTreePerformance() throws Exception {
+        final List<String> resources = getResources();
+        final AccessTree accessTree = new AccessTree();
+        accessTree.buildTree(getRoles(resources, 500, 20));
+        final AccessTreeNode rootNode = getRootNode(accessTree);
+        final List<X509CertificateAuthenticationToken> authenticationTokens = getAuthenticationTokens(20);
+        final int checks = 100000;
+        // Warm up, this also compiles the access tree for each token
+        runChecks(accessTree, rootNode, authenticationTokens, resources, checks, false);
+        runChecks(accessTree, rootNode, authenticationTokens, resources, checks, true);
+        final long treeTime = runChecks(accessTree, rootNode, authenticationTokens, resources, checks, false);
+        final long compiledTime = runChecks(accessTree, rootNode, authenticationTokens, resources, checks, true);
+        log.info("500 roles and 10000 rules: " + (checks*1000L/treeTime) + " checks/s with the access tree, " + (checks*1000L/compiledTime)
+                + " checks/s with compiled access trees.");
+    }
+
+    /** @return the time in ms, at least 1 */
+    private long runChecks(final AccessTree accessTree, final AccessTreeNode rootNode, final List<X509CertificateAuthenticationToken> authenticationTokens,
+            final List<String> resources, final int checks, final boolean compiled) throws AuthenticationFailedException {
+        final long time = System.currentTimeMillis();
+        for (int i=0; i<checks; i++) {
+            final AuthenticationToken authenticationToken = authenticationTokens.get(i % authenticationTokens.size());
+            final String resource = resources.get(i % resources.size());
+            if (compiled) {
+                accessTree.isAuthorized(authenticationToken, resource);
+            } else {
+                rootNode.isAuthorized(authenticationToken, resource);
+            }
+        }
+        return Math.max(1, System.currentTimeMillis() - time);
+    }
+
+    private AccessTreeNode getRootNode(final AccessTree accessTree) throws Exception {
+        final Field rootNodeField = accessTree.getClass().getDeclaredField("rootNode");
+        rootNodeField.setAccessible(true);
+        return (AccessTreeNode) rootNodeField.get(accessTree);
+    }
+
+    /** @return resources at different depths, including some without any rules */
+    private List<String> getResources() {
+        final List<String> resources = new ArrayList<String>();
+        resources.add("/");
+        resources.add("/ca_functionality");
+        resources.add("/ra_functionality");
+        resources.add("/nosuchresource");
+        for (int i=0; i<100; i++) {
+            resources.add("/ca/" + i);
+            resources.add("/ra_functionality/function" + (i % 20));
+            resources.add("/endentityprofilesrules/" + i + "/view_end_entity");
+            resources.add("/ca_functionality/function" + (i % 20) + "/" + i);
+        }
+        return resources;
+    }
+
+    /** @return roles where each role has rules for random resources and matches the tokens with the same CN or O */
+    private Collection<RoleData> getRoles(final List<String> resources, final int roleCount, final int rulesPerRole) {
+        final Random random = new Random(4711);
+        final AccessRuleState[] states = { AccessRuleState.RULE_ACCEPT, AccessRuleState.RULE_ACCEPT, AccessRuleState.RULE_DECLINE };
+        final Collection<RoleData> roles = new ArrayList<RoleData>();
+        for (int i=0; i<roleCount; i++) {
+            final String roleName = "role" + i;
+            final RoleData role = new RoleData(Integer.valueOf(i), roleName);
+            final Map<Integer, AccessUserAspectData> accessUsers = new HashMap<Integer, AccessUserAspectData>();
+            final AccessUserAspectData accessUser;
+            if (i % 2 == 0) {
+                accessUser = new AccessUserAspectData(roleName, ADMIN_CA_DN.hashCode(), X500PrincipalAccessMatchValue.WITH_COMMONNAME, AccessMatchType.TYPE_EQUALCASE,
+                        "admin" + (i % 40));
+            } else {
+                accessUser = new AccessUserAspectData(roleName, ADMIN_CA_DN.hashCode(), X500PrincipalAccessMatchValue.WITH_ORGANIZATION, AccessMatchType.TYPE_EQUALCASE,
+                        "Org" + (i % 7));
+            }
+            accessUsers.put(Integer.valueOf(accessUser.getPrimaryKey()), accessUser);
+            role.setAccessUsers(accessUsers);
+            final Map<Integer, AccessRuleData> accessRules = new HashMap<Integer, AccessRuleData>();
+            if (i == 0) {
+                final AccessRuleData accessRule = new AccessRuleData(roleName, "/ca_functionality", AccessRuleState.RULE_ACCEPT, true);
+                accessRules.put(Integer.valueOf(accessRule.getPrimaryKey()), accessRule);
+            }
+            for (int j=0; j<rulesPerRole; j++) {
+                final String resource = resources.get(random.nextInt(resources.size())).substring(1);
+                final AccessRuleData accessRule = new AccessRuleData(roleName, resource.length() == 0 ? "/" : resource, states[random.nextInt(states.length)],
+                        random.nextBoolean());
+                accessRules.put(Integer.valueOf(accessRule.getPrimaryKey()), accessRule);
+            }
+            role.setAccessRules(accessRules);
+            roles.add(role);
+        }
+        return roles;
+    }
+
+    /** @return tokens with certificates issued by the same CA, with different CN and O */
+    private List<X509CertificateAuthenticationToken> getAuthenticationTokens(final int count) throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        final KeyPair keys = KeyTools.genKeys("512", AlgorithmConstants.KEYALGORITHM_RSA);
+        final List<X509CertificateAuthenticationToken> authenticationTokens = new ArrayList<X509CertificateAuthenticationToken>();
+        for (int i=0; i<count; i++) {
+            final Date now = new Date();
+            final X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(new JcaX509v3CertificateBuilder(new X500Name(ADMIN_CA_DN),
+                    BigInteger.valueOf(i + 1), now, new Date(now.getTime() + 3600000L), new X500Name("CN=admin" + i + ",O=Org" + (i % 5)), keys.getPublic())
+                    .build(new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).setProvider(BouncyCastleProvider.PROVIDER_NAME).build(keys.getPrivate())));
+            final Set<X500Principal> principals = new HashSet<X500Principal>();
+            principals.add(certificate.getSubjectX500Principal());
+            final Set<X509Certificate> credentials = new HashSet<X509Certificate>();
+            credentials.add(certificate);
+            authenticationTokens.add(new X509CertificateAuthenticationToken(principals, credentials));
+        }
+        return authenticationTokens;
+    }
 }
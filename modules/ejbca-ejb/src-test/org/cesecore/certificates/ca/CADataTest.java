@@ -0,0 +1,50 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+
+import org.junit.Test;
+
+/**
+ * Tests the update time of CAData, that the CA cache uses as the version of the CA.
+ *
+ * @version $Id$
+ */
+public class CADataTest {
+
+    @Test
+    public void testUpdateTimeIncreasesWithEveryChange() {
+        final CAData caData = new CAData();
+        final long before = System.currentTimeMillis();
+        caData.increaseUpdateTime();
+        assertTrue(caData.getUpdateTime() >= before);
+        // Changes in the same millisecond
+        final LinkedHashMap<Object, Object> dataMap = new LinkedHashMap<Object, Object>();
+        dataMap.put("key", "value");
+        long previous = caData.getUpdateTime();
+        for (int i = 0; i < 10; i++) {
+            caData.setDataMap(dataMap);
+            assertTrue("The update time must increase with every change.", caData.getUpdateTime() > previous);
+            previous = caData.getUpdateTime();
+        }
+        // An update time from a node with a clock that is ahead
+        final long future = System.currentTimeMillis() + 60000L;
+        caData.setUpdateTime(future);
+        caData.setDataMap(dataMap);
+        assertEquals(future + 1, caData.getUpdateTime());
+    }
+}
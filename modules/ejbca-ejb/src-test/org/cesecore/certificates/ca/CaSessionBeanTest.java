@@ -0,0 +1,77 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.authorization.control.AccessControlSessionLocal;
+import org.cesecore.certificates.certificate.RecordingEntityManager;
+import org.cesecore.internal.CacheInvalidationSessionLocal;
+import org.junit.Test;
+
+/**
+ * Unit tests of CaSessionBean methods that write CAData columns, with stubs for the database and the other session beans.
+ *
+ * @version $Id$
+ */
+public class CaSessionBeanTest {
+
+    /** The update time is the digest of the CA cache, so a renamed CA must get a new one or other nodes keep the old name */
+    @Test
+    public void testRenameCaChangesUpdateTime() throws Exception {
+        final long updateTime = System.currentTimeMillis() + 60000L;
+        final CAData caData = new CAData();
+        caData.setCaId(Integer.valueOf(4711));
+        caData.setName("OldName");
+        caData.setUpdateTime(updateTime);
+        final RecordingEntityManager recorder = new RecordingEntityManager();
+        // The CA is found by its old name, and no CA has the new name
+        recorder.addResult(Collections.singletonList(caData));
+        recorder.addResult(Collections.emptyList());
+        final CaSessionBean caSession = new CaSessionBean();
+        setField(caSession, "entityManager", recorder.getEntityManager());
+        setField(caSession, "accessSession", stub(AccessControlSessionLocal.class));
+        setField(caSession, "cacheInvalidationSession", stub(CacheInvalidationSessionLocal.class));
+        setField(caSession, "logSession", stub(SecurityEventsLoggerSessionLocal.class));
+        caSession.renameCA(new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("CaSessionBeanTest")), "OldName", "NewName");
+        assertEquals("NewName", caData.getName());
+        assertTrue("The update time of a renamed CA must increase, even if it is in the future.", caData.getUpdateTime() > updateTime);
+    }
+
+    private static void setField(final Object object, final String name, final Object value) throws Exception {
+        final Field field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(object, value);
+    }
+
+    /** @return a session bean that authorizes everything and does nothing else */
+    private static <T> T stub(final Class<T> sessionInterface) {
+        return sessionInterface.cast(Proxy.newProxyInstance(sessionInterface.getClassLoader(), new Class<?>[] { sessionInterface },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        return method.getReturnType() == boolean.class ? Boolean.TRUE : null;
+                    }
+                }));
+    }
+}
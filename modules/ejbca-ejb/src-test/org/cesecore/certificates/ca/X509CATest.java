@@ -21,6 +21,7 @@ import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeTrue;
 
 import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.math.BigInteger;
@@ -36,6 +37,7 @@ import java.security.cert.X509CRL;
 import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
@@ -46,6 +48,7 @@ import java.util.Set;
 
 import javax.security.auth.x500.X500Principal;
 
+import org.apache.log4j.Logger;
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1Enumerated;
@@ -117,6 +120,8 @@ import org.junit.Test;
  */
 public class X509CATest {
 
+    private static final Logger log = Logger.getLogger(X509CATest.class);
+
 	public static final String CADN = "CN=TEST";
 	
 	public X509CATest() {
@@ -609,6 +614,30 @@ public class X509CATest {
 	    }
 	}
 	
+	/** Test that a CRL encoded as a stream has the same content as a CRL built in memory */
+    @Test
+    public void testStreamedCRL() throws Exception {
+        final CryptoToken cryptoToken = getNewCryptoToken();
+        final X509CA testCa = createTestCA(cryptoToken, "CN=foo");
+        final Collection<RevokedCertInfo> revcerts = new ArrayList<RevokedCertInfo>();
+        final Date revDate = new Date();
+        for (int i=0; i<100; i++) {
+            revcerts.add(new RevokedCertInfo(("fingerprint"+i).getBytes(), BigInteger.valueOf(4711+i).toByteArray(), revDate.getTime(),
+                    RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, revDate.getTime()+3600000L));
+        }
+        final X509CRL xcrl = CertTools.getCRLfromByteArray(testCa.generateCRL(cryptoToken, revcerts, 7).getEncoded());
+        final X509CRL streamedXcrl = CertTools.getCRLfromByteArray(testCa.generateStreamedCRL(cryptoToken, revcerts, 7).getEncoded());
+        streamedXcrl.verify(testCa.getCACertificate().getPublicKey());
+        assertEquals(xcrl.getIssuerX500Principal(), streamedXcrl.getIssuerX500Principal());
+        assertEquals(xcrl.getRevokedCertificates(), streamedXcrl.getRevokedCertificates());
+        assertEquals(xcrl.getCriticalExtensionOIDs(), streamedXcrl.getCriticalExtensionOIDs());
+        assertEquals(xcrl.getNonCriticalExtensionOIDs(), streamedXcrl.getNonCriticalExtensionOIDs());
+        assertEquals(7, CrlExtensions.getCrlNumber(streamedXcrl).intValue());
+        final X509CRL streamedDeltaXcrl = CertTools.getCRLfromByteArray(testCa.generateStreamedDeltaCRL(cryptoToken, revcerts, 8, 7).getEncoded());
+        assertEquals(7, CrlExtensions.getDeltaCRLIndicator(streamedDeltaXcrl).intValue());
+        assertEquals(100, streamedDeltaXcrl.getRevokedCertificates().size());
+    }
+
 	/** Test implementation of Authority Information Access CRL Extension according to RFC 4325 */
     @Test
     public void testAuthorityInformationAccessCrlExtensionWithEmptyList() throws Exception{
@@ -812,6 +841,113 @@ public class X509CATest {
         assertTrue("Certificate JurisdictionCountry was not PrintableString encoded.", getValueFromDN(cert, CeSecoreNameStyle.JURISDICTION_COUNTRY) instanceof DERPrintableString); // C is always PrintableString
     }
     
+    /**
+     * Measures the CPU time and allocation of each certificate issued with a profile clone that shares the compiled profile, as returned from
+     * the profile cache, and with a profile that has to be compiled again for each certificate.
+     */
+    @Test
+    public void testGenerateCertificatePerformance() throws Exception {
+        final CryptoToken cryptoToken = getNewCryptoToken();
+        final X509CA testCa = createTestCA(cryptoToken, CADN);
+        final EndEntityInformation user = new EndEntityInformation("username", "CN=User,O=PrimeKey,C=SE", testCa.getCAId(), "dNSName=user.example.com",
+                null, new EndEntityType(EndEntityTypes.ENDUSER), 0, 0, EndEntityConstants.TOKEN_USERGEN, 0, null);
+        final KeyPair keypair = genTestKeyPair(AlgorithmConstants.SIGALG_SHA256_WITH_RSA);
+        final CertificateProfile cachedProfile = new CertificateProfile(CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER);
+        // Extensions that are kept in the extension template of the CA
+        enableTemplateExtensions(cachedProfile);
+        cachedProfile.getCompiled();
+        final int iterations = 500;
+        // Warm up
+        measureGenerateCertificate(cryptoToken, testCa, user, keypair, cachedProfile, false, iterations);
+        final long[] compiledOnce = measureGenerateCertificate(cryptoToken, testCa, user, keypair, cachedProfile, false, iterations);
+        final long[] compiledEachTime = measureGenerateCertificate(cryptoToken, testCa, user, keypair, cachedProfile, true, iterations);
+        log.info("generateCertificate with cached compiled profile and extension template: " + compiledOnce[0] / iterations + " us CPU and " + compiledOnce[1] / iterations
+                + " bytes allocated per certificate.");
+        log.info("generateCertificate compiling the profile and creating the extensions each time: " + compiledEachTime[0] / iterations + " us CPU and "
+                + compiledEachTime[1] / iterations + " bytes allocated per certificate.");
+    }
+
+    /**
+     * Tests that the standard extensions from the extension template of the CA are the same as when they are created, and that they are
+     * created again when the CA or the profile is changed.
+     */
+    @Test
+    public void testExtensionTemplate() throws Exception {
+        final CryptoToken cryptoToken = getNewCryptoToken();
+        final X509CA testCa = createTestCA(cryptoToken, CADN);
+        testCa.setDefaultCRLDistPoint("http://crl.example.com/ca.crl");
+        final EndEntityInformation user = new EndEntityInformation("username", "CN=User,O=PrimeKey,C=SE", testCa.getCAId(), null, null,
+                new EndEntityType(EndEntityTypes.ENDUSER), 0, 0, EndEntityConstants.TOKEN_USERGEN, 0, null);
+        final KeyPair keypair = genTestKeyPair(AlgorithmConstants.SIGALG_SHA256_WITH_RSA);
+        final CertificateProfile cachedProfile = new CertificateProfile(CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER);
+        enableTemplateExtensions(cachedProfile);
+        cachedProfile.setUseDefaultCRLDistributionPoint(true);
+        final X509Certificate first = (X509Certificate) testCa.generateCertificate(cryptoToken, user, keypair.getPublic(), -1, null, 10L,
+                cachedProfile.clone(), "00000");
+        final X509Certificate second = (X509Certificate) testCa.generateCertificate(cryptoToken, user, keypair.getPublic(), -1, null, 10L,
+                cachedProfile.clone(), "00000");
+        final ASN1ObjectIdentifier[] templateExtensions = { Extension.authorityKeyIdentifier, Extension.cRLDistributionPoints,
+                Extension.authorityInfoAccess, Extension.certificatePolicies, Extension.freshestCRL };
+        for (final ASN1ObjectIdentifier oid : templateExtensions) {
+            assertNotNull("Missing extension " + oid, first.getExtensionValue(oid.getId()));
+            assertTrue("Extension " + oid + " from the template differs", Arrays.equals(first.getExtensionValue(oid.getId()),
+                    second.getExtensionValue(oid.getId())));
+        }
+        assertEquals("http://crl.example.com/ca.crl", CertTools.getCrlDistributionPoint(second).toString());
+        // A change of the CA is seen
+        testCa.setDefaultCRLDistPoint("http://crl2.example.com/ca.crl");
+        final X509Certificate third = (X509Certificate) testCa.generateCertificate(cryptoToken, user, keypair.getPublic(), -1, null, 10L,
+                cachedProfile.clone(), "00000");
+        assertEquals("http://crl2.example.com/ca.crl", CertTools.getCrlDistributionPoint(third).toString());
+        // A change of the profile is seen
+        cachedProfile.setUseDefaultCRLDistributionPoint(false);
+        cachedProfile.setCRLDistributionPointURI("http://crl3.example.com/ca.crl");
+        final X509Certificate fourth = (X509Certificate) testCa.generateCertificate(cryptoToken, user, keypair.getPublic(), -1, null, 10L,
+                cachedProfile.clone(), "00000");
+        assertEquals("http://crl3.example.com/ca.crl", CertTools.getCrlDistributionPoint(fourth).toString());
+        // An extension that is no longer used is left out
+        final CertificateProfile changedProfile = cachedProfile.clone();
+        changedProfile.setUseCertificatePolicies(false);
+        final X509Certificate fifth = (X509Certificate) testCa.generateCertificate(cryptoToken, user, keypair.getPublic(), -1, null, 10L,
+                changedProfile, "00000");
+        assertNull(fifth.getExtensionValue(Extension.certificatePolicies.getId()));
+        assertNotNull(fifth.getExtensionValue(Extension.cRLDistributionPoints.getId()));
+    }
+
+    private void enableTemplateExtensions(final CertificateProfile certProfile) {
+        certProfile.setUseCRLDistributionPoint(true);
+        certProfile.setCRLDistributionPointURI("http://crl.example.com/test.crl");
+        certProfile.setUseAuthorityInformationAccess(true);
+        certProfile.setOCSPServiceLocatorURI("http://ocsp.example.com");
+        certProfile.setUseCertificatePolicies(true);
+        certProfile.addCertificatePolicy(new CertificatePolicy("1.1.1.2", null, null));
+        certProfile.setUseFreshestCRL(true);
+        certProfile.setFreshestCRLURI("http://crl.example.com/delta.crl");
+    }
+
+    /** @return the total CPU time in microseconds and the total number of allocated bytes (or -1 if not supported by the JVM) */
+    private long[] measureGenerateCertificate(final CryptoToken cryptoToken, final X509CA testCa, final EndEntityInformation user, final KeyPair keypair,
+            final CertificateProfile cachedProfile, final boolean changeProfile, final int iterations) throws Exception {
+        final java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final boolean measureAllocation = threadMXBean instanceof com.sun.management.ThreadMXBean;
+        final long startAllocated = measureAllocation ? ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadId) : 0;
+        final long startCpu = threadMXBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < iterations; i++) {
+            // Like CertificateCreateSessionBean, that gets a clone from the profile cache
+            final CertificateProfile certProfile = cachedProfile.clone();
+            if (changeProfile) {
+                certProfile.setValidity(730);
+            }
+            final X509Certificate cert = (X509Certificate) testCa.generateCertificate(cryptoToken, user, keypair.getPublic(), -1, null, 10L, certProfile,
+                    "00000");
+            assertNotNull(cert.getExtensionValue(Extension.keyUsage.getId()));
+        }
+        final long cpu = (threadMXBean.getCurrentThreadCpuTime() - startCpu) / 1000L;
+        final long allocated = measureAllocation ? ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadId) - startAllocated : -1;
+        return new long[] { cpu, allocated };
+    }
+
     private static ASN1Encodable getValueFromDN(Certificate cert, ASN1ObjectIdentifier oid) {
         final X500Principal principal = ((X509Certificate)cert).getSubjectX500Principal();
         final X500Name xname = X500Name.getInstance(principal.getEncoded());
@@ -73,6 +73,7 @@ public class CaCacheTest {
         CaCache.INSTANCE.updateWith(ca2.getCAId(), 1, name2, ca2);
         CaCache.INSTANCE.updateWith(ca3.getCAId(), 1, name3, ca3);
         assertEquals("Expected empty map for disabled cache.", 0, CaCache.INSTANCE.getNameToIdMap().entrySet().size());
+        assertFalse("Disabled cache indicated that an object is current.", CaCache.INSTANCE.isCurrent(ca1.getCAId(), 1));
         assertNull("Empty cache returned an entry anyway.", CaCache.INSTANCE.getEntry(ca1.getCAId()));
         assertNull("Empty cache returned an entry anyway.", CaCache.INSTANCE.getEntry(ca2.getCAId()));
         assertNull("Empty cache returned an entry anyway.", CaCache.INSTANCE.getEntry(ca3.getCAId()));
@@ -140,11 +141,15 @@ public class CaCacheTest {
         assertEquals("Cache was updated even though digest didn't change.", ca1, CaCache.INSTANCE.getEntry(ca1.getCAId()));
         assertEquals("Cache wasn't updated even though digest did change.", ca3, CaCache.INSTANCE.getEntry(ca2.getCAId()));
         assertEquals("Cache wasn't updated even though digest did change.", ca2, CaCache.INSTANCE.getEntry(ca3.getCAId()));
+        assertTrue("Cache indicated that object with the same digest is not current.", CaCache.INSTANCE.isCurrent(ca1.getCAId(), 1));
+        assertTrue("Cache indicated that object with the same digest is not current.", CaCache.INSTANCE.isCurrent(ca2.getCAId(), 2));
+        assertFalse("Cache indicated that object with another digest is current.", CaCache.INSTANCE.isCurrent(ca3.getCAId(), 1));
         // Notify cache that the objects should be removed from the cache
         CaCache.INSTANCE.updateWith(ca1.getCAId(), 1, null, null);
         CaCache.INSTANCE.updateWith(ca2.getCAId(), 1, null, ca2);
         CaCache.INSTANCE.updateWith(ca3.getCAId(), 1, name3, null);
         assertEquals("Expected empty map for after removing objects.", 0, CaCache.INSTANCE.getNameToIdMap().entrySet().size());
+        assertFalse("Cache indicated that removed object is current.", CaCache.INSTANCE.isCurrent(ca1.getCAId(), 1));
         assertNull("Empty cache returned an entry anyway.", CaCache.INSTANCE.getEntry(ca1.getCAId()));
         assertNull("Empty cache returned an entry anyway.", CaCache.INSTANCE.getEntry(ca2.getCAId()));
         assertNull("Empty cache returned an entry anyway.", CaCache.INSTANCE.getEntry(ca3.getCAId()));
@@ -0,0 +1,126 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.config.ConfigurationHolder;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the statements of the CertificateData queries that are used for CRL generation and the OCSP status index.
+ *
+ * @version $Id$
+ */
+public class CertificateDataQueryTest {
+
+    private static final String ISSUER_DN = "CN=Test CA";
+
+    @After
+    public void tearDown() {
+        ConfigurationHolder.updateConfiguration("database.crlgenfetchsize", "500000");
+    }
+
+    /** The first batch must not have a condition on the fingerprint, since '' is NULL on Oracle and no row would be returned. */
+    @Test
+    public void testRevokedCertInfosBatches() {
+        ConfigurationHolder.updateConfiguration("database.crlgenfetchsize", "2");
+        final RecordingEntityManager recorder = new RecordingEntityManager();
+        recorder.addResult(rows(revokedRow("01", 1), revokedRow("02", 2)));
+        recorder.addResult(rows(revokedRow("03", 3)));
+        final Collection<RevokedCertInfo> revokedCertInfos = CertificateData.getRevokedCertInfos(recorder.getEntityManager(), ISSUER_DN, 0);
+        assertEquals(3, revokedCertInfos.size());
+        final List<RecordingEntityManager.RecordedQuery> queries = recorder.getQueries();
+        assertEquals("The last batch was shorter than the fetch size, so no more batches should be read", 2, queries.size());
+        assertFalse(queries.get(0).getStatement().contains("fingerprint>"));
+        assertFalse(queries.get(0).getParameters().containsKey("lastFingerprint"));
+        assertEquals(ISSUER_DN, queries.get(0).getParameters().get("issuerDN"));
+        assertEquals(2, queries.get(0).getMaxResults());
+        assertTrue(queries.get(1).getStatement().contains("a.fingerprint>:lastFingerprint"));
+        assertEquals("02", queries.get(1).getParameters().get("lastFingerprint"));
+        assertEquals(ISSUER_DN, queries.get(1).getParameters().get("issuerDN"));
+    }
+
+    @Test
+    public void testRevokedCertInfosUpdatedAfterFirstBatch() {
+        final RecordingEntityManager recorder = new RecordingEntityManager();
+        recorder.addResult(rows(revokedRow("01", 1)));
+        assertEquals(1, CertificateData.getRevokedCertInfosUpdatedAfter(recorder.getEntityManager(), ISSUER_DN, 1000L).size());
+        recorder.addResult(rows(revokedRow("02", 2)));
+        assertEquals(1, CertificateData.getUnrevokedCertInfosUpdatedAfter(recorder.getEntityManager(), ISSUER_DN, 1000L).size());
+        assertEquals(2, recorder.getQueries().size());
+        for (final RecordingEntityManager.RecordedQuery query : recorder.getQueries()) {
+            assertFalse(query.getStatement().contains("fingerprint>"));
+            assertEquals(Long.valueOf(1000L), query.getParameters().get("updateTime"));
+        }
+    }
+
+    @Test
+    public void testStatusBatch() {
+        final RecordingEntityManager recorder = new RecordingEntityManager();
+        CertificateData.getStatusBatch(recorder.getEntityManager(), ISSUER_DN, true, 0, null, 10);
+        CertificateData.getStatusBatch(recorder.getEntityManager(), ISSUER_DN, true, 0, "0a", 10);
+        final List<RecordingEntityManager.RecordedQuery> queries = recorder.getQueries();
+        assertFalse(queries.get(0).getStatement().contains("fingerprint>"));
+        assertFalse(queries.get(0).getParameters().containsKey("lastFingerprint"));
+        assertTrue(queries.get(1).getStatement().contains("a.fingerprint>:lastFingerprint"));
+        assertEquals("0a", queries.get(1).getParameters().get("lastFingerprint"));
+    }
+
+    /** The count must be COUNT(*) with conditions on the columns of certificatedata_idx6 only, and accept any numeric type of the database */
+    @Test
+    public void testRevokedCount() {
+        final RecordingEntityManager recorder = new RecordingEntityManager();
+        recorder.addResult(new BigDecimal(42));
+        assertEquals(42, CertificateData.getRevokedCount(recorder.getEntityManager(), ISSUER_DN));
+        final RecordingEntityManager.RecordedQuery query = recorder.getQueries().get(0);
+        assertTrue(query.getStatement().startsWith("SELECT COUNT(*) FROM CertificateData a WHERE"));
+        assertEquals(2, query.getParameters().size());
+        assertEquals(ISSUER_DN, query.getParameters().get("issuerDN"));
+        assertEquals(CertificateConstants.CERT_REVOKED, query.getParameters().get("status"));
+    }
+
+    @Test
+    public void testIssuedCount() {
+        final RecordingEntityManager recorder = new RecordingEntityManager();
+        recorder.addResult(Integer.valueOf(4711));
+        assertEquals(4711, CertificateData.getIssuedCount(recorder.getEntityManager(), ISSUER_DN));
+        final RecordingEntityManager.RecordedQuery query = recorder.getQueries().get(0);
+        assertEquals("SELECT COUNT(*) FROM CertificateData a WHERE a.issuerDN=:issuerDN", query.getStatement());
+        assertEquals(1, query.getParameters().size());
+        assertEquals(ISSUER_DN, query.getParameters().get("issuerDN"));
+    }
+
+    private static List<Object[]> rows(final Object[]... rows) {
+        final List<Object[]> ret = new ArrayList<Object[]>();
+        for (final Object[] row : rows) {
+            ret.add(row);
+        }
+        return ret;
+    }
+
+    /** @return a row of a RevokedCertInfoSubset query */
+    private static Object[] revokedRow(final String fingerprint, final long serialNumber) {
+        return new Object[] { fingerprint, String.valueOf(serialNumber), Long.valueOf(Long.MAX_VALUE), Long.valueOf(1000L),
+                Integer.valueOf(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE) };
+    }
+}
@@ -0,0 +1,321 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.authorization.control.AccessControlSessionLocal;
+import org.cesecore.certificates.ca.internal.CaCertificateCache;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.ocsp.cache.OcspHttpResponseCache;
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.internal.CacheInvalidationSessionLocal;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests of the status lookups and certificate storing of CertificateStoreSessionBean, with stubs for the database and the other beans.
+ *
+ * @version $Id$
+ */
+public class CertificateStoreSessionBeanTest {
+
+    private static final String ISSUER_DN = "cn=Test CA, o=Test";
+    /** The issuer DN as it is stored in the database */
+    private static final String NORMALIZED_ISSUER_DN = "CN=Test CA,O=Test";
+    private static final String VERIFY_PROPERTY = "databaseprotection.enableverify.CertificateData";
+
+    private final RecordingEntityManager recorder = new RecordingEntityManager();
+
+    @After
+    public void tearDown() {
+        ConfigurationHolder.updateConfiguration(VERIFY_PROPERTY, "false");
+    }
+
+    /** Without row protection verification only the status columns are read */
+    @Test
+    public void testGetStatusFromStatusColumns() throws Exception {
+        final CertificateStoreSessionBean certificateStoreSession = getCertificateStoreSession();
+        recorder.addResult(Collections.singletonList(statusRow(CertificateConstants.CERT_REVOKED, 1000L, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 5)));
+        final CertificateStatus status = certificateStoreSession.getStatus(ISSUER_DN, BigInteger.valueOf(4711));
+        assertEquals(CertificateStatus.REVOKED, status);
+        assertEquals(1000L, status.revocationDate.getTime());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, status.revocationReason);
+        assertEquals(5, status.certificateProfileId);
+        final RecordingEntityManager.RecordedQuery query = recorder.getQueries().get(0);
+        assertTrue(query.getStatement().startsWith("SELECT a.status, a.revocationDate, a.revocationReason, a.certificateProfileId FROM"));
+        assertEquals(NORMALIZED_ISSUER_DN, query.getParameters().get("issuerDN"));
+        assertEquals("4711", query.getParameters().get("serialNumber"));
+        assertEquals(2, query.getMaxResults());
+        // An archived certificate that was never revoked is not revoked
+        recorder.addResult(Collections.singletonList(statusRow(CertificateConstants.CERT_ARCHIVED, 1000L, RevokedCertInfo.NOT_REVOKED, 0)));
+        assertFalse(certificateStoreSession.isRevoked(ISSUER_DN, BigInteger.valueOf(4711)));
+        // Missing certificates are not available, and revoked to be on the safe side
+        assertEquals(CertificateStatus.NOT_AVAILABLE, certificateStoreSession.getStatus(ISSUER_DN, BigInteger.valueOf(4712)));
+        assertTrue(certificateStoreSession.isRevoked(ISSUER_DN, BigInteger.valueOf(4712)));
+    }
+
+    /** With row protection verification the entities are read, so that the row protection is verified when they are loaded */
+    @Test
+    public void testGetStatusWithRowProtectionVerification() throws Exception {
+        ConfigurationHolder.updateConfiguration(VERIFY_PROPERTY, "true");
+        final CertificateStoreSessionBean certificateStoreSession = getCertificateStoreSession();
+        recorder.addResult(entities(certificateData("4711", CertificateConstants.CERT_REVOKED, 1000L, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 5)));
+        final CertificateStatus status = certificateStoreSession.getStatus(ISSUER_DN, BigInteger.valueOf(4711));
+        assertEquals(CertificateStatus.REVOKED, status);
+        assertEquals(1000L, status.revocationDate.getTime());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, status.revocationReason);
+        assertEquals(5, status.certificateProfileId);
+        recorder.addResult(entities(certificateData("4711", CertificateConstants.CERT_ACTIVE, -1L, RevokedCertInfo.NOT_REVOKED, 5)));
+        assertFalse(certificateStoreSession.isRevoked(ISSUER_DN, BigInteger.valueOf(4711)));
+        for (final RecordingEntityManager.RecordedQuery query : recorder.getQueries()) {
+            assertTrue(query.getStatement().startsWith("SELECT a FROM CertificateData a"));
+            assertEquals(NORMALIZED_ISSUER_DN, query.getParameters().get("issuerDN"));
+        }
+    }
+
+    /** The serial numbers are bound as one collection parameter, in chunks of at most 100 */
+    @Test
+    public void testGetStatuses() throws Exception {
+        final CertificateStoreSessionBean certificateStoreSession = getCertificateStoreSession();
+        final List<BigInteger> serialNumbers = new ArrayList<BigInteger>();
+        for (int i = 1; i <= 250; i++) {
+            serialNumbers.add(BigInteger.valueOf(i));
+        }
+        // Duplicate serial numbers in the request are only looked up once
+        serialNumbers.add(BigInteger.valueOf(1));
+        final List<Object[]> firstChunk = new ArrayList<Object[]>();
+        firstChunk.add(statusesRow("1", CertificateConstants.CERT_REVOKED, 1000L, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 5));
+        firstChunk.add(statusesRow("2", CertificateConstants.CERT_ACTIVE, -1L, RevokedCertInfo.NOT_REVOKED, 5));
+        // A second row with the same issuer and serial number is ignored, like getStatus uses the first row it finds
+        firstChunk.add(statusesRow("2", CertificateConstants.CERT_REVOKED, 1000L, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 5));
+        recorder.addResult(firstChunk);
+        recorder.addResult(Collections.singletonList(statusesRow("150", CertificateConstants.CERT_REVOKED, 2000L,
+                RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, 6)));
+        final Map<BigInteger, CertificateStatus> statuses = certificateStoreSession.getStatuses(ISSUER_DN, serialNumbers);
+        assertEquals(250, statuses.size());
+        assertEquals(CertificateStatus.REVOKED, statuses.get(BigInteger.valueOf(1)));
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, statuses.get(BigInteger.valueOf(1)).revocationReason);
+        assertEquals(CertificateStatus.OK, statuses.get(BigInteger.valueOf(2)));
+        assertEquals(CertificateStatus.REVOKED, statuses.get(BigInteger.valueOf(150)));
+        assertEquals(2000L, statuses.get(BigInteger.valueOf(150)).revocationDate.getTime());
+        assertEquals(6, statuses.get(BigInteger.valueOf(150)).certificateProfileId);
+        assertEquals(CertificateStatus.NOT_AVAILABLE, statuses.get(BigInteger.valueOf(3)));
+        assertEquals(CertificateStatus.NOT_AVAILABLE, statuses.get(BigInteger.valueOf(250)));
+        final List<RecordingEntityManager.RecordedQuery> queries = recorder.getQueries();
+        assertEquals(3, queries.size());
+        final int[] chunkSizes = { 100, 100, 50 };
+        for (int i = 0; i < queries.size(); i++) {
+            final RecordingEntityManager.RecordedQuery query = queries.get(i);
+            assertTrue(query.getStatement().endsWith("a.serialNumber IN (:serialNumbers)"));
+            assertFalse("Serial numbers must not be written into the statement", query.getStatement().contains("'"));
+            assertEquals(NORMALIZED_ISSUER_DN, query.getParameters().get("issuerDN"));
+            final Collection<?> boundSerialNumbers = (Collection<?>) query.getParameters().get("serialNumbers");
+            assertEquals(chunkSizes[i], boundSerialNumbers.size());
+            assertTrue(boundSerialNumbers.contains(String.valueOf(i * 100 + 1)));
+        }
+    }
+
+    /** With row protection verification the entities are read in one query per chunk as well */
+    @Test
+    public void testGetStatusesWithRowProtectionVerification() throws Exception {
+        ConfigurationHolder.updateConfiguration(VERIFY_PROPERTY, "true");
+        final CertificateStoreSessionBean certificateStoreSession = getCertificateStoreSession();
+        recorder.addResult(entities(certificateData("1", CertificateConstants.CERT_REVOKED, 1000L, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 5),
+                certificateData("2", CertificateConstants.CERT_ARCHIVED, 1000L, RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL, 5)));
+        final Map<BigInteger, CertificateStatus> statuses = certificateStoreSession.getStatuses(ISSUER_DN,
+                Arrays.asList(BigInteger.valueOf(1), BigInteger.valueOf(2), BigInteger.valueOf(3)));
+        assertEquals(CertificateStatus.REVOKED, statuses.get(BigInteger.valueOf(1)));
+        assertEquals(1000L, statuses.get(BigInteger.valueOf(1)).revocationDate.getTime());
+        assertEquals(CertificateStatus.OK, statuses.get(BigInteger.valueOf(2)));
+        assertEquals(CertificateStatus.NOT_AVAILABLE, statuses.get(BigInteger.valueOf(3)));
+        final RecordingEntityManager.RecordedQuery query = recorder.getQueries().get(0);
+        assertEquals(1, recorder.getQueries().size());
+        assertTrue(query.getStatement().startsWith("SELECT a FROM CertificateData a"));
+        assertEquals(Arrays.asList("1", "2", "3"), query.getParameters().get("serialNumbers"));
+    }
+
+    /** A new CA certificate is added to the CA certificate cache when it has been committed, and not if the transaction is rolled back */
+    @Test
+    public void testCaCertificateAddedToCacheAfterCommit() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        final KeyPair keyPair = KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA);
+        final List<Synchronization> synchronizations = new ArrayList<Synchronization>();
+        final CertificateStoreSessionBean certificateStoreSession = getCertificateStoreSession();
+        setField(certificateStoreSession, "logSession", Proxy.newProxyInstance(SecurityEventsLoggerSessionLocal.class.getClassLoader(),
+                new Class<?>[] { SecurityEventsLoggerSessionLocal.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        return null;
+                    }
+                }));
+        setField(certificateStoreSession, "transactionSynchronizationRegistry", getTransactionSynchronizationRegistry(synchronizations));
+        final AuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("CertificateStoreSessionBeanTest"));
+        // Rolled back
+        final X509Certificate rolledBack = CertTools.genSelfCert("CN=CertificateStoreSessionBeanTest rolled back", 1, null, keyPair.getPrivate(),
+                keyPair.getPublic(), AlgorithmConstants.SIGALG_SHA256_WITH_RSA, true);
+        certificateStoreSession.storeCertificateNoAuth(admin, rolledBack, "rolledBack", null, CertificateConstants.CERT_ACTIVE,
+                CertificateConstants.CERTTYPE_ROOTCA, CertificateProfileConstants.CERTPROFILE_FIXED_ROOTCA, null, System.currentTimeMillis());
+        assertEquals(1, synchronizations.size());
+        synchronizations.get(0).afterCompletion(Status.STATUS_ROLLEDBACK);
+        assertNull(CaCertificateCache.INSTANCE.findLatestBySubjectDN(HashID.getFromSubjectDN(rolledBack)));
+        // Committed
+        final X509Certificate committed = CertTools.genSelfCert("CN=CertificateStoreSessionBeanTest committed", 1, null, keyPair.getPrivate(),
+                keyPair.getPublic(), AlgorithmConstants.SIGALG_SHA256_WITH_RSA, true);
+        certificateStoreSession.storeCertificateNoAuth(admin, committed, "committed", null, CertificateConstants.CERT_ACTIVE,
+                CertificateConstants.CERTTYPE_ROOTCA, CertificateProfileConstants.CERTPROFILE_FIXED_ROOTCA, null, System.currentTimeMillis());
+        assertEquals(2, synchronizations.size());
+        assertNull("Not in the cache before the commit", CaCertificateCache.INSTANCE.findLatestBySubjectDN(HashID.getFromSubjectDN(committed)));
+        synchronizations.get(1).afterCompletion(Status.STATUS_COMMITTED);
+        assertEquals(committed, CaCertificateCache.INSTANCE.findLatestBySubjectDN(HashID.getFromSubjectDN(committed)));
+        assertEquals(2, recorder.getPersisted().size());
+        CaCertificateCache.INSTANCE.removeCertificate(committed);
+    }
+
+    /** Cached responses to OCSP GET requests must be removed after the commit, or a request could add the old status again */
+    @Test
+    public void testOcspHttpResponsesInvalidatedAfterCommit() throws Exception {
+        final List<Synchronization> synchronizations = new ArrayList<Synchronization>();
+        final List<String> publishedKeys = new ArrayList<String>();
+        final CertificateStoreSessionBean certificateStoreSession = getCertificateStoreSession();
+        setField(certificateStoreSession, "accessSession", Proxy.newProxyInstance(AccessControlSessionLocal.class.getClassLoader(),
+                new Class<?>[] { AccessControlSessionLocal.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        return Boolean.TRUE;
+                    }
+                }));
+        setField(certificateStoreSession, "cacheInvalidationSession", Proxy.newProxyInstance(CacheInvalidationSessionLocal.class.getClassLoader(),
+                new Class<?>[] { CacheInvalidationSessionLocal.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        assertEquals(OcspHttpResponseCache.CACHE_NAME, args[0]);
+                        publishedKeys.add((String) args[1]);
+                        return null;
+                    }
+                }));
+        setField(certificateStoreSession, "transactionSynchronizationRegistry", getTransactionSynchronizationRegistry(synchronizations));
+        final String url = "http://ocsp.example.com/ejbca/publicweb/status/ocsp";
+        final long nextUpdate = System.currentTimeMillis() + 60000L;
+        final BigInteger revokedSerialNumber = BigInteger.valueOf(0x1a);
+        try {
+            OcspHttpResponseCache.INSTANCE.put(url, new byte[] { 1 }, new OcspHttpResponseCache.Entry(new byte[10], "00", nextUpdate - 120000L,
+                    nextUpdate, 60000L, revokedSerialNumber), OcspHttpResponseCache.INSTANCE.getGeneration());
+            OcspHttpResponseCache.INSTANCE.put(url, new byte[] { 2 }, new OcspHttpResponseCache.Entry(new byte[10], "00", nextUpdate - 120000L,
+                    nextUpdate, 60000L, BigInteger.valueOf(0x2b)), OcspHttpResponseCache.INSTANCE.getGeneration());
+            final RevokedCertInfo entry = new RevokedCertInfo(null, revokedSerialNumber.toByteArray(), System.currentTimeMillis(),
+                    RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, nextUpdate);
+            assertEquals(1, certificateStoreSession.updateLimitedCertificateDataStatuses(new AlwaysAllowLocalAuthenticationToken(
+                    new UsernamePrincipal("CertificateStoreSessionBeanTest")), 0, ISSUER_DN, Collections.singletonList(entry), "00"));
+            assertEquals("Other nodes should be told to remove the response", Collections.singletonList("1a"), publishedKeys);
+            assertEquals(1, synchronizations.size());
+            assertNotNull("Not removed before the commit", OcspHttpResponseCache.INSTANCE.get(url, new byte[] { 1 }));
+            synchronizations.get(0).afterCompletion(Status.STATUS_COMMITTED);
+            assertNull(OcspHttpResponseCache.INSTANCE.get(url, new byte[] { 1 }));
+            assertNotNull(OcspHttpResponseCache.INSTANCE.get(url, new byte[] { 2 }));
+        } finally {
+            OcspHttpResponseCache.INSTANCE.clear();
+        }
+    }
+
+    private CertificateStoreSessionBean getCertificateStoreSession() throws Exception {
+        final CertificateStoreSessionBean certificateStoreSession = new CertificateStoreSessionBean();
+        setField(certificateStoreSession, "entityManager", recorder.getEntityManager());
+        return certificateStoreSession;
+    }
+
+    /** @return a registry that adds the registered synchronizations to the list */
+    private static TransactionSynchronizationRegistry getTransactionSynchronizationRegistry(final List<Synchronization> synchronizations) {
+        return (TransactionSynchronizationRegistry) Proxy.newProxyInstance(TransactionSynchronizationRegistry.class.getClassLoader(),
+                new Class<?>[] { TransactionSynchronizationRegistry.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        if (method.getName().equals("registerInterposedSynchronization")) {
+                            synchronizations.add((Synchronization) args[0]);
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static void setField(final Object object, final String name, final Object value) throws Exception {
+        final Field field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(object, value);
+    }
+
+    /** @return a row of a CertificateStatusSubset query */
+    private static Object[] statusRow(final int status, final long revocationDate, final int revocationReason, final int certificateProfileId) {
+        return new Object[] { Integer.valueOf(status), Long.valueOf(revocationDate), Integer.valueOf(revocationReason), Integer.valueOf(certificateProfileId) };
+    }
+
+    /** @return a row of the status query for several serial numbers */
+    private static Object[] statusesRow(final String serialNumber, final int status, final long revocationDate, final int revocationReason,
+            final int certificateProfileId) {
+        return new Object[] { serialNumber, Integer.valueOf(status), Long.valueOf(revocationDate), Integer.valueOf(revocationReason),
+                Integer.valueOf(certificateProfileId), "fp" + serialNumber };
+    }
+
+    private static CertificateData certificateData(final String serialNumber, final int status, final long revocationDate, final int revocationReason,
+            final int certificateProfileId) {
+        final CertificateData certificateData = new CertificateData();
+        certificateData.setFingerprint("fp" + serialNumber);
+        certificateData.setIssuerDN(NORMALIZED_ISSUER_DN);
+        certificateData.setSerialNumber(serialNumber);
+        certificateData.setStatus(status);
+        certificateData.setRevocationDate(revocationDate);
+        certificateData.setRevocationReason(revocationReason);
+        certificateData.setCertificateProfileId(Integer.valueOf(certificateProfileId));
+        return certificateData;
+    }
+
+    private static List<CertificateData> entities(final CertificateData... certificateDatas) {
+        final List<CertificateData> ret = new ArrayList<CertificateData>();
+        for (final CertificateData certificateData : certificateDatas) {
+            ret.add(certificateData);
+        }
+        return ret;
+    }
+}
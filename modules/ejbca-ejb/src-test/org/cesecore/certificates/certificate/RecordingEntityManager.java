@@ -0,0 +1,113 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+/**
+ * EntityManager for unit tests of queries, that records the statements that are created with their parameters, and returns results
+ * that are queued by the test in the order the queries are run. Persisted entities are recorded as well.
+ *
+ * @version $Id$
+ */
+public class RecordingEntityManager {
+
+    /** A statement that was created, with the parameters and maximum number of results that were set before it was run. */
+    public static class RecordedQuery {
+        private final String statement;
+        private final Map<String, Object> parameters = new HashMap<String, Object>();
+        private int maxResults = -1;
+
+        RecordedQuery(final String statement) {
+            this.statement = statement;
+        }
+
+        public String getStatement() { return statement; }
+        public Map<String, Object> getParameters() { return parameters; }
+        public int getMaxResults() { return maxResults; }
+    }
+
+    private final List<RecordedQuery> queries = new ArrayList<RecordedQuery>();
+    private final LinkedList<Object> results = new LinkedList<Object>();
+    private final List<Object> persisted = new ArrayList<Object>();
+
+    /** Queues the result of the next query that is run, a List for getResultList or any object for getSingleResult. */
+    public void addResult(final Object result) {
+        results.add(result);
+    }
+
+    /** @return the queries in the order they were created */
+    public List<RecordedQuery> getQueries() {
+        return queries;
+    }
+
+    /** @return the entities that have been persisted, in order */
+    public List<Object> getPersisted() {
+        return persisted;
+    }
+
+    public EntityManager getEntityManager() {
+        return (EntityManager) Proxy.newProxyInstance(EntityManager.class.getClassLoader(), new Class<?>[] { EntityManager.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        if (method.getName().equals("createNativeQuery") || method.getName().equals("createQuery")) {
+                            final RecordedQuery recordedQuery = new RecordedQuery((String) args[0]);
+                            queries.add(recordedQuery);
+                            return createQuery(recordedQuery);
+                        } else if (method.getName().equals("persist")) {
+                            persisted.add(args[0]);
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private Query createQuery(final RecordedQuery recordedQuery) {
+        return (Query) Proxy.newProxyInstance(Query.class.getClassLoader(), new Class<?>[] { Query.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                final String name = method.getName();
+                if (name.equals("setParameter") && args[0] instanceof String) {
+                    recordedQuery.parameters.put((String) args[0], args[1]);
+                    return proxy;
+                } else if (name.equals("setMaxResults")) {
+                    recordedQuery.maxResults = ((Integer) args[0]).intValue();
+                    return proxy;
+                } else if (name.equals("getResultList")) {
+                    return results.isEmpty() ? Collections.emptyList() : results.removeFirst();
+                } else if (name.equals("getSingleResult")) {
+                    if (results.isEmpty()) {
+                        throw new IllegalStateException("No result queued for " + recordedQuery.statement);
+                    }
+                    return results.removeFirst();
+                } else if (Query.class.isAssignableFrom(method.getReturnType())) {
+                    return proxy;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+}
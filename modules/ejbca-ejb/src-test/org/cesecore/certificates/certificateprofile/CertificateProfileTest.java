@@ -628,7 +628,54 @@ public class CertificateProfileTest {
         assertEquals("1.1.1.3", pol.getPolicyID() );
         assertNull(pol.getQualifier());
         assertEquals("foo", pol.getQualifierId());
-    } 
+    }
+
+    @Test
+    public void test12CompiledProfile() throws Exception {
+        final CertificateProfile prof = new CertificateProfile(CertificateProfileConstants.CERTPROFILE_FIXED_SERVER);
+        prof.setValidity(365);
+        prof.setUseCNPostfix(true);
+        prof.setCNPostfix(" postfix");
+        final ArrayList<Integer> customExtensions = new ArrayList<Integer>();
+        customExtensions.add(Integer.valueOf(1));
+        prof.setUsedCertificateExtensions(customExtensions);
+        final CompiledCertificateProfile compiled = prof.getCompiled();
+        assertTrue("The compiled profile should be kept until the profile is changed", compiled == prof.getCompiled());
+        assertEquals(prof.getType(), compiled.getType());
+        assertEquals(365, compiled.getValidity());
+        assertEquals(prof.getSignatureAlgorithm(), compiled.getSignatureAlgorithm());
+        assertTrue(compiled.getUseCNPostfix());
+        assertEquals(" postfix", compiled.getCNPostfix());
+        assertEquals(prof.getUseLdapDnOrder(), compiled.getUseLdapDnOrder());
+        assertEquals(prof.getKeyUsageCritical(), compiled.getKeyUsageCritical());
+        assertEquals(CertTools.sunKeyUsageToBC(prof.getKeyUsage()), compiled.getKeyUsage());
+        assertEquals(customExtensions, compiled.getUsedCertificateExtensions());
+        final List<String> standardExtensions = prof.getUsedStandardCertificateExtensions();
+        assertEquals(standardExtensions.size(), compiled.getUsedStandardCertificateExtensions().size());
+        for (int i = 0; i < standardExtensions.size(); i++) {
+            assertEquals(standardExtensions.get(i), compiled.getUsedStandardCertificateExtensions().get(i).getId());
+        }
+        final List<String> ekuOids = prof.getExtendedKeyUsageOids();
+        assertEquals(ekuOids.size(), compiled.getExtendedKeyUsage().getUsages().length);
+        assertEquals(ekuOids.get(0), compiled.getExtendedKeyUsage().getUsages()[0].getId());
 
+        // Clones, like the ones returned from the profile cache, share the compiled profile
+        final CertificateProfile clone = prof.clone();
+        assertTrue(compiled == clone.getCompiled());
+        // Any change of the profile should give a new compiled profile
+        clone.setKeyUsage(CertificateConstants.KEYENCIPHERMENT, !clone.getKeyUsage(CertificateConstants.KEYENCIPHERMENT));
+        assertFalse(compiled.getKeyUsage() == clone.getCompiled().getKeyUsage());
+        assertEquals(CertTools.sunKeyUsageToBC(prof.getKeyUsage()), prof.getCompiled().getKeyUsage());
+        prof.setAllowValidityOverride(true);
+        assertFalse(compiled == prof.getCompiled());
+        assertTrue(prof.getCompiled().getAllowValidityOverride());
+        final ArrayList<String> noEku = new ArrayList<String>();
+        prof.setExtendedKeyUsage(noEku);
+        assertNull(prof.getCompiled().getExtendedKeyUsage());
+        final CertificateProfile loaded = new CertificateProfile(CertificateProfileConstants.CERTPROFILE_NO_PROFILE);
+        loaded.getCompiled();
+        loaded.loadData(prof.saveData());
+        assertTrue(loaded.getCompiled().getAllowValidityOverride());
+    }
 
 }
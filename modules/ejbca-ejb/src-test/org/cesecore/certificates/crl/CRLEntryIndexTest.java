@@ -0,0 +1,116 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the index of encoded CRL entries used for incremental CRL generation.
+ *
+ * @version $Id$
+ */
+public class CRLEntryIndexTest {
+
+    private static final X500Name ISSUER = new X500Name("CN=CRLEntryIndexTest,O=PrimeKey,C=SE");
+    private static final long NOW = (System.currentTimeMillis()/1000)*1000;
+
+    @BeforeClass
+    public static void beforeClass() {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+    }
+
+    @Test
+    public void testMergeInSerialNumberOrder() throws Exception {
+        final CRLEntryIndex index = new CRLEntryIndex(ISSUER.toString());
+        index.put(getRevokedCertInfo(30, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, NOW + 1000));
+        index.put(getRevokedCertInfo(10, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, NOW + 1000));
+        index.put(getRevokedCertInfo(20, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, NOW + 1000));
+        assertEquals(3, index.size());
+        // A changed revocation reason replaces the entry
+        index.put(getRevokedCertInfo(10, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, NOW + 1000));
+        assertEquals(3, index.size());
+        // Taken off hold
+        assertTrue(index.removeEntry(BigInteger.valueOf(20)));
+        assertFalse(index.removeEntry(BigInteger.valueOf(20)));
+        final Iterator<RevokedCertInfo> iterator = index.iterator();
+        final RevokedCertInfo first = iterator.next();
+        assertEquals(BigInteger.valueOf(10), first.getUserCertificate());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, first.getReason());
+        assertEquals("fp10", first.getCertificateFingerprint());
+        assertEquals(BigInteger.valueOf(30), iterator.next().getUserCertificate());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testRemoveExpired() throws Exception {
+        final CRLEntryIndex index = new CRLEntryIndex(ISSUER.toString());
+        index.put(getRevokedCertInfo(1, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, NOW - 2000));
+        index.put(getRevokedCertInfo(2, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, NOW + 2000));
+        final List<RevokedCertInfo> expired = index.removeExpired(new Date(NOW));
+        assertEquals(1, expired.size());
+        assertEquals("fp1", expired.get(0).getCertificateFingerprint());
+        assertEquals(1, index.size());
+        assertEquals(BigInteger.valueOf(2), index.iterator().next().getUserCertificate());
+    }
+
+    @Test
+    public void testEncodedEntriesSameAsBouncyCastle() throws Exception {
+        final KeyPair keys = KeyTools.genKeys("512", AlgorithmConstants.KEYALGORITHM_RSA);
+        final CRLEntryIndex index = new CRLEntryIndex(ISSUER.toString());
+        for (int i=0; i<100; i++) {
+            index.put(getRevokedCertInfo(1000 - i*7, i % 11 == 7 ? 0 : i % 11, NOW + 1000));
+        }
+        final Date nextUpdate = new Date(NOW + 3600000L);
+        final X509v2CRLBuilder bcBuilder = new X509v2CRLBuilder(ISSUER, new Date(NOW));
+        bcBuilder.setNextUpdate(nextUpdate);
+        for (final RevokedCertInfo revokedCertInfo : index) {
+            bcBuilder.addCRLEntry(revokedCertInfo.getUserCertificate(), revokedCertInfo.getRevocationDate(), revokedCertInfo.getReason());
+        }
+        final StreamingX509CRLBuilder streamingBuilder = new StreamingX509CRLBuilder(ISSUER, new Date(NOW), nextUpdate, 1024*1024);
+        try {
+            for (final byte[] encodedEntry : index.getEncodedEntries()) {
+                streamingBuilder.addEncodedCRLEntry(encodedEntry);
+            }
+            final ContentSigner signer = new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).setProvider(BouncyCastleProvider.PROVIDER_NAME).build(keys.getPrivate());
+            final byte[] bcCrl = bcBuilder.build(signer).getEncoded();
+            final ContentSigner signer2 = new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).setProvider(BouncyCastleProvider.PROVIDER_NAME).build(keys.getPrivate());
+            assertArrayEquals("CRL from encoded entries differs from CRL built in memory.", bcCrl, streamingBuilder.build(signer2).getEncoded());
+        } finally {
+            streamingBuilder.close();
+        }
+    }
+
+    private RevokedCertInfo getRevokedCertInfo(final long serialNumber, final int reason, final long expireDate) {
+        return new RevokedCertInfo(("fp" + serialNumber).getBytes(), BigInteger.valueOf(serialNumber).toByteArray(), NOW - serialNumber*1000, reason, expireDate);
+    }
+}
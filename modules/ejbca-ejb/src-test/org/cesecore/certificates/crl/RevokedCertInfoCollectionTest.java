@@ -0,0 +1,175 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Tests the column store of revoked certificates used for CRL generation.
+ *
+ * @version $Id$
+ */
+public class RevokedCertInfoCollectionTest {
+
+    private static final Logger log = Logger.getLogger(RevokedCertInfoCollectionTest.class);
+
+    @Test
+    public void testSameEntriesAsAdded() throws Exception {
+        final List<RevokedCertInfo> expected = getRevokedCertInfos(1000);
+        // Fingerprints that are not lower case hex, and entries without fingerprint, serial number or dates
+        expected.add(new RevokedCertInfo("NOT-HEX".getBytes(), BigInteger.valueOf(-5).toByteArray(), 1000L, RevokedCertInfo.NOT_REVOKED, 2000L));
+        expected.add(new RevokedCertInfo("ABCDEF".getBytes(), BigInteger.valueOf(7).toByteArray(), 1000L, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 2000L));
+        expected.add(new RevokedCertInfo(null, null, 0L, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 0L));
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection();
+        assertTrue(collection.isEmpty());
+        collection.addAll(expected);
+        assertFalse(collection.add(null));
+        assertEquals(expected.size(), collection.size());
+        assertSameEntries(expected, collection);
+        // The collection can be iterated several times
+        assertSameEntries(expected, collection);
+        // Serialization
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(collection);
+        oos.close();
+        final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        final RevokedCertInfoCollection deserialized = (RevokedCertInfoCollection) ois.readObject();
+        assertSameEntries(expected, deserialized);
+        // Still possible to add entries after deserialization
+        final RevokedCertInfo added = getRevokedCertInfos(1).get(0);
+        deserialized.add(added);
+        expected.add(added);
+        assertSameEntries(expected, deserialized);
+        collection.clear();
+        assertEquals(0, collection.size());
+        assertFalse(collection.iterator().hasNext());
+    }
+
+    @Test
+    public void testSortBySerialNumber() {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection();
+        final Random random = new Random(42);
+        final List<BigInteger> serialNumbers = new ArrayList<BigInteger>();
+        for (int i = 0; i < 1000; i++) {
+            // Mix of lengths, including serial numbers with a leading zero byte and negative ones
+            final BigInteger serialNumber = new BigInteger(1 + random.nextInt(160), random).subtract(BigInteger.valueOf(i % 10 == 0 ? 1000 : 0));
+            serialNumbers.add(serialNumber);
+            collection.add("00ff".getBytes(), serialNumber.toByteArray(), i + 1, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED, i + 1);
+        }
+        collection.add(null, null, 0, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 0);
+        collection.sortBySerialNumber();
+        final Iterator<RevokedCertInfo> iterator = collection.iterator();
+        assertNull("Entry without serial number should be first.", iterator.next().getUserCertificate());
+        BigInteger previous = null;
+        int count = 0;
+        while (iterator.hasNext()) {
+            final RevokedCertInfo revokedCertInfo = iterator.next();
+            final BigInteger serialNumber = revokedCertInfo.getUserCertificate();
+            if (previous != null) {
+                assertTrue(previous + " is not before " + serialNumber, previous.compareTo(serialNumber) <= 0);
+            }
+            // The other columns are moved with the serial number
+            assertEquals(serialNumbers.get((int) revokedCertInfo.getExpireDate().getTime() - 1), serialNumber);
+            previous = serialNumber;
+            count++;
+        }
+        assertEquals(1000, count);
+    }
+
+    /** Entries with a 16 byte serial number and a SHA-1 fingerprint should take about 60 bytes each, see the class javadoc. */
+    @Test
+    public void testMemoryUsage() throws Exception {
+        final int count = 10000;
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection();
+        collection.addAll(getRevokedCertInfos(count));
+        // Serialization writes the arrays trimmed to the size of the content
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(collection);
+        oos.close();
+        final int bytesPerEntry = baos.size() / count;
+        log.debug("Serialized size of a RevokedCertInfoCollection is " + bytesPerEntry + " bytes per entry.");
+        assertTrue("Expected about 60 bytes per entry, but was " + bytesPerEntry + ".", bytesPerEntry <= 61);
+    }
+
+    /** Adding an entry that does not fit in the byte array of serial numbers and fingerprints fails, and leaves the collection unchanged */
+    @Test
+    public void testCapacity() {
+        // Room for two entries with a 16 byte serial number and a SHA-1 fingerprint
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection(2 * 39 + 10);
+        final List<RevokedCertInfo> revokedCertInfos = getRevokedCertInfos(3);
+        final byte[] serialNumber = new byte[16];
+        serialNumber[0] = 0x7f;
+        for (int i = 0; i < 2; i++) {
+            collection.add(revokedCertInfos.get(i).getCertificateFingerprint().getBytes(), serialNumber, 1000L, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 2000L);
+        }
+        try {
+            collection.add(revokedCertInfos.get(2).getCertificateFingerprint().getBytes(), serialNumber, 1000L, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 2000L);
+            fail("Adding an entry to a full collection should fail.");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("The collection is full with 2 entries"));
+        }
+        assertEquals(2, collection.size());
+        // Entries without serial number and fingerprint still fit
+        collection.add(null, null, 0L, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 0L);
+        assertEquals(3, collection.size());
+        final Iterator<RevokedCertInfo> iterator = collection.iterator();
+        assertEquals(revokedCertInfos.get(0).getCertificateFingerprint(), iterator.next().getCertificateFingerprint());
+        assertEquals(revokedCertInfos.get(1).getCertificateFingerprint(), iterator.next().getCertificateFingerprint());
+        assertNull(iterator.next().getCertificateFingerprint());
+    }
+
+    private void assertSameEntries(final List<RevokedCertInfo> expected, final Collection<RevokedCertInfo> collection) {
+        final Iterator<RevokedCertInfo> iterator = collection.iterator();
+        for (final RevokedCertInfo revokedCertInfo : expected) {
+            final RevokedCertInfo actual = iterator.next();
+            assertEquals(revokedCertInfo.getCertificateFingerprint(), actual.getCertificateFingerprint());
+            assertEquals(revokedCertInfo.getUserCertificate(), actual.getUserCertificate());
+            assertEquals(revokedCertInfo.getRevocationDate(), actual.getRevocationDate());
+            assertEquals(revokedCertInfo.getExpireDate(), actual.getExpireDate());
+            assertEquals(revokedCertInfo.getReason(), actual.getReason());
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    private List<RevokedCertInfo> getRevokedCertInfos(final int count) {
+        final Random random = new Random();
+        final List<RevokedCertInfo> revokedCertInfos = new ArrayList<RevokedCertInfo>(count);
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            final BigInteger serialNumber = new BigInteger(127, random);
+            final String fingerprint = String.format("%040x", new BigInteger(160, random));
+            revokedCertInfos.add(new RevokedCertInfo(fingerprint.getBytes(), serialNumber.toByteArray(), now - i, i % 11 == 7 ? 0 : i % 11, now + i));
+        }
+        return revokedCertInfos;
+    }
+}
@@ -0,0 +1,156 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.X509CRL;
+import java.util.Date;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that the streaming CRL builder produces the same CRLs as the Bouncy Castle CRL builder.
+ *
+ * @version $Id$
+ */
+public class StreamingX509CRLBuilderTest {
+
+    private static final X500Name ISSUER = new X500Name("CN=StreamingCRLTest,O=PrimeKey,C=SE");
+    private static KeyPair keys;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keys = KeyTools.genKeys("512", AlgorithmConstants.KEYALGORITHM_RSA);
+    }
+
+    @Test
+    public void testEmptyCrl() throws Exception {
+        assertSameAsBouncyCastle(0, 1024*1024);
+    }
+
+    @Test
+    public void testCrlInMemory() throws Exception {
+        assertSameAsBouncyCastle(1000, 1024*1024);
+    }
+
+    @Test
+    public void testCrlSpooledToFile() throws Exception {
+        // Entries are around 40 bytes each, so this will be moved to a temporary file after a few entries
+        assertSameAsBouncyCastle(1000, 256);
+    }
+
+    @Test
+    public void testTemporaryFileRemovedWhenSigningFails() throws Exception {
+        final int filesBefore = countTemporaryFiles();
+        final StreamingX509CRLBuilder streamingBuilder = new StreamingX509CRLBuilder(ISSUER, new Date(), null, 256);
+        for (int i=0; i<100; i++) {
+            streamingBuilder.addCRLEntry(BigInteger.valueOf(i), new Date(), 0);
+        }
+        assertEquals("Entries should have been spooled to a temporary file.", filesBefore + 1, countTemporaryFiles());
+        final ContentSigner signer = getSigner();
+        try {
+            streamingBuilder.build(new ContentSigner() {
+                @Override
+                public AlgorithmIdentifier getAlgorithmIdentifier() {
+                    return signer.getAlgorithmIdentifier();
+                }
+
+                @Override
+                public OutputStream getOutputStream() {
+                    throw new IllegalStateException("Simulated signing failure");
+                }
+
+                @Override
+                public byte[] getSignature() {
+                    return signer.getSignature();
+                }
+            });
+            fail("Signing should fail.");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals("Temporary file should be removed when signing fails.", filesBefore, countTemporaryFiles());
+    }
+
+    private static int countTemporaryFiles() {
+        final String[] names = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith("crlentries") && name.endsWith(".der");
+            }
+        });
+        return names == null ? 0 : names.length;
+    }
+
+    private void assertSameAsBouncyCastle(final int numberOfEntries, final int spoolThreshold) throws Exception {
+        final Date thisUpdate = new Date((System.currentTimeMillis()/1000)*1000);
+        final Date nextUpdate = new Date(thisUpdate.getTime() + 24*3600*1000L);
+        final X509v2CRLBuilder bcBuilder = new X509v2CRLBuilder(ISSUER, thisUpdate);
+        bcBuilder.setNextUpdate(nextUpdate);
+        final StreamingX509CRLBuilder streamingBuilder = new StreamingX509CRLBuilder(ISSUER, thisUpdate, nextUpdate, spoolThreshold);
+        try {
+            for (int i=0; i<numberOfEntries; i++) {
+                final BigInteger serialNumber = BigInteger.valueOf(1000000L + i*7919L);
+                final Date revocationDate = new Date(thisUpdate.getTime() - i*1000L);
+                final int reason = i % 11 == 7 ? RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED : i % 11;
+                bcBuilder.addCRLEntry(serialNumber, revocationDate, reason);
+                streamingBuilder.addCRLEntry(serialNumber, revocationDate, reason);
+            }
+            bcBuilder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(4711)));
+            streamingBuilder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(4711)));
+            final X509CRLHolder bcCrl = bcBuilder.build(getSigner());
+            final StreamedX509CRL streamedCrl = streamingBuilder.build(getSigner());
+            // PKCS#1 v1.5 signatures are deterministic, so the whole CRL should be the same
+            assertArrayEquals("Streamed CRL differs from CRL built in memory.", bcCrl.getEncoded(), streamedCrl.getEncoded());
+            assertEquals(numberOfEntries, streamedCrl.getNumberOfEntries());
+            assertEquals(thisUpdate, streamedCrl.getThisUpdate());
+            assertEquals(nextUpdate, streamedCrl.getNextUpdate());
+            assertTrue("Signature of streamed CRL did not verify.",
+                    streamedCrl.isSignatureValid(new JcaContentVerifierProviderBuilder().build(keys.getPublic())));
+            final X509CRL x509crl = CertTools.getCRLfromByteArray(streamedCrl.getEncoded());
+            x509crl.verify(keys.getPublic());
+            assertEquals(numberOfEntries, x509crl.getRevokedCertificates() == null ? 0 : x509crl.getRevokedCertificates().size());
+        } finally {
+            streamingBuilder.close();
+        }
+    }
+
+    private ContentSigner getSigner() throws Exception {
+        return new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).setProvider(BouncyCastleProvider.PROVIDER_NAME).build(keys.getPrivate());
+    }
+}
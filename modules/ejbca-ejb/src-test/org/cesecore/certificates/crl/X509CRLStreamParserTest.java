@@ -0,0 +1,188 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.Date;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.certificates.util.cert.CrlExtensions;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that the streaming CRL parser reads the same values as the JCA CRL parser.
+ *
+ * @version $Id$
+ */
+public class X509CRLStreamParserTest {
+
+    private static final Logger log = Logger.getLogger(X509CRLStreamParserTest.class);
+    private static final X500Name ISSUER = new X500Name("CN=StreamingCRLTest,O=PrimeKey,C=SE");
+    private static final X500Name OTHER_ISSUER = new X500Name("CN=OtherIssuer,O=PrimeKey,C=SE");
+    private static KeyPair keys;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keys = KeyTools.genKeys("512", AlgorithmConstants.KEYALGORITHM_RSA);
+    }
+
+    @Test
+    public void testSameAsJca() throws Exception {
+        final Date thisUpdate = new Date((System.currentTimeMillis()/1000)*1000);
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, thisUpdate);
+        builder.setNextUpdate(new Date(thisUpdate.getTime() + 3600000L));
+        for (int i=0; i<100; i++) {
+            builder.addCRLEntry(BigInteger.valueOf(1000 + i), new Date(thisUpdate.getTime() - i*1000L), i % 11 == 7 ? 0 : i % 11);
+        }
+        // An entry of an indirect CRL, the issuer applies to the following entries too
+        final ExtensionsGenerator entryExtensions = new ExtensionsGenerator();
+        entryExtensions.addExtension(Extension.reasonCode, false, CRLReason.lookup(CRLReason.keyCompromise));
+        entryExtensions.addExtension(Extension.certificateIssuer, true, new GeneralNames(new GeneralName(OTHER_ISSUER)));
+        builder.addCRLEntry(BigInteger.valueOf(5000), thisUpdate, entryExtensions.generate());
+        builder.addCRLEntry(BigInteger.valueOf(5001), thisUpdate, 0);
+        builder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(4711)));
+        builder.addExtension(Extension.deltaCRLIndicator, true, new CRLNumber(BigInteger.valueOf(4710)));
+        final byte[] encoded = builder.build(getSigner()).getEncoded();
+        final X509CRL jcaCrl = CertTools.getCRLfromByteArray(encoded);
+
+        final X509CRLStreamParser parser = new X509CRLStreamParser(encoded);
+        assertEquals(ISSUER, parser.getCRL().getIssuer());
+        assertEquals(jcaCrl.getThisUpdate(), parser.getCRL().getThisUpdate());
+        assertEquals(jcaCrl.getNextUpdate(), parser.getCRL().getNextUpdate());
+        assertEquals(jcaCrl.getRevokedCertificates().size(), parser.getCRL().getNumberOfEntries());
+        assertEquals(CrlExtensions.getCrlNumber(jcaCrl), CrlExtensions.getCrlNumber(parser.getExtensions()));
+        assertEquals(CrlExtensions.getDeltaCRLIndicator(jcaCrl), CrlExtensions.getDeltaCRLIndicator(parser.getExtensions()));
+        assertTrue(parser.getCRL().isSignatureValid(new JcaContentVerifierProviderBuilder().build(keys.getPublic())));
+        final X509CRLStreamParser.EntryReader reader = parser.getEntryReader();
+        X509CRLStreamParser.Entry entry;
+        int count = 0;
+        while ((entry = reader.next()) != null) {
+            final X509CRLEntry jcaEntry = jcaCrl.getRevokedCertificate(entry.getSerialNumber());
+            assertEquals(jcaEntry.getRevocationDate(), entry.getRevocationDate());
+            assertEquals(CrlExtensions.extractReasonCode(jcaEntry), entry.getReasonCode());
+            if (entry.getSerialNumber().intValue() >= 5000) {
+                assertEquals(OTHER_ISSUER, entry.getCertificateIssuer());
+            } else {
+                assertNull(entry.getCertificateIssuer());
+            }
+            count++;
+        }
+        assertEquals(102, count);
+    }
+
+    @Test
+    public void testModifiedCrlDoesNotVerify() throws Exception {
+        final Date thisUpdate = new Date((System.currentTimeMillis()/1000)*1000);
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, thisUpdate);
+        builder.addCRLEntry(BigInteger.valueOf(1234), thisUpdate, CRLReason.keyCompromise);
+        final byte[] encoded = builder.build(getSigner()).getEncoded();
+        // Change the serial number of the entry
+        for (int i=0; i<encoded.length-1; i++) {
+            if (encoded[i] == 0x04 && encoded[i+1] == (byte) 0xd2) {
+                encoded[i+1] = (byte) 0xd3;
+                break;
+            }
+        }
+        final X509CRLStreamParser parser = new X509CRLStreamParser(encoded);
+        assertNull("CRL without nextUpdate", parser.getCRL().getNextUpdate());
+        assertEquals(BigInteger.valueOf(1235), parser.getEntryReader().next().getSerialNumber());
+        assertFalse(parser.getCRL().isSignatureValid(new JcaContentVerifierProviderBuilder().build(keys.getPublic())));
+    }
+
+    @Test
+    public void testSortedEntries() throws Exception {
+        final Date thisUpdate = new Date((System.currentTimeMillis()/1000)*1000);
+        final X509v2CRLBuilder lastBuilder = new X509v2CRLBuilder(ISSUER, thisUpdate);
+        final X509v2CRLBuilder newBuilder = new X509v2CRLBuilder(ISSUER, new Date(thisUpdate.getTime() + 1000));
+        for (int i=100; i>0; i--) {
+            lastBuilder.addCRLEntry(BigInteger.valueOf(i), thisUpdate, CRLReason.keyCompromise);
+        }
+        // Same entries, except for one with another reason and one new entry
+        for (int i=1; i<=100; i++) {
+            newBuilder.addCRLEntry(BigInteger.valueOf(i), thisUpdate, i == 50 ? CRLReason.superseded : CRLReason.keyCompromise);
+        }
+        newBuilder.addCRLEntry(BigInteger.valueOf(101), thisUpdate, CRLReason.keyCompromise);
+        final X509CRLStreamParser.SortedEntries lastEntries = new X509CRLStreamParser(lastBuilder.build(getSigner()).getEncoded()).getSortedEntries();
+        assertEquals(100, lastEntries.size());
+        final X509CRLStreamParser.EntryReader reader = new X509CRLStreamParser(newBuilder.build(getSigner()).getEncoded()).getEntryReader();
+        X509CRLStreamParser.Entry entry;
+        int changed = 0;
+        while ((entry = reader.next()) != null) {
+            if (!lastEntries.contains(entry)) {
+                assertTrue(entry.getSerialNumber().intValue() == 50 || entry.getSerialNumber().intValue() == 101);
+                changed++;
+            }
+        }
+        assertEquals(2, changed);
+    }
+
+    @Test
+    public void testLargeCrl() throws Exception {
+        final int numberOfEntries = 100000;
+        final Date thisUpdate = new Date((System.currentTimeMillis()/1000)*1000);
+        final StreamingX509CRLBuilder builder = new StreamingX509CRLBuilder(ISSUER, thisUpdate, null, 1024*1024);
+        final StreamedX509CRL crl;
+        try {
+            for (int i=0; i<numberOfEntries; i++) {
+                builder.addCRLEntry(BigInteger.valueOf(1000000L + i*7919L), thisUpdate, i % 3);
+            }
+            crl = builder.build(getSigner());
+        } finally {
+            builder.close();
+        }
+        final long start = System.currentTimeMillis();
+        final X509CRLStreamParser parser = new X509CRLStreamParser(crl.getEncoded());
+        final X509CRLStreamParser.EntryReader reader = parser.getEntryReader();
+        int count = 0;
+        while (reader.next() != null) {
+            count++;
+        }
+        final long readTime = System.currentTimeMillis() - start;
+        assertEquals(numberOfEntries, count);
+        assertEquals(numberOfEntries, parser.getCRL().getNumberOfEntries());
+        final X509CRLStreamParser.SortedEntries sortedEntries = parser.getSortedEntries();
+        log.info("Read " + numberOfEntries + " entries from a CRL of " + crl.getEncoded().length + " bytes in " + readTime + " ms, sorted in "
+                + (System.currentTimeMillis() - start - readTime) + " ms.");
+        assertEquals(numberOfEntries, sortedEntries.size());
+    }
+
+    private ContentSigner getSigner() throws Exception {
+        return new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).setProvider(BouncyCastleProvider.PROVIDER_NAME).build(keys.getPrivate());
+    }
+}
@@ -0,0 +1,87 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the bounded thread pools for signing OCSP responses.
+ *
+ * @version $Id$
+ */
+public class OcspSigningExecutorsTest {
+
+    @After
+    public void tearDown() {
+        OcspSigningExecutors.INSTANCE.retainAll(null);
+    }
+
+    @Test
+    public void testRejectWhenSaturated() throws Exception {
+        OcspSigningExecutors.INSTANCE.configure(2, 3);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<BasicOCSPResp> hungSigner = new Callable<BasicOCSPResp>() {
+            @Override
+            public BasicOCSPResp call() throws Exception {
+                release.await(10, TimeUnit.SECONDS);
+                return null;
+            }
+        };
+        final List<Future<BasicOCSPResp>> tasks = new ArrayList<Future<BasicOCSPResp>>();
+        // Two running and three queued signatures
+        for (int i = 0; i < 5; i++) {
+            tasks.add(OcspSigningExecutors.INSTANCE.submit("HSM1", hungSigner));
+        }
+        try {
+            OcspSigningExecutors.INSTANCE.submit("HSM1", hungSigner);
+            fail("Signature should be rejected when the queue is full.");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        // Another crypto token is not affected
+        assertNull(OcspSigningExecutors.INSTANCE.submit("HSM2", new Callable<BasicOCSPResp>() {
+            @Override
+            public BasicOCSPResp call() {
+                return null;
+            }
+        }).get(10, TimeUnit.SECONDS));
+        release.countDown();
+        for (final Future<BasicOCSPResp> task : tasks) {
+            task.get(10, TimeUnit.SECONDS);
+        }
+        final Map<String, Map<String, String>> statistics = OcspSigningExecutors.INSTANCE.getStatistics();
+        assertEquals("5", statistics.get("HSM1").get("signatures"));
+        assertEquals("1", statistics.get("HSM1").get("rejections"));
+        assertEquals("1", statistics.get("HSM2").get("signatures"));
+        assertEquals("1", statistics.get("HSM2").get("latency.<1ms"));
+        // Unused crypto tokens are removed
+        OcspSigningExecutors.INSTANCE.retainAll(Collections.singleton("HSM2"));
+        assertEquals(Collections.singleton("HSM2"), OcspSigningExecutors.INSTANCE.getStatistics().keySet());
+    }
+}
@@ -0,0 +1,176 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the in-memory revocation status index of the OCSP responder.
+ *
+ * @version $Id$
+ */
+public class CertificateStatusIndexTest {
+
+    private static final Logger log = Logger.getLogger(CertificateStatusIndexTest.class);
+
+    @After
+    public void tearDown() {
+        OcspStatusIndexCache.INSTANCE.clear();
+    }
+
+    @Test
+    public void testStatus() {
+        final CertificateStatusIndex index = new CertificateStatusIndex(1000, 0.0001);
+        final BigInteger active = new BigInteger("1234567890abcdef", 16);
+        final BigInteger revoked = new BigInteger("-42");
+        final BigInteger archivedRevoked = BigInteger.valueOf(4711);
+        final BigInteger archivedExpired = BigInteger.valueOf(4712);
+        final BigInteger onHold = BigInteger.valueOf(4713);
+        index.update(active.toByteArray(), CertificateConstants.CERT_ACTIVE, 0, RevokedCertInfo.NOT_REVOKED, 1);
+        index.update(revoked.toByteArray(), CertificateConstants.CERT_REVOKED, 1000, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 2);
+        index.update(archivedRevoked.toByteArray(), CertificateConstants.CERT_ARCHIVED, 2000, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED, 3);
+        index.update(archivedExpired.toByteArray(), CertificateConstants.CERT_ARCHIVED, 0, RevokedCertInfo.NOT_REVOKED, 4);
+        index.update(onHold.toByteArray(), CertificateConstants.CERT_REVOKED, 3000, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, 5);
+        assertGood(index.getStatus(active));
+        assertRevoked(index.getStatus(revoked), 1000, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 2);
+        assertRevoked(index.getStatus(archivedRevoked), 2000, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED, 3);
+        assertGood(index.getStatus(archivedExpired));
+        assertRevoked(index.getStatus(onHold), 3000, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, 5);
+        assertNull("Serial number that is not in the filter should use the database.", index.getStatus(BigInteger.valueOf(4714)));
+        assertEquals(3, index.getRevokedCount());
+        // Taken off hold
+        index.update(onHold.toByteArray(), CertificateConstants.CERT_ACTIVE, 3000, RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL, 5);
+        assertGood(index.getStatus(onHold));
+        // Revoked again, with a changed reason
+        index.update(onHold.toByteArray(), CertificateConstants.CERT_REVOKED, 4000, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 5);
+        assertRevoked(index.getStatus(onHold), 4000, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 5);
+        assertEquals(3, index.getRevokedCount());
+        assertEquals(5, index.getIssuedCount());
+        // Without filter, only revoked certificates, and certificates taken off hold, are known
+        final CertificateStatusIndex noFilterIndex = new CertificateStatusIndex();
+        noFilterIndex.update(revoked.toByteArray(), CertificateConstants.CERT_REVOKED, 1000, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 2);
+        noFilterIndex.update(onHold.toByteArray(), CertificateConstants.CERT_REVOKED, 3000, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, 5);
+        noFilterIndex.update(onHold.toByteArray(), CertificateConstants.CERT_ACTIVE, 3000, RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL, 5);
+        noFilterIndex.update(active.toByteArray(), CertificateConstants.CERT_ACTIVE, 0, RevokedCertInfo.NOT_REVOKED, 1);
+        assertRevoked(noFilterIndex.getStatus(revoked), 1000, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 2);
+        assertGood(noFilterIndex.getStatus(onHold));
+        assertNull("Active certificate may have been issued, or not, so it should use the database.", noFilterIndex.getStatus(active));
+        assertNull("Never issued serial number should use the database.", noFilterIndex.getStatus(BigInteger.valueOf(4714)));
+        assertFalse(noFilterIndex.hasFilter());
+    }
+
+    @Test
+    public void testCache() {
+        final CertificateStatusIndex index = new CertificateStatusIndex(1000, 0.0001);
+        index.update(BigInteger.ONE.toByteArray(), CertificateConstants.CERT_ACTIVE, 0, RevokedCertInfo.NOT_REVOKED, 1);
+        final long now = System.currentTimeMillis();
+        OcspStatusIndexCache.INSTANCE.setMaxAge(30000);
+        OcspStatusIndexCache.INSTANCE.setAnswerGood(true);
+        OcspStatusIndexCache.INSTANCE.put("CN=Test", index, now, now);
+        assertGood(OcspStatusIndexCache.INSTANCE.getStatus("CN=Test", BigInteger.ONE));
+        assertNull("Certificate issued since the last update should use the database.", OcspStatusIndexCache.INSTANCE.getStatus("CN=Test",
+                BigInteger.valueOf(2)));
+        assertNull("Unknown issuer should use the database.", OcspStatusIndexCache.INSTANCE.getStatus("CN=Other", BigInteger.ONE));
+        OcspStatusIndexCache.INSTANCE.setAnswerGood(false);
+        assertNull("Good certificates should use the database.", OcspStatusIndexCache.INSTANCE.getStatus("CN=Test", BigInteger.ONE));
+        index.update(BigInteger.ONE.toByteArray(), CertificateConstants.CERT_REVOKED, 1000, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 1);
+        assertRevoked(OcspStatusIndexCache.INSTANCE.getStatus("CN=Test", BigInteger.ONE), 1000, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 1);
+        OcspStatusIndexCache.INSTANCE.put("CN=Test", index, now, now - 31000);
+        assertNull("Index that has not been updated should not be used.", OcspStatusIndexCache.INSTANCE.getStatus("CN=Test", BigInteger.ONE));
+    }
+
+    @Test
+    public void testFilterFalsePositiveRate() {
+        final int issued = 100000;
+        final CertificateStatusIndex index = new CertificateStatusIndex(issued, 0.001);
+        final Random random = new Random(1);
+        for (int i = 0; i < issued; i++) {
+            index.update(new BigInteger(63, random).toByteArray(), CertificateConstants.CERT_ACTIVE, 0, RevokedCertInfo.NOT_REVOKED, 1);
+        }
+        assertFalse(index.isFilterSaturated());
+        int falsePositives = 0;
+        final int lookups = 100000;
+        for (int i = 0; i < lookups; i++) {
+            // Serial numbers that are longer than the issued ones, so they are never issued
+            if (index.getStatus(new BigInteger(64, random).setBit(63)) != null) {
+                falsePositives++;
+            }
+        }
+        log.info("False positive rate " + (double) falsePositives / lookups + " with " + issued + " issued serial numbers.");
+        assertTrue("False positive rate too high: " + falsePositives, falsePositives < lookups * 0.002);
+        for (int i = 0; i < issued / 10; i++) {
+            index.update(new BigInteger(63, random).toByteArray(), CertificateConstants.CERT_ACTIVE, 0, RevokedCertInfo.NOT_REVOKED, 1);
+        }
+        assertTrue(index.isFilterSaturated());
+    }
+
+    /**
+     * Measures memory use and lookup time of an index with 1M issued serial numbers, of which 5% are revoked, compared to a lookup in a
+     * HashMap. Memory use grows linearly with the number of serial numbers.
+     */
+    @Test
+    public void testPerformance() {
+        final int issued = 1000000;
+        final CertificateStatusIndex index = new CertificateStatusIndex(issued, 0.0001);
+        final Random random = new Random(2);
+        final BigInteger[] serialNumbers = new BigInteger[issued];
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < issued; i++) {
+            // 16 byte random serial numbers, as used by most CAs
+            serialNumbers[i] = new BigInteger(127, random);
+            final boolean revoked = i % 20 == 0;
+            index.update(serialNumbers[i].toByteArray(), revoked ? CertificateConstants.CERT_REVOKED : CertificateConstants.CERT_ACTIVE,
+                    revoked ? 1000 : 0, revoked ? RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE : RevokedCertInfo.NOT_REVOKED, 1);
+        }
+        log.info("Loaded " + issued + " serial numbers in " + (System.currentTimeMillis() - time) + " ms: " + index + " ("
+                + index.getMemoryUsage() / issued + " bytes per issued serial number).");
+        for (int round = 0; round < 3; round++) {
+            int revokedCount = 0;
+            time = System.nanoTime();
+            for (int i = 0; i < issued; i++) {
+                if (index.getStatus(serialNumbers[i]).equals(CertificateStatus.REVOKED)) {
+                    revokedCount++;
+                }
+            }
+            final long lookupTime = (System.nanoTime() - time) / issued;
+            assertEquals(issued / 20, revokedCount);
+            log.info("Average lookup time " + lookupTime + " ns.");
+        }
+    }
+
+    private void assertGood(final CertificateStatus status) {
+        assertEquals(CertificateStatus.OK, status);
+        assertEquals(CertificateProfileConstants.CERTPROFILE_NO_PROFILE, status.certificateProfileId);
+    }
+
+    private void assertRevoked(final CertificateStatus status, final long revocationDate, final int reason, final int certificateProfileId) {
+        assertEquals(CertificateStatus.REVOKED, status);
+        assertEquals(revocationDate, status.revocationDate.getTime());
+        assertEquals(reason, status.revocationReason);
+        assertEquals(certificateProfileId, status.certificateProfileId);
+    }
+}
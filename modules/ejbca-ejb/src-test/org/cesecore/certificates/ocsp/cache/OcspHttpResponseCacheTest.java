@@ -0,0 +1,137 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+
+import org.cesecore.internal.CacheInvalidation;
+import org.cesecore.internal.CacheInvalidationBus;
+import org.cesecore.internal.CacheInvalidationLog;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the cache of encoded responses to OCSP GET requests.
+ *
+ * @version $Id$
+ */
+public class OcspHttpResponseCacheTest {
+
+    private static final String URL = "http://ocsp.example.com/ejbca/publicweb/status/ocsp";
+
+    @After
+    public void tearDown() {
+        OcspHttpResponseCache.INSTANCE.clear();
+        OcspHttpResponseCache.INSTANCE.setMaxBytes(32L * 1024 * 1024);
+    }
+
+    @Test
+    public void testGetAndInvalidate() {
+        final long now = System.currentTimeMillis();
+        final OcspHttpResponseCache.Entry entry = createEntry(100, now + 60000, BigInteger.ONE);
+        put(URL, new byte[] { 1, 2, 3 }, entry);
+        assertSame("An equal request should be found.", entry, OcspHttpResponseCache.INSTANCE.get(URL, new byte[] { 1, 2, 3 }));
+        assertNull("Other request should not match.", OcspHttpResponseCache.INSTANCE.get(URL, new byte[] { 1, 2, 4 }));
+        assertNull("Other servlet URL should not match.", OcspHttpResponseCache.INSTANCE.get(URL + "/good", new byte[] { 1, 2, 3 }));
+        put(URL + "/good", new byte[] { 1, 2, 3 }, createEntry(100, now + 60000, BigInteger.ONE));
+        put(URL, new byte[] { 5 }, createEntry(100, now + 60000, BigInteger.valueOf(2)));
+        assertEquals(3, OcspHttpResponseCache.INSTANCE.size());
+        assertEquals(3 * 100 + 3 + 3 + 1, OcspHttpResponseCache.INSTANCE.getBytes());
+        OcspHttpResponseCache.INSTANCE.invalidate(BigInteger.ONE);
+        assertNull(OcspHttpResponseCache.INSTANCE.get(URL, new byte[] { 1, 2, 3 }));
+        assertEquals(1, OcspHttpResponseCache.INSTANCE.size());
+        assertEquals(100 + 1, OcspHttpResponseCache.INSTANCE.getBytes());
+        // Expired
+        put(URL, new byte[] { 6 }, createEntry(100, now - 1, BigInteger.valueOf(3)));
+        assertNull("Expired response should not be returned.", OcspHttpResponseCache.INSTANCE.get(URL, new byte[] { 6 }));
+        assertEquals(1, OcspHttpResponseCache.INSTANCE.size());
+    }
+
+    @Test
+    public void testEviction() {
+        final long nextUpdate = System.currentTimeMillis() + 60000;
+        OcspHttpResponseCache.INSTANCE.setMaxBytes(3 * 101);
+        for (int i = 0; i < 3; i++) {
+            put(URL, new byte[] { (byte) i }, createEntry(100, nextUpdate, BigInteger.valueOf(i)));
+        }
+        assertEquals(3, OcspHttpResponseCache.INSTANCE.size());
+        // The least recently used response is evicted
+        OcspHttpResponseCache.INSTANCE.get(URL, new byte[] { 0 });
+        put(URL, new byte[] { 3 }, createEntry(100, nextUpdate, BigInteger.valueOf(3)));
+        assertEquals(3, OcspHttpResponseCache.INSTANCE.size());
+        assertEquals(3 * 101, OcspHttpResponseCache.INSTANCE.getBytes());
+        assertNull(OcspHttpResponseCache.INSTANCE.get(URL, new byte[] { 1 }));
+        assertEquals(100, OcspHttpResponseCache.INSTANCE.get(URL, new byte[] { 0 }).getOcspResponse().length);
+        // A response that is larger than the cache is not added
+        put(URL, new byte[] { 4 }, createEntry(1000, nextUpdate, BigInteger.valueOf(4)));
+        assertEquals(3, OcspHttpResponseCache.INSTANCE.size());
+        // Replacing a response does not count its size twice
+        put(URL, new byte[] { 0 }, createEntry(50, nextUpdate, BigInteger.ZERO));
+        assertEquals(2 * 101 + 51, OcspHttpResponseCache.INSTANCE.getBytes());
+    }
+
+    /** A response that was created from the status before an invalidation must not be added after it */
+    @Test
+    public void testInvalidationDuringLookup() {
+        final long nextUpdate = System.currentTimeMillis() + 60000;
+        final long generation = OcspHttpResponseCache.INSTANCE.getGeneration();
+        OcspHttpResponseCache.INSTANCE.invalidate(BigInteger.ONE);
+        OcspHttpResponseCache.INSTANCE.put(URL, new byte[] { 1 }, createEntry(100, nextUpdate, BigInteger.ONE), generation);
+        assertEquals(0, OcspHttpResponseCache.INSTANCE.size());
+        put(URL, new byte[] { 1 }, createEntry(100, nextUpdate, BigInteger.ONE));
+        assertEquals(1, OcspHttpResponseCache.INSTANCE.size());
+    }
+
+    @Test
+    public void testInvalidationFromOtherNode() {
+        final long nextUpdate = System.currentTimeMillis() + 60000;
+        put(URL, new byte[] { 1 }, createEntry(100, nextUpdate, BigInteger.valueOf(0x1a)));
+        put(URL, new byte[] { 2 }, createEntry(100, nextUpdate, BigInteger.valueOf(0x2b)));
+        final int otherNodeId = CacheInvalidationBus.INSTANCE.getNodeId() + 1;
+        final List<CacheInvalidation> invalidations = Collections.singletonList(new CacheInvalidation(
+                CacheInvalidationBus.getFirstIdAt(System.currentTimeMillis()), OcspHttpResponseCache.CACHE_NAME, "1a", otherNodeId));
+        CacheInvalidationBus.INSTANCE.process(new CacheInvalidationLog() {
+            @Override
+            public void append(final CacheInvalidation cacheInvalidation) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public List<CacheInvalidation> readFrom(final long fromId) {
+                return invalidations;
+            }
+
+            @Override
+            public void removeBefore(final long id) {
+                throw new UnsupportedOperationException();
+            }
+        }, 10000L);
+        assertNull(OcspHttpResponseCache.INSTANCE.get(URL, new byte[] { 1 }));
+        assertNotNull(OcspHttpResponseCache.INSTANCE.get(URL, new byte[] { 2 }));
+    }
+
+    private static void put(final String url, final byte[] request, final OcspHttpResponseCache.Entry entry) {
+        OcspHttpResponseCache.INSTANCE.put(url, request, entry, OcspHttpResponseCache.INSTANCE.getGeneration());
+    }
+
+    private static OcspHttpResponseCache.Entry createEntry(final int size, final long nextUpdate, final BigInteger serialNumber) {
+        return new OcspHttpResponseCache.Entry(new byte[size], "00", nextUpdate - 120000, nextUpdate, 60000, serialNumber);
+    }
+}
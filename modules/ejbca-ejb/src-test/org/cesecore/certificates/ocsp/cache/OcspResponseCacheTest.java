@@ -0,0 +1,144 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.CertID;
+import org.bouncycastle.asn1.ocsp.RevokedInfo;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.keys.util.KeyTools;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the cache of signed OCSP responses.
+ *
+ * @version $Id$
+ */
+public class OcspResponseCacheTest {
+
+    private static X509Certificate signingCertificate;
+    private static X509Certificate otherSigningCertificate;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        final KeyPair keys = KeyTools.genKeys("512", AlgorithmConstants.KEYALGORITHM_RSA);
+        signingCertificate = CertTools.genSelfCert("CN=Signer", 365, null, keys.getPrivate(), keys.getPublic(),
+                AlgorithmConstants.SIGALG_SHA1_WITH_RSA, false);
+        otherSigningCertificate = CertTools.genSelfCert("CN=Other Signer", 365, null, keys.getPrivate(), keys.getPublic(),
+                AlgorithmConstants.SIGALG_SHA1_WITH_RSA, false);
+    }
+
+    @After
+    public void tearDown() {
+        OcspResponseCache.INSTANCE.clear();
+        OcspResponseCache.INSTANCE.setMaxSize(100000);
+    }
+
+    @Test
+    public void testGetAndInvalidate() throws Exception {
+        final long now = System.currentTimeMillis();
+        final CertificateID certId = createCertId(1, BigInteger.ONE);
+        final OCSPResp response = createResponse();
+        OcspResponseCache.INSTANCE.put(new OcspResponseCache.Entry(certId, response, new byte[0], null, signingCertificate, null, now, now + 60000));
+        final long hits = OcspResponseCache.INSTANCE.getHits();
+        assertSame(response, OcspResponseCache.INSTANCE.get(createCertId(1, BigInteger.ONE), null, signingCertificate));
+        assertEquals(hits + 1, OcspResponseCache.INSTANCE.getHits());
+        assertNull("Other issuer should not match.", OcspResponseCache.INSTANCE.get(createCertId(2, BigInteger.ONE), null, signingCertificate));
+        assertNull("Changed status should not match.", OcspResponseCache.INSTANCE.get(certId, createRevokedStatus(1000), signingCertificate));
+        assertNull("Other signer should not match.", OcspResponseCache.INSTANCE.get(certId, null, otherSigningCertificate));
+        OcspResponseCache.INSTANCE.invalidate(BigInteger.ONE);
+        assertNull(OcspResponseCache.INSTANCE.get(certId, null, signingCertificate));
+        // Revoked
+        OcspResponseCache.INSTANCE.put(new OcspResponseCache.Entry(certId, response, new byte[0], null, signingCertificate,
+                createRevokedStatus(1000), now, now + 60000));
+        assertSame(response, OcspResponseCache.INSTANCE.get(certId, createRevokedStatus(1000), signingCertificate));
+        assertNull("Changed revocation time should not match.", OcspResponseCache.INSTANCE.get(certId, createRevokedStatus(2000), signingCertificate));
+        assertNull(OcspResponseCache.INSTANCE.get(certId, null, signingCertificate));
+        // Expired
+        OcspResponseCache.INSTANCE.put(new OcspResponseCache.Entry(certId, response, new byte[0], null, signingCertificate, null, now - 60000, now - 1));
+        assertNull("Expired response should not be returned.", OcspResponseCache.INSTANCE.get(certId, null, signingCertificate));
+    }
+
+    @Test
+    public void testRefreshAndEviction() throws Exception {
+        final long now = System.currentTimeMillis();
+        final OCSPResp response = createResponse();
+        final OcspResponseCache.Entry fresh = new OcspResponseCache.Entry(createCertId(1, BigInteger.ONE), response, new byte[0], null,
+                signingCertificate, null, now, now + 60000);
+        final OcspResponseCache.Entry old = new OcspResponseCache.Entry(createCertId(1, BigInteger.valueOf(2)), response, new byte[0], null,
+                signingCertificate, null, now - 40000, now + 20000);
+        final OcspResponseCache.Entry expired = new OcspResponseCache.Entry(createCertId(1, BigInteger.valueOf(3)), response, new byte[0], null,
+                signingCertificate, null, now - 60000, now - 1);
+        OcspResponseCache.INSTANCE.put(fresh);
+        OcspResponseCache.INSTANCE.put(old);
+        OcspResponseCache.INSTANCE.put(expired);
+        final List<OcspResponseCache.Entry> toRefresh = OcspResponseCache.INSTANCE.getEntriesToRefresh(now);
+        assertEquals(1, toRefresh.size());
+        assertSame(old, toRefresh.get(0));
+        assertEquals("Expired response should be removed.", 2, OcspResponseCache.INSTANCE.size());
+        OcspResponseCache.INSTANCE.remove(old);
+        assertEquals(1, OcspResponseCache.INSTANCE.size());
+        // The least recently used serial number is evicted
+        OcspResponseCache.INSTANCE.setMaxSize(2);
+        OcspResponseCache.INSTANCE.put(old);
+        assertEquals(2, OcspResponseCache.INSTANCE.size());
+        OcspResponseCache.INSTANCE.get(createCertId(1, BigInteger.ONE), null, signingCertificate);
+        OcspResponseCache.INSTANCE.put(new OcspResponseCache.Entry(createCertId(1, BigInteger.valueOf(4)), response, new byte[0], null,
+                signingCertificate, null, now, now + 60000));
+        assertTrue(OcspResponseCache.INSTANCE.isFull());
+        assertSame(response, OcspResponseCache.INSTANCE.get(createCertId(1, BigInteger.ONE), null, signingCertificate));
+        assertNull(OcspResponseCache.INSTANCE.get(createCertId(1, BigInteger.valueOf(2)), null, signingCertificate));
+        assertTrue(OcspResponseCache.INSTANCE.getStatistics().containsKey("hitratio"));
+    }
+
+    private static CertificateID createCertId(final int issuer, final BigInteger serialNumber) {
+        final byte[] issuerHash = new byte[20];
+        issuerHash[0] = (byte) issuer;
+        return new CertificateID(new CertID(new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1), new DEROctetString(issuerHash),
+                new DEROctetString(issuerHash), new ASN1Integer(serialNumber)));
+    }
+
+    private static RevokedStatus createRevokedStatus(final long revocationTime) {
+        return new RevokedStatus(new RevokedInfo(new ASN1GeneralizedTime(new Date(revocationTime)), CRLReason.lookup(CRLReason.keyCompromise)));
+    }
+
+    private static OCSPResp createResponse() throws Exception {
+        // The cache does not look at the response
+        return new OCSPRespBuilder().build(OCSPRespBuilder.UNAUTHORIZED, null);
+    }
+}
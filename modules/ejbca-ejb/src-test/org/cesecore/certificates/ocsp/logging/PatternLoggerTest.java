@@ -13,9 +13,12 @@
 
 package org.cesecore.certificates.ocsp.logging;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.lang.reflect.Method;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 import org.junit.Test;
@@ -43,6 +46,38 @@ public class PatternLoggerTest {
         log.trace("<testPatternLogger");
     }
 
+    /** The precompiled template must give the same output as replacing each match with Matcher.appendReplacement. */
+    @Test
+    public void testTemplateMatchesRegexReplacement() throws Exception {
+        final String pattern = "\\$\\{(.+?)\\}";
+        final String order = "${VAR1};\"${VAR2}\";${MISSING};${VAR1}:${VAR3}\n${VAR4}${VAR5}${VAR6}";
+        final PatternLogger patternLogger = new TestPatternLogger(pattern, order, "yyyy-MM-dd:HH:mm:ss:z", "GMT");
+        final String[] values = { "plain", "C:\\\\dir", "cost \\$5", "$1", "", "x$0y" };
+        for (int i = 0; i < values.length; i++) {
+            patternLogger.paramPut("VAR" + (i + 1), values[i]);
+        }
+        final StringBuffer expected = new StringBuffer();
+        final Matcher matcher = Pattern.compile(pattern).matcher(order);
+        while (matcher.find()) {
+            final String key = matcher.group(1);
+            final int index = key.startsWith("VAR") ? Integer.parseInt(key.substring(3)) - 1 : -1;
+            if (index >= 0) {
+                matcher.appendReplacement(expected, values[index]);
+            } else {
+                matcher.appendReplacement(expected, "");
+                expected.append(matcher.group(0));
+            }
+        }
+        matcher.appendTail(expected);
+        final Method m = PatternLogger.class.getDeclaredMethod("interpolate", new Class[0]);
+        m.setAccessible(true);
+        assertEquals(expected.toString(), m.invoke(patternLogger));
+        // Bytes are hex encoded and Integers are written as decimal numbers
+        patternLogger.paramPut("VAR1", new byte[] { 0x0a, (byte) 0xff });
+        patternLogger.paramPut("VAR2", Integer.valueOf(7));
+        assertTrue(((String) m.invoke(patternLogger)).startsWith("0aff;\"7\";${MISSING};0aff:"));
+    }
+
     /** Helper method that replaces all ${VARx} where x={0..10} with "contentx" and asserts that the result is the expected using regexp. */
     private void testPatternLoggerInternal(String pattern, String dateFormat, String timeZone, String expected) throws Exception {
         log.trace(">testPatternLoggerInternal");
@@ -0,0 +1,271 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.ejbca.util.LatencyHistogram;
+import org.junit.Test;
+
+/**
+ * Tests propagation of cache invalidations between several nodes in the same JVM, that share an in-memory log instead of the
+ * CacheInvalidationData table.
+ *
+ * @version $Id$
+ */
+public class CacheInvalidationBusTest {
+
+    private static final Logger log = Logger.getLogger(CacheInvalidationBusTest.class);
+
+    private static final String CACHE_NAME = "TestCache";
+    private static final long WINDOW = 10000L;
+
+    @Test
+    public void testOtherNodesAreInvalidated() {
+        final MemoryCacheInvalidationLog invalidationLog = new MemoryCacheInvalidationLog();
+        final CacheInvalidationBus node1 = new CacheInvalidationBus(1);
+        final CacheInvalidationBus node2 = new CacheInvalidationBus(2);
+        final CacheInvalidationBus node3 = new CacheInvalidationBus(3);
+        final RecordingListener listener1 = new RecordingListener();
+        final RecordingListener listener2 = new RecordingListener();
+        final RecordingListener listener3 = new RecordingListener();
+        node1.register(CACHE_NAME, listener1);
+        node2.register(CACHE_NAME, listener2);
+        node3.register(CACHE_NAME, listener3);
+        publish(node1, invalidationLog, CACHE_NAME, "4711");
+        publish(node1, invalidationLog, CACHE_NAME, null);
+        publish(node2, invalidationLog, "OtherCache", "1");
+        final Set<String> cacheNames1 = node1.process(invalidationLog, WINDOW);
+        final Set<String> cacheNames2 = node2.process(invalidationLog, WINDOW);
+        node3.process(invalidationLog, WINDOW);
+        assertEquals("A node should not process its own invalidations", Collections.singleton("OtherCache"), cacheNames1);
+        assertEquals(Collections.singleton(CACHE_NAME), cacheNames2);
+        assertEquals(0, listener1.getKeys().size());
+        assertEquals(2, listener2.getKeys().size());
+        assertEquals("4711", listener2.getKeys().get(0));
+        assertEquals("A null key should be passed on to flush the whole cache", null, listener2.getKeys().get(1));
+        assertEquals(listener2.getKeys(), listener3.getKeys());
+        // The invalidations are read again within the window, but should only be processed once
+        assertEquals(0, node2.process(invalidationLog, WINDOW).size());
+        assertEquals(2, listener2.getKeys().size());
+    }
+
+    @Test
+    public void testLateCommit() throws InterruptedException {
+        final MemoryCacheInvalidationLog invalidationLog = new MemoryCacheInvalidationLog();
+        final CacheInvalidationBus node1 = new CacheInvalidationBus(1);
+        final CacheInvalidationBus node2 = new CacheInvalidationBus(2);
+        final RecordingListener listener2 = new RecordingListener();
+        node2.register(CACHE_NAME, listener2);
+        // The invalidation is not visible until the transaction of node 1 is committed
+        final MemoryCacheInvalidationLog transaction = new MemoryCacheInvalidationLog();
+        publish(node1, transaction, CACHE_NAME, "1");
+        Thread.sleep(50);
+        node2.process(invalidationLog, WINDOW);
+        assertEquals(0, listener2.getKeys().size());
+        Thread.sleep(50);
+        invalidationLog.commit(transaction);
+        node2.process(invalidationLog, WINDOW);
+        assertEquals("An invalidation committed after the previous read should be processed", 1, listener2.getKeys().size());
+    }
+
+    @Test
+    public void testListenerFailure() {
+        final MemoryCacheInvalidationLog invalidationLog = new MemoryCacheInvalidationLog();
+        final CacheInvalidationBus node1 = new CacheInvalidationBus(1);
+        final CacheInvalidationBus node2 = new CacheInvalidationBus(2);
+        final RecordingListener listener2 = new RecordingListener();
+        node2.register(CACHE_NAME, new CacheInvalidationListener() {
+            @Override
+            public void invalidate(final String key) {
+                throw new IllegalStateException("Expected failure");
+            }
+        });
+        node2.register(CACHE_NAME, listener2);
+        publish(node1, invalidationLog, CACHE_NAME, "1");
+        node2.process(invalidationLog, WINDOW);
+        assertEquals("A failing listener should not stop the other listeners", 1, listener2.getKeys().size());
+    }
+
+    @Test
+    public void testRemoveBefore() throws InterruptedException {
+        final MemoryCacheInvalidationLog invalidationLog = new MemoryCacheInvalidationLog();
+        final CacheInvalidationBus node1 = new CacheInvalidationBus(1);
+        publish(node1, invalidationLog, CACHE_NAME, "1");
+        Thread.sleep(10);
+        final long time = System.currentTimeMillis();
+        Thread.sleep(10);
+        publish(node1, invalidationLog, CACHE_NAME, "2");
+        invalidationLog.removeBefore(CacheInvalidationBus.getFirstIdAt(time));
+        final List<CacheInvalidation> remaining = invalidationLog.readFrom(0);
+        assertEquals(1, remaining.size());
+        assertEquals("2", remaining.get(0).getKey());
+    }
+
+    /** A node that fails to store its invalidations, for example because of an id that another node also created, stores them later. */
+    @Test
+    public void testFailedStoreIsRetried() {
+        final MemoryCacheInvalidationLog invalidationLog = new MemoryCacheInvalidationLog();
+        final CacheInvalidationBus node1 = new CacheInvalidationBus(1);
+        final CacheInvalidationBus node2 = new CacheInvalidationBus(2);
+        final RecordingListener listener2 = new RecordingListener();
+        node2.register(CACHE_NAME, listener2);
+        node1.addPending(CACHE_NAME, "1");
+        node1.addPending(CACHE_NAME, "2");
+        final List<CacheInvalidation> failed = node1.takePending();
+        assertEquals(2, failed.size());
+        assertEquals("The queue should be empty until the invalidations are returned", 0, node1.takePending().size());
+        node1.addPending(CACHE_NAME, "3");
+        node1.returnPending(failed);
+        final List<CacheInvalidation> retried = node1.takePending();
+        assertEquals(3, retried.size());
+        for (int i = 0; i < failed.size(); i++) {
+            assertEquals("Returned invalidations should be stored first", failed.get(i).getKey(), retried.get(i).getKey());
+            assertTrue("A retried invalidation should get a new id", failed.get(i).getId() != retried.get(i).getId());
+        }
+        for (final CacheInvalidation cacheInvalidation : retried) {
+            invalidationLog.append(cacheInvalidation);
+        }
+        node2.process(invalidationLog, WINDOW);
+        assertEquals(Arrays.asList("1", "2", "3"), listener2.getKeys());
+    }
+
+    /** Measures the time from publishing on one node until the listeners on the other nodes have been called. */
+    @Test
+    public void testPropagationLatency() throws InterruptedException {
+        final int numberOfNodes = 3;
+        final int numberOfInvalidations = 100;
+        final long pollInterval = 20;
+        final MemoryCacheInvalidationLog invalidationLog = new MemoryCacheInvalidationLog();
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final CountDownLatch received = new CountDownLatch((numberOfNodes - 1) * numberOfInvalidations);
+        final List<Thread> pollers = new ArrayList<Thread>();
+        final CacheInvalidationBus publisher = new CacheInvalidationBus(0);
+        for (int i = 1; i < numberOfNodes; i++) {
+            final CacheInvalidationBus node = new CacheInvalidationBus(i);
+            node.register(CACHE_NAME, new CacheInvalidationListener() {
+                @Override
+                public void invalidate(final String key) {
+                    // The key is the time of publication
+                    histogram.record((System.nanoTime() - Long.parseLong(key)) / 1000L);
+                    received.countDown();
+                }
+            });
+            final Thread poller = new Thread("CacheInvalidationPoller-" + i) {
+                @Override
+                public void run() {
+                    while (!isInterrupted()) {
+                        node.process(invalidationLog, WINDOW);
+                        try {
+                            Thread.sleep(pollInterval);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            };
+            pollers.add(poller);
+            poller.start();
+        }
+        try {
+            for (int i = 0; i < numberOfInvalidations; i++) {
+                publish(publisher, invalidationLog, CACHE_NAME, String.valueOf(System.nanoTime()));
+                Thread.sleep(3);
+            }
+            assertTrue("Not all invalidations were received.", received.await(10, TimeUnit.SECONDS));
+        } finally {
+            for (final Thread poller : pollers) {
+                poller.interrupt();
+                poller.join();
+            }
+        }
+        log.info("Propagation latency with poll interval " + pollInterval + " ms: mean " + (long) histogram.getMean() + " us, 99th percentile "
+                + histogram.getValueAtPercentile(99) + " us, max " + histogram.getMax() + " us.");
+        assertEquals((numberOfNodes - 1) * numberOfInvalidations, histogram.getCount());
+        assertTrue("Propagation took longer than a second.", histogram.getMax() < 1000000L);
+    }
+
+    /** Queues an invalidation as after a commit, and stores it in the log as the timer of the node does. */
+    private static void publish(final CacheInvalidationBus node, final CacheInvalidationLog invalidationLog, final String cacheName, final String key) {
+        node.addPending(cacheName, key);
+        for (final CacheInvalidation cacheInvalidation : node.takePending()) {
+            invalidationLog.append(cacheInvalidation);
+        }
+    }
+
+    private static class RecordingListener implements CacheInvalidationListener {
+        private final List<String> keys = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void invalidate(final String key) {
+            keys.add(key);
+        }
+
+        public List<String> getKeys() {
+            return keys;
+        }
+    }
+
+    /** Log that is shared by the nodes, like the database table. */
+    private static class MemoryCacheInvalidationLog implements CacheInvalidationLog {
+        private final List<CacheInvalidation> invalidations = new ArrayList<CacheInvalidation>();
+
+        @Override
+        public synchronized void append(final CacheInvalidation cacheInvalidation) {
+            invalidations.add(cacheInvalidation);
+        }
+
+        /** Makes the invalidations in a log that represents an uncommitted transaction visible. */
+        public synchronized void commit(final MemoryCacheInvalidationLog transaction) {
+            invalidations.addAll(transaction.readFrom(0));
+        }
+
+        @Override
+        public synchronized List<CacheInvalidation> readFrom(final long fromId) {
+            final List<CacheInvalidation> ret = new ArrayList<CacheInvalidation>();
+            for (final CacheInvalidation cacheInvalidation : invalidations) {
+                if (cacheInvalidation.getId() >= fromId) {
+                    ret.add(cacheInvalidation);
+                }
+            }
+            Collections.sort(ret, new Comparator<CacheInvalidation>() {
+                @Override
+                public int compare(final CacheInvalidation o1, final CacheInvalidation o2) {
+                    return Long.valueOf(o1.getId()).compareTo(Long.valueOf(o2.getId()));
+                }
+            });
+            return ret;
+        }
+
+        @Override
+        public synchronized void removeBefore(final long id) {
+            for (final Iterator<CacheInvalidation> iterator = invalidations.iterator(); iterator.hasNext();) {
+                if (iterator.next().getId() < id) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+}
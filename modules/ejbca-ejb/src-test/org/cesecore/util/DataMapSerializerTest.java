@@ -0,0 +1,238 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Point;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.certificateprofile.CertificateProfile;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.config.ConfigurationHolder;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the compact format of DataMapSerializer and that the XML format of XMLEncoder is still read.
+ *
+ * @version $Id$
+ */
+public class DataMapSerializerTest {
+
+    private static final Logger log = Logger.getLogger(DataMapSerializerTest.class);
+
+    @After
+    public void tearDown() {
+        ConfigurationHolder.updateConfiguration("db.compactdatamaps", "false");
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final LinkedHashMap<Object, Object> map = new LinkedHashMap<Object, Object>();
+        map.put("string", "ĞİŞğışÅÄÖåäö </string> \u0000 😀");
+        map.put("emptyString", "");
+        map.put("null", null);
+        map.put("true", Boolean.TRUE);
+        map.put("false", Boolean.FALSE);
+        map.put("byte", Byte.valueOf((byte) -1));
+        map.put("short", Short.valueOf(Short.MIN_VALUE));
+        map.put("int", Integer.valueOf(-4711));
+        map.put("long", Long.valueOf(Long.MAX_VALUE));
+        map.put("float", Float.valueOf(1.5f));
+        map.put("double", Double.valueOf(-0.25));
+        map.put("char", Character.valueOf('ö'));
+        map.put("bigInteger", new BigInteger("-123456789012345678901234567890"));
+        map.put("date", new Date(1234567890123L));
+        map.put(Integer.valueOf(1), new ArrayList<Object>(Arrays.asList("a", Integer.valueOf(2), null)));
+        map.put("linkedList", new LinkedList<Integer>(Arrays.asList(Integer.valueOf(3), Integer.valueOf(4))));
+        map.put("hashSet", new HashSet<String>(Arrays.asList("x", "y")));
+        map.put("linkedHashSet", new LinkedHashSet<String>(Arrays.asList("z", "x")));
+        final HashMap<String, Object> inner = new HashMap<String, Object>();
+        inner.put("version", Float.valueOf(2));
+        map.put("hashMap", inner);
+        map.put("emptyList", Collections.emptyList());
+        map.put("emptySet", Collections.emptySet());
+        map.put("emptyMap", Collections.emptyMap());
+        map.put("enum", TimeUnit.SECONDS);
+        final Object decoded = DataMapSerializer.decode(DataMapSerializer.encodeCompact(map));
+        assertEquals(LinkedHashMap.class, decoded.getClass());
+        assertEquals(map, decoded);
+        // Check the classes, since equals does not
+        for (final Map.Entry<?, ?> entry : ((Map<?, ?>) decoded).entrySet()) {
+            final Object value = map.get(entry.getKey());
+            if (value != null) {
+                assertEquals("Class of " + entry.getKey(), value.getClass(), entry.getValue().getClass());
+            }
+        }
+        final byte[] bytes = new byte[] { 0, 1, -128, 127 };
+        assertArrayEquals(bytes, (byte[]) DataMapSerializer.decode(DataMapSerializer.encodeCompact(bytes)));
+        assertNull(DataMapSerializer.encodeCompact(null));
+        assertNull(DataMapSerializer.decode(null));
+    }
+
+    @Test
+    public void testBase64Maps() {
+        final HashMap<Object, Object> putMap = new Base64PutHashMap();
+        putMap.put("key", "ĞİŞ");
+        putMap.put("number", Integer.valueOf(1));
+        final String encoded = DataMapSerializer.encodeCompact(putMap);
+        final Object decodedPutMap = DataMapSerializer.decode(encoded);
+        assertEquals(Base64PutHashMap.class, decodedPutMap.getClass());
+        assertEquals("The Base64 encoded values should be stored", putMap, decodedPutMap);
+        // The same values should be read from XML
+        assertEquals(decodedPutMap, DataMapSerializer.decode(DataMapSerializer.encodeXml(putMap)));
+        // Like the entities do when loading a map
+        final HashMap<?, ?> getMap = new Base64GetHashMap((Map<?, ?>) decodedPutMap);
+        assertEquals("ĞİŞ", getMap.get("key"));
+        assertEquals(Integer.valueOf(1), getMap.get("number"));
+    }
+
+    @Test
+    public void testEncodeFollowsConfiguration() {
+        final HashMap<String, String> map = new HashMap<String, String>();
+        map.put("key", "value");
+        ConfigurationHolder.updateConfiguration("db.compactdatamaps", "false");
+        final String xml = DataMapSerializer.encode(map);
+        assertFalse(DataMapSerializer.isCompact(xml));
+        assertTrue(xml.startsWith("<?xml"));
+        assertEquals(map, DataMapSerializer.decode(xml));
+        ConfigurationHolder.updateConfiguration("db.compactdatamaps", "true");
+        final String compact = DataMapSerializer.encode(map);
+        assertTrue(DataMapSerializer.isCompact(compact));
+        assertEquals(map, DataMapSerializer.decode(compact));
+        assertTrue(compact.length() < xml.length());
+    }
+
+    @Test
+    public void testUnsupportedClassIsWrittenAsXml() {
+        final HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("bean", new Point(1, 2));
+        try {
+            DataMapSerializer.encodeCompact(map);
+            fail("A JavaBean can not be stored in the compact format.");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        ConfigurationHolder.updateConfiguration("db.compactdatamaps", "true");
+        final String encoded = DataMapSerializer.encode(map);
+        assertFalse(DataMapSerializer.isCompact(encoded));
+        assertEquals(map, DataMapSerializer.decode(encoded));
+    }
+
+    @Test
+    public void testCorruptData() {
+        final String encoded = DataMapSerializer.encodeCompact(new ArrayList<String>(Arrays.asList("a", "b")));
+        final String[] corrupt = { DataMapSerializer.COMPACT_PREFIX, encoded.substring(0, encoded.length() - 4),
+                DataMapSerializer.COMPACT_PREFIX + new String(Base64.encode(new byte[] { 2, 0 }, false)),
+                DataMapSerializer.COMPACT_PREFIX + new String(Base64.encode(new byte[] { 1, 0, 0 }, false)),
+                DataMapSerializer.COMPACT_PREFIX + new String(Base64.encode(new byte[] { 1, 99 }, false)),
+                DataMapSerializer.COMPACT_PREFIX + new String(Base64.encode(new byte[] { 1, 14, 127, 127, 127, 127 }, false)) };
+        for (final String data : corrupt) {
+            try {
+                DataMapSerializer.decodeCompact(data);
+                fail("Corrupt data should not be decoded: " + data);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidEnum() {
+        final String encoded = DataMapSerializer.encodeCompact(TimeUnit.SECONDS);
+        // Replace the class or the constant with names of the same length
+        final String[] corrupt = { replaceInCompact(encoded, "SECONDS", "SECONDZ"), replaceInCompact(encoded, "TimeUnit", "TimeUniX"),
+                replaceInCompact(encoded, "TimeUnit", "Executor") };
+        for (final String data : corrupt) {
+            try {
+                DataMapSerializer.decodeCompact(data);
+                fail("An invalid enum should not be decoded: " + data);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    private String replaceInCompact(final String compact, final String from, final String to) {
+        final String decoded = new String(Base64.decode(compact.substring(DataMapSerializer.COMPACT_PREFIX.length()).getBytes()), Charset.forName("ISO-8859-1"));
+        assertTrue(decoded.contains(from));
+        return DataMapSerializer.COMPACT_PREFIX + new String(Base64.encode(decoded.replace(from, to).getBytes(Charset.forName("ISO-8859-1")), false));
+    }
+
+    /** Compares the time to encode and decode the data of a certificate profile with the compact format and with XML. */
+    @Test
+    public void testPerformance() {
+        final HashMap<Object, Object> data = new Base64PutHashMap();
+        data.putAll((Map<?, ?>) new CertificateProfile(CertificateProfileConstants.CERTPROFILE_FIXED_ENDUSER).saveData());
+        final String xml = DataMapSerializer.encodeXml(data);
+        final String compact = DataMapSerializer.encodeCompact(data);
+        assertEquals(DataMapSerializer.decode(xml), DataMapSerializer.decode(compact));
+        final int iterations = 500;
+        // Warm up
+        measure(data, xml, compact, iterations / 4);
+        final long[] times = measure(data, xml, compact, iterations);
+        log.info("Certificate profile with " + data.size() + " entries, XML " + xml.length() + " chars, compact " + compact.length() + " chars.");
+        log.info("Encode: XML " + times[0] / iterations + " us, compact " + times[1] / iterations + " us.");
+        log.info("Decode: XML " + times[2] / iterations + " us, compact " + times[3] / iterations + " us.");
+        assertTrue("Compact format should be smaller than XML", compact.length() < xml.length());
+        assertTrue("Compact decoding should be faster than XMLDecoder", times[3] < times[2]);
+    }
+
+    /** @return the total times in microseconds for XML encoding, compact encoding, XML decoding and compact decoding */
+    private long[] measure(final Object data, final String xml, final String compact, final int iterations) {
+        final List<Object> results = new ArrayList<Object>();
+        final long[] times = new long[4];
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            results.add(DataMapSerializer.encodeXml(data));
+        }
+        times[0] = (System.nanoTime() - start) / 1000L;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            results.add(DataMapSerializer.encodeCompact(data));
+        }
+        times[1] = (System.nanoTime() - start) / 1000L;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            results.add(DataMapSerializer.decode(xml));
+        }
+        times[2] = (System.nanoTime() - start) / 1000L;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            results.add(DataMapSerializer.decode(compact));
+        }
+        times[3] = (System.nanoTime() - start) / 1000L;
+        assertEquals(4 * iterations, results.size());
+        return times;
+    }
+}
@@ -0,0 +1,244 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.cesecore.authorization.control.AccessControlSessionLocal;
+import org.cesecore.certificates.ca.CaSessionLocal;
+import org.cesecore.certificates.certificate.RecordingEntityManager;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.util.DataMapSerializer;
+import org.ejbca.core.ejb.ca.publisher.PublisherData;
+import org.ejbca.core.ejb.ca.publisher.PublisherSessionBean;
+import org.ejbca.core.ejb.hardtoken.HardTokenProfileData;
+import org.ejbca.core.ejb.hardtoken.HardTokenSessionBean;
+import org.ejbca.core.ejb.ra.userdatasource.UserDataSourceData;
+import org.ejbca.core.ejb.ra.userdatasource.UserDataSourceSessionBean;
+import org.ejbca.core.model.ca.publisher.LdapPublisher;
+import org.ejbca.core.model.hardtoken.profiles.SwedishEIDProfile;
+import org.ejbca.core.model.ra.userdatasource.CustomUserDataSourceContainer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests that the entities with a data map column are read back by their session beans, whether the data was stored as XML or in the
+ * compact format of DataMapSerializer.
+ *
+ * @version $Id$
+ */
+@RunWith(Parameterized.class)
+public class DataMapEntitySessionBeanTest {
+
+    private static final String COMPACT_PROPERTY = "db.compactdatamaps";
+    /** Characters outside of ISO-8859-1, to test the encoding */
+    private static final String TEXT = "Test ĞİŞ";
+    private static final int ID = 4711;
+    private static final String NAME = "Test";
+
+    /** An entity with a data map, and how it is read through the session bean. */
+    private static abstract class EntityKind {
+        private final String name;
+
+        EntityKind(final String name) {
+            this.name = name;
+        }
+
+        /** @return the entity with TEXT in a value of the data map, as it is created when the object is stored */
+        abstract Object createEntity() throws Exception;
+
+        /** @return an entity with the data, as if it was loaded from the database, so without a cached object */
+        abstract Object loadEntity(String data) throws Exception;
+
+        /** @return the value with TEXT of the object that the session bean reads from the database */
+        abstract String read(EntityManager entityManager) throws Exception;
+
+        abstract String getData(Object entity);
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final EntityKind PUBLISHER = new EntityKind("PublisherData") {
+        @Override
+        Object createEntity() {
+            final LdapPublisher publisher = new LdapPublisher();
+            publisher.setDescription(TEXT);
+            return new PublisherData(ID, NAME, publisher);
+        }
+
+        @Override
+        Object loadEntity(final String data) {
+            final PublisherData publisherData = new PublisherData();
+            publisherData.setId(ID);
+            publisherData.setName(NAME);
+            publisherData.setData(data);
+            return publisherData;
+        }
+
+        @Override
+        String read(final EntityManager entityManager) throws Exception {
+            final PublisherSessionBean publisherSession = new PublisherSessionBean();
+            setField(publisherSession, "entityManager", entityManager);
+            return ((LdapPublisher) publisherSession.getAllPublishers().get(Integer.valueOf(ID))).getDescription();
+        }
+
+        @Override
+        String getData(final Object entity) {
+            return ((PublisherData) entity).getData();
+        }
+    };
+
+    private static final EntityKind HARD_TOKEN_PROFILE = new EntityKind("HardTokenProfileData") {
+        @Override
+        Object createEntity() {
+            final SwedishEIDProfile profile = new SwedishEIDProfile();
+            profile.setHardTokenSNPrefix(TEXT);
+            return new HardTokenProfileData(ID, NAME, profile);
+        }
+
+        @Override
+        Object loadEntity(final String data) {
+            final HardTokenProfileData hardTokenProfileData = new HardTokenProfileData();
+            hardTokenProfileData.setId(ID);
+            hardTokenProfileData.setName(NAME);
+            hardTokenProfileData.setData(data);
+            return hardTokenProfileData;
+        }
+
+        @Override
+        String read(final EntityManager entityManager) throws Exception {
+            final HardTokenSessionBean hardTokenSession = new HardTokenSessionBean();
+            setField(hardTokenSession, "entityManager", entityManager);
+            return ((SwedishEIDProfile) hardTokenSession.getHardTokenProfile(NAME)).getHardTokenSNPrefix();
+        }
+
+        @Override
+        String getData(final Object entity) {
+            return ((HardTokenProfileData) entity).getData();
+        }
+    };
+
+    private static final EntityKind USER_DATA_SOURCE = new EntityKind("UserDataSourceData") {
+        @Override
+        Object createEntity() throws Exception {
+            final CustomUserDataSourceContainer userDataSource = new CustomUserDataSourceContainer();
+            userDataSource.setDescription(TEXT);
+            return new UserDataSourceData(ID, NAME, userDataSource);
+        }
+
+        @Override
+        Object loadEntity(final String data) {
+            final UserDataSourceData userDataSourceData = new UserDataSourceData();
+            userDataSourceData.setId(ID);
+            userDataSourceData.setName(NAME);
+            userDataSourceData.setData(data);
+            return userDataSourceData;
+        }
+
+        @Override
+        String read(final EntityManager entityManager) throws Exception {
+            final UserDataSourceSessionBean userDataSourceSession = new UserDataSourceSessionBean();
+            setField(userDataSourceSession, "entityManager", entityManager);
+            setField(userDataSourceSession, "authorizationSession", stub(AccessControlSessionLocal.class));
+            setField(userDataSourceSession, "caSession", stub(CaSessionLocal.class));
+            return ((CustomUserDataSourceContainer) userDataSourceSession.getUserDataSource(new AlwaysAllowLocalAuthenticationToken(
+                    new UsernamePrincipal("DataMapEntitySessionBeanTest")), NAME)).getDescription();
+        }
+
+        @Override
+        String getData(final Object entity) {
+            return ((UserDataSourceData) entity).getData();
+        }
+    };
+
+    @Parameters(name = "{0}, compact={1}")
+    public static Collection<Object[]> parameters() {
+        final List<Object[]> ret = new ArrayList<Object[]>();
+        for (final EntityKind entityKind : new EntityKind[] { PUBLISHER, HARD_TOKEN_PROFILE, USER_DATA_SOURCE }) {
+            ret.add(new Object[] { entityKind, Boolean.FALSE });
+            ret.add(new Object[] { entityKind, Boolean.TRUE });
+        }
+        return ret;
+    }
+
+    private final EntityKind entityKind;
+    private final boolean compact;
+    private String compactValue;
+
+    public DataMapEntitySessionBeanTest(final EntityKind entityKind, final Boolean compact) {
+        this.entityKind = entityKind;
+        this.compact = compact.booleanValue();
+    }
+
+    @Before
+    public void setUp() {
+        compactValue = ConfigurationHolder.getString(COMPACT_PROPERTY);
+    }
+
+    @After
+    public void tearDown() {
+        ConfigurationHolder.updateConfiguration(COMPACT_PROPERTY, compactValue == null ? "false" : compactValue);
+    }
+
+    @Test
+    public void testReadData() throws Exception {
+        ConfigurationHolder.updateConfiguration(COMPACT_PROPERTY, String.valueOf(compact));
+        final String data = entityKind.getData(entityKind.createEntity());
+        assertEquals(compact, DataMapSerializer.isCompact(data));
+        final RecordingEntityManager recorder = new RecordingEntityManager();
+        recorder.addResult(Collections.singletonList(entityKind.loadEntity(data)));
+        assertEquals(TEXT, entityKind.read(recorder.getEntityManager()));
+    }
+
+    private static void setField(final Object object, final String name, final Object value) throws Exception {
+        final Field field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(object, value);
+    }
+
+    /** @return a session bean that authorizes everything and returns empty collections */
+    private static <T> T stub(final Class<T> sessionInterface) {
+        return sessionInterface.cast(Proxy.newProxyInstance(sessionInterface.getClassLoader(), new Class<?>[] { sessionInterface },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        if (method.getReturnType() == boolean.class) {
+                            return Boolean.TRUE;
+                        } else if (Collection.class.isAssignableFrom(method.getReturnType())) {
+                            return Collections.emptyList();
+                        }
+                        return null;
+                    }
+                }));
+    }
+}
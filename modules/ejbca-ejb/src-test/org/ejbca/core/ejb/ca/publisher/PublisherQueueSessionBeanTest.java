@@ -0,0 +1,67 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ca.publisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import org.cesecore.authentication.tokens.AlwaysAllowLocalAuthenticationToken;
+import org.cesecore.authentication.tokens.UsernamePrincipal;
+import org.junit.Test;
+
+/**
+ * Tests the drain rate of the publisher queue, with a stub for the chunks that are published in separate transactions.
+ *
+ * @version $Id$
+ */
+public class PublisherQueueSessionBeanTest {
+
+    private static final int PUBLISHER_ID = 4711;
+
+    @Test
+    public void testDrainRate() throws Exception {
+        final LinkedList<Integer> chunks = new LinkedList<Integer>();
+        final PublisherQueueSessionBean publisherQueueSession = new PublisherQueueSessionBean();
+        final Field field = PublisherQueueSessionBean.class.getDeclaredField("publisherQueueSession");
+        field.setAccessible(true);
+        field.set(publisherQueueSession, Proxy.newProxyInstance(PublisherQueueSessionLocal.class.getClassLoader(),
+                new Class<?>[] { PublisherQueueSessionLocal.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws InterruptedException {
+                        if (method.getName().equals("doChunk")) {
+                            Thread.sleep(10);
+                            return chunks.removeFirst();
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                }));
+        final AlwaysAllowLocalAuthenticationToken admin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("PublisherQueueSessionBeanTest"));
+        assertEquals("Nothing has been published yet", -1, publisherQueueSession.getEstimatedDrainTime(PUBLISHER_ID, 100));
+        chunks.addAll(Arrays.asList(Integer.valueOf(100), Integer.valueOf(100), Integer.valueOf(0)));
+        publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(admin, PUBLISHER_ID, null);
+        final double drainRate = publisherQueueSession.getDrainRate(PUBLISHER_ID);
+        assertTrue("Drain rate should be positive, but was " + drainRate, drainRate > 0);
+        assertEquals((long) Math.ceil(1000 / drainRate), publisherQueueSession.getEstimatedDrainTime(PUBLISHER_ID, 1000));
+        // Runs with an empty queue do not change the rate
+        chunks.add(Integer.valueOf(0));
+        publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(admin, PUBLISHER_ID, null);
+        assertEquals(drainRate, publisherQueueSession.getDrainRate(PUBLISHER_ID), 0);
+    }
+}
@@ -15,6 +15,7 @@ package org.ejbca.core.protocol.certificatestore;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import java.security.SignatureException;
@@ -25,8 +26,10 @@ import java.util.Collection;
 import java.util.Date;
 
 import org.apache.log4j.Logger;
+import org.bouncycastle.cert.ocsp.CertificateID;
 import org.cesecore.certificates.ca.internal.CaCertificateCache;
 import org.cesecore.certificates.certificate.HashID;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCache;
 import org.cesecore.util.Base64;
 import org.cesecore.util.CertTools;
 import org.cesecore.util.CryptoProviderTools;
@@ -165,6 +168,43 @@ public class CaCertificateCacheTest {
         assertNull(threadException != null?threadException.getMessage():"null", threadException);
 	}
 	
+    @Test
+    public void test03AddAndRemoveCertificate() throws Exception {
+        EjbcaConfigurationHolder.updateConfiguration("ocspSigningCertsValidTime", "15");
+        final X509Certificate testrootcert = (X509Certificate) CertTools.getCertfromByteArray(testroot);
+        final X509Certificate testrootnewcert = (X509Certificate) CertTools.getCertfromByteArray(testrootnew);
+        final X509Certificate testsubcert = (X509Certificate) CertTools.getCertfromByteArray(testsub);
+        final Collection<Certificate> certs = new ArrayList<Certificate>();
+        certs.add(testrootcert);
+        final CaCertificateCache cache = CaCertificateCache.INSTANCE;
+        cache.loadCertificates(certs);
+        assertSame(testrootcert, cache.findLatestBySubjectDN(HashID.getFromSubjectDN(testrootcert)));
+        assertNull(cache.findLatestByIssuerDN(HashID.getFromSubjectDN(testrootcert)));
+        // A renewed root replaces the old one as the latest, and the sub CA is found by its issuer
+        cache.addCertificate(testrootnewcert);
+        cache.addCertificate(testsubcert);
+        assertSame(testrootnewcert, cache.findLatestBySubjectDN(HashID.getFromSubjectDN(testrootcert)));
+        assertEquals(1, cache.getRootCertificates().length);
+        assertEquals(1, cache.findLatestByIssuerDN(HashID.getFromSubjectDN(testrootcert)).length);
+        assertSame(testsubcert, cache.findBySubjectKeyIdentifier(HashID.getFromKeyID(testsubcert)));
+        // OCSP CertificateIDs of both the old and the new root key are found
+        for (final CertificateID certificateID : OcspSigningCache.getCertificateIDFromCertificate(testrootcert)) {
+            assertSame(testrootcert, cache.findLatestByCertificateID(certificateID));
+        }
+        for (final CertificateID certificateID : OcspSigningCache.getCertificateIDFromCertificate(testrootnewcert)) {
+            assertSame(testrootnewcert, cache.findLatestByCertificateID(certificateID));
+        }
+        // Adding the same certificate again does not duplicate it
+        cache.addCertificate(testsubcert);
+        assertEquals(1, cache.findLatestByIssuerDN(HashID.getFromSubjectDN(testrootcert)).length);
+        // Removing the renewed root makes the old root the latest again
+        cache.removeCertificate(testrootnewcert);
+        assertSame(testrootcert, cache.findLatestBySubjectDN(HashID.getFromSubjectDN(testrootcert)));
+        assertNull(cache.findLatestByCertificateID(OcspSigningCache.getCertificateIDFromCertificate(testrootnewcert).get(0)));
+        cache.removeCertificate(testsubcert);
+        assertNull(cache.findLatestByIssuerDN(HashID.getFromSubjectDN(testrootcert)));
+    }
+
     // 
     // Private helper methods
     //
@@ -0,0 +1,62 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the percentiles of the latency histogram.
+ *
+ * @version $Id$
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        for (int i = 1; i <= 1000000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000000, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500000.5, histogram.getMean(), 0.001);
+        assertAround(500000, histogram.getValueAtPercentile(50));
+        assertAround(990000, histogram.getValueAtPercentile(99));
+        assertAround(999000, histogram.getValueAtPercentile(99.9));
+        assertEquals(1000000, histogram.getValueAtPercentile(100));
+        // Small values are exact
+        assertEquals(100, histogram.getValueAtPercentile(0.01));
+    }
+
+    @Test
+    public void testOutlier() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 999; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(Long.MAX_VALUE / 2);
+        histogram.record(-5);
+        assertEquals(0, histogram.getMin());
+        assertAround(1000, histogram.getValueAtPercentile(99.9));
+        assertEquals(Long.MAX_VALUE / 2, histogram.getValueAtPercentile(100));
+    }
+
+    private static void assertAround(final long expected, final long actual) {
+        assertTrue("Expected " + expected + " but was " + actual, actual >= expected && actual <= expected + expected / 64);
+    }
+}
@@ -0,0 +1,211 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Test;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+
+/**
+ * Tests the LDAP publisher connection pool, using a connection factory where creating a connection takes a fixed time, like
+ * connecting, negotiating TLS and binding to an LDAP server.
+ *
+ * @version $Id$
+ */
+public class LdapConnectionPoolTest {
+
+    private static final Logger log = Logger.getLogger(LdapConnectionPoolTest.class);
+
+    private static final long CONNECT_TIME = 5;
+
+    /** Creates unconnected LDAPConnection objects, taking CONNECT_TIME ms for each connection. */
+    private static class SimulatedConnectionFactory implements LdapConnectionPool.ConnectionFactory {
+        final AtomicInteger created = new AtomicInteger();
+        final Set<LDAPConnection> closed = Collections.synchronizedSet(new HashSet<LDAPConnection>());
+        final Set<LDAPConnection> broken = Collections.synchronizedSet(new HashSet<LDAPConnection>());
+        volatile boolean failing = false;
+
+        @Override
+        public LDAPConnection createConnection(final String host) throws LDAPException {
+            try {
+                Thread.sleep(CONNECT_TIME);
+            } catch (InterruptedException e) {
+                throw new LDAPException(e.getMessage(), LDAPException.CONNECT_ERROR, e.getMessage());
+            }
+            if (failing) {
+                throw new LDAPException("Simulated failure", LDAPException.CONNECT_ERROR, "Simulated failure");
+            }
+            created.incrementAndGet();
+            return new LDAPConnection();
+        }
+
+        @Override
+        public boolean isAlive(final LDAPConnection lc) {
+            return !broken.contains(lc);
+        }
+
+        @Override
+        public void closeConnection(final LDAPConnection lc) {
+            closed.add(lc);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        LdapConnectionPool.closeAll();
+    }
+
+    @Test
+    public void testConnectionReused() throws Exception {
+        final SimulatedConnectionFactory factory = new SimulatedConnectionFactory();
+        final LdapConnectionPool pool = LdapConnectionPool.getPool("testConnectionReused", factory, 2, 1000, 60000);
+        final LDAPConnection lc1 = pool.borrowConnection("host1");
+        pool.returnConnection("host1", lc1, true);
+        assertSame("Returned connection should be reused.", lc1, pool.borrowConnection("host1"));
+        // Each host has its own connections
+        final LDAPConnection lc2 = pool.borrowConnection("host2");
+        assertNotSame(lc1, lc2);
+        assertEquals(2, factory.created.get());
+        assertEquals(2, pool.getActiveCount());
+        // A connection where an operation failed is closed
+        pool.returnConnection("host1", lc1, false);
+        assertTrue(factory.closed.contains(lc1));
+        assertNotSame(lc1, pool.borrowConnection("host1"));
+        assertSame(pool, LdapConnectionPool.getPool("testConnectionReused", factory, 2, 1000, 60000));
+    }
+
+    @Test
+    public void testBrokenAndIdleConnectionsClosed() throws Exception {
+        final SimulatedConnectionFactory factory = new SimulatedConnectionFactory();
+        final LdapConnectionPool pool = LdapConnectionPool.getPool("testBrokenAndIdleConnectionsClosed", factory, 2, 1000, 50);
+        final LDAPConnection lc1 = pool.borrowConnection("host");
+        pool.returnConnection("host", lc1, true);
+        factory.broken.add(lc1);
+        final LDAPConnection lc2 = pool.borrowConnection("host");
+        assertNotSame("Broken connection should not be used.", lc1, lc2);
+        assertTrue(factory.closed.contains(lc1));
+        pool.returnConnection("host", lc2, true);
+        assertEquals(1, pool.getIdleCount());
+        Thread.sleep(100);
+        pool.evictIdleConnections();
+        assertEquals(0, pool.getIdleCount());
+        assertTrue(factory.closed.contains(lc2));
+    }
+
+    @Test
+    public void testIdleConnectionsClosedOnReturn() throws Exception {
+        final SimulatedConnectionFactory factory = new SimulatedConnectionFactory();
+        final LdapConnectionPool pool = LdapConnectionPool.getPool("testIdleConnectionsClosedOnReturn", factory, 2, 1000, 50);
+        final LDAPConnection lc1 = pool.borrowConnection("host");
+        final LDAPConnection lc2 = pool.borrowConnection("host");
+        pool.returnConnection("host", lc1, true);
+        Thread.sleep(100);
+        // Returning a connection closes the connections to the same host that have timed out, without calling evictIdleConnections
+        pool.returnConnection("host", lc2, true);
+        assertTrue(factory.closed.contains(lc1));
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        final SimulatedConnectionFactory factory = new SimulatedConnectionFactory();
+        final LdapConnectionPool pool = LdapConnectionPool.getPool("testMaxSize", factory, 1, 50, 60000);
+        final LDAPConnection lc = pool.borrowConnection("host");
+        try {
+            pool.borrowConnection("host");
+            fail("There should be no more than one connection to the host.");
+        } catch (LDAPException e) {
+            assertEquals(LDAPException.CONNECT_ERROR, e.getResultCode());
+        }
+        pool.returnConnection("host", lc, true);
+        pool.returnConnection("host", pool.borrowConnection("host"), false);
+        // A failure to connect must not use up the connection
+        factory.failing = true;
+        try {
+            pool.borrowConnection("host");
+            fail("Connection should have failed.");
+        } catch (LDAPException e) {
+            assertEquals("Simulated failure", e.getLDAPErrorMessage());
+        }
+        factory.failing = false;
+        pool.returnConnection("host", pool.borrowConnection("host"), true);
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    /** Compares the throughput of a new connection for each operation with pooled connections, for 1, 4 and 16 concurrent publishers. */
+    @Test
+    public void testThroughput() throws Exception {
+        for (final int threads : new int[] {1, 4, 16}) {
+            final int operationsPerThread = 400 / threads;
+            long time = System.currentTimeMillis();
+            runConcurrently(null, new SimulatedConnectionFactory(), threads, operationsPerThread);
+            final long unpooledTime = Math.max(1, System.currentTimeMillis() - time);
+            final SimulatedConnectionFactory factory = new SimulatedConnectionFactory();
+            final LdapConnectionPool pool = LdapConnectionPool.getPool("testThroughput" + threads, factory, 10, 5000, 60000);
+            time = System.currentTimeMillis();
+            runConcurrently(pool, factory, threads, operationsPerThread);
+            final long pooledTime = Math.max(1, System.currentTimeMillis() - time);
+            final int operations = threads*operationsPerThread;
+            log.info(threads + " concurrent publishers: " + (operations*1000L/unpooledTime) + " operations/s with a new connection for each operation, "
+                    + (operations*1000L/pooledTime) + " operations/s with pooled connections (" + factory.created.get() + " connections created).");
+            assertTrue(factory.created.get() <= 10);
+            assertEquals(0, pool.getActiveCount());
+        }
+    }
+
+    private void runConcurrently(final LdapConnectionPool pool, final SimulatedConnectionFactory factory, final int threads, final int operationsPerThread) throws Exception {
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        final Thread[] publishers = new Thread[threads];
+        for (int i=0; i<threads; i++) {
+            publishers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j=0; j<operationsPerThread; j++) {
+                            if (pool != null) {
+                                pool.returnConnection("host", pool.borrowConnection("host"), true);
+                            } else {
+                                factory.closeConnection(factory.createConnection("host"));
+                            }
+                        }
+                    } catch (Throwable t) {
+                        synchronized (failures) {
+                            failures.add(t);
+                        }
+                    }
+                }
+            };
+            publishers[i].start();
+        }
+        for (final Thread publisher : publishers) {
+            publisher.join();
+        }
+        assertTrue("Publishing failed: " + failures, failures.isEmpty());
+    }
+}
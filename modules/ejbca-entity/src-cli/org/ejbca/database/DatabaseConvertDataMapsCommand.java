@@ -0,0 +1,194 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.ca.CAData;
+import org.cesecore.keybind.InternalKeyBindingData;
+import org.cesecore.util.DataMapSerializer;
+import org.ejbca.core.ejb.ca.publisher.PublisherData;
+import org.ejbca.core.ejb.ca.publisher.PublisherQueueData;
+import org.ejbca.core.ejb.hardtoken.HardTokenProfileData;
+import org.ejbca.core.ejb.ra.userdatasource.UserDataSourceData;
+import org.ejbca.core.ejb.services.ServiceData;
+
+/**
+ * Converts the data columns written with java.beans.XMLEncoder to the compact format of DataMapSerializer.
+ *
+ * The audit log is not converted, since it must not be modified. Values that can not be stored in the compact format are left as XML.
+ *
+ * @version $Id$
+ */
+public class DatabaseConvertDataMapsCommand extends DatabaseCliCommand {
+
+    private static final Logger LOG = Logger.getLogger(DatabaseConvertDataMapsCommand.class);
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final String DEFAULT_PU = "ejbca-write";
+    private static final String ARG_ALL = "all";
+
+    /** A column of an entity that contains a serialized data map. */
+    private static abstract class DataColumn<T> {
+        final Class<T> entityClass;
+        final String primaryKey;
+
+        DataColumn(final Class<T> entityClass, final String primaryKey) {
+            this.entityClass = entityClass;
+            this.primaryKey = primaryKey;
+        }
+
+        abstract String getValue(T entity);
+
+        abstract void setValue(T entity, String value);
+    }
+
+    private static final List<DataColumn<?>> DATA_COLUMNS = new ArrayList<DataColumn<?>>();
+    static {
+        DATA_COLUMNS.add(new DataColumn<CAData>(CAData.class, "caId") {
+            @Override
+            String getValue(final CAData entity) { return entity.getData(); }
+            @Override
+            void setValue(final CAData entity, final String value) { entity.setData(value); }
+        });
+        DATA_COLUMNS.add(new DataColumn<InternalKeyBindingData>(InternalKeyBindingData.class, "id") {
+            @Override
+            String getValue(final InternalKeyBindingData entity) { return entity.getRawData(); }
+            @Override
+            void setValue(final InternalKeyBindingData entity, final String value) { entity.setRawData(value); }
+        });
+        DATA_COLUMNS.add(new DataColumn<PublisherData>(PublisherData.class, "id") {
+            @Override
+            String getValue(final PublisherData entity) { return entity.getData(); }
+            @Override
+            void setValue(final PublisherData entity, final String value) { entity.setData(value); }
+        });
+        DATA_COLUMNS.add(new DataColumn<PublisherQueueData>(PublisherQueueData.class, "pk") {
+            @Override
+            String getValue(final PublisherQueueData entity) { return entity.getVolatileData(); }
+            @Override
+            void setValue(final PublisherQueueData entity, final String value) { entity.setVolatileData(value); }
+        });
+        DATA_COLUMNS.add(new DataColumn<ServiceData>(ServiceData.class, "id") {
+            @Override
+            String getValue(final ServiceData entity) { return entity.getData(); }
+            @Override
+            void setValue(final ServiceData entity, final String value) { entity.setData(value); }
+        });
+        DATA_COLUMNS.add(new DataColumn<UserDataSourceData>(UserDataSourceData.class, "id") {
+            @Override
+            String getValue(final UserDataSourceData entity) { return entity.getData(); }
+            @Override
+            void setValue(final UserDataSourceData entity, final String value) { entity.setData(value); }
+        });
+        DATA_COLUMNS.add(new DataColumn<HardTokenProfileData>(HardTokenProfileData.class, "id") {
+            @Override
+            String getValue(final HardTokenProfileData entity) { return entity.getData(); }
+            @Override
+            void setValue(final HardTokenProfileData entity, final String value) { entity.setData(value); }
+        });
+    }
+
+    @Override
+    public String getDescription() {
+        return "Convert the XML data of CAs, publishers, services etc. to the compact format";
+    }
+
+    @Override
+    public String getMainCommand() {
+        return null;
+    }
+
+    @Override
+    public String getSubCommand() {
+        return "convertdatamaps";
+    }
+
+    @Override
+    public void execute(String[] args) {
+        if (args.length<2) {
+            LOG.info(getSubCommand() + " <"+ARG_ALL+" | EntityName> [persistence unit (default is '"+DEFAULT_PU+"')]");
+            LOG.info(" Rows that are updated get new database integrity protection, if it is enabled.");
+            return;
+        }
+        final String persistenceUnit = args.length==3 ? args[2] : DEFAULT_PU;
+        convertTables(args[1], persistenceUnit);
+    }
+
+    public void convertTables(final String entityClass, final String persistenceUnit) {
+        final EntityManager entityManager = getEntityManager(persistenceUnit);
+        final boolean all = ARG_ALL.equalsIgnoreCase(entityClass);
+        for (final DataColumn<?> dataColumn : DATA_COLUMNS) {
+            if (all || dataColumn.entityClass.getSimpleName().equals(entityClass)) {
+                convertTable(dataColumn, DEFAULT_BATCH_SIZE, entityManager);
+            }
+        }
+    }
+
+    /**
+     * Reads every row of a table and writes the data columns that are not in the compact format yet. Each batch is committed separately,
+     * so an interrupted conversion can simply be run again.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> void convertTable(final DataColumn<T> dataColumn, final int batchSize, final EntityManager entityManager) {
+        final String entityName = dataColumn.entityClass.getSimpleName();
+        final long startTime = System.currentTimeMillis();
+        int rowCount = 0;
+        int convertedCount = 0;
+        int xmlCount = 0;
+        while (true) {
+            final EntityTransaction transaction = entityManager.getTransaction();
+            transaction.begin();
+            boolean committed = false;
+            try {
+                final List<T> chunk = (List<T>) entityManager.createQuery("SELECT a FROM " + entityName + " a ORDER BY a." + dataColumn.primaryKey)
+                        .setFirstResult(rowCount).setMaxResults(batchSize).getResultList();
+                for (final T entity : chunk) {
+                    final String value = dataColumn.getValue(entity);
+                    if (value == null || DataMapSerializer.isCompact(value)) {
+                        continue;
+                    }
+                    try {
+                        dataColumn.setValue(entity, DataMapSerializer.encodeCompact(DataMapSerializer.decodeXml(value)));
+                        convertedCount++;
+                    } catch (IllegalArgumentException e) {
+                        // Contains objects that can only be stored as XML
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug(entityName + ": a row is kept as XML: " + e.getMessage());
+                        }
+                        xmlCount++;
+                    }
+                }
+                transaction.commit();
+                committed = true;
+                rowCount += chunk.size();
+                if (chunk.size() < batchSize) {
+                    break;
+                }
+                LOG.info(entityName + ": " + rowCount + " rows read so far.");
+            } finally {
+                if (!committed) {
+                    transaction.rollback();
+                }
+                // Keep the memory footprint down for large tables
+                entityManager.clear();
+            }
+        }
+        LOG.info(entityName + ": " + convertedCount + "/" + rowCount + " rows converted, " + xmlCount + " rows kept as XML in "
+                + (System.currentTimeMillis() - startTime) + " ms.");
+    }
+}
@@ -14,8 +14,8 @@
 package org.ejbca.core.ejb.ca.publisher;
 
 import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 
@@ -33,6 +33,7 @@ import org.cesecore.dbprotection.ProtectedData;
 import org.cesecore.dbprotection.ProtectionStringBuilder;
 import org.cesecore.util.Base64GetHashMap;
 import org.cesecore.util.Base64PutHashMap;
+import org.cesecore.util.DataMapSerializer;
 import org.cesecore.util.GUIDGenerator;
 import org.cesecore.util.ValueExtractor;
 import org.ejbca.core.model.ca.publisher.PublisherConst;
@@ -167,24 +168,16 @@ public class PublisherQueueData extends ProtectedData implements Serializable {
     @Transient
     public PublisherQueueVolatileInformation getPublisherQueueVolatileData() {
         PublisherQueueVolatileInformation ret = null;
-        try {
-            String vd = getVolatileData();
-            if ((vd != null) && (vd.length() > 0)) {
-                byte[] databytes = vd.getBytes("UTF8");
-                java.beans.XMLDecoder decoder;
-                decoder = new java.beans.XMLDecoder(new java.io.ByteArrayInputStream(databytes));
-                HashMap<?, ?> h = (HashMap<?, ?>) decoder.readObject();
-                decoder.close();
-                // Handle Base64 encoded string values
-                HashMap<?, ?> data = new Base64GetHashMap(h);
-                ret = new PublisherQueueVolatileInformation();
-                ret.loadData(data);
-                if (ret.isUpgraded()) {
-                    setPublisherQueueVolatileData(ret);
-                }
+        String vd = getVolatileData();
+        if ((vd != null) && (vd.length() > 0)) {
+            HashMap<?, ?> h = (HashMap<?, ?>) DataMapSerializer.decode(vd);
+            // Handle Base64 encoded string values
+            HashMap<?, ?> data = new Base64GetHashMap(h);
+            ret = new PublisherQueueVolatileInformation();
+            ret.loadData(data);
+            if (ret.isUpgraded()) {
+                setPublisherQueueVolatileData(ret);
             }
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
         }
         return ret;
     }
@@ -201,20 +194,11 @@ public class PublisherQueueData extends ProtectedData implements Serializable {
             // We must base64 encode string for UTF safety
             HashMap<Object, Object> a = new Base64PutHashMap();
             a.putAll((HashMap<Object, Object>) qd.saveData());
-
-            java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-            java.beans.XMLEncoder encoder = new java.beans.XMLEncoder(baos);
-            encoder.writeObject(a);
-            encoder.close();
-
-            try {
-                if (log.isDebugEnabled()) {
-                    log.debug("PublisherQueueVolatileData: \n" + baos.toString("UTF8"));
-                }
-                setVolatileData(baos.toString("UTF8"));
-            } catch (UnsupportedEncodingException e) {
-                throw new RuntimeException(e);
+            final String data = DataMapSerializer.encode(a);
+            if (log.isDebugEnabled()) {
+                log.debug("PublisherQueueVolatileData: \n" + data);
             }
+            setVolatileData(data);
         }
     }
 
@@ -293,6 +277,21 @@ public class PublisherQueueData extends ProtectedData implements Serializable {
     	return query.getResultList();
     }
 
+    /**
+     * Removes entries in a single statement. Entries that have already been loaded in the persistence context
+     * are not removed from it, so they should not be used afterwards.
+     * 
+     * @return the number of removed entries
+     */
+    public static int deleteByPks(EntityManager entityManager, Collection<String> pks) {
+        if (pks.isEmpty()) {
+            return 0;
+        }
+        final Query query = entityManager.createQuery("DELETE FROM PublisherQueueData a WHERE a.pk IN (:pks)");
+        query.setParameter("pks", pks);
+        return query.executeUpdate();
+    }
+
 	/** @return return the count. */
 	public static long findCountOfPendingEntriesForPublisher(EntityManager entityManager, int publisherId) {
 		Query query = entityManager.createQuery("SELECT COUNT(a) FROM PublisherQueueData a WHERE a.publisherId=:publisherId AND publishStatus=" + PublisherConst.STATUS_PENDING);
@@ -14,7 +14,6 @@
 package org.ejbca.core.ejb.hardtoken;
 
 import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
 import java.util.HashMap;
 import java.util.List;
 
@@ -31,6 +30,7 @@ import org.apache.log4j.Logger;
 import org.cesecore.dbprotection.ProtectedData;
 import org.cesecore.dbprotection.ProtectionStringBuilder;
 import org.cesecore.util.Base64PutHashMap;
+import org.cesecore.util.DataMapSerializer;
 import org.cesecore.util.QueryResultWrapper;
 import org.ejbca.core.model.hardtoken.profiles.HardTokenProfile;
 
@@ -103,22 +103,15 @@ public class HardTokenProfileData extends ProtectedData implements Serializable
 		// We must base64 encode string for UTF safety
 		HashMap<Object, Object> a = new Base64PutHashMap();
 		a.putAll((HashMap<Object, Object>)hardtokenprofile.saveData());
-		java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-		java.beans.XMLEncoder encoder = new java.beans.XMLEncoder(baos);
-		encoder.writeObject(a);
-		encoder.close();
-		try {
-            if (log.isDebugEnabled()) {
-            	if (baos.size() < 10000) {
-                    log.debug("Profiledata: \n" + baos.toString("UTF8"));            		
-            	} else {
-            		log.debug("Profiledata larger than 10000 bytes, not displayed.");
-            	}
-            }
-			setData(baos.toString("UTF8"));
-		} catch (UnsupportedEncodingException e) {
-			throw new RuntimeException(e);
+		final String data = DataMapSerializer.encode(a);
+		if (log.isDebugEnabled()) {
+		    if (data.length() < 10000) {
+		        log.debug("Profiledata: \n" + data);
+		    } else {
+		        log.debug("Profiledata larger than 10000 bytes, not displayed.");
+		    }
 		}
+		setData(data);
 		setUpdateCounter(getUpdateCounter() +1);
 	}
 
@@ -31,6 +31,7 @@ import org.apache.log4j.Logger;
 import org.cesecore.dbprotection.ProtectedData;
 import org.cesecore.dbprotection.ProtectionStringBuilder;
 import org.cesecore.util.Base64PutHashMap;
+import org.cesecore.util.DataMapSerializer;
 import org.cesecore.util.QueryResultWrapper;
 import org.ejbca.core.model.ra.userdatasource.BaseUserDataSource;
 
@@ -55,7 +56,6 @@ public class UserDataSourceData extends ProtectedData implements Serializable {
 
     /**
      * Entity holding data of a userdatasource.
-     * @throws UnsupportedEncodingException 
      */
     public UserDataSourceData(int id, String name, BaseUserDataSource userdatasource) throws UnsupportedEncodingException {
         setId(id);
@@ -109,25 +109,17 @@ public class UserDataSourceData extends ProtectedData implements Serializable {
 
     /**
      * Method that saves the userdatasource data to database.
-     * @throws UnsupportedEncodingException 
      */
     @SuppressWarnings("unchecked")
     public void setUserDataSource(BaseUserDataSource userdatasource) {
         // We must base64 encode string for UTF safety
         HashMap<Object, Object> a = new Base64PutHashMap();
         a.putAll((HashMap<Object, Object>)userdatasource.saveData());
-        java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-        java.beans.XMLEncoder encoder = new java.beans.XMLEncoder(baos);
-        encoder.writeObject(a);
-        encoder.close();
-        try {
-            if (log.isDebugEnabled()) {
-                log.debug("Profiledata: \n" + baos.toString("UTF8"));
-            }
-            setData(baos.toString("UTF8"));
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
+        final String data = DataMapSerializer.encode(a);
+        if (log.isDebugEnabled()) {
+            log.debug("Profiledata: \n" + data);
         }
+        setData(data);
         this.userdatasource = userdatasource;
         setUpdateCounter(getUpdateCounter() + 1);
     }
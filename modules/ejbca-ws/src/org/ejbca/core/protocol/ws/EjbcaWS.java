@@ -2607,7 +2607,14 @@ public class EjbcaWS implements IEjbcaWS {
             if ( id==0 ) {
                 return -4;// no publisher with this name
             }
-            return publisherQueueSession.getPendingEntriesCountForPublisher(id);
+            final int pending = publisherQueueSession.getPendingEntriesCountForPublisher(id);
+            if (log.isDebugEnabled() && pending > 0) {
+                final long drainTime = publisherQueueSession.getEstimatedDrainTime(id, pending);
+                log.debug("Publisher queue of publisher '" + name + "' has " + pending + " pending entries. Drain rate is "
+                        + String.format("%.1f", publisherQueueSession.getDrainRate(id)) + " entries/s"
+                        + (drainTime >= 0 ? ", estimated time to drain the queue is " + drainTime + " s." : "."));
+            }
+            return pending;
         } catch (AuthorizationDeniedException e) {
             throw EjbcaWSHelper.getEjbcaException(e, logger, ErrorCode.NOT_AUTHORIZED, Level.ERROR);
         } catch (RuntimeException e) {	// EJBException, ...
@@ -29,11 +29,14 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.bouncycastle.cert.ocsp.OCSPReq;
 import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
 import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
 import org.cesecore.certificates.ocsp.OcspResponseGeneratorSessionLocal;
 import org.cesecore.certificates.ocsp.OcspResponseInformation;
 import org.cesecore.certificates.ocsp.cache.OcspConfigurationCache;
+import org.cesecore.certificates.ocsp.cache.OcspHttpResponseCache;
 import org.cesecore.certificates.ocsp.exception.MalformedRequestException;
 import org.cesecore.certificates.ocsp.logging.AuditLogger;
 import org.cesecore.certificates.ocsp.logging.GuidHolder;
@@ -231,11 +234,30 @@ public class OCSPServlet extends HttpServlet {
             }
             OCSPRespBuilder responseGenerator = new OCSPRespBuilder();
             OcspResponseInformation ocspResponseInformation = null;
+            // Requests answered from the cache are not logged, so the cache is not used when every request must be logged
+            final boolean useHttpCache = HttpMethod.GET.equals(httpMethod) && OcspConfiguration.isHttpCacheEnabled() && !transactionLogger.isEnabled()
+                    && !auditLogger.isEnabled();
             try {
                 byte[] requestBytes = checkAndGetRequestBytes(request, httpMethod);
+                final String servletUrl = useHttpCache ? getServletUrl(request) : null;
+                if (useHttpCache) {
+                    final OcspHttpResponseCache.Entry cachedResponse = OcspHttpResponseCache.INSTANCE.get(servletUrl, requestBytes);
+                    if (cachedResponse != null) {
+                        final boolean cacheHeadersAdded = addRfc5019CacheHeaders(response, cachedResponse.getMaxAge(), cachedResponse.getThisUpdate(),
+                                cachedResponse.getNextUpdate(), cachedResponse.getETag(), false);
+                        writeOcspResponse(request, response, cachedResponse.getOcspResponse(), cacheHeadersAdded ? cachedResponse.getETag() : null,
+                                cachedResponse.getThisUpdate());
+                        return;
+                    }
+                }
+                // Read before the status is looked up, so that a response is not cached if the status is changed meanwhile
+                final long httpCacheGeneration = useHttpCache ? OcspHttpResponseCache.INSTANCE.getGeneration() : 0;
                 X509Certificate[] requestCertificates = (X509Certificate[]) request.getAttribute("javax.servlet.request.X509Certificate");
                 ocspResponseInformation = integratedOcspResponseGeneratorSession.getOcspResponse(
                         requestBytes, requestCertificates, remoteAddress, remoteHost, requestUrl, auditLogger, transactionLogger);
+                if (useHttpCache) {
+                    addToHttpCache(servletUrl, requestBytes, ocspResponseInformation, httpCacheGeneration);
+                }
             } catch (MalformedRequestException e) {
                 if (transactionLogger.isEnabled()) {
                     transactionLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
@@ -280,17 +302,19 @@ public class OCSPServlet extends HttpServlet {
                 }
             }
             byte[] ocspResponseBytes = ocspResponseInformation.getOcspResponse();    
-            response.setContentType("application/ocsp-response");
-            response.setContentLength(ocspResponseBytes.length);
+            boolean cacheHeadersAdded = false;
             if (HttpMethod.GET.equals(httpMethod)) {
-                addRfc5019CacheHeaders(request, response, ocspResponseInformation);
+                cacheHeadersAdded = addRfc5019CacheHeaders(request, response, ocspResponseInformation);
             } else {
                 if (log.isDebugEnabled()) {
                     log.debug("Will not add RFC 5019 cache headers: \"clients MUST use the GET method (to enable OCSP response caching)\"");
                 }
             }
-            response.getOutputStream().write(ocspResponseBytes);
-            response.getOutputStream().flush();
+            if (cacheHeadersAdded) {
+                writeOcspResponse(request, response, ocspResponseBytes, ocspResponseInformation.getResponseHeader(), ocspResponseInformation.getThisUpdate());
+            } else {
+                writeOcspResponse(request, response, ocspResponseBytes, null, 0);
+            }
         } catch (Exception e) {
             log.error("", e);
             transactionLogger.flush();
@@ -298,27 +322,120 @@ public class OCSPServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Writes the response, or only the status 304 Not Modified if the cache headers have been added and the client already has the response
+     * according to the If-None-Match or If-Modified-Since header of the request.
+     * @param eTag the ETag of the response without quotes, or null if no cache headers were added
+     * @param lastModified the Last-Modified time of the response
+     */
+    private void writeOcspResponse(HttpServletRequest request, HttpServletResponse response, byte[] ocspResponseBytes, String eTag,
+            long lastModified) throws IOException {
+        if (eTag != null && isNotModified(request, eTag, lastModified)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Response has not been modified since it was returned to the client.");
+            }
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType("application/ocsp-response");
+        response.setContentLength(ocspResponseBytes.length);
+        response.getOutputStream().write(ocspResponseBytes);
+        response.getOutputStream().flush();
+    }
+
+    /**
+     * RFC 7232 3.2: If-None-Match takes precedence over If-Modified-Since.
+     * @param eTag the ETag of the response without quotes
+     * @param lastModified the Last-Modified time of the response, which is thisUpdate of the response
+     * @return true if the client has the response according to the conditional headers of the request
+     */
+    private boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+        final String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if ("*".equals(tag) || tag.equals("\"" + eTag + "\"")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        final long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        // HTTP dates have a precision of one second
+        return ifModifiedSince != -1 && ifModifiedSince >= lastModified / 1000L * 1000L;
+    }
+
+    /**
+     * Adds a response to the cache of the servlet, if the request is for a single certificate and has no extensions (so no nonce),
+     * and the response is one that RFC 5019 cache headers are added for and does not have status unknown.
+     * 
+     * @param generation the generation of the cache before the response was created, see {@link OcspHttpResponseCache#getGeneration()}
+     */
+    private void addToHttpCache(String servletUrl, byte[] requestBytes, OcspResponseInformation ocspResponseInformation, long generation) {
+        if (!ocspResponseInformation.shouldAddCacheHeaders() || ocspResponseInformation.isExplicitNoCache()) {
+            return;
+        }
+        final Req[] requests;
+        try {
+            final OCSPReq ocspRequest = new OCSPReq(requestBytes);
+            if (ocspRequest.hasExtensions() || ocspRequest.isSigned()) {
+                return;
+            }
+            requests = ocspRequest.getRequestList();
+        } catch (IOException e) {
+            // A request that could not be parsed has not been answered with a cacheable response
+            return;
+        }
+        if (requests.length != 1 || requests[0].getSingleRequestExtensions() != null) {
+            return;
+        }
+        OcspHttpResponseCache.INSTANCE.setMaxBytes(OcspConfiguration.getHttpCacheMaxBytes());
+        OcspHttpResponseCache.INSTANCE.put(servletUrl, requestBytes, new OcspHttpResponseCache.Entry(ocspResponseInformation.getOcspResponse(),
+                ocspResponseInformation.getResponseHeader(), ocspResponseInformation.getThisUpdate(), ocspResponseInformation.getNextUpdate(),
+                ocspResponseInformation.getMaxAge(), requests[0].getCertID().getSerialNumber()), generation);
+    }
+
+    /** @return the URL of the servlet without the request of a GET request */
+    private String getServletUrl(HttpServletRequest request) {
+        final StringBuffer url = request.getRequestURL();
+        final String fullServletpath = request.getContextPath() + request.getServletPath();
+        return url.substring(0, Math.min(url.length(), Math.max(url.indexOf(fullServletpath), 0) + fullServletpath.length()));
+    }
+
     /**
      * RFC 2560 does not specify how cache headers should be used, but RFC 5019 does. Therefore we will only
      * add the headers if the requirements of RFC 5019 is fulfilled: A GET-request, a single embedded reponse,
      * the response contains a nextUpdate and no nonce is present.
      * @param maxAge is the margin to Expire when using max-age in milliseconds 
+     * @return true if the cache headers were added
      * @throws org.bouncycastle.cert.ocsp.OCSPException 
      */
-    private void addRfc5019CacheHeaders(HttpServletRequest request, HttpServletResponse response, OcspResponseInformation ocspResponseInformation) 
+    private boolean addRfc5019CacheHeaders(HttpServletRequest request, HttpServletResponse response, OcspResponseInformation ocspResponseInformation) 
                 throws IOException, org.bouncycastle.cert.ocsp.OCSPException {
         if (!ocspResponseInformation.shouldAddCacheHeaders()) {
-            return;
+            return false;
         } 
-        if (ocspResponseInformation.getMaxAge() <= 0) {
+        return addRfc5019CacheHeaders(response, ocspResponseInformation.getMaxAge(), ocspResponseInformation.getThisUpdate(),
+                ocspResponseInformation.getNextUpdate(), ocspResponseInformation.getResponseHeader(), ocspResponseInformation.isExplicitNoCache());
+    }
+
+    private boolean addRfc5019CacheHeaders(HttpServletResponse response, long maxAgeMillis, long thisUpdate, long nextUpdate, String eTag,
+            boolean explicitNoCache) {
+        if (maxAgeMillis <= 0) {
             if (log.isDebugEnabled()) {
                 log.debug("Will not add RFC 5019 cache headers: RFC 5019 6.2: max-age should be 'later than thisUpdate but earlier than nextUpdate'.");
             }
-            return;
+            return false;
         }
         final long now = System.currentTimeMillis();
-        final long thisUpdate = ocspResponseInformation.getThisUpdate();
-        final long nextUpdate = ocspResponseInformation.getNextUpdate();
         // RFC 5019 6.2: Date: The date and time at which the OCSP server generated the HTTP response.
         // On JBoss AS the "Date"-header is cached for 1 second, so this value will be overwritten and off by up to a second 
         response.setDateHeader("Date", now);
@@ -327,21 +444,22 @@ public class OCSPServlet extends HttpServlet {
         // RFC 5019 6.2: Expires: This date and time will be the same as the nextUpdate timestamp in the OCSP response itself.
         response.setDateHeader("Expires", nextUpdate); // This is overridden by max-age on HTTP/1.1 compatible components
         // RFC 5019 6.2: This profile RECOMMENDS that the ETag value be the ASCII HEX representation of the SHA1 hash of the OCSPResponse structure.
-        response.setHeader("ETag", "\"" + ocspResponseInformation.getResponseHeader() + "\"");
-        if (ocspResponseInformation.isExplicitNoCache()) {
+        response.setHeader("ETag", "\"" + eTag + "\"");
+        if (explicitNoCache) {
             // Note that using no-cache here is not conforming to RFC5019, but with more recent CABForum discussions it seems RFC5019 will not
             // be followed, or will be changed. (See ECA-3289)
             response.setHeader("Cache-Control", "no-cache, must-revalidate"); //HTTP 1.1
             response.setHeader("Pragma", "no-cache"); //HTTP 1.0 
         } else {
             // Max age is retrieved in milliseconds, but it must be in seconds in the cache-control header
-            long maxAge = ocspResponseInformation.getMaxAge();
+            long maxAge = maxAgeMillis;
             if (maxAge >= (nextUpdate - thisUpdate)) {
                 maxAge = nextUpdate - thisUpdate - 1;
                 log.warn(intres.getLocalizedMessage("ocsp.shrinkmaxage", maxAge));
             } 
             response.setHeader("Cache-Control", "max-age=" + (maxAge / 1000L) + ",public,no-transform,must-revalidate");
         }
+        return true;
     }
 
     /**
@@ -31,6 +31,9 @@ public final class EjbcaConfiguration {
 
     private static final String TRUE = "true";
 
+    /** The maximum number of publisher queue entries that are processed in each transaction */
+    public static final int PUBLISHER_QUEUE_MAX_BATCH_SIZE = 1000;
+
     /**
      * Check if EJBCA is running in production
      */
@@ -266,6 +269,46 @@ public final class EjbcaConfiguration {
         return getBooleanProperty("publish.parallel.enabled", true);
     }
 
+    /** @return true if LDAP publishers should keep their connections in a pool, instead of connecting and binding for each operation. */
+    public static boolean isLdapPublisherConnectionPoolEnabled() {
+        return getBooleanProperty("publisher.ldap.connectionpool.enabled", false);
+    }
+
+    /** @return the maximum number of pooled connections from each LDAP publisher configuration to each LDAP host. */
+    public static int getLdapPublisherConnectionPoolMaxSize() {
+        return getIntProperty("publisher.ldap.connectionpool.maxsize", 10);
+    }
+
+    /** @return the maximum time in milliseconds to wait for a pooled LDAP connection when all connections are in use. */
+    public static long getLdapPublisherConnectionPoolMaxWait() {
+        return getLongProperty("publisher.ldap.connectionpool.maxwait", 5000L);
+    }
+
+    /** @return the time in milliseconds after which an unused pooled LDAP connection is closed. */
+    public static long getLdapPublisherConnectionPoolMaxIdle() {
+        return getLongProperty("publisher.ldap.connectionpool.maxidle", 60000L);
+    }
+
+    /**
+     * The certificates of the entries are read with an IN list, and databases limit the length of IN lists (Oracle to 1000 items), so the
+     * value is capped at {@link #PUBLISHER_QUEUE_MAX_BATCH_SIZE}.
+     * 
+     * @return the maximum number of publisher queue entries that are processed in each transaction.
+     */
+    public static int getPublisherQueueBatchSize() {
+        return Math.min(getIntProperty("publisher.queue.batchsize", 100), PUBLISHER_QUEUE_MAX_BATCH_SIZE);
+    }
+
+    /** @return the number of entries from the publisher queue of each publisher that are published concurrently. */
+    public static int getPublisherQueueWorkers() {
+        return getIntProperty("publisher.queue.workers", 1);
+    }
+
+    /** @return how often the publisher queue process service logs the status of each publisher's queue in milliseconds, 0 or less to never log it. */
+    public static long getPublisherQueueStatusLogInterval() {
+        return getLongProperty("publisher.queue.statusloginterval", 600000L);
+    }
+
     /** @return true if TCP keep alive should be used for outgoing peer connections. */
     @Deprecated // EJBCA 6.3.0 safety for the new PeerConnector feature. Remove when default is considered stable.
     public static boolean isPeerSoKeepAlive() {
@@ -13,6 +13,7 @@
 
 package org.ejbca.config;
 
+import org.apache.log4j.Logger;
 import org.cesecore.config.ConfigurationHolder;
 
 /**
@@ -21,7 +22,9 @@ import org.cesecore.config.ConfigurationHolder;
  * @version $Id: VAConfiguration.java 20267 2014-11-19 10:36:48Z mikekushner $
  */
 public class VAConfiguration {
+	private static final Logger log = Logger.getLogger(VAConfiguration.class);
 	private final static String S_HASH_ALIAS_PREFIX = "va.sKIDHash.alias.";
+	private final static String CRLSTORE_REVALIDATION_TIME = "crlstore.cache.revalidationtime";
 
 	public static String sKIDHashFromName(String name) {
 		return ConfigurationHolder.getString(S_HASH_ALIAS_PREFIX+name);
@@ -31,4 +34,21 @@ public class VAConfiguration {
 		return ConfigurationHolder.updateConfiguration(S_HASH_ALIAS_PREFIX+name, hash);
 	}
 
+	/**
+	 * @return milliseconds between each check for new CRLs done by the CRL store cache. 0 disables the background check.
+	 */
+	public static long getCrlStoreRevalidationTimeInMilliseconds() {
+		final long defaultTime = 10000; // 10 seconds
+		final String value = ConfigurationHolder.getString(CRLSTORE_REVALIDATION_TIME);
+		if ( value==null ) {
+			return defaultTime;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			log.warn(CRLSTORE_REVALIDATION_TIME + " is not a decimal integer. Using default "+defaultTime+" ms.");
+			return defaultTime;
+		}
+	}
+
 }
@@ -15,6 +15,7 @@ package org.ejbca.core.ejb.ca.publisher;
 import java.util.List;
 import java.util.Map;
 
+import org.cesecore.internal.CacheInvalidationBus;
 import org.cesecore.internal.CommonCache;
 import org.cesecore.internal.CommonCacheBase;
 import org.ejbca.config.EjbcaConfiguration;
@@ -28,6 +29,9 @@ import org.ejbca.core.model.ca.publisher.BasePublisher;
 public enum PublisherCache implements CommonCache<BasePublisher> {
     INSTANCE;
 
+    /** The name of the cache in {@link CacheInvalidationBus} */
+    public static final String CACHE_NAME = "PublisherCache";
+
     final private CommonCache<BasePublisher> cache = new CommonCacheBase<BasePublisher>() {
         @Override
         protected long getCacheTime() {
@@ -40,6 +44,11 @@ public enum PublisherCache implements CommonCache<BasePublisher> {
         };
     };
 
+    private PublisherCache() {
+        // Remove entries that were changed on other nodes
+        CacheInvalidationBus.INSTANCE.register(CACHE_NAME, CacheInvalidationBus.getListener(this));
+    }
+
     @Override
     public BasePublisher getEntry(final int id) {
         return cache.getEntry(id);
@@ -50,6 +59,11 @@ public enum PublisherCache implements CommonCache<BasePublisher> {
         return cache.shouldCheckForUpdates(id);
     }
     
+    @Override
+    public boolean isCurrent(final int id, final int digest) {
+        return cache.isCurrent(id, digest);
+    }
+
     @Override
     public void updateWith(int id, int digest, String name, BasePublisher object) {
         cache.updateWith(id, digest, name, object);
@@ -18,9 +18,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -72,6 +81,8 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
     private static final ReentrantLock executorServiceLock = new ReentrantLock(false);
     private static final AtomicInteger beanInstanceCount = new AtomicInteger(0);
     private static volatile ExecutorService executorService = null;
+    /** Moving average of the number of entries per second published from the queue of each publisher on this node */
+    private static final ConcurrentHashMap<Integer, Double> drainRates = new ConcurrentHashMap<Integer, Double>();
 
     @PersistenceContext(unitName = "ejbca")
     private EntityManager entityManager;
@@ -278,154 +289,321 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
         // this is because when publishing starts to work we want to publish everything in one go, if possible.
         // However we don't want to publish more than 20000 certificates each time, because we want to commit to the database some time as well.
         int totalcount = 0;
+        final long startTime = System.currentTimeMillis();
         do {
             successcount = publisherQueueSession.doChunk(admin, publisherId, publisher);
             totalcount += successcount;
         } while ((successcount > 0) && (totalcount < 20000));
+        updateDrainRate(publisherId, totalcount, System.currentTimeMillis() - startTime);
+    }
+
+    @Override
+    public double getDrainRate(int publisherId) {
+        final Double drainRate = drainRates.get(Integer.valueOf(publisherId));
+        return drainRate == null ? 0 : drainRate.doubleValue();
+    }
+
+    @Override
+    public long getEstimatedDrainTime(int publisherId, int pendingEntries) {
+        final double drainRate = getDrainRate(publisherId);
+        if (drainRate <= 0) {
+            return -1;
+        }
+        return (long) Math.ceil(pendingEntries / drainRate);
+    }
+
+    /**
+     * Updates the moving average of the drain rate of the publisher's queue with the result of a run of the queue processing. Runs that
+     * published nothing are not counted, since an empty queue or an unavailable publisher says nothing about the rate.
+     */
+    private void updateDrainRate(final int publisherId, final int published, final long time) {
+        if (published == 0) {
+            return;
+        }
+        final double rate = published * 1000.0 / Math.max(1L, time);
+        final Double previousRate = drainRates.get(Integer.valueOf(publisherId));
+        final double drainRate = previousRate == null ? rate : (rate + previousRate.doubleValue()) / 2;
+        drainRates.put(Integer.valueOf(publisherId), Double.valueOf(drainRate));
+        if (log.isDebugEnabled()) {
+            log.debug("Published " + published + " entries from the queue of publisher " + publisherId + " in " + time + " ms. Drain rate is "
+                    + String.format("%.1f", drainRate) + " entries/s.");
+        }
     }
 
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     @Override
     public int doChunk(AuthenticationToken admin, int publisherId, BasePublisher publisher) {
-        final Collection<PublisherQueueData> c = getPendingEntriesForPublisherWithLimit(publisherId, 100, 60, "order by timeCreated");
+        final Collection<PublisherQueueData> c = getPendingEntriesForPublisherWithLimit(publisherId, EjbcaConfiguration.getPublisherQueueBatchSize(), 60,
+                "order by timeCreated");
         return doPublish(admin, publisherId, publisher, c);
     }
 
+    /**
+     * A queue entry with the data to publish, and the outcome of publishing it. The data is copied from the entities when the entries are
+     * loaded, so it can be used by other threads than the one of the transaction.
+     */
+    private static class QueueEntry {
+        final PublisherQueueData pqd;
+        /** Holds copies of the entities, that are not managed by the entity manager */
+        CertificateDataWrapper certWrapper = null;
+        byte[] crlBytes = null;
+        String crlCaFingerprint = null;
+        int crlNumber = 0;
+        /** null if publishing has not been attempted */
+        volatile Boolean published = null;
+
+        QueueEntry(final PublisherQueueData pqd) {
+            this.pqd = pqd;
+        }
+    }
+
     /** @return how many publishes that succeeded */
-    private int doPublish(AuthenticationToken admin, int publisherId, BasePublisher publisher, Collection<PublisherQueueData> c) {
+    private int doPublish(final AuthenticationToken admin, final int publisherId, final BasePublisher publisher, final Collection<PublisherQueueData> c) {
         if (log.isDebugEnabled()) {
             log.debug("Found " + c.size() + " certificates to republish for publisher " + publisherId);
         }
-        int successcount = 0;
-        int failcount = 0;
-
-        for (PublisherQueueData pqd : c) {
-
-            String fingerprint = pqd.getFingerprint();
-            int publishType = pqd.getPublishType();
-            if (log.isDebugEnabled()) {
-                log.debug("Publishing from queue to publisher: " + publisherId + ", fingerprint: " + fingerprint + ", pk: " + pqd.getPk()
-                        + ", type: " + publishType);
-            }
-            PublisherQueueVolatileInformation voldata = pqd.getVolatileData();
-            String username = null;
-            String password = null;
-            ExtendedInformation ei = null;
-            String userDataDN = null;
-            if (voldata != null) {
-                username = voldata.getUsername();
-                password = voldata.getPassword();
-                ei = voldata.getExtendedInformation();
-                userDataDN = voldata.getUserDN();
+        final List<QueueEntry> entries = loadQueueEntries(publisher, c);
+        final AtomicInteger successcount = new AtomicInteger();
+        final AtomicInteger failcount = new AtomicInteger();
+        final int workers = Math.min(EjbcaConfiguration.getPublisherQueueWorkers(), entries.size());
+        if (workers > 1) {
+            // Entries for the same certificate or CRL are published in sequence by the same worker
+            final Map<String, List<QueueEntry>> groups = new LinkedHashMap<String, List<QueueEntry>>();
+            for (final QueueEntry entry : entries) {
+                List<QueueEntry> group = groups.get(entry.pqd.getFingerprint());
+                if (group == null) {
+                    group = new ArrayList<QueueEntry>();
+                    groups.put(entry.pqd.getFingerprint(), group);
+                }
+                group.add(entry);
             }
-            boolean published = false;
-
-            try {
-                if (publishType == PublisherConst.PUBLISH_TYPE_CERT) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Publishing Certificate");
-                    }
-                    if (publisher != null) {
-                        // Read the actual certificate and try to publish it
-                        // again
-                        // TODO: we might need change fetch-type for all but the
-                        // actual cert or a native query w SqlResultSetMapping..
-
-                        CertificateData cd = CertificateData.findByFingerprint(entityManager, fingerprint);
-                        final Base64CertData base64CertData;
-                        if(CesecoreConfiguration.useBase64CertTable()) {
-                            base64CertData = Base64CertData.findByFingerprint(entityManager, fingerprint);
-                        } else {
-                            base64CertData = null;
-                        }
-                        if (cd == null) {
-                            throw new FinderException();
-                        }
-                        final Certificate cert = cd.getCertificate(this.entityManager);
-                        
-                        try {
-                            published = publisherQueueSession.storeCertificateNonTransactional(publisher, admin, new CertificateDataWrapper(cert, cd, base64CertData), username, password,
-                                    userDataDN, cd.getCaFingerprint(), cd.getStatus(), cd.getType(), cd.getRevocationDate(),
-                                    cd.getRevocationReason(), cd.getTag(), cd.getCertificateProfileId(), cd.getUpdateTime(), ei);
-                        } catch (EJBException e) {
-                            final Throwable t = e.getCause();
-                            if (t instanceof PublisherException) {
-                                throw (PublisherException) t;
-                            } else {
-                                throw e;
+            final Queue<List<QueueEntry>> pendingGroups = new ConcurrentLinkedQueue<List<QueueEntry>>(groups.values());
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < workers; i++) {
+                // The workers publish through the business interface, so the container runs the publishers outside of any transaction as they expect
+                futures.add(getExecutorService().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        List<QueueEntry> group;
+                        while ((group = pendingGroups.poll()) != null) {
+                            for (final QueueEntry entry : group) {
+                                if (isPublisherFailing(successcount, failcount)) {
+                                    return;
+                                }
+                                publishEntry(admin, publisherId, publisher, entry, successcount, failcount);
                             }
                         }
-                    } else {
-                        String msg = intres.getLocalizedMessage("publisher.nopublisher", publisherId);
-                        log.info(msg);
-                    }
-                } else if (publishType == PublisherConst.PUBLISH_TYPE_CRL) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Publishing CRL");
-                    }
-
-                    CRLData crlData = CRLData.findByFingerprint(entityManager, fingerprint);
-
-                    if (crlData == null) {
-                        throw new FinderException();
-                    }
-                    try {
-                        published = publisherQueueSession.storeCRLNonTransactional(publisher, admin, crlData.getCRLBytes(),
-                                crlData.getCaFingerprint(), crlData.getCrlNumber(), userDataDN);
-                    } catch (EJBException e) {
-                        final Throwable t = e.getCause();
-                        if (t instanceof PublisherException) {
-                            throw (PublisherException) t;
-                        } else {
-                            throw e;
-                        }
                     }
-                } else {
-                    String msg = intres.getLocalizedMessage("publisher.unknowntype", publishType);
-                    log.error(msg);
+                }));
+            }
+            for (final Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    // Entries that are being published will have their outcome ignored and be published again
+                    pendingGroups.clear();
+                    log.info("Interrupted while waiting for publishing from queue to publisher " + publisherId + ".");
+                    break;
+                } catch (ExecutionException e) {
+                    log.error("Publishing from queue to publisher " + publisherId + " failed: " + e.getMessage(), e.getCause());
                 }
-            } catch (FinderException e) {
-                final String msg = intres.getLocalizedMessage("publisher.errornocert", fingerprint) + e.getMessage();
-                log.info(msg);
-            } catch (PublisherException e) {
-                // Publisher session have already logged this error nicely to
-                // getLogSession().log
-                log.debug(e.getMessage());
-                // We failed to publish, update failcount so we can break early
-                // if nothing succeeds but everything fails.
-                failcount++;
             }
-            if (published) {
-
+        } else {
+            for (final QueueEntry entry : entries) {
+                publishEntry(admin, publisherId, publisher, entry, successcount, failcount);
+                if (isPublisherFailing(successcount, failcount)) {
+                    break;
+                }
+            }
+        }
+        // Update the queue with the outcome, removing the successfully published entries in a single statement
+        final List<String> publishedPks = new ArrayList<String>();
+        for (final QueueEntry entry : entries) {
+            final PublisherQueueData pqd = entry.pqd;
+            if (entry.published == null) {
+                continue;
+            }
+            if (entry.published.booleanValue()) {
                 if (publisher.getKeepPublishedInQueue()) {
                     // Update with information that publishing was successful
                     updateData(pqd.getPk(), PublisherConst.STATUS_SUCCESS, pqd.getTryCounter());
                 } else {
                     // We are done with this one.. nuke it!
-                    removeQueueData(pqd.getPk());
+                    publishedPks.add(pqd.getPk());
                 }
-
-                successcount++; // jipeee update success counter
             } else {
                 // Update with new tryCounter, but same status as before
                 int tryCount = pqd.getTryCounter() + 1;
                 updateData(pqd.getPk(), pqd.getPublishStatus(), tryCount);
             }
-            // If we don't manage to publish anything, but fails on all the
-            // first ten ones we expect that this publisher is dead for now. We
-            // don't have to try with every record.
-            if ((successcount == 0) && (failcount > 10)) {
+        }
+        if (!publishedPks.isEmpty()) {
+            try {
+                final int removed = org.ejbca.core.ejb.ca.publisher.PublisherQueueData.deleteByPks(entityManager, publishedPks);
                 if (log.isDebugEnabled()) {
-                    log.debug("Breaking out of publisher loop because everything seems to fail (at least the first 10 entries)");
+                    log.debug("Removed " + removed + " published entries from the queue of publisher " + publisherId);
+                }
+            } catch (Exception e) {
+                log.info(e);
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Returning from publisher with " + successcount.get() + " entries published successfully.");
+        }
+        return successcount.get();
+    }
+
+    /**
+     * If we don't manage to publish anything, but fails on all the first ten ones we expect that this publisher is dead for now. We
+     * don't have to try with every record.
+     */
+    private boolean isPublisherFailing(final AtomicInteger successcount, final AtomicInteger failcount) {
+        if ((successcount.get() == 0) && (failcount.get() > 10)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Breaking out of publisher loop because everything seems to fail (at least the first 10 entries)");
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the certificates of the entries with one query (and their Base64CertData with another one), and the CRLs one at a time. The
+     * entries get copies of the entities, since the managed entities must not be used by the worker threads.
+     */
+    private List<QueueEntry> loadQueueEntries(final BasePublisher publisher, final Collection<PublisherQueueData> c) {
+        final List<QueueEntry> entries = new ArrayList<QueueEntry>(c.size());
+        final Set<String> certificateFingerprints = new HashSet<String>();
+        for (final PublisherQueueData pqd : c) {
+            entries.add(new QueueEntry(pqd));
+            if (pqd.getPublishType() == PublisherConst.PUBLISH_TYPE_CERT && publisher != null) {
+                certificateFingerprints.add(pqd.getFingerprint());
+            }
+        }
+        // The found entities are kept in the persistence context, so they are not read again when the certificate is decoded
+        final Map<String, CertificateData> certificateDatas = new HashMap<String, CertificateData>();
+        for (final CertificateData cd : CertificateData.findByFingerprints(entityManager, certificateFingerprints)) {
+            certificateDatas.put(cd.getFingerprint(), cd);
+        }
+        final Map<String, Base64CertData> base64CertDatas = new HashMap<String, Base64CertData>();
+        if (CesecoreConfiguration.useBase64CertTable()) {
+            for (final Base64CertData base64CertData : Base64CertData.findByFingerprints(entityManager, certificateFingerprints)) {
+                base64CertDatas.put(base64CertData.getFingerprint(), base64CertData);
+            }
+        }
+        for (final QueueEntry entry : entries) {
+            final String fingerprint = entry.pqd.getFingerprint();
+            if (entry.pqd.getPublishType() == PublisherConst.PUBLISH_TYPE_CERT && publisher != null) {
+                final CertificateData cd = certificateDatas.get(fingerprint);
+                if (cd != null) {
+                    final Certificate cert = cd.getCertificate(this.entityManager);
+                    final Base64CertData base64CertData = base64CertDatas.get(fingerprint);
+                    entry.certWrapper = new CertificateDataWrapper(cert, new CertificateData(cd), base64CertData == null ? null : new Base64CertData(base64CertData));
+                }
+            } else if (entry.pqd.getPublishType() == PublisherConst.PUBLISH_TYPE_CRL) {
+                final CRLData crlData = CRLData.findByFingerprint(entityManager, fingerprint);
+                if (crlData != null) {
+                    entry.crlBytes = crlData.getCRLBytes();
+                    entry.crlCaFingerprint = crlData.getCaFingerprint();
+                    entry.crlNumber = crlData.getCrlNumber();
                 }
-                break;
             }
         }
+        return entries;
+    }
 
+    /**
+     * Publishes a queue entry through the business interface, so the publisher runs outside of the current transaction, and sets the outcome
+     * in the entry. Called from the thread of the transaction or from a thread of the executor service, so it must not use the entity manager.
+     */
+    private void publishEntry(final AuthenticationToken admin, final int publisherId, final BasePublisher publisher, final QueueEntry entry,
+            final AtomicInteger successcount, final AtomicInteger failcount) {
+        final PublisherQueueData pqd = entry.pqd;
+        String fingerprint = pqd.getFingerprint();
+        int publishType = pqd.getPublishType();
         if (log.isDebugEnabled()) {
-            log.debug("Returning from publisher with " + successcount + " entries published successfully.");
+            log.debug("Publishing from queue to publisher: " + publisherId + ", fingerprint: " + fingerprint + ", pk: " + pqd.getPk()
+                    + ", type: " + publishType);
+        }
+        PublisherQueueVolatileInformation voldata = pqd.getVolatileData();
+        String username = null;
+        String password = null;
+        ExtendedInformation ei = null;
+        String userDataDN = null;
+        if (voldata != null) {
+            username = voldata.getUsername();
+            password = voldata.getPassword();
+            ei = voldata.getExtendedInformation();
+            userDataDN = voldata.getUserDN();
+        }
+        boolean published = false;
+
+        try {
+            if (publishType == PublisherConst.PUBLISH_TYPE_CERT) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Publishing Certificate");
+                }
+                if (publisher != null) {
+                    // Try to publish the actual certificate again
+                    final CertificateDataWrapper certWrapper = entry.certWrapper;
+                    if (certWrapper == null) {
+                        throw new FinderException();
+                    }
+                    final CertificateData cd = certWrapper.getCertificateData();
+                    try {
+                        published = publisherQueueSession.storeCertificateNonTransactional(publisher, admin, certWrapper, username, password,
+                                userDataDN, cd.getCaFingerprint(), cd.getStatus(), cd.getType(), cd.getRevocationDate(),
+                                cd.getRevocationReason(), cd.getTag(), cd.getCertificateProfileId(), cd.getUpdateTime(), ei);
+                    } catch (EJBException e) {
+                        final Throwable t = e.getCause();
+                        if (t instanceof PublisherException) {
+                            throw (PublisherException) t;
+                        } else {
+                            throw e;
+                        }
+                    }
+                } else {
+                    String msg = intres.getLocalizedMessage("publisher.nopublisher", publisherId);
+                    log.info(msg);
+                }
+            } else if (publishType == PublisherConst.PUBLISH_TYPE_CRL) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Publishing CRL");
+                }
+                if (entry.crlBytes == null) {
+                    throw new FinderException();
+                }
+                try {
+                    published = publisherQueueSession.storeCRLNonTransactional(publisher, admin, entry.crlBytes, entry.crlCaFingerprint,
+                            entry.crlNumber, userDataDN);
+                } catch (EJBException e) {
+                    final Throwable t = e.getCause();
+                    if (t instanceof PublisherException) {
+                        throw (PublisherException) t;
+                    } else {
+                        throw e;
+                    }
+                }
+            } else {
+                String msg = intres.getLocalizedMessage("publisher.unknowntype", publishType);
+                log.error(msg);
+            }
+        } catch (FinderException e) {
+            final String msg = intres.getLocalizedMessage("publisher.errornocert", fingerprint) + e.getMessage();
+            log.info(msg);
+        } catch (PublisherException e) {
+            // Publisher session have already logged this error nicely to
+            // getLogSession().log
+            log.debug(e.getMessage());
+            // We failed to publish, update failcount so we can break early
+            // if nothing succeeds but everything fails.
+            failcount.incrementAndGet();
+        }
+        if (published) {
+            successcount.incrementAndGet(); // jipeee update success counter
         }
-        return successcount;
+        entry.published = Boolean.valueOf(published);
     }
 
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
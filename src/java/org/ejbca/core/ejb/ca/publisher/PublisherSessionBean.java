@@ -13,9 +13,6 @@
 
 package org.ejbca.core.ejb.ca.publisher;
 
-import java.beans.XMLDecoder;
-import java.io.ByteArrayInputStream;
-import java.io.UnsupportedEncodingException;
 import java.security.cert.Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -47,9 +44,11 @@ import org.cesecore.certificates.certificate.CertificateData;
 import org.cesecore.certificates.certificate.CertificateDataWrapper;
 import org.cesecore.certificates.endentity.ExtendedInformation;
 import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.internal.CacheInvalidationSessionLocal;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.util.Base64GetHashMap;
 import org.cesecore.util.CertTools;
+import org.cesecore.util.DataMapSerializer;
 import org.cesecore.util.ProfileID;
 import org.ejbca.core.ejb.audit.enums.EjbcaEventTypes;
 import org.ejbca.core.ejb.audit.enums.EjbcaModuleTypes;
@@ -89,6 +88,8 @@ public class PublisherSessionBean implements PublisherSessionLocal, PublisherSes
     @EJB
     private AccessControlSessionLocal authorizationSession;
     @EJB
+    private CacheInvalidationSessionLocal cacheInvalidationSession;
+    @EJB
     private PublisherQueueSessionLocal publisherQueueSession;
     @EJB
     private SecurityEventsLoggerSessionLocal auditSession;
@@ -415,6 +416,7 @@ public class PublisherSessionBean implements PublisherSessionLocal, PublisherSes
             htp.setPublisher(publisher);
             // Since loading a Publisher is quite complex, we simple purge the cache here
             PublisherCache.INSTANCE.removeEntry(htp.getId());
+            cacheInvalidationSession.publish(PublisherCache.CACHE_NAME, String.valueOf(htp.getId()));
             final String msg = intres.getLocalizedMessage("publisher.changedpublisher", name);
             final Map<String, Object> details = new LinkedHashMap<String, Object>();
             details.put("msg", msg);
@@ -480,6 +482,7 @@ public class PublisherSessionBean implements PublisherSessionLocal, PublisherSes
                 entityManager.remove(htp);
                 // Purge the cache here
                 PublisherCache.INSTANCE.removeEntry(htp.getId());
+                cacheInvalidationSession.publish(PublisherCache.CACHE_NAME, String.valueOf(htp.getId()));
                 final String msg = intres.getLocalizedMessage("publisher.removedpublisher", name);
                 final Map<String, Object> details = new LinkedHashMap<String, Object>();
                 details.put("msg", msg);
@@ -510,6 +513,7 @@ public class PublisherSessionBean implements PublisherSessionLocal, PublisherSes
                 success = true;
                 // Since loading a Publisher is quite complex, we simple purge the cache here
                 PublisherCache.INSTANCE.removeEntry(htp.getId());
+                cacheInvalidationSession.publish(PublisherCache.CACHE_NAME, String.valueOf(htp.getId()));
             }
         }
         if (success) {
@@ -713,14 +717,8 @@ public class PublisherSessionBean implements PublisherSessionLocal, PublisherSes
     private BasePublisher getPublisher(PublisherData pData) {
         BasePublisher publisher = pData.getCachedPublisher();
         if (publisher == null) {
-            XMLDecoder decoder;
-            try {
-                decoder = new XMLDecoder(new ByteArrayInputStream(pData.getData().getBytes("UTF8")));
-            } catch (UnsupportedEncodingException e) {
-                throw new EJBException(e);
-            }
-            HashMap<?, ?> h = (HashMap<?, ?>) decoder.readObject();
-            decoder.close();
+            // XML written by XMLEncoder, or the compact format
+            HashMap<?, ?> h = (HashMap<?, ?>) DataMapSerializer.decode(pData.getData());
             // Handle Base64 encoded string values
             HashMap<?, ?> data = new Base64GetHashMap(h);
 
@@ -776,14 +774,7 @@ public class PublisherSessionBean implements PublisherSessionLocal, PublisherSes
         for (PublisherData publisherData : PublisherData.findAll(entityManager)) {
             // Extract the data payload instead of the BasePublisher since the original BasePublisher implementation might no longer
             // be on the classpath
-            XMLDecoder decoder;
-            try {
-                decoder = new XMLDecoder(new ByteArrayInputStream(publisherData.getData().getBytes("UTF8")));
-            } catch (UnsupportedEncodingException e) {
-                throw new IllegalStateException(e);
-            }
-            HashMap<?, ?> h = (HashMap<?, ?>) decoder.readObject();
-            decoder.close();
+            HashMap<?, ?> h = (HashMap<?, ?>) DataMapSerializer.decode(publisherData.getData());
             // Handle Base64 encoded string values
             @SuppressWarnings("unchecked")
             HashMap<Object, Object> data = new Base64GetHashMap(h);
@@ -792,6 +783,7 @@ public class PublisherSessionBean implements PublisherSessionLocal, PublisherSes
                 publisherData.setPublisher(new LegacyValidationAuthorityPublisher(data));
                 //Purge the entry from the cache
                 PublisherCache.INSTANCE.removeEntry(publisherData.getId());
+                cacheInvalidationSession.publish(PublisherCache.CACHE_NAME, String.valueOf(publisherData.getId()));
             }           
         }
         return numberOfUpgradedPublishers;
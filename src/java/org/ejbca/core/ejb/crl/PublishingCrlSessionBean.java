@@ -12,6 +12,7 @@
  *************************************************************************/
 package org.ejbca.core.ejb.crl;
 
+import java.io.IOException;
 import java.security.cert.CRLException;
 import java.security.cert.Certificate;
 import java.security.cert.X509CRL;
@@ -54,17 +55,20 @@ import org.cesecore.certificates.ca.X509CAInfo;
 import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.certificates.certificate.CertificateData;
 import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
+import org.cesecore.certificates.crl.CRLEntryIndex;
+import org.cesecore.certificates.crl.CRLEntryIndexCache;
 import org.cesecore.certificates.crl.CRLInfo;
 import org.cesecore.certificates.crl.CrlCreateSessionLocal;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCollection;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.keys.token.CryptoTokenOfflineException;
 import org.cesecore.util.CertTools;
-import org.cesecore.util.CompressedCollection;
 import org.cesecore.util.CryptoProviderTools;
+import org.cesecore.util.StringTools;
 import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
 
 /**
@@ -415,6 +419,13 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
         if (ca == null) {
             throw new EJBException("No CA specified.");
         }
+        if (CesecoreConfiguration.isCrlGenerationIncremental()) {
+            final String ret = internalCreateIncrementalCRL(admin, ca);
+            if (log.isTraceEnabled()) {
+                log.trace("<internalCreateCRL()");
+            }
+            return ret;
+        }
         CAInfo cainfo = ca.getCAInfo();
         String ret = null;
         Collection<RevokedCertInfo> revokedCertificates = null;
@@ -495,7 +506,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             log.error(e);
             throw new EJBException(e);
         } finally {
-            // Special treatment of our CompressedCollection to ensure that we release all resources
+            // Release the memory of our RevokedCertInfoCollection right away
             if (revokedCertificates!=null) {
                 revokedCertificates.clear();
             }
@@ -506,6 +517,140 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
         return ret;
     }
 
+    /**
+     * Same as {@link #internalCreateCRL(AuthenticationToken, CA)}, but the CRL is created from the {@link CRLEntryIndex} of the
+     * previous full CRL of the CA created by this node, updated with the certificates whose revocation status has changed since.
+     * If there is no usable index, all revoked certificates are read from the database into a new index.
+     * 
+     * @param admin administrator performing the task
+     * @param ca the CA this operation regards
+     * @return fingerprint (primary key) of the generated CRL or null if generation failed
+     */
+    private String internalCreateIncrementalCRL(AuthenticationToken admin, CA ca) throws CAOfflineException, CryptoTokenOfflineException, AuthorizationDeniedException {
+        final CAInfo cainfo = ca.getCAInfo();
+        final String caCertSubjectDN; {
+            final Collection<Certificate> certs = cainfo.getCertificateChain();
+            final Certificate cacert = !certs.isEmpty() ? certs.iterator().next(): null;
+            caCertSubjectDN = cacert!=null ? CertTools.getSubjectDN(cacert) : null;
+        }
+        // We can not create a CRL for a CA that is waiting for certificate response
+        if ( caCertSubjectDN==null || cainfo.getStatus()!=CAConstants.CA_ACTIVE )  {
+            String msg = intres.getLocalizedMessage("createcrl.errornotactive", cainfo.getName(), Integer.valueOf(cainfo.getCAId()), cainfo.getStatus());
+            log.info(msg);
+            throw new CAOfflineException(msg);
+        }
+        // Same normalization of the DN as in CertificateStoreSessionBean.listRevokedCertInfo
+        final String issuerDN = CertTools.stringToBCDNString(StringTools.strip(caCertSubjectDN));
+        final long updateTime = System.currentTimeMillis();
+        final Date now = new Date(updateTime);
+        // The index is not put back into the cache until the CRL has been created, so a failed CRL generation leaves no index behind
+        CRLEntryIndex index = CRLEntryIndexCache.INSTANCE.take(cainfo.getCAId());
+        if (index != null) {
+            final int lastCrlNumber = crlSession.getLastCRLNumber(caCertSubjectDN, false);
+            if (index.getCrlNumber() != lastCrlNumber || !index.getIssuerDN().equals(issuerDN)
+                    || index.getIncrementalUpdates() >= CesecoreConfiguration.getCrlGenerationIncrementalMaxUpdates()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Not using CRL entries of CRL number " + index.getCrlNumber() + " after " + index.getIncrementalUpdates()
+                            + " incremental updates. The last CRL number is " + lastCrlNumber + ".");
+                }
+                index = null;
+            }
+        }
+        String ret = null;
+        try {
+            if (index != null) {
+                // Changes are read from a while before the previous run, so revocations in transactions that were not yet committed then are included
+                final long updatedAfter = index.getLastUpdateTime() - CesecoreConfiguration.getCrlGenerationIncrementalOverlapTime();
+                final Collection<RevokedCertInfo> unrevokedCertificates = CertificateData.getUnrevokedCertInfosUpdatedAfter(entityManager, issuerDN, updatedAfter);
+                final int unrevoked = unrevokedCertificates.size();
+                try {
+                    for (final RevokedCertInfo unrevokedCertInfo : unrevokedCertificates) {
+                        index.removeEntry(unrevokedCertInfo.getUserCertificate());
+                    }
+                } finally {
+                    unrevokedCertificates.clear();
+                }
+                final int merged = mergeRevokedCertInfos(index, CertificateData.getRevokedCertInfosUpdatedAfter(entityManager, issuerDN, updatedAfter), now);
+                index.setIncrementalUpdates(index.getIncrementalUpdates()+1);
+                // Changes that are not tracked by updateTime would otherwise go unnoticed until the next time all entries are read
+                final long revokedCount = CertificateData.getRevokedCount(entityManager, issuerDN);
+                if (revokedCount == index.size()) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Merged " + unrevoked + " unrevoked and " + merged + " revoked certificates into " + index.size() + " CRL entries.");
+                    }
+                } else {
+                    log.info("CRL entries of CRL number " + index.getCrlNumber() + " for '" + issuerDN + "' have " + index.size() + " entries, but there are "
+                            + revokedCount + " revoked certificates. Reading all revoked certificates.");
+                    index = null;
+                }
+            }
+            if (index == null) {
+                index = new CRLEntryIndex(issuerDN);
+                if (log.isDebugEnabled()) {
+                    log.debug("Listing revoked certificates. Free memory="+Runtime.getRuntime().freeMemory());
+                }
+                mergeRevokedCertInfos(index, certificateStoreSession.listRevokedCertInfo(caCertSubjectDN, -1), now);
+                if (log.isDebugEnabled()) {
+                    log.debug("Found "+index.size()+" revoked certificates. Free memory="+Runtime.getRuntime().freeMemory());
+                }
+            }
+            // a full CRL
+            final int nextCrlNumber = getNextCrlNumber(ca);
+            final byte[] crlBytes = generateAndStoreCRL(admin, ca, index, -1, nextCrlNumber);
+            if (crlBytes != null) {
+                ret = CertTools.getFingerprintAsString(crlBytes);
+                // Archive expired certificates, see internalCreateCRL. They are removed only after they have been included in this full CRL,
+                // since RFC5280 section 5.2.4 requires revocation notices to appear on at least one complete CRL.
+                final Date check = new Date(now.getTime() - cainfo.getCRLPeriod());
+                final AuthenticationToken archiveAdmin = new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("CrlCreateSession.archive_expired"));
+                for (final RevokedCertInfo revokedCertInfo : index.removeExpired(check)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Archiving certificate with fp="+revokedCertInfo.getCertificateFingerprint()+". Free memory="+Runtime.getRuntime().freeMemory());
+                    }
+                    certificateStoreSession.setStatus(archiveAdmin, revokedCertInfo.getCertificateFingerprint(), CertificateConstants.CERT_ARCHIVED);
+                }
+                index.setCrlNumber(nextCrlNumber);
+                index.setLastUpdateTime(updateTime);
+                CRLEntryIndexCache.INSTANCE.put(cainfo.getCAId(), index);
+            }
+        } catch (FinderException e) {
+            // Should really not happen
+            log.error(e);
+            throw new EJBException(e);
+        } catch (IOException e) {
+            // Encoding of CRL entries should really not fail
+            log.error(e);
+            throw new EJBException(e);
+        }
+        return ret;
+    }
+
+    /**
+     * Puts revoked certificates into a CRL entry index, setting the revocation date of certificates that do not have one.
+     * @param revokedCertificates the revoked certificates, the collection is cleared afterwards
+     * @return the number of revoked certificates
+     */
+    private int mergeRevokedCertInfos(final CRLEntryIndex index, final Collection<RevokedCertInfo> revokedCertificates, final Date now) throws FinderException, IOException {
+        try {
+            for (final RevokedCertInfo revokedCertInfo : revokedCertificates) {
+                if (revokedCertInfo.getRevocationDate() == null) {
+                    revokedCertInfo.setRevocationDate(now);
+                    CertificateData certdata = CertificateData.findByFingerprint(entityManager, revokedCertInfo.getCertificateFingerprint());
+                    if (certdata == null) {
+                        throw new FinderException("No certificate with fingerprint " + revokedCertInfo.getCertificateFingerprint());
+                    }
+                    // Set revocation date in the database
+                    certdata.setRevocationDate(now);
+                }
+                index.put(revokedCertInfo);
+            }
+            return revokedCertificates.size();
+        } finally {
+            // Release the memory of our RevokedCertInfoCollection right away
+            revokedCertificates.clear();
+        }
+    }
+
     /**
      * Generates a new Delta CRL by looking in the database for revoked
      * certificates since the last complete CRL issued and generating a CRL with
@@ -539,7 +684,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
         }
         byte[] crlBytes = null;
         Collection<RevokedCertInfo> revcertinfos = null;
-        CompressedCollection<RevokedCertInfo> certs = null;
+        RevokedCertInfoCollection certs = null;
         try {
             final String caCertSubjectDN; {
                 final Collection<Certificate> certChain = cainfo.getCertificateChain();
@@ -559,7 +704,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     log.debug("Found "+revcertinfos.size()+" revoked certificates.");
                 }
                 // Go through them and create a CRL, at the same time archive expired certificates
-                certs = new CompressedCollection<RevokedCertInfo>();
+                certs = new RevokedCertInfoCollection();
                 for (final RevokedCertInfo ci : revcertinfos) {
                     if (ci.getRevocationDate() == null) {
                         ci.setRevocationDate(new Date());
@@ -583,7 +728,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             log.error(e);
             throw new EJBException(e);
         } finally {
-            // Special treatment of our CompressedCollections to ensure that we release all resources
+            // Release the memory of our RevokedCertInfoCollections right away
             if (revcertinfos!=null) {
                 revcertinfos.clear();  
             }
@@ -598,16 +743,23 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
     }
 
     private byte[] generateAndStoreCRL(AuthenticationToken admin, CA ca, Collection<RevokedCertInfo> certs, int basecrlnumber) throws CryptoTokenOfflineException, AuthorizationDeniedException {
+        return generateAndStoreCRL(admin, ca, certs, basecrlnumber, getNextCrlNumber(ca));
+    }
+
+    private int getNextCrlNumber(CA ca) {
+        final String certSubjectDN = CertTools.getSubjectDN(ca.getCACertificate()); 
+        int fullnumber = crlSession.getLastCRLNumber(certSubjectDN, false);
+        int deltanumber = crlSession.getLastCRLNumber(certSubjectDN, true);
+        // nextCrlNumber: The highest number of last CRL (full or delta) and increased by 1 (both full CRLs and deltaCRLs share the same series of CRL Number)
+        return ( (fullnumber > deltanumber) ? fullnumber : deltanumber ) +1; 
+    }
+
+    private byte[] generateAndStoreCRL(AuthenticationToken admin, CA ca, Collection<RevokedCertInfo> certs, int basecrlnumber, int nextCrlNumber) throws CryptoTokenOfflineException, AuthorizationDeniedException {
          // Hard and error-prone to do that.
         if (log.isDebugEnabled()) {
             log.debug("Storing CRL in publishers");
         }
         String cafp = CertTools.getFingerprintAsString(ca.getCACertificate());
-        final String certSubjectDN = CertTools.getSubjectDN(ca.getCACertificate()); 
-        int fullnumber = crlSession.getLastCRLNumber(certSubjectDN, false);
-        int deltanumber = crlSession.getLastCRLNumber(certSubjectDN, true);
-        // nextCrlNumber: The highest number of last CRL (full or delta) and increased by 1 (both full CRLs and deltaCRLs share the same series of CRL Number)
-        int nextCrlNumber = ( (fullnumber > deltanumber) ? fullnumber : deltanumber ) +1; 
         byte[] crlBytes = crlCreateSession.generateAndStoreCRL(admin, ca, certs, basecrlnumber, nextCrlNumber);
         this.publisherSession.storeCRL(admin, ca.getCRLPublishers(), crlBytes, cafp, nextCrlNumber, ca.getSubjectDN());
         return crlBytes;
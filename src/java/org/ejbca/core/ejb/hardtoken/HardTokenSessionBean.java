@@ -17,7 +17,6 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
@@ -61,6 +60,7 @@ import org.cesecore.roles.RoleData;
 import org.cesecore.roles.access.RoleAccessSessionLocal;
 import org.cesecore.util.Base64GetHashMap;
 import org.cesecore.util.CertTools;
+import org.cesecore.util.DataMapSerializer;
 import org.cesecore.util.ProfileID;
 import org.ejbca.config.GlobalConfiguration;
 import org.ejbca.core.ejb.audit.enums.EjbcaEventTypes;
@@ -1219,14 +1219,8 @@ public class HardTokenSessionBean implements HardTokenSessionLocal, HardTokenSes
 
     private HardTokenProfile getHardTokenProfile(HardTokenProfileData htpData) {
         HardTokenProfile profile = null;
-        java.beans.XMLDecoder decoder;
-        try {
-            decoder = new java.beans.XMLDecoder(new java.io.ByteArrayInputStream(htpData.getData().getBytes("UTF8")));
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
-        final Map<?, ?> h = (Map<?, ?>) decoder.readObject();
-        decoder.close();
+        // XML written by XMLEncoder, or the compact format
+        final Map<?, ?> h = (Map<?, ?>) DataMapSerializer.decode(htpData.getData());
         // Handle Base64 encoded string values
         final Map<?, ?> data = new Base64GetHashMap(h);
         switch (((Integer) (data.get(HardTokenProfile.TYPE))).intValue()) {
@@ -40,6 +40,7 @@ import org.cesecore.authorization.control.StandardRules;
 import org.cesecore.certificates.ca.CaSessionLocal;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.util.Base64GetHashMap;
+import org.cesecore.util.DataMapSerializer;
 import org.cesecore.util.ProfileID;
 import org.ejbca.core.ejb.audit.enums.EjbcaEventTypes;
 import org.ejbca.core.ejb.audit.enums.EjbcaModuleTypes;
@@ -530,14 +531,8 @@ public class UserDataSourceSessionBean implements UserDataSourceSessionLocal, Us
     private BaseUserDataSource getUserDataSource(UserDataSourceData udsData) {
     	BaseUserDataSource userdatasource = udsData.getCachedUserDataSource();
         if (userdatasource == null) {
-        	java.beans.XMLDecoder decoder;
-        	try {
-        		decoder = new java.beans.XMLDecoder(new java.io.ByteArrayInputStream(udsData.getData().getBytes("UTF8")));
-        	} catch (UnsupportedEncodingException e) {
-        		throw new EJBException(e);
-        	}
-        	HashMap<?, ?> h = (HashMap<?, ?>) decoder.readObject();
-        	decoder.close();
+        	// XML written by XMLEncoder, or the compact format
+        	HashMap<?, ?> h = (HashMap<?, ?>) DataMapSerializer.decode(udsData.getData());
         	// Handle Base64 encoded string values
         	HashMap<?, ?> data = new Base64GetHashMap(h);
         	switch (((Integer) (data.get(BaseUserDataSource.TYPE))).intValue()) {
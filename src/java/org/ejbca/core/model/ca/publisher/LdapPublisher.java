@@ -39,7 +39,9 @@ import org.cesecore.certificates.endentity.ExtendedInformation;
 import org.cesecore.certificates.util.DNFieldExtractor;
 import org.cesecore.util.Base64;
 import org.cesecore.util.CertTools;
+import org.ejbca.config.EjbcaConfiguration;
 import org.ejbca.core.model.InternalEjbcaResources;
+import org.ejbca.util.LdapConnectionPool;
 import org.ejbca.util.LdapNameStyle;
 import org.ejbca.util.LdapTools;
 import org.ejbca.util.TCPTool;
@@ -313,18 +315,9 @@ public class LdapPublisher extends BasePublisher {
     		do {
     			connectionFailed = false;
     			String currentServer = servers.next();
+    			LDAPConnection boundConnection = null;
     			try {
-    				TCPTool.probeConnectionLDAP(currentServer, Integer.parseInt(getPort()), getConnectionTimeOut());	// Avoid waiting for halfdead-servers
-    				lc.connect(currentServer, Integer.parseInt(getPort()));
-    				// Execute a STARTTLS handshake if it was requested.
-    				if (getConnectionSecurity() == ConnectionSecurity.STARTTLS) {
-                        if (log.isDebugEnabled()) {
-                            log.debug("STARTTLS to LDAP server "+currentServer);
-                        }
-    				    lc.startTLS();
-    				}
-    				// authenticate to the server
-    				lc.bind(ldapVersion, getLoginDN(), getLoginPassword().getBytes("UTF8"), ldapBindConstraints);            
+    				boundConnection = getBoundConnection(lc, currentServer, ldapVersion);
     				// Add or modify the entry
     				if (oldEntry != null && getModifyExistingUsers()) {
     					LDAPModification[] mods = new LDAPModification[modSet.size()]; 
@@ -333,7 +326,7 @@ public class LdapPublisher extends BasePublisher {
     					if (log.isDebugEnabled()) {
     						log.debug("Writing modification to DN: "+oldDn);
     					}
-    					lc.modify(oldDn, mods, ldapStoreConstraints);
+    					boundConnection.modify(oldDn, mods, ldapStoreConstraints);
     					String msg = intres.getLocalizedMessage("publisher.ldapmodify", "CERT", oldDn);
     					log.info(msg);  
     				} else {
@@ -344,10 +337,10 @@ public class LdapPublisher extends BasePublisher {
     							if(getCreateIntermediateNodes()) {
     								final String parentDN = CertTools.getParentDN(dn);
     								try {
-    									lc.read(parentDN, ldapSearchConstraints);
+    									boundConnection.read(parentDN, ldapSearchConstraints);
     								} catch(LDAPException e) {
     									if(e.getResultCode() == LDAPException.NO_SUCH_OBJECT) {
-    										this.createIntermediateNodes(lc, dn);
+    										this.createIntermediateNodes(boundConnection, dn);
     										String msg = intres.getLocalizedMessage("publisher.ldapaddedintermediate", "CERT", parentDN);
     										log.info(msg);
     									}
@@ -357,7 +350,7 @@ public class LdapPublisher extends BasePublisher {
     							if (log.isDebugEnabled()) {
     								log.debug("Adding DN: "+dn);
     							}
-    							lc.add(newEntry, ldapStoreConstraints);
+    							boundConnection.add(newEntry, ldapStoreConstraints);
     							String msg = intres.getLocalizedMessage("publisher.ldapadd", "CERT", dn);
     							log.info(msg);
     						}
@@ -382,13 +375,8 @@ public class LdapPublisher extends BasePublisher {
     				log.error(msg, e);
     				throw new PublisherException(msg);            
     			} finally {
-    				// disconnect with the server
-    				try {
-    					lc.disconnect(ldapDisconnectConstraints);
-    				} catch (LDAPException e) {
-    					String msg = intres.getLocalizedMessage("publisher.errordisconnect", getLoginPassword());
-    					log.error(msg, e);
-    				}
+    				// disconnect with the server, or return the connection to the pool
+    				releaseConnection(lc, boundConnection, currentServer, !connectionFailed);
     			}
     		} while (connectionFailed && servers.hasNext()) ;
         } else {
@@ -537,28 +525,18 @@ public class LdapPublisher extends BasePublisher {
 		do {
 			connectionFailed = false;
 			String currentServer = servers.next();
+			LDAPConnection boundConnection = null;
 			try {
-				TCPTool.probeConnectionLDAP(currentServer, Integer.parseInt(getPort()), getConnectionTimeOut());	// Avoid waiting for halfdead-servers
-				// connect to the server
-				lc.connect(currentServer, Integer.parseInt(getPort()));
-				// Execute a STARTTLS handshake if it was requested.
-				if (getConnectionSecurity() == ConnectionSecurity.STARTTLS) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("STARTTLS to LDAP server "+currentServer);
-                    }
-					lc.startTLS();
-				}
-				// authenticate to the server
-				lc.bind(ldapVersion, getLoginDN(), getLoginPassword().getBytes("UTF8"), ldapBindConstraints);
+				boundConnection = getBoundConnection(lc, currentServer, ldapVersion);
 				// Add or modify the entry
 				if (oldEntry != null) {
 					LDAPModification[] mods = new LDAPModification[modSet.size()]; 
 					mods = (LDAPModification[])modSet.toArray(mods);
-					lc.modify(dn, mods, ldapStoreConstraints);
+					boundConnection.modify(dn, mods, ldapStoreConstraints);
 					String msg = intres.getLocalizedMessage("publisher.ldapmodify", "CRL", dn);
 					log.info(msg);  
 				} else {
-					lc.add(newEntry, ldapStoreConstraints);
+					boundConnection.add(newEntry, ldapStoreConstraints);
 					String msg = intres.getLocalizedMessage("publisher.ldapadd", "CRL", dn);
 					log.info(msg);  
 				}
@@ -576,13 +554,8 @@ public class LdapPublisher extends BasePublisher {
 				log.error(msg, e);
 				throw new PublisherException(msg);            
 			} finally {
-				// disconnect with the server
-				try {
-					lc.disconnect(ldapDisconnectConstraints);
-				} catch (LDAPException e) {
-					String msg = intres.getLocalizedMessage("publisher.errordisconnect");
-					log.error(msg, e);
-				}
+				// disconnect with the server, or return the connection to the pool
+				releaseConnection(lc, boundConnection, currentServer, !connectionFailed);
 			}
 		} while (connectionFailed && servers.hasNext()) ;
 		if (log.isTraceEnabled()) {
@@ -688,27 +661,18 @@ public class LdapPublisher extends BasePublisher {
 			if (log.isDebugEnabled()) {
 				log.debug("currentServer: "+currentServer);
 			}
+			LDAPConnection boundConnection = null;
 			try {
-				TCPTool.probeConnectionLDAP(currentServer, Integer.parseInt(getPort()), getConnectionTimeOut());	// Avoid waiting for halfdead-servers
-				lc.connect(currentServer, Integer.parseInt(getPort()));
-				// Execute a STARTTLS handshake if it was requested.
-				if (getConnectionSecurity() == ConnectionSecurity.STARTTLS) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("STARTTLS to LDAP server "+currentServer);
-                    }
-					lc.startTLS();
-				}
-				// authenticate to the server
-				lc.bind(ldapVersion, getLoginDN(), getLoginPassword().getBytes("UTF8"), ldapBindConstraints);            
+				boundConnection = getBoundConnection(lc, currentServer, ldapVersion);
 				// Add or modify the entry
 				if (modSet != null && getModifyExistingUsers()) {
 					if (removecert) {
 						LDAPModification[] mods = new LDAPModification[modSet.size()]; 
 						mods = (LDAPModification[])modSet.toArray(mods);
-						lc.modify(oldEntry.getDN(), mods, ldapStoreConstraints);            		
+						boundConnection.modify(oldEntry.getDN(), mods, ldapStoreConstraints);            		
 					}
 					if (removeuser) {
-						lc.delete(oldEntry.getDN(), ldapStoreConstraints);            		
+						boundConnection.delete(oldEntry.getDN(), ldapStoreConstraints);            		
 					}
 					String msg = intres.getLocalizedMessage("publisher.ldapremove", dn);
 					log.info(msg);  
@@ -736,13 +700,8 @@ public class LdapPublisher extends BasePublisher {
 				log.error(msg, e);
 				throw new PublisherException(msg);            
 			} finally {
-				// disconnect with the server
-				try {
-					lc.disconnect(ldapDisconnectConstraints);
-				} catch (LDAPException e) {
-					String msg = intres.getLocalizedMessage("publisher.errordisconnect");
-					log.error(msg, e);
-				}
+				// disconnect with the server, or return the connection to the pool
+				releaseConnection(lc, boundConnection, currentServer, !isConnectionNotDone);
 			}
 		}
 		if (log.isTraceEnabled()) {
@@ -767,24 +726,14 @@ public class LdapPublisher extends BasePublisher {
 				log.debug("Current server is: "+currentServer);
 			}
 			final String ldapdn = constructLDAPDN(certDN, userDN);
+			LDAPConnection boundConnection = null;
 			try {
-				TCPTool.probeConnectionLDAP(currentServer, Integer.parseInt(getPort()), getConnectionTimeOut());	// Avoid waiting for halfdead-servers
-				// connect to the server
-				lc.connect(currentServer, Integer.parseInt(getPort()));
-				// Execute a STARTTLS handshake if it was requested.
-				if (getConnectionSecurity() == ConnectionSecurity.STARTTLS) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("STARTTLS to LDAP server "+currentServer);
-                    }
-					lc.startTLS();
-				}
-				// authenticate to the server
-				lc.bind(ldapVersion, getLoginDN(), getLoginPassword().getBytes("UTF8"), ldapBindConstraints);
+				boundConnection = getBoundConnection(lc, currentServer, ldapVersion);
 				// try to read the old object
 				if (log.isDebugEnabled()) {
 					log.debug("Searching for old entry with DN '" + ldapdn+"'");
 				}
-				oldEntry = lc.read(ldapdn, ldapSearchConstraints);
+				oldEntry = boundConnection.read(ldapdn, ldapSearchConstraints);
 				if (log.isDebugEnabled()) {
 					if (oldEntry != null) {
 						log.debug("Found an old entry with DN '" + ldapdn+"'");
@@ -811,13 +760,8 @@ public class LdapPublisher extends BasePublisher {
 				String msg = intres.getLocalizedMessage("publisher.errorpassword", getLoginPassword());
 				throw new PublisherException(msg);            
 			} finally {
-				// disconnect with the server
-				try {
-					lc.disconnect(ldapDisconnectConstraints);
-				} catch (LDAPException e) {
-					String msg = intres.getLocalizedMessage("publisher.errordisconnect");
-					log.error(msg, e);
-				}
+				// disconnect with the server, or return the connection to the pool
+				releaseConnection(lc, boundConnection, currentServer, !connectionFailed);
 			}
 		} while (connectionFailed && servers.hasNext()) ;
 		return oldEntry;
@@ -836,25 +780,15 @@ public class LdapPublisher extends BasePublisher {
 			connectionFailed = false;
 			String currentServer = servers.next();
 			LDAPEntry entry = null;
+			LDAPConnection boundConnection = null;
 			try {
-				TCPTool.probeConnectionLDAP(currentServer, Integer.parseInt(getPort()), getConnectionTimeOut());	// Avoid waiting for halfdead-servers
-				// connect to the server
-				lc.connect(currentServer, Integer.parseInt(getPort()));
-				// Execute a STARTTLS handshake if it was requested.
-				if (getConnectionSecurity() == ConnectionSecurity.STARTTLS) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("STARTTLS to LDAP server "+currentServer);
-                    }
-					lc.startTLS();
-				}
-				// authenticate to the server
-				lc.bind(ldapVersion, getLoginDN(), getLoginPassword().getBytes("UTF8"), ldapBindConstraints);
+				boundConnection = getBoundConnection(lc, currentServer, ldapVersion);
 				// try to read the base object
 				String baseDN = getBaseDN();
 				if (log.isDebugEnabled()) {
 					log.debug("Trying to read top node '"+baseDN+"'");
 				}
-				entry = lc.read(baseDN, ldapSearchConstraints);			
+				entry = boundConnection.read(baseDN, ldapSearchConstraints);			
 				if(entry == null) {
 					String msg = intres.getLocalizedMessage("publisher.errornobinddn");
 					throw new PublisherConnectionException(msg);
@@ -876,13 +810,8 @@ public class LdapPublisher extends BasePublisher {
 				log.error(msg, e);
 				throw new PublisherConnectionException(msg);            
 			} finally {
-				// disconnect with the server
-				try {
-					lc.disconnect(ldapDisconnectConstraints);
-				} catch (LDAPException e) {
-					String msg = intres.getLocalizedMessage("publisher.errordisconnect");
-					log.error(msg, e);
-				}
+				// disconnect with the server, or return the connection to the pool
+				releaseConnection(lc, boundConnection, currentServer, !connectionFailed);
 			}
 		} while (connectionFailed && servers.hasNext()) ;
 	} 
@@ -920,6 +849,100 @@ public class LdapPublisher extends BasePublisher {
 		return lc;
 	}
 
+	/**
+	 * Connects to the server, executes a STARTTLS handshake if configured, and binds with the login DN.
+	 * 
+	 * @param lc a new connection from {@link #createLdapConnection()}
+	 */
+	protected void connectAndBind(final LDAPConnection lc, final String server, final int ldapVersion) throws LDAPException, UnsupportedEncodingException {
+		TCPTool.probeConnectionLDAP(server, Integer.parseInt(getPort()), getConnectionTimeOut());	// Avoid waiting for halfdead-servers
+		// connect to the server
+		lc.connect(server, Integer.parseInt(getPort()));
+		// Execute a STARTTLS handshake if it was requested.
+		if (getConnectionSecurity() == ConnectionSecurity.STARTTLS) {
+			if (log.isDebugEnabled()) {
+				log.debug("STARTTLS to LDAP server "+server);
+			}
+			lc.startTLS();
+		}
+		// authenticate to the server
+		lc.bind(ldapVersion, getLoginDN(), getLoginPassword().getBytes("UTF8"), ldapBindConstraints);
+	}
+
+	/**
+	 * Returns a connection to the server that is connected and bound. If LDAP connection pooling is enabled (see
+	 * {@link EjbcaConfiguration#isLdapPublisherConnectionPoolEnabled()}), the connection is taken from the pool for the connection
+	 * settings of this publisher. Otherwise lc is connected and bound.
+	 * 
+	 * @param lc a new connection from {@link #createLdapConnection()}
+	 * @return the connection to use, which must be released with {@link #releaseConnection(LDAPConnection, LDAPConnection, String, boolean)}
+	 */
+	protected LDAPConnection getBoundConnection(final LDAPConnection lc, final String server, final int ldapVersion) throws LDAPException, UnsupportedEncodingException {
+		if (EjbcaConfiguration.isLdapPublisherConnectionPoolEnabled()) {
+			return getConnectionPool().borrowConnection(server);
+		}
+		connectAndBind(lc, server, ldapVersion);
+		return lc;
+	}
+
+	/**
+	 * Disconnects from the server, or returns the connection to the pool if it was taken from the pool.
+	 * 
+	 * @param lc the connection that was passed to {@link #getBoundConnection(LDAPConnection, String, int)}
+	 * @param boundConnection the connection returned by getBoundConnection, or null if it failed
+	 * @param reusable false if the operation failed, so a pooled connection should be closed rather than reused
+	 */
+	protected void releaseConnection(final LDAPConnection lc, final LDAPConnection boundConnection, final String server, final boolean reusable) {
+		if (boundConnection != null && boundConnection != lc) {
+			getConnectionPool().returnConnection(server, boundConnection, reusable);
+		} else {
+			disconnect(lc);
+		}
+	}
+
+	private void disconnect(final LDAPConnection lc) {
+		try {
+			lc.disconnect(ldapDisconnectConstraints);
+		} catch (LDAPException e) {
+			String msg = intres.getLocalizedMessage("publisher.errordisconnect");
+			log.error(msg, e);
+		}
+	}
+
+	/** @return the connection pool shared by all LDAP publishers with the same connection settings as this publisher */
+	protected LdapConnectionPool getConnectionPool() {
+		final String key = getClass().getName() + ";" + getConnectionSecurity() + ";" + getPort() + ";" + getLoginDN() + ";"
+				+ CertTools.getFingerprintAsString(getLoginPassword().getBytes()) + ";" + getConnectionTimeOut() + ";" + getReadTimeOut() + ";" + getStoreTimeOut();
+		return LdapConnectionPool.getPool(key, new LdapConnectionPool.ConnectionFactory() {
+			@Override
+			public LDAPConnection createConnection(final String host) throws LDAPException {
+				final LDAPConnection lc = createLdapConnection();
+				try {
+					connectAndBind(lc, host, LDAPConnection.LDAP_V3);
+				} catch (UnsupportedEncodingException e) {
+					disconnect(lc);
+					final String msg = intres.getLocalizedMessage("publisher.errorpassword", getLoginPassword());
+					throw new LDAPException(msg, LDAPException.ENCODING_ERROR, msg);
+				} catch (LDAPException e) {
+					disconnect(lc);
+					throw e;
+				}
+				return lc;
+			}
+
+			@Override
+			public boolean isAlive(final LDAPConnection lc) {
+				return lc.isConnectionAlive() && lc.isBound();
+			}
+
+			@Override
+			public void closeConnection(final LDAPConnection lc) {
+				disconnect(lc);
+			}
+		}, EjbcaConfiguration.getLdapPublisherConnectionPoolMaxSize(), EjbcaConfiguration.getLdapPublisherConnectionPoolMaxWait(),
+				EjbcaConfiguration.getLdapPublisherConnectionPoolMaxIdle());
+	}
+
 	/**
 	 *  Returns the hostnames of ldap server.
 	 */    
@@ -34,10 +34,12 @@ import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.certificates.endentity.ExtendedInformation;
 import org.cesecore.util.CertTools;
+import org.ejbca.config.EjbcaConfiguration;
 import org.ejbca.core.model.InternalEjbcaResources;
 import org.ejbca.core.model.ca.publisher.ICustomPublisher;
 import org.ejbca.core.model.ca.publisher.PublisherConnectionException;
 import org.ejbca.core.model.ca.publisher.PublisherException;
+import org.ejbca.util.LdapConnectionPool;
 import org.ejbca.util.TCPTool;
 
 import com.novell.ldap.LDAPAttribute;
@@ -569,15 +571,18 @@ public class CustomerLdapPublisher1 implements ICustomPublisher {
                 log.debug("Current server is: " + currentServer);
             }
             
+            final LdapConnectionPool pool = EjbcaConfiguration.isLdapPublisherConnectionPoolEnabled() ? getConnectionPool() : null;
+            LDAPConnection boundConnection = null;
             try {
-                TCPTool.probeConnectionLDAP(currentServer, Integer.parseInt(port), timeout);    // Avoid waiting for halfdead-servers
-                // connect to the server
-                lc.connect(currentServer, Integer.parseInt(port));
-                // authenticate to the server
-                lc.bind(LDAPConnection.LDAP_V3, loginDN, loginPassword.getBytes("UTF8"), ldapBindConstraints);
+                if (pool != null) {
+                    boundConnection = pool.borrowConnection(currentServer);
+                } else {
+                    connectAndBind(lc, currentServer);
+                    boundConnection = lc;
+                }
                 
                 // Perform the action
-                result = action.performAction(lc);
+                result = action.performAction(boundConnection);
             } catch (LDAPException e) {
                 connectionFailed = true;
                 if (servers.hasNext()) {
@@ -585,22 +590,75 @@ public class CustomerLdapPublisher1 implements ICustomPublisher {
                 } else {
                     action.failed(e);
                 }
-            } catch (UnsupportedEncodingException e) {
-                String msg = intres.getLocalizedMessage("publisher.errorpassword", loginPassword);
-                throw new RuntimeException(msg);
             } finally {
-                // disconnect with the server
-                try {
-                    lc.disconnect(ldapDisconnectConstraints);
-                } catch (LDAPException e) {
-                    String msg = intres.getLocalizedMessage("publisher.errordisconnect");
-                    log.error(msg, e);
+                if (pool != null) {
+                    if (boundConnection != null) {
+                        // Return the connection to the pool, or close it if it might be broken
+                        pool.returnConnection(currentServer, boundConnection, !connectionFailed);
+                    }
+                } else {
+                    // disconnect with the server
+                    disconnect(lc);
                 }
             }
         } while (connectionFailed && servers.hasNext());
         return result;
     }
 
+    /** Connects and binds to the server, with a probe first to avoid waiting for halfdead-servers. */
+    private void connectAndBind(final LDAPConnection lc, final String server) throws LDAPException {
+        TCPTool.probeConnectionLDAP(server, Integer.parseInt(port), timeout);
+        // connect to the server
+        lc.connect(server, Integer.parseInt(port));
+        // authenticate to the server
+        try {
+            lc.bind(LDAPConnection.LDAP_V3, loginDN, loginPassword.getBytes("UTF8"), ldapBindConstraints);
+        } catch (UnsupportedEncodingException e) {
+            String msg = intres.getLocalizedMessage("publisher.errorpassword", loginPassword);
+            throw new RuntimeException(msg);
+        }
+    }
+
+    private void disconnect(final LDAPConnection lc) {
+        try {
+            lc.disconnect(ldapDisconnectConstraints);
+        } catch (LDAPException e) {
+            String msg = intres.getLocalizedMessage("publisher.errordisconnect");
+            log.error(msg, e);
+        }
+    }
+
+    /**
+     * @return the pool of connections shared by all publishers with the same security, port, bind DN, password and timeout. The hosts are
+     * not part of the key, since the pool keeps the connections to each host apart.
+     */
+    private LdapConnectionPool getConnectionPool() {
+        final String key = getClass().getName() + ";" + useSSL + ";" + port + ";" + loginDN + ";"
+                + CertTools.getFingerprintAsString(loginPassword.getBytes()) + ";" + timeout;
+        return LdapConnectionPool.getPool(key, new LdapConnectionPool.ConnectionFactory() {
+            @Override
+            public LDAPConnection createConnection(final String host) throws LDAPException {
+                final LDAPConnection lc = createLdapConnection();
+                try {
+                    connectAndBind(lc, host);
+                } catch (LDAPException e) {
+                    disconnect(lc);
+                    throw e;
+                }
+                return lc;
+            }
+            @Override
+            public boolean isAlive(final LDAPConnection lc) {
+                return lc.isConnectionAlive() && lc.isBound();
+            }
+            @Override
+            public void closeConnection(final LDAPConnection lc) {
+                disconnect(lc);
+            }
+        }, EjbcaConfiguration.getLdapPublisherConnectionPoolMaxSize(), EjbcaConfiguration.getLdapPublisherConnectionPoolMaxWait(),
+                EjbcaConfiguration.getLdapPublisherConnectionPoolMaxIdle());
+    }
+
     protected LDAPEntry searchOldEntity(final LDAPConnection lc, final String ldapDN) throws PublisherException {
         return executeLDAPAction(lc, new LDAPConnectionAction<LDAPEntry,PublisherException>() {
             @Override
@@ -12,24 +12,20 @@
  *************************************************************************/
 package org.ejbca.core.model.services.workers;
 
-import java.math.BigInteger;
+import java.io.IOException;
 import java.net.URL;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.security.SignatureException;
 import java.security.cert.CRLException;
-import java.security.cert.X509CRL;
-import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.certificates.ca.CAConstants;
 import org.cesecore.certificates.ca.CADoesntExistsException;
@@ -39,6 +35,9 @@ import org.cesecore.certificates.ca.X509CAInfo;
 import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
 import org.cesecore.certificates.crl.CrlStoreException;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.StreamedX509CRL;
+import org.cesecore.certificates.crl.X509CRLStreamParser;
 import org.cesecore.certificates.util.cert.CrlExtensions;
 import org.cesecore.util.CertTools;
 import org.cesecore.util.NetworkTools;
@@ -55,6 +54,10 @@ import org.ejbca.core.model.services.ServiceExecutionFailedException;
  * 
  * The worker can be configured to not respect the nextUpdate
  * 
+ * The CRL entries are read one at a time from the encoded CRL, compared with the entries of the last known CRL of the same type
+ * sorted by serial number, and the new or changed entries are stored in chunks of {@link #IMPORT_BATCH_SIZE}, each in its own
+ * transaction. A CRL with millions of entries can therefore be imported without holding all entries as objects in memory.
+ * 
  * @version $Id: CRLDownloadWorker.java 20480 2014-12-17 18:11:01Z jeklund $
  */
 public class CRLDownloadWorker extends BaseWorker {
@@ -63,6 +66,10 @@ public class CRLDownloadWorker extends BaseWorker {
     public static final String PROP_IGNORE_NEXT_UPDATE = "ignoreNextUpdate";
     public static final String PROP_MAX_DOWNLOAD_SIZE = "maxDownloadSize";
     public static final int DEFAULT_MAX_DOWNLOAD_SIZE = 1*1024*1024;
+    /** The number of new or changed CRL entries that are stored in one transaction */
+    static final int IMPORT_BATCH_SIZE = 1000;
+    /** How often the progress of a CRL import is logged */
+    private static final long PROGRESS_LOG_INTERVAL_MS = 10000;
 
     @Override
     public void work(Map<Class<?>, Object> ejbs) throws ServiceExecutionFailedException {
@@ -100,13 +107,13 @@ public class CRLDownloadWorker extends BaseWorker {
                     final String issuerDn = CertTools.getSubjectDN(caCertificate);
                     // Get last known CRL (if any) and check when the next update will be
                     final Date now = new Date();
-                    final X509CRL lastFullCrl = getCRLFromBytes(crlStoreSession.getLastCRL(issuerDn, false));
-                    final X509CRL newestFullCrl;
-                    if (!ignoreNextUpdate && lastFullCrl!=null && now.before(lastFullCrl.getNextUpdate())) {
-                        log.info("Next full CRL update for CA '" + caInfo.getName() + "' will be " + ValidityDate.formatAsISO8601(lastFullCrl.getNextUpdate(), null) + ". Skipping download.");
+                    final X509CRLStreamParser lastFullCrl = getCRLFromBytes(crlStoreSession.getLastCRL(issuerDn, false));
+                    final X509CRLStreamParser newestFullCrl;
+                    if (!ignoreNextUpdate && lastFullCrl!=null && isBeforeNextUpdate(now, lastFullCrl)) {
+                        log.info("Next full CRL update for CA '" + caInfo.getName() + "' will be " + ValidityDate.formatAsISO8601(lastFullCrl.getCRL().getNextUpdate(), null) + ". Skipping download.");
                         newestFullCrl = lastFullCrl;
                     } else {
-                        final X509CRL downloadedFullCrl = getAndProcessCrl(url, maxDownloadSize, caCertificate, caInfo, crlStoreSession, certificateStoreSession, lastFullCrl, lastFullCrl);
+                        final X509CRLStreamParser downloadedFullCrl = getAndProcessCrl(url, maxDownloadSize, caCertificate, caInfo, crlStoreSession, certificateStoreSession, lastFullCrl, lastFullCrl);
                         if (downloadedFullCrl==null) {
                             newestFullCrl = lastFullCrl;
                         } else {
@@ -114,16 +121,16 @@ public class CRLDownloadWorker extends BaseWorker {
                         }
                     }
                     if (newestFullCrl!=null) {
-                        final List<String> freshestCdps = CrlExtensions.extractFreshestCrlDistributionPoints(newestFullCrl);
+                        final List<String> freshestCdps = CrlExtensions.extractFreshestCrlDistributionPoints(newestFullCrl.getExtensions());
                         if (!freshestCdps.isEmpty()) {
                             // Delta CRLs are used and we might already have a valid one stored
-                            X509CRL lastDeltaCrl = getCRLFromBytes(crlStoreSession.getLastCRL(issuerDn, true));
-                            if (lastDeltaCrl!=null && lastDeltaCrl.getThisUpdate().before(newestFullCrl.getThisUpdate())) {
+                            X509CRLStreamParser lastDeltaCrl = getCRLFromBytes(crlStoreSession.getLastCRL(issuerDn, true));
+                            if (lastDeltaCrl!=null && lastDeltaCrl.getCRL().getThisUpdate().before(newestFullCrl.getCRL().getThisUpdate())) {
                                 // The last known delta CRL info is already included in the latest full CRL, so treat the last delta as non-existent
                                 lastDeltaCrl = null;
                             }
-                            if (!ignoreNextUpdate && lastDeltaCrl!=null && now.before(lastDeltaCrl.getNextUpdate())) {
-                                log.info("Next delta CRL update for CA '" + caInfo.getName() + "' will be " + ValidityDate.formatAsISO8601(lastDeltaCrl.getNextUpdate(), null) + ". Skipping download.");
+                            if (!ignoreNextUpdate && lastDeltaCrl!=null && isBeforeNextUpdate(now, lastDeltaCrl)) {
+                                log.info("Next delta CRL update for CA '" + caInfo.getName() + "' will be " + ValidityDate.formatAsISO8601(lastDeltaCrl.getCRL().getNextUpdate(), null) + ". Skipping download.");
                             } else {
                                 // Check for and process first delta CRL that can be reached over HTTP (if any)
                                 for (final String freshestCdp : freshestCdps) {
@@ -132,7 +139,7 @@ public class CRLDownloadWorker extends BaseWorker {
                                         log.info("Unusable Freshest CDP HTTP URL '" + freshestCdpUrl + "' in CRL. Skipping download.");
                                         continue;
                                     }
-                                    final X509CRL newDeltaCrl = getAndProcessCrl(freshestCdpUrl, maxDownloadSize, caCertificate, caInfo, crlStoreSession, certificateStoreSession, lastFullCrl, lastDeltaCrl);
+                                    final X509CRLStreamParser newDeltaCrl = getAndProcessCrl(freshestCdpUrl, maxDownloadSize, caCertificate, caInfo, crlStoreSession, certificateStoreSession, lastFullCrl, lastDeltaCrl);
                                     if (newDeltaCrl!=null) {
                                         break;
                                     }
@@ -155,16 +162,21 @@ public class CRLDownloadWorker extends BaseWorker {
         }
     }
     
-    private X509CRL getCRLFromBytes(final byte[] crlBytes) throws CRLException {
+    private X509CRLStreamParser getCRLFromBytes(final byte[] crlBytes) throws CRLException {
         if (crlBytes != null) {
-            return CertTools.getCRLfromByteArray(crlBytes);
+            return new X509CRLStreamParser(crlBytes);
         }
         return null;
     }
+
+    /** @return true if the CRL has a nextUpdate that is after now */
+    private boolean isBeforeNextUpdate(final Date now, final X509CRLStreamParser crl) {
+        return crl.getCRL().getNextUpdate() != null && now.before(crl.getCRL().getNextUpdate());
+    }
     
-    private X509CRL getAndProcessCrl(final URL cdpUrl, final int maxSize, final X509Certificate caCertificate, final CAInfo caInfo, final CrlStoreSessionLocal crlStoreSession,
-            final CertificateStoreSessionLocal certificateStoreSession, final X509CRL lastFullCrl, final X509CRL lastCrlOfSameType) throws CrlStoreException, AuthorizationDeniedException {
-        X509CRL newCrl = null;
+    private X509CRLStreamParser getAndProcessCrl(final URL cdpUrl, final int maxSize, final X509Certificate caCertificate, final CAInfo caInfo, final CrlStoreSessionLocal crlStoreSession,
+            final CertificateStoreSessionLocal certificateStoreSession, final X509CRLStreamParser lastFullCrl, final X509CRLStreamParser lastCrlOfSameType) throws CrlStoreException, AuthorizationDeniedException, CRLException {
+        X509CRLStreamParser newCrl = null;
         final byte[] crlBytesNew = NetworkTools.downloadDataFromUrl(cdpUrl, maxSize);
         if (crlBytesNew==null) {
             log.warn("Unable to download CRL for " + CertTools.getSubjectDN(caCertificate));
@@ -172,71 +184,61 @@ public class CRLDownloadWorker extends BaseWorker {
             final String caFingerprint = CertTools.getFingerprintAsString(caCertificate);
             final String issuerDn = CertTools.getSubjectDN(caCertificate);
             try {
-                newCrl = CertTools.getCRLfromByteArray(crlBytesNew);
+                newCrl = new X509CRLStreamParser(crlBytesNew);
                 // Verify signature
-                newCrl.verify(caCertificate.getPublicKey(), "BC");
+                if (!newCrl.getCRL().isSignatureValid(new JcaContentVerifierProviderBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build(caCertificate.getPublicKey()))) {
+                    log.warn("Signature of the downloaded CRL could not be verfied with the CA certificate of the issuer '" + issuerDn + "'.");
+                    return null;
+                }
             } catch (CRLException e) {
                 log.warn("Unable to decode downloaded CRL for '" + issuerDn + "'.");
                 return null;
-            } catch (SignatureException e) {
-                log.warn("Signature of the downloaded CRL could not be verfied with the CA certificate of the issuer '" + issuerDn + "'.", e);
-                return null;
-            } catch (InvalidKeyException e) {
-                log.warn("Private key that signed the downloaded CRL does not match the public key of the issuer '" + issuerDn + "'.", e);
-                return null;
-            } catch (NoSuchAlgorithmException e) {
+            } catch (OperatorCreationException e) {
                 log.warn("The signature algorithm used to sign the downloaded CRL is not available in this environment.", e);
                 return null;
-            } catch (NoSuchProviderException e) {
-                log.warn("The signature provider used to verify the downloaded CRL is not available in this environment.", e);
+            } catch (IOException e) {
+                log.warn("Signature of the downloaded CRL could not be verfied with the CA certificate of the issuer '" + issuerDn + "'.", e);
                 return null;
             }
+            final StreamedX509CRL crl = newCrl.getCRL();
             // Check if the CRL is already stored locally
-            final boolean isDeltaCrl = CrlExtensions.getDeltaCRLIndicator(newCrl).intValue() != -1;
-            final int downloadedCrlNumber = CrlExtensions.getCrlNumber(newCrl).intValue();
+            final boolean isDeltaCrl = CrlExtensions.getDeltaCRLIndicator(newCrl.getExtensions()).intValue() != -1;
+            final int downloadedCrlNumber = CrlExtensions.getCrlNumber(newCrl.getExtensions()).intValue();
             if (log.isTraceEnabled()) {
                 log.trace("Delta CRL:  " + isDeltaCrl);
                 log.trace("IssuerDn:   " + issuerDn);
                 log.trace("CRL Number: " + downloadedCrlNumber);
             }
-            if (lastFullCrl!=null && !newCrl.getThisUpdate().after(lastFullCrl.getThisUpdate())) {
+            if (lastFullCrl!=null && !crl.getThisUpdate().after(lastFullCrl.getCRL().getThisUpdate())) {
                 log.info((isDeltaCrl?"Delta":"Full") + " CRL number " + downloadedCrlNumber + " for CA '" + caInfo.getName() + "' is not newer than last known full CRL. Ignoring download.");
                 return null;
             }
-            if (isDeltaCrl && lastCrlOfSameType!=null && !newCrl.getThisUpdate().after(lastCrlOfSameType.getThisUpdate())) {
+            if (isDeltaCrl && lastCrlOfSameType!=null && !crl.getThisUpdate().after(lastCrlOfSameType.getCRL().getThisUpdate())) {
                 log.info("Delta CRL number " + downloadedCrlNumber + " for CA '" + caInfo.getName() + "' is not newer than last known delta CRL. Ignoring download.");
                 return null;
             }
             // If the CRL is newer than the last known or there wasn't any old one, loop through it
-            if (newCrl.getRevokedCertificates()==null) {
+            if (crl.getNumberOfEntries()==0) {
                 log.info("No revoked certificates in " + (isDeltaCrl?"delta":"full") + " CRL for CA '" + caInfo.getName() + "'");
             } else {
-                final Set<X509CRLEntry> crlEntries = new HashSet<X509CRLEntry>();
-                crlEntries.addAll(newCrl.getRevokedCertificates());
                 if (log.isDebugEnabled()) {
-                    log.debug("Downloaded CRL contains " + crlEntries.size() + " entries.");
+                    log.debug("Downloaded CRL contains " + crl.getNumberOfEntries() + " entries.");
                 }
-                if (lastCrlOfSameType != null && lastCrlOfSameType.getRevokedCertificates()!=null) {
+                // Entries that were processed last time, sorted by serial number
+                final X509CRLStreamParser.SortedEntries lastEntries;
+                if (lastCrlOfSameType != null && lastCrlOfSameType.getCRL().getNumberOfEntries() > 0) {
                     if (log.isDebugEnabled()) {
-                        log.debug("Last known CRL contains " + lastCrlOfSameType.getRevokedCertificates().size() + " entries.");
+                        log.debug("Last known CRL contains " + lastCrlOfSameType.getCRL().getNumberOfEntries() + " entries.");
                     }
-                    // Remove all entries that were processed last time
-                    crlEntries.removeAll(lastCrlOfSameType.getRevokedCertificates());
+                    lastEntries = lastCrlOfSameType.getSortedEntries();
+                } else {
+                    lastEntries = X509CRLStreamParser.getEmptySortedEntries();
                 }
-                log.info("Found " + crlEntries.size() + " new entires in " + (isDeltaCrl?"delta":"full")+ " CRL number " + downloadedCrlNumber + " issued by '" + issuerDn + "' compared to previous.");
-                // For each entry that was updated after the last known CRL, create/update a new database entry with the new status
-                for (final X509CRLEntry crlEntry : crlEntries) {
-                    final Date revocationDate = crlEntry.getRevocationDate();
-                    final BigInteger serialNumber = crlEntry.getSerialNumber();
-                    final int reasonCode = CrlExtensions.extractReasonCode(crlEntry);
-                    if (crlEntry.getCertificateIssuer()!=null) {
-                        final String entryIssuerDn = CertTools.stringToBCDNString(crlEntry.getCertificateIssuer().getName());
-                        if (!issuerDn.equals(entryIssuerDn)) {
-                            log.warn("CA's subjectDN does not match CRL entry's issuerDn '"+entryIssuerDn+"' and entry with serialNumber " + serialNumber + " will be ignored.");
-                        }
-                    }
-                    // Store as much as possible about what we know about the certificate and its status (which is limited) in the database
-                    certificateStoreSession.updateLimitedCertificateDataStatus(getAdmin(), caInfo.getCAId(), issuerDn, serialNumber, revocationDate, reasonCode, caFingerprint);
+                try {
+                    processCrlEntries(newCrl, lastEntries, isDeltaCrl, downloadedCrlNumber, issuerDn, caInfo, caFingerprint, certificateStoreSession);
+                } catch (CRLException e) {
+                    log.warn("Unable to decode entry in downloaded CRL for '" + issuerDn + "': " + e.getMessage());
+                    return null;
                 }
             }
             // Calculate (make up) the CRL Number if the number was not present
@@ -248,8 +250,53 @@ public class CRLDownloadWorker extends BaseWorker {
                 newCrlNumber = downloadedCrlNumber;
             }
             // Last of all, store the CRL if there were no errors during creation of database entries
-            crlStoreSession.storeCRL(admin, crlBytesNew, caFingerprint, newCrlNumber, issuerDn, newCrl.getThisUpdate(), newCrl.getNextUpdate(), isDeltaCrl?1:-1);
+            crlStoreSession.storeCRL(admin, crlBytesNew, caFingerprint, newCrlNumber, issuerDn, crl.getThisUpdate(), crl.getNextUpdate(), isDeltaCrl?1:-1);
         }
         return newCrl;
     }
+
+    /** Stores the entries of the CRL that are not in the last known CRL, in chunks of IMPORT_BATCH_SIZE entries. */
+    private void processCrlEntries(final X509CRLStreamParser newCrl, final X509CRLStreamParser.SortedEntries lastEntries, final boolean isDeltaCrl,
+            final int downloadedCrlNumber, final String issuerDn, final CAInfo caInfo, final String caFingerprint,
+            final CertificateStoreSessionLocal certificateStoreSession) throws CRLException, AuthorizationDeniedException {
+        final int numberOfEntries = newCrl.getCRL().getNumberOfEntries();
+        final long startTime = System.currentTimeMillis();
+        long lastProgressTime = startTime;
+        int processedEntries = 0;
+        int newEntries = 0;
+        int changedRows = 0;
+        final List<RevokedCertInfo> batch = new ArrayList<RevokedCertInfo>(IMPORT_BATCH_SIZE);
+        final X509CRLStreamParser.EntryReader reader = newCrl.getEntryReader();
+        X509CRLStreamParser.Entry crlEntry;
+        while ((crlEntry = reader.next()) != null) {
+            processedEntries++;
+            if (!lastEntries.contains(crlEntry)) {
+                newEntries++;
+                if (crlEntry.getCertificateIssuer()!=null) {
+                    final String entryIssuerDn = CertTools.stringToBCDNString(crlEntry.getCertificateIssuer().toString());
+                    if (!issuerDn.equals(entryIssuerDn)) {
+                        log.warn("CA's subjectDN does not match CRL entry's issuerDn '"+entryIssuerDn+"' and entry with serialNumber " + crlEntry.getSerialNumber() + " will be ignored.");
+                    }
+                }
+                // Store as much as possible about what we know about the certificate and its status (which is limited) in the database
+                batch.add(new RevokedCertInfo(null, crlEntry.getSerialNumber().toByteArray(), crlEntry.getRevocationDate().getTime(), crlEntry.getReasonCode(), 0));
+                if (batch.size() == IMPORT_BATCH_SIZE) {
+                    changedRows += certificateStoreSession.updateLimitedCertificateDataStatuses(getAdmin(), caInfo.getCAId(), issuerDn, batch, caFingerprint);
+                    batch.clear();
+                }
+            }
+            final long now = System.currentTimeMillis();
+            if (now - lastProgressTime >= PROGRESS_LOG_INTERVAL_MS) {
+                lastProgressTime = now;
+                log.info("Processed " + processedEntries + " of " + numberOfEntries + " entries in " + (isDeltaCrl?"delta":"full") + " CRL number "
+                        + downloadedCrlNumber + " issued by '" + issuerDn + "' (" + (processedEntries * 1000L / Math.max(1, now - startTime))
+                        + " entries/s). " + newEntries + " new entries, " + changedRows + " database rows changed.");
+            }
+        }
+        if (!batch.isEmpty()) {
+            changedRows += certificateStoreSession.updateLimitedCertificateDataStatuses(getAdmin(), caInfo.getCAId(), issuerDn, batch, caFingerprint);
+        }
+        log.info("Found " + newEntries + " new entires in " + (isDeltaCrl?"delta":"full")+ " CRL number " + downloadedCrlNumber + " issued by '" + issuerDn
+                + "' compared to previous. " + changedRows + " database rows changed in " + (System.currentTimeMillis() - startTime) + " ms.");
+    }
 }
@@ -14,10 +14,12 @@ package org.ejbca.core.model.services.workers;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.cesecore.authorization.AuthorizationDeniedException;
+import org.ejbca.config.EjbcaConfiguration;
 import org.ejbca.core.ejb.ca.publisher.PublisherQueueSessionLocal;
 import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
 import org.ejbca.core.model.InternalEjbcaResources;
@@ -46,6 +48,9 @@ public class PublishQueueProcessWorker extends EmailSendingWorker {
      */
     private static HashMap<String, Boolean> runmap = new HashMap<String, Boolean>();
 
+    /** The last time the status of the queue of each publisher was logged, by publisher id */
+    private static final ConcurrentHashMap<Integer, Long> lastStatusLogTimes = new ConcurrentHashMap<Integer, Long>();
+
     /**
      * Checks if there are any publishings in the publisher queue that should be
      * published.
@@ -86,6 +91,7 @@ public class PublishQueueProcessWorker extends EmailSendingWorker {
                             throw new ServiceExecutionFailedException(getAdmin() + " does not have access to publishers.", e);
                         }
                         publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(getAdmin(), publisherId, publisher);
+                        logQueueStatus(publisherQueueSession, publisherId);
                     }
                 } else {
                     log.debug("No publisher ids configured for worker.");
@@ -102,6 +108,36 @@ public class PublishQueueProcessWorker extends EmailSendingWorker {
         log.trace("<work");
     }
 
+    /**
+     * Logs the number of entries left in the queue, the drain rate, and how long it is estimated to take to publish the entries at that rate.
+     * Counting the entries takes a query, so this is done at most every publisher.queue.statusloginterval milliseconds for each publisher.
+     */
+    private void logQueueStatus(final PublisherQueueSessionLocal publisherQueueSession, final int publisherId) {
+        final long interval = EjbcaConfiguration.getPublisherQueueStatusLogInterval();
+        if (interval <= 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final Long lastStatusLogTime = lastStatusLogTimes.get(Integer.valueOf(publisherId));
+        if (lastStatusLogTime != null && now - lastStatusLogTime.longValue() < interval) {
+            return;
+        }
+        lastStatusLogTimes.put(Integer.valueOf(publisherId), Long.valueOf(now));
+        final int pending = publisherQueueSession.getPendingEntriesCountForPublisher(publisherId);
+        if (pending == 0) {
+            return;
+        }
+        final long drainTime = publisherQueueSession.getEstimatedDrainTime(publisherId, pending);
+        if (drainTime >= 0) {
+            log.info("Publisher queue of publisher " + publisherId + " has " + pending + " pending entries. Drain rate is "
+                    + String.format("%.1f", publisherQueueSession.getDrainRate(publisherId)) + " entries/s, estimated time to drain the queue is "
+                    + drainTime + " s.");
+        } else {
+            log.info("Publisher queue of publisher " + publisherId + " has " + pending
+                    + " pending entries. No entries have been published from the queue on this node yet.");
+        }
+    }
+
     /**
      * Method that must be implemented by all subclasses to EmailSendingWorker,
      * used to update status of a certificate, user, or similar
@@ -193,8 +193,15 @@ public abstract class StoreServletBase extends HttpServlet {
 		log.info("Reloading certificate and CRL caches due to request from "+req.getRemoteAddr());
 		// Reload CA certificates
 		certificateStoreSession.reloadCaCertificateCache();
+		reloadCaches();
 		return true;
 	}
+	/**
+	 * Called when the reloadcache command has been received. Override to clear caches kept by the servlet.
+	 */
+	protected void reloadCaches() {
+		// no caches in the base class
+	}
 	private boolean checkIfAutorizedIP(HttpServletRequest req, HttpServletResponse resp) throws IOException {
 		final String remote = req.getRemoteAddr();
 		// localhost in either ipv4 and ipv6
@@ -0,0 +1,298 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+
+/**
+ * A pool of connected and bound LDAP connections for one LDAP publisher configuration, with a separate pool for each host of the
+ * configuration, so the publisher can still fail over from one host to the next.
+ *
+ * A connection is checked with {@link ConnectionFactory#isAlive(LDAPConnection)} before it is handed out, and connections that have
+ * been idle for longer than the maximum idle time are closed when a connection to the same host is returned. There are at most maxSize connections to each host at the same time,
+ * and a caller waits at most maxWait milliseconds for a connection to be returned when the pool is exhausted.
+ *
+ * Pools are shared by all publishers with the same configuration key, see {@link #getPool(String, ConnectionFactory, int, long, long)}.
+ *
+ * @version $Id$
+ */
+public class LdapConnectionPool {
+
+    private static final Logger log = Logger.getLogger(LdapConnectionPool.class);
+
+    /** Creates, checks and closes the connections of a pool. */
+    public interface ConnectionFactory {
+        /** @return a new connection to the host that is connected and bound */
+        LDAPConnection createConnection(String host) throws LDAPException;
+
+        /** @return true if a connection from the pool can still be used */
+        boolean isAlive(LDAPConnection lc);
+
+        /** Disconnects a connection that is removed from the pool. Must not throw any exception. */
+        void closeConnection(LDAPConnection lc);
+    }
+
+    private static class IdleConnection {
+        final LDAPConnection lc;
+        final long idleSince;
+
+        IdleConnection(final LDAPConnection lc) {
+            this.lc = lc;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    private static class HostPool {
+        final LinkedBlockingDeque<IdleConnection> idleConnections = new LinkedBlockingDeque<IdleConnection>();
+        final Semaphore permits;
+
+        HostPool(final int maxSize) {
+            permits = new Semaphore(maxSize, true);
+        }
+    }
+
+    private static final ConcurrentHashMap<String, LdapConnectionPool> pools = new ConcurrentHashMap<String, LdapConnectionPool>();
+    /** The last time idle connections were closed in all pools */
+    private static final AtomicLong lastEvictionTime = new AtomicLong(System.currentTimeMillis());
+
+    private final String key;
+    private final ConnectionFactory connectionFactory;
+    private final int maxSize;
+    private final long maxWait;
+    private final long maxIdle;
+    private final ConcurrentHashMap<String, HostPool> hostPools = new ConcurrentHashMap<String, HostPool>();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowWaitTime = new AtomicLong();
+    private final AtomicLong createCount = new AtomicLong();
+    private final AtomicLong activeCount = new AtomicLong();
+
+    /**
+     * @param key identifies the configuration, see {@link #getPool(String, ConnectionFactory, int, long, long)}
+     * @param connectionFactory creates, checks and closes connections
+     * @param maxSize the maximum number of connections to each host
+     * @param maxWait the maximum time in milliseconds to wait for a connection when there are already maxSize connections to the host
+     * @param maxIdle the time in milliseconds after which an unused connection is closed
+     */
+    public LdapConnectionPool(final String key, final ConnectionFactory connectionFactory, final int maxSize, final long maxWait, final long maxIdle) {
+        this.key = key;
+        this.connectionFactory = connectionFactory;
+        this.maxSize = Math.max(1, maxSize);
+        this.maxWait = maxWait;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Returns the pool for a configuration, or creates it if there is no pool for the configuration yet. At most once every maxIdle
+     * milliseconds, idle connections that have timed out are closed in all pools, so connections of configurations that are no longer
+     * used are eventually closed.
+     *
+     * @param key must be different for configurations where connections can not be shared, e.g. security, bind DN and password
+     * @param connectionFactory used if the pool is created
+     */
+    public static LdapConnectionPool getPool(final String key, final ConnectionFactory connectionFactory, final int maxSize, final long maxWait, final long maxIdle) {
+        LdapConnectionPool pool = pools.get(key);
+        if (pool == null) {
+            final LdapConnectionPool newPool = new LdapConnectionPool(key, connectionFactory, maxSize, maxWait, maxIdle);
+            pool = pools.putIfAbsent(key, newPool);
+            if (pool == null) {
+                pool = newPool;
+                if (log.isDebugEnabled()) {
+                    log.debug("Created LDAP connection pool with max size " + maxSize + ", max wait " + maxWait + " ms and max idle " + maxIdle + " ms.");
+                }
+            }
+        }
+        final long now = System.currentTimeMillis();
+        final long lastEviction = lastEvictionTime.get();
+        if (now - lastEviction >= maxIdle && lastEvictionTime.compareAndSet(lastEviction, now)) {
+            for (final LdapConnectionPool existingPool : pools.values()) {
+                existingPool.evictIdleConnections();
+            }
+        }
+        return pool;
+    }
+
+    /** Closes all idle connections of all pools and removes the pools. Connections in use are closed when they are returned. */
+    public static void closeAll() {
+        final Iterator<LdapConnectionPool> iterator = pools.values().iterator();
+        while (iterator.hasNext()) {
+            final LdapConnectionPool pool = iterator.next();
+            iterator.remove();
+            pool.close();
+        }
+    }
+
+    /**
+     * Returns a connection to the host, that must be returned with {@link #returnConnection(String, LDAPConnection, boolean)}.
+     * @return a connected and bound connection
+     * @throws LDAPException if no connection could be created, or no connection was available within the maximum wait time
+     */
+    public LDAPConnection borrowConnection(final String host) throws LDAPException {
+        final HostPool hostPool = getHostPool(host);
+        final long startTime = System.currentTimeMillis();
+        try {
+            if (!hostPool.permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                final String msg = "No LDAP connection to " + host + " available within " + maxWait + " ms. All " + maxSize + " connections are in use.";
+                throw new LDAPException(msg, LDAPException.CONNECT_ERROR, msg);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final String msg = "Interrupted while waiting for an LDAP connection to " + host + ".";
+            throw new LDAPException(msg, LDAPException.CONNECT_ERROR, msg);
+        }
+        borrowWaitTime.addAndGet(System.currentTimeMillis() - startTime);
+        borrowCount.incrementAndGet();
+        try {
+            IdleConnection idleConnection;
+            // Use the most recently returned connection first, so unneeded connections become idle and are closed
+            while ((idleConnection = hostPool.idleConnections.pollFirst()) != null) {
+                if (System.currentTimeMillis() - idleConnection.idleSince > maxIdle || !connectionFactory.isAlive(idleConnection.lc)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Closing idle or broken LDAP connection to " + host + ".");
+                    }
+                    connectionFactory.closeConnection(idleConnection.lc);
+                } else {
+                    activeCount.incrementAndGet();
+                    return idleConnection.lc;
+                }
+            }
+            final LDAPConnection lc = connectionFactory.createConnection(host);
+            createCount.incrementAndGet();
+            activeCount.incrementAndGet();
+            return lc;
+        } catch (LDAPException e) {
+            hostPool.permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            hostPool.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a connection borrowed with {@link #borrowConnection(String)} to the pool.
+     * @param reusable false if the connection should be closed, for example since an operation on it failed
+     */
+    public void returnConnection(final String host, final LDAPConnection lc, final boolean reusable) {
+        final HostPool hostPool = getHostPool(host);
+        activeCount.decrementAndGet();
+        if (reusable && pools.get(key) == this) {
+            hostPool.idleConnections.offerFirst(new IdleConnection(lc));
+        } else {
+            connectionFactory.closeConnection(lc);
+        }
+        hostPool.permits.release();
+        evictIdleConnections(hostPool, System.currentTimeMillis());
+        if (log.isDebugEnabled()) {
+            log.debug(toString());
+        }
+    }
+
+    /** Closes connections that have been idle for longer than the maximum idle time. */
+    public void evictIdleConnections() {
+        final long now = System.currentTimeMillis();
+        for (final HostPool hostPool : hostPools.values()) {
+            evictIdleConnections(hostPool, now);
+        }
+    }
+
+    private void evictIdleConnections(final HostPool hostPool, final long now) {
+        // The oldest idle connections are last
+        IdleConnection idleConnection;
+        while ((idleConnection = hostPool.idleConnections.peekLast()) != null && now - idleConnection.idleSince > maxIdle) {
+            if (hostPool.idleConnections.removeLastOccurrence(idleConnection)) {
+                connectionFactory.closeConnection(idleConnection.lc);
+            }
+        }
+    }
+
+    /** Closes all idle connections. */
+    public void close() {
+        for (final HostPool hostPool : hostPools.values()) {
+            IdleConnection idleConnection;
+            while ((idleConnection = hostPool.idleConnections.pollLast()) != null) {
+                connectionFactory.closeConnection(idleConnection.lc);
+            }
+        }
+    }
+
+    private HostPool getHostPool(final String host) {
+        HostPool hostPool = hostPools.get(host);
+        if (hostPool == null) {
+            final HostPool newHostPool = new HostPool(maxSize);
+            hostPool = hostPools.putIfAbsent(host, newHostPool);
+            if (hostPool == null) {
+                hostPool = newHostPool;
+            }
+        }
+        return hostPool;
+    }
+
+    /** @return the number of connections that have been handed out */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /** @return the total time in milliseconds that callers have waited for a connection because all connections were in use */
+    public long getBorrowWaitTime() {
+        return borrowWaitTime.get();
+    }
+
+    /** @return the number of connections that have been created */
+    public long getCreateCount() {
+        return createCount.get();
+    }
+
+    /** @return the number of connections that are currently in use */
+    public long getActiveCount() {
+        return activeCount.get();
+    }
+
+    /** @return the number of connections that are currently waiting in the pool to be used */
+    public int getIdleCount() {
+        int idleCount = 0;
+        for (final HostPool hostPool : hostPools.values()) {
+            idleCount += hostPool.idleConnections.size();
+        }
+        return idleCount;
+    }
+
+    @Override
+    public String toString() {
+        final long borrowed = borrowCount.get();
+        return "LDAP connection pool: " + getActiveCount() + " active, " + getIdleCount() + " idle, " + borrowed + " borrowed, " + getCreateCount()
+                + " created, " + (borrowed == 0 ? 0 : getBorrowWaitTime() / borrowed) + " ms average wait.";
+    }
+
+    /** @return the statistics of all pools, for the pools that are currently in use */
+    public static Map<String, String> getStatistics() {
+        final Map<String, String> statistics = new LinkedHashMap<String, String>();
+        int i = 0;
+        for (final LdapConnectionPool pool : pools.values()) {
+            // The keys contain bind information, so they are not exposed
+            statistics.put("pool" + (i++), pool.toString());
+        }
+        return statistics;
+    }
+}